@@ -0,0 +1,177 @@
+package com.devinkin.jpa;
+
+import org.HdrHistogram.Histogram;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+/**
+ * 限制长时间运行的工作单元中持久化上下文(一级缓存)的大小。
+ * flush时Hibernate要对上下文中每个实体和它的快照做脏检查，上下文越大，每次flush越慢。
+ * 1. 安全点: 被管理的实体数达到 maxManagedEntities 时 flush 并 clear，调用者之前拿到的实体都变成游离状态
+ *    persist、remove 之后自动检查(被保存/删除的对象之后一般不再使用)，
+ *    读取并修改实体的循环在每次迭代结束时调用 safePoint()
+ * 2. 只读加载: findReadOnly、createReadOnlyQuery 加载的实体不保存快照，flush时也不做脏检查
+ * 3. 统计上下文的大小、clear次数和通过这个对象执行的flush(包括commit)的耗时
+ * <pre>
+ * BoundedPersistenceContext context = new BoundedPersistenceContext(entityManager, 1000);
+ * for (Integer id : ids) {
+ *     context.find(Customer.class, id).setAge(18);
+ *     context.safePoint();
+ * }
+ * context.commit();
+ * </pre>
+ */
+public class BoundedPersistenceContext {
+    private final EntityManager entityManager;
+    private final Session session;
+    private final int maxManagedEntities;
+
+    // flush的耗时，单位纳秒
+    private final Histogram flushNanos = new Histogram(3);
+    private long totalFlushNanos;
+    private int maxEntityCount;
+    private long clearCount;
+
+    public BoundedPersistenceContext(EntityManager entityManager, int maxManagedEntities) {
+        if (maxManagedEntities <= 0) {
+            throw new IllegalArgumentException("maxManagedEntities must be positive: " + maxManagedEntities);
+        }
+        this.entityManager = entityManager;
+        this.session = HibernateUtils.session(entityManager);
+        this.maxManagedEntities = maxManagedEntities;
+    }
+
+    public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    public <T> T find(Class<T> entityClass, Object id) {
+        return entityManager.find(entityClass, id);
+    }
+
+    // 只用于读取的实体，修改不会被保存
+    public <T> T findReadOnly(Class<T> entityClass, Object id) {
+        boolean readOnly = session.isDefaultReadOnly();
+        session.setDefaultReadOnly(true);
+        try {
+            return entityManager.find(entityClass, id);
+        } finally {
+            session.setDefaultReadOnly(readOnly);
+        }
+    }
+
+    public Query createQuery(String jpql) {
+        return entityManager.createQuery(jpql);
+    }
+
+    public <T> TypedQuery<T> createQuery(String jpql, Class<T> resultClass) {
+        return entityManager.createQuery(jpql, resultClass);
+    }
+
+    // 查询结果中的实体都是只读的
+    public <T> TypedQuery<T> createReadOnlyQuery(String jpql, Class<T> resultClass) {
+        return entityManager.createQuery(jpql, resultClass).setHint("org.hibernate.readOnly", true);
+    }
+
+    public void persist(Object entity) {
+        entityManager.persist(entity);
+        safePoint();
+    }
+
+    // 返回的实体是被管理的，调用者还要使用，所以不是安全点
+    public <T> T merge(T entity) {
+        return entityManager.merge(entity);
+    }
+
+    public void remove(Object entity) {
+        entityManager.remove(entity);
+        safePoint();
+    }
+
+    /**
+     * 调用者不再使用之前拿到的被管理的实体时调用。
+     * 被管理的实体数达到上限时 flush 并 clear，返回是否清空了上下文。
+     */
+    public boolean safePoint() {
+        int entityCount = getManagedEntityCount();
+        if (entityCount > maxEntityCount) {
+            maxEntityCount = entityCount;
+        }
+        if (entityCount < maxManagedEntities) {
+            return false;
+        }
+        flush();
+        entityManager.clear();
+        clearCount++;
+        return true;
+    }
+
+    public void flush() {
+        long begin = System.nanoTime();
+        entityManager.flush();
+        recordFlush(System.nanoTime() - begin);
+    }
+
+    // 提交时的flush也计入flush耗时
+    public void commit() {
+        long begin = System.nanoTime();
+        entityManager.getTransaction().commit();
+        recordFlush(System.nanoTime() - begin);
+    }
+
+    private void recordFlush(long nanos) {
+        flushNanos.recordValue(nanos);
+        totalFlushNanos += nanos;
+    }
+
+    // 当前被管理的实体数
+    public int getManagedEntityCount() {
+        return session.getStatistics().getEntityCount();
+    }
+
+    public int getManagedCollectionCount() {
+        return session.getStatistics().getCollectionCount();
+    }
+
+    // 安全点上观察到的最大实体数
+    public int getMaxManagedEntityCount() {
+        return maxEntityCount;
+    }
+
+    // 因为达到上限而清空上下文的次数
+    public long getClearCount() {
+        return clearCount;
+    }
+
+    public long getFlushCount() {
+        return flushNanos.getTotalCount();
+    }
+
+    public double getTotalFlushMillis() {
+        return totalFlushNanos / 1e6;
+    }
+
+    public double getP99FlushMillis() {
+        return flushNanos.getValueAtPercentile(99) / 1e6;
+    }
+
+    public double getMaxFlushMillis() {
+        return flushNanos.getMaxValue() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedPersistenceContext{" +
+                "maxManagedEntities=" + maxManagedEntities +
+                ", managedEntityCount=" + getManagedEntityCount() +
+                ", maxEntityCount=" + maxEntityCount +
+                ", clearCount=" + clearCount +
+                ", flushCount=" + getFlushCount() +
+                ", totalFlushMillis=" + getTotalFlushMillis() +
+                ", p99FlushMillis=" + getP99FlushMillis() +
+                '}';
+    }
+}
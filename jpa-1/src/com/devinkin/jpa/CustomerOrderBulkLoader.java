@@ -0,0 +1,89 @@
+package com.devinkin.jpa;
+
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 批量导入Customer及其Order。
+ * 1. 主键使用表生成器(一次分配一段id)，插入语句可以被JDBC批量发送
+ * 2. 每处理chunkSize个Customer就flush、clear并提交一次，EntityManager缓存中的对象数量保持在一个很小的范围
+ * 3. JDBC批量大小在创建EntityManagerFactory时通过 properties(batchSize) 指定
+ */
+public class CustomerOrderBulkLoader {
+    private final EntityManagerFactory entityManagerFactory;
+    private int chunkSize = 500;
+
+    public CustomerOrderBulkLoader(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    // 创建EntityManagerFactory时使用的批量插入配置
+    public static Map<String, String> properties(int batchSize) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        return properties;
+    }
+
+    public CustomerOrderBulkLoader chunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * 保存所有的Customer以及 getOrders() 中的Order，返回插入的行数。
+     * customers 可以是惰性生成的迭代器，不需要一次性放入内存。
+     */
+    public long load(Iterator<Customer> customers) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        // 导入的数据不放入二级缓存
+        entityManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+        long rows = 0;
+        int pending = 0;
+        try {
+            entityManager.getTransaction().begin();
+            while (customers.hasNext()) {
+                Customer customer = customers.next();
+                // 先保存1的一端，再保存n的一端，避免多出UPDATE语句
+                entityManager.persist(customer);
+                rows++;
+                for (Order order : customer.getOrders()) {
+                    order.setCustomer(customer);
+                    entityManager.persist(order);
+                    rows++;
+                }
+
+                if (++pending == chunkSize) {
+                    flushChunk(entityManager);
+                    pending = 0;
+                }
+            }
+            entityManager.getTransaction().commit();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+        return rows;
+    }
+
+    private void flushChunk(EntityManager entityManager) {
+        entityManager.flush();
+        entityManager.clear();
+        entityManager.getTransaction().commit();
+        entityManager.getTransaction().begin();
+    }
+}
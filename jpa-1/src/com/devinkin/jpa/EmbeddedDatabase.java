@@ -0,0 +1,66 @@
+package com.devinkin.jpa;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 内嵌的H2数据库，用于基准测试和离线测试。
+ * 通过 Persistence.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties(...))
+ * 覆盖 persistence.xml 中写死的 MySQL 连接信息。
+ */
+public class EmbeddedDatabase {
+
+    public static String url(String name) {
+        // DB_CLOSE_DELAY=-1: 最后一个连接关闭后数据库不会被销毁
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    }
+
+    // 数据保存在临时目录下的文件中，不占用堆内存，用于数据量很大的测试
+    public static String fileUrl(String name) {
+        return "jdbc:h2:file:" + System.getProperty("java.io.tmpdir") + "/jpa-1-h2/" + name;
+    }
+
+    public static Map<String, String> properties(String name) {
+        return connectionProperties(url(name));
+    }
+
+    public static Map<String, String> fileProperties(String name) {
+        return connectionProperties(fileUrl(name));
+    }
+
+    // 关闭二级缓存和查询缓存。
+    // 实体上有 @org.hibernate.annotations.Cache 时，传入 javax.persistence.sharedCache.mode=NONE 不能关闭缓存
+    public static Map<String, String> disableSecondLevelCache(Map<String, String> properties) {
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "false");
+        return properties;
+    }
+
+    // 所有实体都和快照比较，不使用实体记录的修改，用于对比 DirtyTrackingStrategy 的效果
+    public static Map<String, String> disableDirtyTracking(Map<String, String> properties) {
+        properties.put("hibernate.entity_dirtiness_strategy", "com.devinkin.jpa.dirty.SnapshotDirtinessStrategy");
+        return properties;
+    }
+
+    // 统计每个事务执行的语句数量(StatementCountingInterceptor)，它会占用EntityManagerFactory唯一的拦截器
+    public static Map<String, String> countStatements(Map<String, String> properties) {
+        properties.put("hibernate.ejb.interceptor", "com.devinkin.jpa.stat.StatementCountingInterceptor");
+        return properties;
+    }
+
+    private static Map<String, String> connectionProperties(String url) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("javax.persistence.jdbc.driver", "org.h2.Driver");
+        properties.put("javax.persistence.jdbc.url", url);
+        properties.put("javax.persistence.jdbc.user", "sa");
+        properties.put("javax.persistence.jdbc.password", "");
+        properties.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("hibernate.hbm2ddl.auto", "create-drop");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.format_sql", "false");
+        // 关闭 persistence.xml 中的SQL日志，连接不被包装
+        properties.put("hibernate.sql_log.sample_rate", "0");
+        properties.put("hibernate.sql_log.slow_threshold_ms", "-1");
+        return properties;
+    }
+}
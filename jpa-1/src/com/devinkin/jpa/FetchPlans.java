@@ -0,0 +1,75 @@
+package com.devinkin.jpa;
+
+import org.hibernate.engine.profile.Fetch;
+import org.hibernate.engine.profile.FetchProfile;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.List;
+
+/**
+ * 按抓取计划加载实体。映射中的关联关系都是延迟加载的，列表页面直接查询，不做连接；
+ * 详情页面传入抓取计划的名称，用一条左外连接查询同时加载需要的关联对象。
+ * 抓取计划就是实体类上用 @FetchProfile 声明的抓取配置，例如 Customer.WITH_ORDERS。
+ * 只支持根实体自身的关联关系，不支持多级的关联。
+ */
+public class FetchPlans {
+
+    /**
+     * 按抓取计划查找实体，plan为null时和 EntityManager.find 一样。
+     * 没有用 Session.enableFetchProfile 加载: 启用抓取配置后Hibernate每次find都要重新生成加载实体的SQL，
+     * 比延迟加载再初始化还慢，这里改为执行按主键查询的连接查询，查询的翻译结果会被缓存。
+     */
+    public static <T> T find(EntityManager entityManager, Class<T> type, Object id, String plan) {
+        if (plan == null) {
+            return entityManager.find(type, id);
+        }
+        String idProperty = HibernateUtils.sessionFactory(entityManager.getEntityManagerFactory())
+                .getClassMetadata(type).getIdentifierPropertyName();
+        List<T> result = createQuery(entityManager, type, "x", "x." + idProperty + " = ?", plan)
+                .setParameter(1, id)
+                .getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * 创建按抓取计划连接查询的JPQL: SELECT alias FROM 实体 alias LEFT JOIN FETCH alias.关联 ... WHERE where。
+     * 计划中有集合时会加上DISTINCT，避免一个实体因为集合中有多个元素而重复出现。
+     * 连接查询集合时Hibernate只能在内存中分页，不要和 setFirstResult/setMaxResults 一起使用。
+     */
+    public static <T> TypedQuery<T> createQuery(EntityManager entityManager, Class<T> type, String alias,
+                                                String where, String plan) {
+        StringBuilder jpql = new StringBuilder("SELECT ");
+        FetchProfile profile = plan == null ? null : profile(entityManager, type, plan);
+        if (profile != null && profile.isContainsJoinFetchedCollection()) {
+            jpql.append("DISTINCT ");
+        }
+        jpql.append(alias).append(" FROM ").append(type.getName()).append(' ').append(alias);
+        if (profile != null) {
+            for (Fetch fetch : profile.getFetches().values()) {
+                jpql.append(" LEFT JOIN FETCH ").append(alias).append('.')
+                        .append(fetch.getAssociation().getAssociationPath());
+            }
+        }
+        if (where != null) {
+            jpql.append(" WHERE ").append(where);
+        }
+        return entityManager.createQuery(jpql.toString(), type);
+    }
+
+    private static FetchProfile profile(EntityManager entityManager, Class<?> type, String plan) {
+        SessionFactoryImplementor sessionFactory = HibernateUtils.sessionFactory(entityManager.getEntityManagerFactory());
+        FetchProfile profile = sessionFactory.getFetchProfile(plan);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown fetch plan: " + plan);
+        }
+        for (Fetch fetch : profile.getFetches().values()) {
+            if (!fetch.getAssociation().getOwner().getEntityName().equals(type.getName())) {
+                throw new IllegalArgumentException("Fetch plan " + plan + " fetches " + fetch.getAssociation().getRole()
+                        + ", only associations of " + type.getName() + " are supported");
+            }
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,22 @@
+package com.devinkin.jpa;
+
+import org.hibernate.Session;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * 从JPA的对象中取出底层的Hibernate对象。
+ */
+public class HibernateUtils {
+
+    public static SessionFactoryImplementor sessionFactory(EntityManagerFactory entityManagerFactory) {
+        return (SessionFactoryImplementor) ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+    }
+
+    public static Session session(EntityManager entityManager) {
+        return entityManager.unwrap(Session.class);
+    }
+}
@@ -0,0 +1,142 @@
+package com.devinkin.jpa;
+
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 以流的方式读取JPQL查询的结果，代替一次性加载全部结果的 getResultList()。
+ * 1. 底层是只能向前的JDBC游标(ScrollMode.FORWARD_ONLY)，每次从数据库取 fetchSize 行
+ * 2. 读取下一行时把上一行中由这次遍历加载的实体从EntityManager中清除，EntityManager中最多只有一行的实体。
+ *    开始遍历前已经在EntityManager中的实体不会被清除，它们未提交的修改仍然会被flush
+ * 3. 实体以只读方式加载，不保存快照，也不放入二级缓存(遍历期间EntityManager不读写二级缓存)
+ * 使用MySQL时JDBC URL中需要加上 useCursorFetch=true，否则驱动会忽略fetchSize把结果全部读到内存中。
+ * 查询中不能使用 JOIN FETCH 集合，每一行必须对应一个完整的结果。
+ */
+public class QueryStreams {
+
+    /**
+     * 返回的Stream必须关闭(try-with-resources)，否则游标和连接上的结果集不会释放。
+     * 每个元素只在处理它的时候是托管状态，之后变为游离状态，不能再加载其延迟加载的属性。
+     */
+    public static <T> Stream<T> stream(EntityManager entityManager, Query query, int fetchSize) {
+        final ResultIterator<T> iterator = iterate(entityManager, query, fetchSize);
+        // 不能使用lambda: Hibernate用javassist 3.15扫描类文件，无法解析invokedynamic
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        iterator.close();
+                    }
+                });
+    }
+
+    public static <T> ResultIterator<T> iterate(EntityManager entityManager, Query query, int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+        }
+        ScrollableResults results = query.unwrap(org.hibernate.Query.class)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .setCacheable(false)
+                .scroll(ScrollMode.FORWARD_ONLY);
+        return new ResultIterator<>((SessionImplementor) HibernateUtils.session(entityManager), results);
+    }
+
+    /**
+     * 查询结果的迭代器，读取完最后一行时自动关闭。
+     * 每行只有一列时返回该列的值，否则返回 Object[]。
+     * 实体在遍历时才被加载，Query.setCacheMode 只在 scroll() 执行期间有效，
+     * 所以在关闭前把整个Session的CacheMode设置为IGNORE，关闭时再恢复。
+     */
+    public static class ResultIterator<T> implements Iterator<T>, Closeable {
+        private final SessionImplementor session;
+        private final ScrollableResults results;
+        private final CacheMode cacheMode;
+        // 开始遍历前已经在EntityManager中的实体，可能有未flush的修改
+        private final Set<Object> managed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        private Object[] current;
+        private Boolean hasNext;
+        private boolean closed;
+
+        private ResultIterator(SessionImplementor session, ScrollableResults results) {
+            this.session = session;
+            this.results = results;
+            this.cacheMode = session.getCacheMode();
+            for (Object entity : session.getPersistenceContext().getEntitiesByKey().values()) {
+                managed.add(entity);
+            }
+            session.setCacheMode(CacheMode.IGNORE);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                evictCurrent();
+                hasNext = !closed && results.next();
+                if (!hasNext) {
+                    close();
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            current = results.get();
+            return (T) (current.length == 1 ? current[0] : current);
+        }
+
+        // 标量值、游离对象等不在EntityManager中，不需要清除。
+        // 这次遍历加载的实体都是只读的；遍历过程中调用者加载或改为可修改的实体也不清除
+        private void evictCurrent() {
+            if (current == null) {
+                return;
+            }
+            PersistenceContext persistenceContext = session.getPersistenceContext();
+            for (Object value : current) {
+                if (value == null || managed.contains(value)) {
+                    continue;
+                }
+                EntityEntry entry = persistenceContext.getEntry(value);
+                if (entry != null && entry.isReadOnly()) {
+                    ((org.hibernate.Session) session).evict(value);
+                }
+            }
+            current = null;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            evictCurrent();
+            results.close();
+            session.setCacheMode(cacheMode);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.devinkin.jpa;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 通过反射创建虚拟线程(JDK 21)，项目仍然按Java 8编译，在旧版本的JDK上 isSupported() 返回false。
+ */
+public class VirtualThreads {
+
+    public static boolean isSupported() {
+        return factory("probe-") != null;
+    }
+
+    // 创建名称为 prefix + 序号 的虚拟线程，不支持时返回null
+    public static ThreadFactory factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            // 没有Thread.ofVirtual，或者JDK 19/20没有开启 --enable-preview
+            return null;
+        }
+    }
+
+    // 每个任务一个虚拟线程的 ExecutorService，不支持时返回null
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.devinkin.jpa.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 运行基准测试: 第一轮输出 ops/sec，第二轮输出延迟分布(p99)，两轮都带GC分配率。
+ * 参数为要运行的基准类的正则，默认运行 JPALifecycleBenchmark。
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : JPALifecycleBenchmark.class.getSimpleName();
+
+        Options throughput = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(throughput).run();
+
+        Options latency = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.SampleTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(latency).run();
+    }
+}
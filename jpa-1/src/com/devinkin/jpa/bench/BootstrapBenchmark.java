@@ -0,0 +1,64 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.bootstrap.MappingSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 创建并关闭一次 EntityManagerFactory 的时间，数据库的结构已经存在，hbm2ddl.auto=update:
+ * persistence: Persistence.createEntityManagerFactory，每次扫描注解并通过JDBC元数据比较整个数据库
+ * snapshot: MappingSnapshot，快照和数据库中的结构摘要在 @Setup 中生成
+ * 默认参数测量的是JVM预热之后(warm)的时间，
+ * 冷启动用 -wi 0 -i 1 -f 10 运行，每个fork只测量第一次调用。
+ * @Setup 中已经创建过一次(生成快照)，所以冷启动的时间不包括第一次加载Hibernate类的时间。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BootstrapBenchmark {
+
+    @Param({"persistence", "snapshot"})
+    private String mode;
+
+    private Map<String, String> properties;
+    private Path directory;
+    private MappingSnapshot snapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        properties = EmbeddedDatabase.properties("bootstrap");
+        properties.put("hibernate.hbm2ddl.auto", "update");
+        directory = Files.createTempDirectory("jpa-bootstrap");
+        snapshot = new MappingSnapshot(directory.resolve("jpa-1.snapshot"));
+        // 生成快照，创建表结构并记录摘要
+        snapshot.createEntityManagerFactory("jpa-1", properties).close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println(snapshot);
+        Files.deleteIfExists(snapshot.getFile());
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public boolean bootstrap() {
+        EntityManagerFactory entityManagerFactory = "snapshot".equals(mode)
+                ? snapshot.createEntityManagerFactory("jpa-1", properties)
+                : Persistence.createEntityManagerFactory("jpa-1", properties);
+        boolean open = entityManagerFactory.isOpen();
+        entityManagerFactory.close();
+        return open;
+    }
+}
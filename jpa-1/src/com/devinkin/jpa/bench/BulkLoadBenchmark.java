@@ -0,0 +1,99 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.CustomerOrderBulkLoader;
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较批量导入和 testManyToOnePersist 那样逐条保存(每个Customer一个事务)的插入速度。
+ * 每次调用插入 CUSTOMERS 个Customer和 CUSTOMERS * ORDERS 个Order，结果单位为 行/秒。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkLoadBenchmark {
+    private static final int CUSTOMERS = 1000;
+    private static final int ORDERS = 3;
+    private static final int ROWS = CUSTOMERS * (1 + ORDERS);
+
+    @Param("50")
+    private int batchSize;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.properties("bulkload");
+        properties.putAll(CustomerOrderBulkLoader.properties(batchSize));
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long oneAtATime() {
+        Iterator<Customer> customers = customers(CUSTOMERS);
+        long rows = 0;
+        while (customers.hasNext()) {
+            Customer customer = customers.next();
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            entityManager.persist(customer);
+            for (Order order : customer.getOrders()) {
+                entityManager.persist(order);
+            }
+            entityManager.getTransaction().commit();
+            entityManager.close();
+            rows += 1 + customer.getOrders().size();
+        }
+        return rows;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long bulkLoader() {
+        return new CustomerOrderBulkLoader(entityManagerFactory)
+                .chunkSize(batchSize * 10)
+                .load(customers(CUSTOMERS));
+    }
+
+    // 惰性生成测试数据
+    private static Iterator<Customer> customers(final int count) {
+        return new Iterator<Customer>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Customer next() {
+                Customer customer = JPALifecycleBenchmark.newCustomer("bulk" + next++);
+                for (int i = 0; i < ORDERS; i++) {
+                    Order order = new Order();
+                    order.setOrderName("bulk-" + next + "-" + i);
+                    order.setCustomer(customer);
+                    customer.getOrders().add(order);
+                }
+                return customer;
+            }
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.bulk.BulkMutation;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.helloworld.Customer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 修改 rows 个Customer的age:
+ * perRow: 和 JPATest.testExecuteUpdate 一样，每个id执行一条JPQL UPDATE，在一个事务中
+ * chunked: BulkMutation 按 chunkSize 分块，parallelism 个分块同时执行
+ * 每次调用结束时打印 BulkProgress(包括每秒修改的行数)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BulkMutationBenchmark {
+
+    @Param({"20000"})
+    private int rows;
+
+    @Param({"500"})
+    private int chunkSize;
+
+    @Param({"1", "4"})
+    private int parallelism;
+
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor executor;
+    private List<Integer> ids;
+    private int age;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("bulkmutation"));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, rows)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        executor = PersistenceExecutor.platformThreads(entityManagerFactory, parallelism);
+        ids = new ArrayList<>(rows);
+        for (int id = 1; id <= rows; id++) {
+            ids.add(id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public int perRow() {
+        age++;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        int updated = 0;
+        for (Integer id : ids) {
+            updated += entityManager.createQuery("UPDATE Customer c SET c.age = :age WHERE c.id = :id")
+                    .setParameter("age", age)
+                    .setParameter("id", id)
+                    .executeUpdate();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return updated;
+    }
+
+    @Benchmark
+    public long chunked() {
+        age++;
+        long updated = new BulkMutation<>(executor, Customer.class)
+                .chunkSize(chunkSize)
+                .parallelism(parallelism)
+                .update(ids, Collections.<String, Object>singletonMap("age", age))
+                .getAffectedRows();
+        return updated;
+    }
+}
@@ -0,0 +1,92 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.repository.CoalescingLoader;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 16个线程按id查找Customer，id集中在1000个热点上，关闭二级缓存。
+ * mode=find: 每次查找使用新的EntityManager执行 find
+ * mode=loader: CoalescingLoader 合并排队期间的查找，mode=loader-1ms: 再收集1ms内的查找
+ * 结束时打印每次查找执行的SQL语句数和批次大小的分布。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class CoalescingLoaderBenchmark {
+    private static final int HOT_IDS = 1000;
+
+    @Param({"find", "loader", "loader-1ms"})
+    private String mode;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Statistics statistics;
+    private PersistenceExecutor executor;
+    private CoalescingLoader<Customer, Integer> loader;
+    private Integer[] customerIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("loader")));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        customerIds = new Integer[10000];
+        for (int i = 0; i < customerIds.length; i++) {
+            Customer customer = JPALifecycleBenchmark.newCustomer("C" + i);
+            entityManager.persist(customer);
+            customerIds[i] = customer.getId();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        executor = PersistenceExecutor.platformThreads(entityManagerFactory, 8);
+        long windowMicros = "loader-1ms".equals(mode) ? 1000 : 0;
+        loader = new CoalescingLoader<>(executor, Customer.class, windowMicros, CoalescingLoader.MAX_IN_LIST,
+                0, TimeUnit.MICROSECONDS);
+        statistics.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long lookups = "find".equals(mode) ? statistics.getEntityLoadCount() : loader.getRequestCount();
+        System.out.println();
+        System.out.println("mode=" + mode + ", statements per lookup: "
+                + (double) statistics.getPrepareStatementCount() / lookups);
+        if (!"find".equals(mode)) {
+            System.out.println(loader);
+        }
+        executor.close();
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public Customer lookup() {
+        Integer id = customerIds[ThreadLocalRandom.current().nextInt(HOT_IDS)];
+        if ("find".equals(mode)) {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                return entityManager.find(Customer.class, id);
+            } finally {
+                entityManager.close();
+            }
+        }
+        return loader.get(id);
+    }
+}
@@ -0,0 +1,177 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Category;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Item;
+import com.devinkin.jpa.helloworld.Order;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 反复遍历已经访问过的Customer的orders集合，每次调用遍历1000次。
+ * traverseCategoryItems 遍历Category的items集合(多对多的反向一端)，每10次遍历修改一次Item的categories，
+ * 修改后只有新旧两个Category的items缓存失效(CollectionCacheInvalidator)。
+ * collectionCache=false 时每次遍历前清除对应的集合缓存区域(实体仍然被缓存)，
+ * 对应没有集合缓存时的情况。结束时打印每1000次遍历访问数据库的次数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectionCacheBenchmark {
+    private static final int TRAVERSALS = 1000;
+    private static final String ORDERS_ROLE = Customer.class.getName() + ".orders";
+    private static final String ITEMS_ROLE = Category.class.getName() + ".items";
+    private static final int UPDATE_INTERVAL = 10;
+
+    @Param({"true", "false"})
+    private boolean collectionCache;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Statistics statistics;
+    private Integer[] customerIds;
+    private Integer[] categoryIds;
+    private Integer[] itemIds;
+    private long invocations;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("collectioncache"));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        customerIds = new Integer[100];
+        for (int i = 0; i < customerIds.length; i++) {
+            Customer customer = JPALifecycleBenchmark.newCustomer("C" + i);
+            entityManager.persist(customer);
+            for (int j = 0; j < 5; j++) {
+                Order order = new Order();
+                order.setOrderName("O-" + i + "-" + j);
+                order.setCustomer(customer);
+                entityManager.persist(order);
+            }
+            customerIds[i] = customer.getId();
+        }
+        // 每个Item属于两个相邻的Category
+        Category[] categories = new Category[100];
+        categoryIds = new Integer[categories.length];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = new Category();
+            categories[i].setCategoryName("K" + i);
+            entityManager.persist(categories[i]);
+            categoryIds[i] = categories[i].getId();
+        }
+        itemIds = new Integer[500];
+        for (int i = 0; i < itemIds.length; i++) {
+            Item item = new Item();
+            item.setItemName("I" + i);
+            item.getCategories().add(categories[i % categories.length]);
+            item.getCategories().add(categories[(i + 1) % categories.length]);
+            entityManager.persist(item);
+            itemIds[i] = item.getId();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        // 预热缓存: 每个customer和category都被访问过一次
+        for (Integer id : customerIds) {
+            traverse(id);
+        }
+        for (Integer id : categoryIds) {
+            traverseItems(id);
+        }
+        statistics.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("collectionCache=" + collectionCache + ", DB round trips per "
+                + TRAVERSALS + " traversals: " + (double) statistics.getPrepareStatementCount() / invocations);
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRAVERSALS)
+    public int traverseOrders() {
+        int orders = 0;
+        for (int i = 0; i < TRAVERSALS; i++) {
+            if (!collectionCache) {
+                HibernateUtils.sessionFactory(entityManagerFactory).getCache().evictCollectionRegion(ORDERS_ROLE);
+            }
+            orders += traverse(customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)]);
+        }
+        invocations++;
+        return orders;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRAVERSALS)
+    public int traverseCategoryItems() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int items = 0;
+        for (int i = 0; i < TRAVERSALS; i++) {
+            if (i % UPDATE_INTERVAL == 0) {
+                moveItem(itemIds[random.nextInt(itemIds.length)], categoryIds[random.nextInt(categoryIds.length)]);
+            }
+            if (!collectionCache) {
+                HibernateUtils.sessionFactory(entityManagerFactory).getCache().evictCollectionRegion(ITEMS_ROLE);
+            }
+            items += traverseItems(categoryIds[random.nextInt(categoryIds.length)]);
+        }
+        invocations++;
+        return items;
+    }
+
+    // 把Item的一个Category换成另一个，修改JPA_ITEM_CATEGORY中的一行
+    private void moveItem(Integer itemId, Integer categoryId) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Item item = entityManager.find(Item.class, itemId);
+        Category category = entityManager.find(Category.class, categoryId);
+        if (!item.getCategories().contains(category)) {
+            item.getCategories().remove(item.getCategories().iterator().next());
+            item.getCategories().add(category);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private int traverseItems(Integer categoryId) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Category category = entityManager.find(Category.class, categoryId);
+        int length = 0;
+        for (Item item : category.getItems()) {
+            length += item.getItemName().length();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return length;
+    }
+
+    private int traverse(Integer customerId) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = entityManager.find(Customer.class, customerId);
+        int length = 0;
+        for (Order order : customer.getOrders()) {
+            length += order.getOrderName().length();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return length;
+    }
+}
@@ -0,0 +1,89 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上下文中有 entities 个被管理的Customer，每次修改其中 modifiedPercent% 的age后flush。
+ * tracking=true 使用 DirtyTrackingStrategy，false 时所有实体都和快照比较。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DirtyCheckingBenchmark {
+
+    @Param({"true", "false"})
+    private boolean tracking;
+
+    @Param({"100000"})
+    private int entities;
+
+    @Param({"1"})
+    private int modifiedPercent;
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private List<Customer> customers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.properties("dirtychecking");
+        EmbeddedDatabase.disableSecondLevelCache(properties);
+        if (!tracking) {
+            EmbeddedDatabase.disableDirtyTracking(properties);
+        }
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        EntityManager loader = entityManagerFactory.createEntityManager();
+        loader.getTransaction().begin();
+        loader.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, entities)
+                .executeUpdate();
+        loader.getTransaction().commit();
+        loader.close();
+
+        entityManager = entityManagerFactory.createEntityManager();
+        customers = entityManager.createQuery("FROM Customer c ORDER BY c.id", Customer.class).getResultList();
+        entityManager.getTransaction().begin();
+    }
+
+    @TearDown(Level.Iteration)
+    public void commit() {
+        entityManager.getTransaction().commit();
+        entityManager.getTransaction().begin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public int flush() {
+        int modified = entities * modifiedPercent / 100;
+        // 每次修改不同的实体，分散在整个上下文中
+        int step = entities / modified;
+        for (int i = 0; i < modified; i++) {
+            Customer customer = customers.get((next + i * step) % entities);
+            customer.setAge(customer.getAge() + 1);
+        }
+        next++;
+        entityManager.flush();
+        return modified;
+    }
+}
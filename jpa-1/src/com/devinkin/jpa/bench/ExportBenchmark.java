@@ -0,0 +1,140 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.export.ColumnarExportFormat;
+import com.devinkin.jpa.export.CsvExportFormat;
+import com.devinkin.jpa.export.CustomerOrderExporter;
+import com.devinkin.jpa.export.ExportFormat;
+import com.devinkin.jpa.export.ExportReport;
+import com.devinkin.jpa.export.ExportWriter;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出 customers 个Customer和每个Customer 3个Order:
+ * entities: getResultList("FROM Customer") 再逐个调用 getOrders()，写到一个CSV文件
+ * ranges: CustomerOrderExporter 按id分区，parallelism 个分区同时导出，format 为csv或col(列式)
+ * 每次调用结束时打印 ExportReport(吞吐量和堆内存峰值)。
+ * 没有二级缓存，每次调用都从数据库读取。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"20000"})
+    private int customers;
+
+    @Param({"1", "4"})
+    private int parallelism;
+
+    @Param({"csv", "col"})
+    private String format;
+
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor executor;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("export")));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, customers)
+                .executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO JPA_ORDERS (ID, ORDER_NAME, CUSTOMER_ID) " +
+                "SELECT X, CONCAT('O', X), MOD(X - 1, ?) + 1 FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, customers)
+                .setParameter(2, customers * 3)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        executor = PersistenceExecutor.platformThreads(entityManagerFactory, parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+        entityManagerFactory.close();
+    }
+
+    // 每次调用导出到新的目录，不会从检查点恢复
+    @Setup(Level.Invocation)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("jpa-export");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDirectory() {
+        for (File file : directory.toFile().listFiles()) {
+            file.delete();
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public long entities() throws IOException {
+        long rows = 0;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try (FileChannel channel = FileChannel.open(directory.resolve("customers." + format),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ExportWriter writer = format().open(channel, CustomerOrderExporter.COLUMNS);
+            List<Customer> result = entityManager.createQuery("FROM Customer c ORDER BY c.id", Customer.class)
+                    .getResultList();
+            for (Customer customer : result) {
+                Object[] row = {customer.getId(), customer.getLastName(), customer.getEmail(), customer.getAge(),
+                        customer.getCreatedTime(), customer.getBirth(), null, null};
+                if (customer.getOrders().isEmpty()) {
+                    writer.write(row);
+                    rows++;
+                }
+                for (Order order : customer.getOrders()) {
+                    row[6] = order.getId();
+                    row[7] = order.getOrderName();
+                    writer.write(row);
+                    rows++;
+                }
+            }
+            writer.close();
+        } finally {
+            entityManager.close();
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public long ranges() throws IOException {
+        ExportReport report = new CustomerOrderExporter(executor)
+                .format(format())
+                .rangeSize(customers / 8)
+                .parallelism(parallelism)
+                .export(directory);
+        System.out.println(report);
+        return report.getRows();
+    }
+
+    private ExportFormat format() {
+        return "col".equals(format) ? new ColumnarExportFormat() : new CsvExportFormat();
+    }
+}
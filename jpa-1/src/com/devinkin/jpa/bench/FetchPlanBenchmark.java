@@ -0,0 +1,162 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.FetchPlans;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Department;
+import com.devinkin.jpa.helloworld.Manager;
+import com.devinkin.jpa.helloworld.Order;
+import org.hibernate.Hibernate;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个抓取计划对应的关联关系，比较两种加载方式:
+ * lazy - 先查询，再逐个初始化延迟加载的关联对象(批量抓取仍然生效)
+ * plan - 按抓取计划一次连接查询
+ * find 按id加载一个实体，query 查询连续的 PAGE 个实体。不使用二级缓存。
+ * H2内存数据库访问一次几乎没有延迟，结束时打印每次操作执行的SQL语句数量，
+ * 使用网络上的数据库时每少一次访问就少一次网络往返。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FetchPlanBenchmark {
+    private static final int ROOTS = 200;
+    private static final int PAGE = 20;
+
+    @Param({Customer.WITH_ORDERS, Order.WITH_CUSTOMER, Department.WITH_MANAGER})
+    private String plan;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Class<?> type;
+    private Integer[] ids;
+    private Statistics statistics;
+    private long operations;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("fetchplan")));
+
+        ids = new Integer[ROOTS];
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < ROOTS; i++) {
+            Customer customer = JPALifecycleBenchmark.newCustomer("C" + i);
+            entityManager.persist(customer);
+            Order order = null;
+            for (int j = 0; j < 5; j++) {
+                order = new Order();
+                order.setOrderName("O-" + i + "-" + j);
+                order.setCustomer(customer);
+                entityManager.persist(order);
+            }
+            Manager manager = new Manager();
+            manager.setMgrName("M" + i);
+            entityManager.persist(manager);
+            Department department = new Department();
+            department.setDeptName("D" + i);
+            department.setManager(manager);
+            entityManager.persist(department);
+
+            if (Customer.WITH_ORDERS.equals(plan)) {
+                type = Customer.class;
+                ids[i] = customer.getId();
+            } else if (Order.WITH_CUSTOMER.equals(plan)) {
+                type = Order.class;
+                ids[i] = order.getId();
+            } else {
+                type = Department.class;
+                ids[i] = department.getId();
+            }
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+    }
+
+    @Setup(Level.Iteration)
+    public void clearStatistics() {
+        statistics.clear();
+        operations = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStatements() {
+        System.out.println();
+        System.out.println(plan + ": " + (double) statistics.getPrepareStatementCount() / operations + " statements/op");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    private Object association(Object entity) {
+        if (entity instanceof Customer) {
+            return ((Customer) entity).getOrders();
+        } else if (entity instanceof Order) {
+            return ((Order) entity).getCustomer();
+        } else {
+            return ((Department) entity).getManager();
+        }
+    }
+
+    @Benchmark
+    public void lazyFind(Blackhole blackhole) {
+        operations++;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        Object entity = entityManager.find(type, ids[ThreadLocalRandom.current().nextInt(ROOTS)]);
+        Hibernate.initialize(association(entity));
+        blackhole.consume(entity);
+        entityManager.close();
+    }
+
+    @Benchmark
+    public void planFind(Blackhole blackhole) {
+        operations++;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        blackhole.consume(FetchPlans.find(entityManager, type, ids[ThreadLocalRandom.current().nextInt(ROOTS)], plan));
+        entityManager.close();
+    }
+
+    @Benchmark
+    public void lazyQuery(Blackhole blackhole) {
+        operations++;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        for (Object entity : page(entityManager, null)) {
+            Hibernate.initialize(association(entity));
+            blackhole.consume(entity);
+        }
+        entityManager.close();
+    }
+
+    @Benchmark
+    public void planQuery(Blackhole blackhole) {
+        operations++;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        blackhole.consume(page(entityManager, plan));
+        entityManager.close();
+    }
+
+    private List<?> page(EntityManager entityManager, String plan) {
+        int first = ThreadLocalRandom.current().nextInt(ROOTS - PAGE);
+        return FetchPlans.createQuery(entityManager, type, "x", "x.id BETWEEN ? AND ?", plan)
+                .setParameter(1, ids[first])
+                .setParameter(2, ids[first + PAGE - 1])
+                .getResultList();
+    }
+}
@@ -0,0 +1,163 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.id.BlockIdGenerator;
+import org.hibernate.Session;
+import org.hibernate.cfg.EJB3NamingStrategy;
+import org.hibernate.cfg.NamingStrategy;
+import org.hibernate.cfg.ObjectNameNormalizer;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.ejb.HibernateEntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.tuple.IdentifierProperty;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.Type;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 8个线程同时获取主键:
+ * block - BlockIdGenerator，线程内分配，整段用完才访问 JPA_ID_GENERATORS
+ * table - Hibernate的 TableGenerator(pooled, 每段100个)，generate 方法是 synchronized 的
+ * generate 只调用生成器；persist 在事务中保存一个 Customer 并提交，table 时把 Customer 的生成器换成 TableGenerator。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class IdAllocatorBenchmark {
+
+    @Param({"block", "table"})
+    private String generator;
+
+    private EntityManagerFactory entityManagerFactory;
+    private IdentifierGenerator identifierGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("idallocator")));
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor)
+                ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+
+        Dialect dialect = sessionFactory.getDialect();
+        IdentifierGenerator customerGenerator;
+        if ("block".equals(generator)) {
+            identifierGenerator = blockGenerator(LongType.INSTANCE, "BENCH_BLOCK_ID", dialect);
+            customerGenerator = blockGenerator(IntegerType.INSTANCE, "BENCH_BLOCK_CUSTOMER_ID", dialect);
+        } else {
+            identifierGenerator = tableGenerator(LongType.INSTANCE, "BENCH_TABLE_ID", dialect);
+            customerGenerator = tableGenerator(IntegerType.INSTANCE, "BENCH_TABLE_CUSTOMER_ID", dialect);
+        }
+        useGenerator(sessionFactory, Customer.class, customerGenerator);
+    }
+
+    private static IdentifierGenerator blockGenerator(Type type, String segment, Dialect dialect) {
+        Properties params = new Properties();
+        params.setProperty(BlockIdGenerator.SEGMENT_VALUE_PARAM, segment);
+        BlockIdGenerator blockIdGenerator = new BlockIdGenerator();
+        blockIdGenerator.configure(type, params, dialect);
+        return blockIdGenerator;
+    }
+
+    private static IdentifierGenerator tableGenerator(Type type, String segment, Dialect dialect) {
+        Properties params = new Properties();
+        params.setProperty(TableGenerator.TABLE_PARAM, "JPA_ID_GENERATORS");
+        params.setProperty(TableGenerator.SEGMENT_COLUMN_PARAM, "PK_NAME");
+        params.setProperty(TableGenerator.VALUE_COLUMN_PARAM, "PK_VALUE");
+        params.setProperty(TableGenerator.SEGMENT_VALUE_PARAM, segment);
+        params.setProperty(TableGenerator.INCREMENT_PARAM, "100");
+        params.setProperty(TableGenerator.OPT_PARAM, "pooled");
+        params.put(PersistentIdentifierGenerator.IDENTIFIER_NORMALIZER, new ObjectNameNormalizer() {
+            @Override
+            protected boolean isUseQuotedIdentifiersGlobally() {
+                return false;
+            }
+
+            @Override
+            protected NamingStrategy getNamingStrategy() {
+                return EJB3NamingStrategy.INSTANCE;
+            }
+        });
+        TableGenerator tableGenerator = new TableGenerator();
+        tableGenerator.configure(type, params, dialect);
+        return tableGenerator;
+    }
+
+    // 映射中的生成器不能通过配置替换，persist 时 Hibernate 从实体的 IdentifierProperty 取生成器
+    private static void useGenerator(SessionFactoryImplementor sessionFactory, Class<?> entityClass,
+                                     IdentifierGenerator generator) {
+        IdentifierProperty property = sessionFactory.getEntityPersister(entityClass.getName())
+                .getEntityMetamodel().getIdentifierProperty();
+        try {
+            Field field = IdentifierProperty.class.getDeclaredField("identifierGenerator");
+            field.setAccessible(true);
+            field.set(property, generator);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot replace the identifier generator of " + entityClass, e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadSession {
+        private EntityManager entityManager;
+        private SessionImplementor session;
+
+        @Setup(Level.Trial)
+        public void open(IdAllocatorBenchmark benchmark) {
+            entityManager = benchmark.entityManagerFactory.createEntityManager();
+            session = (SessionImplementor) entityManager.unwrap(Session.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public Serializable generate(ThreadSession threadSession) {
+        return identifierGenerator.generate(threadSession.session, null);
+    }
+
+    // 每次一个事务: 分配主键、INSERT、提交
+    @Benchmark
+    @Threads(8)
+    public Integer persist() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Customer customer = new Customer("BENCH", 30);
+            customer.setEmail("bench@163.com");
+            customer.setBirth(new Date());
+            customer.setCreatedTime(new Date());
+            entityManager.persist(customer);
+            entityManager.getTransaction().commit();
+            return customer.getId();
+        } finally {
+            entityManager.close();
+        }
+    }
+}
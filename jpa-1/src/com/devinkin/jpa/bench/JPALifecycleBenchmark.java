@@ -0,0 +1,198 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对应 JPATest 中的 persist/find/getReference/merge/flush/remove 操作。
+ * 每次调用都和测试用例一样：创建EntityManager -> 开启事务 -> 操作 -> 提交 -> 关闭。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JPALifecycleBenchmark {
+
+    @Param("1000")
+    private int customers;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Integer[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.properties("lifecycle");
+        // 关闭二级缓存，保证find真正访问数据库
+        EmbeddedDatabase.disableSecondLevelCache(properties);
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        ids = new Integer[customers];
+        for (int i = 0; i < customers; i++) {
+            Customer customer = newCustomer("seed" + i);
+            entityManager.persist(customer);
+            ids[i] = customer.getId();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    // 每次调用前准备一条待删除的记录，准备时间不计入结果
+    @State(Scope.Thread)
+    public static class RemoveTarget {
+        private Integer id;
+
+        @Setup(Level.Invocation)
+        public void prepare(JPALifecycleBenchmark benchmark) {
+            EntityManager entityManager = benchmark.entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            Customer customer = newCustomer("remove");
+            entityManager.persist(customer);
+            entityManager.getTransaction().commit();
+            entityManager.close();
+            id = customer.getId();
+        }
+    }
+
+    // 每次调用前准备一个已有记录的游离副本，带上记录当前的版本号，否则merge会当作新对象INSERT
+    @State(Scope.Thread)
+    public static class MergeTarget {
+        private Customer detached;
+
+        @Setup(Level.Invocation)
+        public void prepare(JPALifecycleBenchmark benchmark) {
+            Integer id = benchmark.randomId();
+            EntityManager entityManager = benchmark.entityManagerFactory.createEntityManager();
+            Integer version = entityManager.find(Customer.class, id).getVersion();
+            entityManager.close();
+            detached = newCustomer("merge");
+            detached.setId(id);
+            detached.setVersion(version);
+        }
+    }
+
+    @Benchmark
+    public Integer persist() {
+        EntityManager entityManager = begin();
+        Customer customer = newCustomer("persist");
+        entityManager.persist(customer);
+        commit(entityManager);
+        return customer.getId();
+    }
+
+    // find 会立即发送SELECT
+    @Benchmark
+    public Customer find() {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.find(Customer.class, randomId());
+        commit(entityManager);
+        return customer;
+    }
+
+    // getReference 只返回代理对象，不访问代理的属性就不会发送SELECT
+    @Benchmark
+    public void getReference(Blackhole blackhole) {
+        EntityManager entityManager = begin();
+        blackhole.consume(entityManager.getReference(Customer.class, randomId()));
+        commit(entityManager);
+    }
+
+    // 临时对象: INSERT
+    @Benchmark
+    public Customer mergeTransient() {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.merge(newCustomer("merge1"));
+        commit(entityManager);
+        return customer;
+    }
+
+    // 游离对象，数据库中没有记录: INSERT
+    @Benchmark
+    public Customer mergeDetachedMissing() {
+        EntityManager entityManager = begin();
+        Customer customer = newCustomer("merge2");
+        customer.setId(Integer.MAX_VALUE);
+        customer = entityManager.merge(customer);
+        commit(entityManager);
+        return customer;
+    }
+
+    // 游离对象，数据库中有记录，缓存中没有: SELECT + UPDATE
+    @Benchmark
+    public Customer mergeDetachedExisting(MergeTarget target) {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.merge(target.detached);
+        commit(entityManager);
+        return customer;
+    }
+
+    // 游离对象，EntityManager缓存中已有: UPDATE
+    @Benchmark
+    public Customer mergeDetachedManaged(MergeTarget target) {
+        EntityManager entityManager = begin();
+        Customer managed = entityManager.find(Customer.class, target.detached.getId());
+        entityManager.merge(target.detached);
+        commit(entityManager);
+        return managed;
+    }
+
+    @Benchmark
+    public Customer flush() {
+        EntityManager entityManager = begin();
+        Customer customer = entityManager.find(Customer.class, randomId());
+        customer.setLastName("flush" + System.nanoTime());
+        entityManager.flush();
+        commit(entityManager);
+        return customer;
+    }
+
+    @Benchmark
+    public void remove(RemoveTarget target) {
+        EntityManager entityManager = begin();
+        entityManager.remove(entityManager.find(Customer.class, target.id));
+        commit(entityManager);
+    }
+
+    private EntityManager begin() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        return entityManager;
+    }
+
+    private static void commit(EntityManager entityManager) {
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private Integer randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    static Customer newCustomer(String lastName) {
+        Customer customer = new Customer();
+        customer.setAge(18);
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        customer.setEmail(lastName + "@163.com");
+        customer.setLastName(lastName);
+        return customer;
+    }
+}
@@ -0,0 +1,123 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.stat.PersistenceMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistenceMetrics 的开销，off: 不统计，on: 统计延迟(没有开启JFR记录)。
+ * find: 按主键查询，query: 命名查询，update: 在事务中修改一个实体并提交，包括 flush 和脏检查的统计。
+ * 关闭了二级缓存和查询缓存，每次操作都访问数据库，和生产环境中的操作相近。
+ * managedFind: 查找持久化上下文中已有的实体，不访问数据库，几乎全部是统计本身的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+    private static final int CUSTOMERS = 1000;
+
+    @Param({"off", "on"})
+    private String mode;
+
+    private PersistenceMetrics metrics;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("metrics")));
+        if ("on".equals(mode)) {
+            metrics = new PersistenceMetrics();
+            entityManagerFactory = metrics.instrument(entityManagerFactory);
+        }
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, CUSTOMERS)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (metrics != null) {
+            System.out.println();
+            System.out.print(metrics.snapshot().format());
+        }
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public Customer find() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.find(Customer.class, 1 + ThreadLocalRandom.current().nextInt(CUSTOMERS));
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public Customer managedFind(Session session) {
+        return session.entityManager.find(Customer.class, session.id);
+    }
+
+    @Benchmark
+    public List<?> query() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createNamedQuery("testNamedQuery")
+                    .setParameter(1, 1 + ThreadLocalRandom.current().nextInt(CUSTOMERS))
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public Customer update() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Customer customer = entityManager.find(Customer.class, 1 + ThreadLocalRandom.current().nextInt(CUSTOMERS));
+            customer.setAge(customer.getAge() + 1);
+            entityManager.getTransaction().commit();
+            return customer;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // 每个线程一个EntityManager，其中已经加载了一个实体
+    @State(Scope.Thread)
+    public static class Session {
+        private EntityManager entityManager;
+        private Integer id;
+
+        @Setup(Level.Trial)
+        public void setUp(MetricsOverheadBenchmark benchmark) {
+            entityManager = benchmark.entityManagerFactory.createEntityManager();
+            id = 1 + ThreadLocalRandom.current().nextInt(CUSTOMERS);
+            entityManager.find(Customer.class, id);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            entityManager.close();
+        }
+    }
+}
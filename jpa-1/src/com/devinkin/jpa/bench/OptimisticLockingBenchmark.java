@@ -0,0 +1,96 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.concurrent.Backoff;
+import com.devinkin.jpa.concurrent.OptimisticRetryExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import com.devinkin.jpa.helloworld.Customer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
+import javax.persistence.Persistence;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 8个线程同时对 hotRows 行中随机的一行执行 读取 -> age加1 -> 提交:
+ * optimistic: 用 @Version 检查冲突，冲突后由 OptimisticRetryExecutor 重试
+ * pessimistic: 用 PESSIMISTIC_WRITE(SELECT ... FOR UPDATE)锁住这一行，其他事务等待
+ * hotRows 越小冲突越多。结束时打印冲突和重试的次数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OptimisticLockingBenchmark {
+
+    @Param({"1", "100"})
+    private int hotRows;
+
+    private EntityManagerFactory entityManagerFactory;
+    private OptimisticRetryExecutor retryExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.properties("locking");
+        // 悲观锁等待的时间可能超过H2默认的1秒
+        properties.put("javax.persistence.jdbc.url", EmbeddedDatabase.url("locking") + ";LOCK_TIMEOUT=10000");
+        EmbeddedDatabase.disableSecondLevelCache(properties);
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), 0, CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, hotRows)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        retryExecutor = new OptimisticRetryExecutor(entityManagerFactory, 100,
+                Backoff.exponential(100, 5000, TimeUnit.MICROSECONDS));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println(retryExecutor);
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public int optimistic() {
+        final int id = ThreadLocalRandom.current().nextInt(hotRows) + 1;
+        return retryExecutor.execute(new PersistenceWork<Integer>() {
+            @Override
+            public Integer execute(EntityManager entityManager) {
+                Customer customer = entityManager.find(Customer.class, id);
+                customer.setAge(customer.getAge() + 1);
+                return customer.getAge();
+            }
+        });
+    }
+
+    @Benchmark
+    public int pessimistic() {
+        int id = ThreadLocalRandom.current().nextInt(hotRows) + 1;
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Customer customer = entityManager.find(Customer.class, id, LockModeType.PESSIMISTIC_WRITE);
+            customer.setAge(customer.getAge() + 1);
+            entityManager.getTransaction().commit();
+            return customer.getAge();
+        } finally {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            entityManager.close();
+        }
+    }
+}
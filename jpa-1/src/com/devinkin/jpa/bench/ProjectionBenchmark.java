@@ -0,0 +1,94 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.projection.CustomerSummary;
+import com.devinkin.jpa.projection.Projection;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 报表查询: 读取 JPA_CUSTOMERS 全部 ROWS 行的 lastName 和 age，分数和分配量都是每行的。
+ * entity            - SELECT c，返回被管理的Customer(有快照)
+ * constructor       - SELECT new Customer(c.lastName, c.age)，testPartlyProperties 的写法
+ * projection        - SELECT c.lastName, c.age，用 Projection 转换为 CustomerSummary
+ * nativeProjection  - 原生SQL，用 Projection 转换为 CustomerSummary
+ * 使用 -prof gc 查看 gc.alloc.rate.norm。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+    private static final int ROWS = 10000;
+
+    private EntityManagerFactory entityManagerFactory;
+    private final Projection<CustomerSummary> summary = Projection.of(CustomerSummary.class);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("projection")));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < ROWS; i++) {
+            entityManager.persist(JPALifecycleBenchmark.newCustomer("C" + i));
+            if (i % 500 == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<?> entity() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<?> result = entityManager.createQuery("SELECT c FROM Customer c").getResultList();
+        entityManager.close();
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<?> constructor() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<?> result = entityManager.createQuery("SELECT new Customer(c.lastName, c.age) FROM Customer c")
+                .getResultList();
+        entityManager.close();
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<CustomerSummary> projection() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<CustomerSummary> result = summary.list(
+                entityManager.createQuery("SELECT c.lastName, c.age FROM Customer c"));
+        entityManager.close();
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<CustomerSummary> nativeProjection() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<CustomerSummary> result = summary.list(
+                entityManager.createNativeQuery("SELECT LAST_NAME, AGE FROM JPA_CUSTOMERS"));
+        entityManager.close();
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Customer;
+import org.hibernate.ejb.QueryHints;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 4个线程反复执行 customersOlderThan，参数只取几个热点值。
+ * queryCache=false 时关闭这个命名查询的缓存提示，每次都访问数据库。
+ * 结束时打印查询缓存的命中率。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class QueryCacheBenchmark {
+    private static final int[] HOT_AGES = {20, 30, 40, 50};
+
+    @Param({"true", "false"})
+    private boolean queryCache;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Statistics statistics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("querycache"));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 1000; i++) {
+            Customer customer = JPALifecycleBenchmark.newCustomer("C" + i);
+            customer.setAge(i % 70);
+            entityManager.persist(customer);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        statistics.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("queryCache=" + queryCache + ", query cache hits=" + statistics.getQueryCacheHitCount()
+                + ", misses=" + statistics.getQueryCacheMissCount()
+                + ", statements=" + statistics.getPrepareStatementCount());
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public int olderThan() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<?> customers = entityManager.createNamedQuery("customersOlderThan")
+                .setParameter(1, HOT_AGES[ThreadLocalRandom.current().nextInt(HOT_AGES.length)])
+                .setHint(QueryHints.HINT_CACHEABLE, queryCache)
+                .getResultList();
+        entityManager.close();
+        return customers.size();
+    }
+}
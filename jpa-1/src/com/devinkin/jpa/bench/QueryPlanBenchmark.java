@@ -0,0 +1,65 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.query.NormalizingQueryPlanCache;
+import com.devinkin.jpa.query.QueryPlanIntegrator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.Query;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * createQuery 的延迟，不执行查询:
+ * cold: 每次都是新的语句(常量不同)，需要解析JPQL和翻译成SQL
+ * warm: 同一条语句，从查询计划缓存中取出
+ * hibernate: Hibernate原来按原文缓存的 QueryPlanCache，normalized: NormalizingQueryPlanCache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryPlanBenchmark {
+    private static final String JPQL = "SELECT c FROM Customer c LEFT JOIN c.orders o " +
+            "WHERE c.age > :age AND o.orderName LIKE :name ORDER BY c.lastName";
+
+    @Param({"hibernate", "normalized"})
+    private String cache;
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.properties("plan");
+        properties.put(QueryPlanIntegrator.NORMALIZE, String.valueOf("normalized".equals(cache)));
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        entityManager = entityManagerFactory.createEntityManager();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if ("normalized".equals(cache)) {
+            System.out.println();
+            System.out.println(NormalizingQueryPlanCache.of(entityManagerFactory));
+        }
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public Query cold() {
+        return entityManager.createQuery(JPQL + ", c.id + " + sequence++);
+    }
+
+    @Benchmark
+    public Query warm() {
+        return entityManager.createQuery(JPQL);
+    }
+}
@@ -0,0 +1,117 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.log.SqlLog;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 开启SQL日志时 find/persist 的吞吐量:
+ * off: 不输出SQL
+ * show_sql: 原来的配置，show_sql + format_sql，在执行SQL的线程中同步格式化和输出
+ * sampled: SqlLog 输出1%的语句和超过200毫秒的慢查询，和 persistence.xml 一致
+ * all: SqlLog 输出所有语句并格式化(在后台线程中)
+ * System.out 被重定向到临时文件(自动flush，每条日志一次写入)，不影响JMH的输出。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlLoggingBenchmark {
+    private static final int CUSTOMERS = 1000;
+    // 预先插入的行的id从这里开始，不和 persist 时主键生成器分配的id冲突
+    private static final int FIRST_ID = 1000000;
+
+    @Param({"off", "show_sql", "sampled", "all"})
+    private String mode;
+
+    private EntityManagerFactory entityManagerFactory;
+    private PrintStream originalOut;
+    private PrintStream out;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        output = Files.createTempFile("sql-log", ".txt");
+        originalOut = System.out;
+        out = new PrintStream(new FileOutputStream(output.toFile()), true);
+        System.setOut(out);
+
+        Map<String, String> properties = EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("sqllog"));
+        if ("show_sql".equals(mode)) {
+            properties.put("hibernate.show_sql", "true");
+            properties.put("hibernate.format_sql", "true");
+        } else if ("sampled".equals(mode)) {
+            properties.put(SqlLog.SAMPLE_RATE, "0.01");
+            properties.put(SqlLog.SLOW_THRESHOLD_MS, "200");
+            properties.put(SqlLog.FORMAT, "true");
+        } else if ("all".equals(mode)) {
+            properties.put(SqlLog.SAMPLE_RATE, "1");
+            properties.put(SqlLog.FORMAT, "true");
+        }
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(?, ?)")
+                .setParameter(1, FIRST_ID)
+                .setParameter(2, FIRST_ID + CUSTOMERS - 1)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SqlLog log = HikariConnectionProvider.of(entityManagerFactory).getSqlLog();
+        entityManagerFactory.close();
+        System.setOut(originalOut);
+        out.close();
+        System.out.println(mode + ": " + log + ", output=" + Files.size(output) + " bytes");
+        Files.delete(output);
+    }
+
+    @Benchmark
+    public Customer find() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.find(Customer.class, FIRST_ID + ThreadLocalRandom.current().nextInt(CUSTOMERS));
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public Integer persist() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            Customer customer = new Customer("BB", 18);
+            customer.setEmail("bb@163.com");
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+            entityManager.getTransaction().commit();
+            return customer.getId();
+        } finally {
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.QueryStreams;
+import com.devinkin.jpa.helloworld.Customer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 全表扫描 JPA_CUSTOMERS: getResultList 和 QueryStreams 的耗时以及堆内存峰值。
+ * 数据放在H2的文件数据库中，不占用被测JVM的堆内存。
+ * 默认100万行，1000万行使用 -p rows=10000000 (getResultList 在 -Xmx4g 下会内存溢出)。
+ * 每次调用前执行GC并重置内存池的峰值，调用结束后打印各个堆内存池峰值之和。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StreamingReadBenchmark {
+
+    @Param({"1000000"})
+    private int rows;
+
+    @Param({"1000"})
+    private int fetchSize;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.fileProperties("streamingread");
+        // 只比较EntityManager中的实体占用的内存，getResultList 加载的实体也不放入二级缓存
+        EmbeddedDatabase.disableSecondLevelCache(properties);
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, rows)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void resetPeak() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void printPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println();
+        System.out.println("peak heap: " + peak / (1024 * 1024) + " MB");
+    }
+
+    @Benchmark
+    public long resultList() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<Customer> customers = entityManager.createQuery("FROM Customer c", Customer.class).getResultList();
+        long ages = 0;
+        for (Customer customer : customers) {
+            ages += customer.getAge();
+        }
+        entityManager.close();
+        return ages;
+    }
+
+    @Benchmark
+    public long stream() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        long ages = 0;
+        try (Stream<Customer> customers = QueryStreams.stream(entityManager,
+                entityManager.createQuery("FROM Customer c"), fetchSize)) {
+            Iterator<Customer> iterator = customers.iterator();
+            while (iterator.hasNext()) {
+                ages += iterator.next().getAge();
+            }
+        }
+        entityManager.close();
+        return ages;
+    }
+}
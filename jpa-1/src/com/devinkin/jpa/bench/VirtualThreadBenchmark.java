@@ -0,0 +1,119 @@
+package com.devinkin.jpa.bench;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.VirtualThreads;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import com.devinkin.jpa.concurrent.PinningMonitor;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同时提交10000个请求(find -> 修改 -> commit)，等待全部完成，连接池大小为10。
+ * executor=virtual: 每个请求一个虚拟线程(需要JDK 21，更早的JDK上这组参数会失败)
+ * executor=platform: 200个平台线程的线程池
+ * bounded=false 时不限制同时访问数据库的请求数，请求都在连接池中排队。
+ * 结束时打印虚拟线程的固定事件和连接池的统计信息。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.tracePinnedThreads=short")
+public class VirtualThreadBenchmark {
+    private static final int REQUESTS = 10000;
+    private static final int POOL_SIZE = 10;
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"virtual", "platform"})
+    private String executor;
+
+    @Param({"true", "false"})
+    private boolean bounded;
+
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor persistenceExecutor;
+    private PinningMonitor pinningMonitor;
+    private Integer[] customerIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> properties = EmbeddedDatabase.properties("virtualthreads");
+        properties.put("hibernate.hikari.maximumPoolSize", String.valueOf(POOL_SIZE));
+        // 不限制时请求会在连接池中排队很久
+        properties.put("hibernate.hikari.connectionTimeout", "600000");
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        customerIds = new Integer[1000];
+        for (int i = 0; i < customerIds.length; i++) {
+            Customer customer = JPALifecycleBenchmark.newCustomer("C" + i);
+            entityManager.persist(customer);
+            customerIds[i] = customer.getId();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        int permits = bounded ? POOL_SIZE : Integer.MAX_VALUE;
+        if ("virtual".equals(executor)) {
+            if (!VirtualThreads.isSupported()) {
+                throw new UnsupportedOperationException("executor=virtual requires JDK 21");
+            }
+            persistenceExecutor = new PersistenceExecutor(entityManagerFactory, permits,
+                    VirtualThreads.newExecutor("request-"), true);
+        } else {
+            persistenceExecutor = new PersistenceExecutor(entityManagerFactory, permits,
+                    Executors.newFixedThreadPool(PLATFORM_THREADS), false);
+        }
+        pinningMonitor = PinningMonitor.start(Duration.ofMillis(1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        persistenceExecutor.close();
+        System.out.println();
+        System.out.println("executor=" + executor + ", bounded=" + bounded
+                + ", p99 permit wait=" + persistenceExecutor.getP99PermitWaitMillis() + "ms, " + pinningMonitor);
+        System.out.println(HikariConnectionProvider.of(entityManagerFactory).getStatistics());
+        if (pinningMonitor != null) {
+            pinningMonitor.close();
+        }
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public int requests() throws Exception {
+        List<Future<Integer>> results = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            final Integer id = customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)];
+            results.add(persistenceExecutor.submit(new PersistenceWork<Integer>() {
+                @Override
+                public Integer execute(EntityManager entityManager) {
+                    Customer customer = entityManager.find(Customer.class, id);
+                    customer.setAge(customer.getAge() + 1);
+                    return customer.getAge();
+                }
+            }));
+        }
+        int sum = 0;
+        for (Future<Integer> result : results) {
+            sum += result.get();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,373 @@
+package com.devinkin.jpa.bootstrap;
+
+import com.devinkin.jpa.HibernateUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.hbm2ddl.SchemaValidator;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用预先解析好的映射元数据创建 EntityManagerFactory，代替 Persistence.createEntityManagerFactory。
+ * 1. 第一次启动(或构建时运行 main)正常解析 persistence.xml 和实体类的注解，
+ *    把解析完的 Ejb3Configuration(包括映射模型、命名查询、抓取计划等)序列化到快照文件
+ * 2. 之后的启动直接反序列化，跳过类的扫描和注解的解析
+ * 3. 快照中记录了摘要: persistence.xml、实体类(及其父类)的字节码和影响映射的属性，任何一个变化都重新生成快照
+ * 4. 连接、连接池、日志和 hbm2ddl.auto 的属性不影响映射，不计入摘要，加载快照后用调用者的值覆盖，
+ *    所以连接不同数据库的测试可以共用一个快照
+ * 5. hbm2ddl.auto 为 update 或 validate 时，先比较映射生成的建表语句的摘要和数据库中
+ *    JPA_SCHEMA_FINGERPRINT 表记录的摘要，相同时不再通过JDBC元数据检查整个数据库(见 SchemaFingerprint)
+ * javassist生成的代理类不能放进快照，仍然在创建 SessionFactory 时生成。
+ * 快照文件由反序列化加载，只能使用自己生成的文件。
+ * Ejb3Configuration 在4.2中已被废弃(4.3中删除)，但4.2中只有它能序列化解析好的映射再创建 EntityManagerFactory，
+ * 所以只在使用它的方法上压制 deprecation 警告，并且不 import 它(import 语句上的警告不能压制)。
+ * <pre>
+ * MappingSnapshot snapshot = new MappingSnapshot(Paths.get("target/jpa-1.snapshot"));
+ * EntityManagerFactory entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1", properties);
+ * </pre>
+ */
+public class MappingSnapshot {
+    // 快照文件格式的版本，修改序列化的内容时加1
+    private static final int FORMAT_VERSION = 1;
+
+    // 这些前缀的属性只影响连接和日志，加载快照后覆盖
+    private static final String[] RUNTIME_PREFIXES = {
+            "javax.persistence.jdbc.", "hibernate.connection.", "hibernate.hikari.", "hibernate.sql_log.",
+            AvailableSettings.SHOW_SQL, AvailableSettings.FORMAT_SQL, AvailableSettings.HBM2DDL_AUTO};
+
+    // Ejb3Configuration 解析时把JPA的连接属性复制为Hibernate的属性，覆盖时两个都要修改
+    private static final Map<String, String> JDBC_ALIASES = new HashMap<>();
+
+    static {
+        JDBC_ALIASES.put(org.hibernate.ejb.AvailableSettings.JDBC_DRIVER, AvailableSettings.DRIVER);
+        JDBC_ALIASES.put(org.hibernate.ejb.AvailableSettings.JDBC_URL, AvailableSettings.URL);
+        JDBC_ALIASES.put(org.hibernate.ejb.AvailableSettings.JDBC_USER, AvailableSettings.USER);
+        JDBC_ALIASES.put(org.hibernate.ejb.AvailableSettings.JDBC_PASSWORD, AvailableSettings.PASS);
+    }
+
+    private final Path file;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder schemaChecksSkipped = new LongAdder();
+    private final LongAdder schemaChecks = new LongAdder();
+
+    public MappingSnapshot(Path file) {
+        this.file = file;
+    }
+
+    // 构建时生成快照: MappingSnapshot <快照文件> [持久化单元，默认jpa-1]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MappingSnapshot <file> [persistence-unit]");
+            System.exit(1);
+        }
+        new MappingSnapshot(Paths.get(args[0])).write(args.length > 1 ? args[1] : "jpa-1",
+                Collections.<String, String>emptyMap());
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public EntityManagerFactory createEntityManagerFactory(String unitName) {
+        return createEntityManagerFactory(unitName, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * 快照不存在、已经过期或无法读取时，正常解析并重新生成快照，写入失败不影响启动。
+     */
+    @SuppressWarnings("deprecation")
+    public EntityManagerFactory createEntityManagerFactory(String unitName, Map<String, String> properties) {
+        org.hibernate.ejb.Ejb3Configuration configuration = load(unitName, properties);
+        if (configuration != null) {
+            hits.increment();
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                if (isRuntime(property.getKey())) {
+                    setRuntimeProperty(configuration, property.getKey(), property.getValue());
+                }
+            }
+        } else {
+            misses.increment();
+            configuration = configure(unitName, properties);
+            try {
+                save(configuration, unitName, properties);
+            } catch (IOException e) {
+                // 下次启动时再生成
+            }
+        }
+
+        String schemaMode = configuration.getProperties().getProperty(AvailableSettings.HBM2DDL_AUTO);
+        boolean fingerprinted = "update".equals(schemaMode) || "validate".equals(schemaMode);
+        if (fingerprinted) {
+            // 由 checkSchema 决定是否需要更新或验证
+            configuration.getProperties().remove(AvailableSettings.HBM2DDL_AUTO);
+        }
+        EntityManagerFactory entityManagerFactory = configuration.buildEntityManagerFactory();
+        if (fingerprinted) {
+            try {
+                checkSchema(entityManagerFactory, configuration, unitName, schemaMode);
+            } catch (RuntimeException e) {
+                entityManagerFactory.close();
+                throw e;
+            }
+        }
+        return entityManagerFactory;
+    }
+
+    // 解析映射并写入快照，不创建 EntityManagerFactory，不连接数据库
+    public void write(String unitName, Map<String, String> properties) throws IOException {
+        save(configure(unitName, properties), unitName, properties);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static org.hibernate.ejb.Ejb3Configuration configure(String unitName, Map<String, String> properties) {
+        org.hibernate.ejb.Ejb3Configuration configuration =
+                new org.hibernate.ejb.Ejb3Configuration().configure(unitName, properties);
+        if (configuration == null) {
+            throw new PersistenceException("No persistence unit named " + unitName);
+        }
+        // 处理注解，生成映射模型
+        configuration.buildMappings();
+        return configuration;
+    }
+
+    // 先写到临时文件再改名，并发启动的进程不会读到写了一半的快照
+    @SuppressWarnings("deprecation")
+    private void save(org.hibernate.ejb.Ejb3Configuration configuration, String unitName, Map<String, String> properties)
+            throws IOException {
+        List<String> classNames = mappedClassNames(configuration);
+        Path absolute = file.toAbsolutePath();
+        if (absolute.getParent() != null) {
+            Files.createDirectories(absolute.getParent());
+        }
+        Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (ObjectOutputStream out = SnapshotStreams.output(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeObject(new ArrayList<>(classNames));
+                out.writeUTF(fingerprint(unitName, properties, classNames));
+                out.writeObject(configuration);
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "deprecation"})
+    private org.hibernate.ejb.Ejb3Configuration load(String unitName, Map<String, String> properties) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (ObjectInputStream in = SnapshotStreams.input(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            List<String> classNames = (List<String>) in.readObject();
+            if (!in.readUTF().equals(fingerprint(unitName, properties, classNames))) {
+                return null;
+            }
+            return (org.hibernate.ejb.Ejb3Configuration) in.readObject();
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            // 文件损坏、实体类被删除等，重新生成
+            return null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void checkSchema(EntityManagerFactory entityManagerFactory,
+                             org.hibernate.ejb.Ejb3Configuration configuration, String unitName, String schemaMode) {
+        SessionFactoryImplementor sessionFactory = HibernateUtils.sessionFactory(entityManagerFactory);
+        String fingerprint = SchemaFingerprint.of(configuration.getHibernateConfiguration(), sessionFactory.getDialect());
+        ConnectionProvider connectionProvider = sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+        try {
+            Connection connection = connectionProvider.getConnection();
+            try {
+                if (fingerprint.equals(SchemaFingerprint.read(connection, unitName))) {
+                    schemaChecksSkipped.increment();
+                    return;
+                }
+            } finally {
+                connectionProvider.closeConnection(connection);
+            }
+
+            schemaChecks.increment();
+            if ("update".equals(schemaMode)) {
+                SchemaUpdate update = new SchemaUpdate(sessionFactory.getServiceRegistry(),
+                        configuration.getHibernateConfiguration());
+                update.execute(false, true);
+                if (!update.getExceptions().isEmpty()) {
+                    throw new PersistenceException("Schema update failed", (Throwable) update.getExceptions().get(0));
+                }
+            } else {
+                new SchemaValidator(sessionFactory.getServiceRegistry(), configuration.getHibernateConfiguration())
+                        .validate();
+            }
+
+            connection = connectionProvider.getConnection();
+            try {
+                SchemaFingerprint.write(connection, unitName, fingerprint);
+            } finally {
+                connectionProvider.closeConnection(connection);
+            }
+        } catch (SQLException e) {
+            throw new PersistenceException("Cannot access " + SchemaFingerprint.TABLE, e);
+        } catch (HibernateException e) {
+            throw new PersistenceException(e.getMessage(), e);
+        }
+    }
+
+    private String fingerprint(String unitName, Map<String, String> properties, List<String> classNames)
+            throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(unitName.getBytes(StandardCharsets.UTF_8));
+        // 按名称排序，和Map的遍历顺序无关
+        for (Map.Entry<String, String> property : new TreeMap<>(properties).entrySet()) {
+            if (!isRuntime(property.getKey())) {
+                digest.update(("\n" + property.getKey() + "=" + property.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        ClassLoader classLoader = classLoader();
+        Enumeration<URL> descriptors = classLoader.getResources("META-INF/persistence.xml");
+        while (descriptors.hasMoreElements()) {
+            update(digest, descriptors.nextElement().openStream());
+        }
+        for (String className : classNames) {
+            digest.update(className.getBytes(StandardCharsets.UTF_8));
+            InputStream in = classLoader.getResourceAsStream(className.replace('.', '/') + ".class");
+            if (in != null) {
+                update(digest, in);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    // 实体类和它们的父类(如 TrackedEntity)
+    @SuppressWarnings("deprecation")
+    private static List<String> mappedClassNames(org.hibernate.ejb.Ejb3Configuration configuration) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Iterator<?> classes = configuration.getClassMappings(); classes.hasNext(); ) {
+            Class<?> mappedClass = ((PersistentClass) classes.next()).getMappedClass();
+            for (Class<?> type = mappedClass; type != null && type != Object.class; type = type.getSuperclass()) {
+                names.add(type.getName());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static boolean isRuntime(String key) {
+        for (String prefix : RUNTIME_PREFIXES) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void setRuntimeProperty(org.hibernate.ejb.Ejb3Configuration configuration,
+                                           String key, String value) {
+        configuration.setProperty(key, value);
+        String alias = JDBC_ALIASES.get(key);
+        if (alias != null) {
+            configuration.setProperty(alias, value);
+        }
+    }
+
+    private static ClassLoader classLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader != null ? classLoader : MappingSnapshot.class.getClassLoader();
+    }
+
+    private static void update(MessageDigest digest, InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // 从快照创建的次数
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    // 快照不存在或过期，重新解析映射的次数
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    // 数据库中的结构摘要和映射一致，跳过 update/validate 的次数
+    public long getSchemaChecksSkipped() {
+        return schemaChecksSkipped.sum();
+    }
+
+    // 执行了 update/validate 的次数
+    public long getSchemaChecks() {
+        return schemaChecks.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "MappingSnapshot{" +
+                "file=" + file +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", schemaChecksSkipped=" + getSchemaChecksSkipped() +
+                ", schemaChecks=" + getSchemaChecks() +
+                '}';
+    }
+}
@@ -0,0 +1,91 @@
+package com.devinkin.jpa.bootstrap;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.dialect.Dialect;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+/**
+ * 映射生成的建表语句的摘要，保存在数据库的 JPA_SCHEMA_FINGERPRINT 表中，每个持久化单元一行。
+ * 表中的摘要和当前映射一致时，说明数据库的结构已经更新或验证过，不需要再通过JDBC元数据比较整个数据库。
+ * 只在连接上执行简单的SQL，MySQL和H2都支持。
+ */
+class SchemaFingerprint {
+    static final String TABLE = "JPA_SCHEMA_FINGERPRINT";
+
+    private SchemaFingerprint() {
+    }
+
+    static String of(Configuration configuration, Dialect dialect) {
+        MessageDigest digest = MappingSnapshot.sha256();
+        for (String sql : configuration.generateSchemaCreationScript(dialect)) {
+            digest.update(sql.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return MappingSnapshot.hex(digest.digest());
+    }
+
+    // 表不存在或没有这个持久化单元的记录时返回null
+    static String read(Connection connection, String unitName) throws SQLException {
+        try {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT FINGERPRINT FROM " + TABLE + " WHERE PERSISTENCE_UNIT = ?");
+            try {
+                statement.setString(1, unitName);
+                ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() ? resultSet.getString(1) : null;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            // 表还不存在，失败的语句可能使事务不可用(PostgreSQL)，先回滚
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+            return null;
+        }
+    }
+
+    static void write(Connection connection, String unitName, String fingerprint) throws SQLException {
+        boolean exists = read(connection, unitName) != null;
+        if (!exists) {
+            createTable(connection);
+        }
+        PreparedStatement statement = connection.prepareStatement(exists
+                ? "UPDATE " + TABLE + " SET FINGERPRINT = ?, UPDATED_TIME = ? WHERE PERSISTENCE_UNIT = ?"
+                : "INSERT INTO " + TABLE + " (FINGERPRINT, UPDATED_TIME, PERSISTENCE_UNIT) VALUES (?, ?, ?)");
+        try {
+            statement.setString(1, fingerprint);
+            statement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            statement.setString(3, unitName);
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    // 表已经存在(只是没有这个持久化单元的记录)时忽略错误
+    private static void createTable(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.executeUpdate("CREATE TABLE " + TABLE + " (PERSISTENCE_UNIT VARCHAR(100) NOT NULL PRIMARY KEY, "
+                    + "FINGERPRINT VARCHAR(64) NOT NULL, UPDATED_TIME TIMESTAMP)");
+        } catch (SQLException e) {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.devinkin.jpa.bootstrap;
+
+import org.hibernate.mapping.FetchProfile;
+import org.hibernate.mapping.MetadataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 序列化 Ejb3Configuration 使用的对象流。
+ * Hibernate 4.2 的 org.hibernate.mapping.FetchProfile 没有实现 Serializable，
+ * 写入时替换成 SerializedFetchProfile，读取时再还原。
+ */
+class SnapshotStreams {
+
+    static ObjectOutputStream output(OutputStream out) throws IOException {
+        return new ObjectOutputStream(out) {
+            {
+                enableReplaceObject(true);
+            }
+
+            @Override
+            protected Object replaceObject(Object object) {
+                if (object instanceof FetchProfile) {
+                    return new SerializedFetchProfile((FetchProfile) object);
+                }
+                return object;
+            }
+        };
+    }
+
+    // 用加载这个类的类加载器解析实体类等，和 Persistence.createEntityManagerFactory 一致
+    static ObjectInputStream input(InputStream in) throws IOException {
+        return new ObjectInputStream(in) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                if (classLoader != null) {
+                    try {
+                        return Class.forName(description.getName(), false, classLoader);
+                    } catch (ClassNotFoundException e) {
+                        // 使用默认的类加载器
+                    }
+                }
+                return super.resolveClass(description);
+            }
+        };
+    }
+
+    private static class SerializedFetchProfile implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final MetadataSource source;
+        // entity, association, style
+        private final List<String[]> fetches = new ArrayList<>();
+
+        private SerializedFetchProfile(FetchProfile profile) {
+            this.name = profile.getName();
+            this.source = profile.getSource();
+            for (FetchProfile.Fetch fetch : profile.getFetches()) {
+                fetches.add(new String[]{fetch.getEntity(), fetch.getAssociation(), fetch.getStyle()});
+            }
+        }
+
+        private Object readResolve() {
+            FetchProfile profile = new FetchProfile(name, source);
+            for (String[] fetch : fetches) {
+                profile.addFetch(fetch[0], fetch[1], fetch[2]);
+            }
+            return profile;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.devinkin.jpa.bulk;
+
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.QueryStreams;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import org.hibernate.Cache;
+import org.hibernate.HibernateException;
+import org.hibernate.ejb.HibernateEntityManagerImplementor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * 修改或删除大量的行:
+ * 1. 按id分块，每块执行一条 UPDATE/DELETE ... WHERE ID IN (...)，IN列表最多 chunkSize 个参数
+ * 2. 每个分块在 PersistenceExecutor 的一个线程、连接和事务中执行，最多 parallelism 个分块同时执行
+ * 3. 每个分块提交后只从二级缓存中清除这些id的实体(和它们拥有的集合)，并按表清除查询缓存
+ * 也可以用JPQL条件(别名为x)选择要修改的行，id通过游标分批读取，不会一次全部放入内存。
+ * 游标在调用线程上占用一个连接，同时执行的分块数不超过许可数减1，只有一个许可时先读取全部id再执行。
+ * 这里直接执行SQL而不是JPQL的executeUpdate: Hibernate执行批量JPQL和原生SQL后会清空整个实体缓存区域。
+ * 注意:
+ * 1. 整个操作不在一个事务中，失败时已经提交的分块不会回滚，之后的分块不再执行，异常抛给调用者
+ * 2. 实体有 @Version 时每次修改版本号加1，持有旧版本的事务提交时会发生乐观锁冲突
+ * 3. 不会级联: 删除前要先处理引用这些行的外键，调用者已经打开的EntityManager中的实体不会被更新
+ * <pre>
+ * Map&lt;String, Object&gt; values = new HashMap&lt;&gt;();
+ * values.put("email", "none@163.com");
+ * new BulkMutation&lt;&gt;(executor, Customer.class).chunkSize(500).parallelism(4)
+ *         .updateWhere("x.age &gt; :age", Collections.singletonMap("age", 60), values);
+ * </pre>
+ */
+public class BulkMutation<T> {
+    // 通过游标读取id时每次读取的行数
+    private static final int FETCH_SIZE = 1000;
+
+    private final PersistenceExecutor executor;
+    private final Class<T> entityClass;
+    private final SessionFactoryImplementor sessionFactory;
+    private final AbstractEntityPersister persister;
+    private final Cache cache;
+    private int chunkSize = 500;
+    private int parallelism = 1;
+    private BulkProgressListener listener;
+
+    public BulkMutation(PersistenceExecutor executor, Class<T> entityClass) {
+        this.executor = executor;
+        this.entityClass = entityClass;
+        this.sessionFactory = HibernateUtils.sessionFactory(executor.getEntityManagerFactory());
+        this.persister = (AbstractEntityPersister) sessionFactory.getClassMetadata(entityClass);
+        this.cache = sessionFactory.getCache();
+    }
+
+    public BulkMutation<T> chunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    // 同时执行的分块数，不超过 PersistenceExecutor 的许可数
+    public BulkMutation<T> parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = Math.min(parallelism, executor.getPermits());
+        return this;
+    }
+
+    public BulkMutation<T> progressListener(BulkProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 把这些id对应的行的属性修改为values中的值，key为属性名，可以是基本属性或n-1/1-1关联的实体。
+     */
+    public BulkProgress update(Collection<?> ids, Map<String, Object> values) {
+        Statement statement = new UpdateStatement(values);
+        return run(ids.iterator(), ids.size(), statement, parallelism);
+    }
+
+    public BulkProgress updateWhere(String predicate, Map<String, ?> parameters, Map<String, Object> values) {
+        Statement statement = new UpdateStatement(values);
+        return runWhere(predicate, parameters, statement);
+    }
+
+    public BulkProgress delete(Collection<?> ids) {
+        return run(ids.iterator(), ids.size(), new DeleteStatement(), parallelism);
+    }
+
+    public BulkProgress deleteWhere(String predicate, Map<String, ?> parameters) {
+        return runWhere(predicate, parameters, new DeleteStatement());
+    }
+
+    // 先在一个只读的EntityManager中用游标读取满足条件的id，边读边提交分块
+    private BulkProgress runWhere(String predicate, Map<String, ?> parameters, Statement statement) {
+        // 游标的连接不受 PersistenceExecutor 的许可数限制，分块只能使用剩下的连接，否则最后一个分块一直等不到连接
+        int available = executor.getPermits() - 1;
+        List<Object> all = new ArrayList<>();
+        EntityManager entityManager = executor.getEntityManagerFactory().createEntityManager();
+        try {
+            Query query = entityManager.createQuery("SELECT x." + persister.getIdentifierPropertyName()
+                    + " FROM " + entityClass.getName() + " x WHERE " + predicate);
+            for (Map.Entry<String, ?> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+            QueryStreams.ResultIterator<Object> ids = QueryStreams.iterate(entityManager, query, FETCH_SIZE);
+            try {
+                if (available > 0) {
+                    return run(ids, -1, statement, Math.min(parallelism, available));
+                }
+                // 只有一个连接时先读取全部id，关闭游标后再执行
+                while (ids.hasNext()) {
+                    all.add(ids.next());
+                }
+            } finally {
+                ids.close();
+            }
+        } finally {
+            entityManager.close();
+        }
+        return run(all.iterator(), all.size(), statement, parallelism);
+    }
+
+    private BulkProgress run(Iterator<?> ids, long totalIds, final Statement statement, int parallelism) {
+        final int permits = statement.isParallelSafe() ? parallelism : 1;
+        final Semaphore running = new Semaphore(permits);
+        final Progress progress = new Progress(totalIds);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            List<Serializable> chunk = new ArrayList<>(chunkSize);
+            while (ids.hasNext() && failure.get() == null) {
+                chunk.add((Serializable) ids.next());
+                if (chunk.size() == chunkSize || !ids.hasNext()) {
+                    running.acquireUninterruptibly();
+                    if (failure.get() != null) {
+                        running.release();
+                        break;
+                    }
+                    submit(chunk, statement, progress, failure, running);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+        } finally {
+            // 等待所有已经提交的分块执行完
+            running.acquireUninterruptibly(permits);
+        }
+        Throwable throwable = failure.get();
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        if (throwable != null) {
+            throw new CompletionException(throwable);
+        }
+        return progress.snapshot();
+    }
+
+    private void submit(final List<Serializable> ids, final Statement statement, final Progress progress,
+                        final AtomicReference<Throwable> failure, final Semaphore running) {
+        final Serializable[] spaces = persister.getQuerySpaces();
+        executor.supply(new PersistenceWork<Integer>() {
+            @Override
+            public Integer execute(EntityManager entityManager) {
+                // 执行前也清除一次，避免执行前的并发读取把旧数据放入缓存
+                evict(ids, statement);
+                if (sessionFactory.getSettings().isQueryCacheEnabled()) {
+                    sessionFactory.getUpdateTimestampsCache().preinvalidate(spaces);
+                }
+                final SessionImplementor session = (SessionImplementor) HibernateUtils.session(entityManager);
+                try {
+                    return HibernateUtils.session(entityManager).doReturningWork(new ReturningWork<Integer>() {
+                        @Override
+                        public Integer execute(Connection connection) throws SQLException {
+                            return statement.execute(connection, session, ids);
+                        }
+                    });
+                } catch (HibernateException e) {
+                    // 和EntityManager的其他方法一样抛出JPA的异常
+                    throw ((HibernateEntityManagerImplementor) entityManager).convert(e);
+                }
+            }
+        }).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer rows, Throwable throwable) {
+                try {
+                    // 提交或回滚之后清除
+                    evict(ids, statement);
+                    if (sessionFactory.getSettings().isQueryCacheEnabled()) {
+                        sessionFactory.getUpdateTimestampsCache().invalidate(spaces);
+                    }
+                    if (throwable != null) {
+                        failure.compareAndSet(null, throwable instanceof CompletionException
+                                && throwable.getCause() != null ? throwable.getCause() : throwable);
+                    } else {
+                        progress.completed(ids.size(), rows, listener);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    running.release();
+                }
+            }
+        });
+    }
+
+    private void evict(List<Serializable> ids, Statement statement) {
+        if (!sessionFactory.getSettings().isSecondLevelCacheEnabled()) {
+            return;
+        }
+        String entityName = persister.getEntityName();
+        for (Serializable id : ids) {
+            cache.evictEntity(entityName, id);
+        }
+        for (String role : ownedCollectionRoles()) {
+            for (Serializable id : ids) {
+                cache.evictCollection(role, id);
+            }
+        }
+        // 删除或修改关联关系时，包含这些实体的集合(如Category.items)不知道属于哪个对象，清除整个区域
+        if (statement.changesAssociations()) {
+            Set<String> roles = sessionFactory.getCollectionRolesByEntityParticipant(entityName);
+            if (roles != null) {
+                for (String role : roles) {
+                    cache.evictCollectionRegion(role);
+                }
+            }
+        }
+    }
+
+    private List<String> ownedCollectionRoles() {
+        List<String> roles = new ArrayList<>();
+        for (Type type : persister.getPropertyTypes()) {
+            if (type instanceof CollectionType) {
+                roles.add(((CollectionType) type).getRole());
+            }
+        }
+        return roles;
+    }
+
+    // 实体有指向自己类型的关联时(如父子关系)，不同分块中的行互相引用，并行执行可能死锁
+    private boolean isSelfReferencing() {
+        for (Type type : persister.getPropertyTypes()) {
+            if (type instanceof EntityType
+                    && persister.getEntityName().equals(((EntityType) type).getAssociatedEntityName(sessionFactory))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String inList(int size) {
+        StringBuilder sql = new StringBuilder(" WHERE ").append(persister.getIdentifierColumnNames()[0]).append(" IN (");
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private int bindIds(PreparedStatement statement, SessionImplementor session, List<Serializable> ids, int index)
+            throws SQLException {
+        Type idType = persister.getIdentifierType();
+        for (Serializable id : ids) {
+            idType.nullSafeSet(statement, id, index++, session);
+        }
+        return index;
+    }
+
+    private interface Statement {
+        int execute(Connection connection, SessionImplementor session, List<Serializable> ids) throws SQLException;
+
+        boolean isParallelSafe();
+
+        boolean changesAssociations();
+    }
+
+    private class UpdateStatement implements Statement {
+        // 属性名 -> 值，按调用者给出的顺序
+        private final Map<String, Object> values;
+        private final String setClause;
+        private final boolean changesAssociations;
+
+        private UpdateStatement(Map<String, Object> values) {
+            if (values.isEmpty()) {
+                throw new IllegalArgumentException("No attributes to update");
+            }
+            this.values = new LinkedHashMap<>(values);
+            StringBuilder set = new StringBuilder();
+            boolean associations = false;
+            for (String attribute : this.values.keySet()) {
+                // 属性不存在时抛出 QueryException
+                Type type = persister.getPropertyType(attribute);
+                if (type.isCollectionType() || attribute.equals(persister.getIdentifierPropertyName())
+                        || (persister.isVersioned() && persister.getPropertyNames()[persister.getVersionProperty()].equals(attribute))) {
+                    throw new IllegalArgumentException("Cannot bulk update attribute: " + attribute);
+                }
+                associations |= type.isEntityType();
+                for (String column : persister.getPropertyColumnNames(attribute)) {
+                    set.append(set.length() == 0 ? "" : ", ").append(column).append(" = ?");
+                }
+            }
+            if (persister.isVersioned()) {
+                String version = persister.getVersionColumnName();
+                set.append(", ").append(version).append(" = ").append(version).append(" + 1");
+            }
+            this.setClause = set.toString();
+            this.changesAssociations = associations;
+        }
+
+        @Override
+        public int execute(Connection connection, SessionImplementor session, List<Serializable> ids) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE " + persister.getTableName() + " SET " + setClause + inList(ids.size()));
+            try {
+                int index = 1;
+                for (Map.Entry<String, Object> value : values.entrySet()) {
+                    Type type = persister.getPropertyType(value.getKey());
+                    type.nullSafeSet(statement, value.getValue(), index, session);
+                    index += type.getColumnSpan(sessionFactory);
+                }
+                bindIds(statement, session, ids, index);
+                return statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public boolean isParallelSafe() {
+            return !(changesAssociations && isSelfReferencing());
+        }
+
+        @Override
+        public boolean changesAssociations() {
+            return changesAssociations;
+        }
+    }
+
+    private class DeleteStatement implements Statement {
+
+        @Override
+        public int execute(Connection connection, SessionImplementor session, List<Serializable> ids) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM " + persister.getTableName() + inList(ids.size()));
+            try {
+                bindIds(statement, session, ids, 1);
+                return statement.executeUpdate();
+            } finally {
+                statement.close();
+            }
+        }
+
+        @Override
+        public boolean isParallelSafe() {
+            return !isSelfReferencing();
+        }
+
+        @Override
+        public boolean changesAssociations() {
+            return true;
+        }
+    }
+
+    // 在完成回调中更新，回调可能来自不同的线程
+    private static class Progress {
+        private final long totalIds;
+        private final long begin = System.nanoTime();
+        private long processedIds;
+        private long affectedRows;
+        private int completedChunks;
+
+        private Progress(long totalIds) {
+            this.totalIds = totalIds;
+        }
+
+        private synchronized void completed(int ids, int rows, BulkProgressListener listener) {
+            processedIds += ids;
+            affectedRows += rows;
+            completedChunks++;
+            if (listener != null) {
+                listener.onProgress(snapshot());
+            }
+        }
+
+        private synchronized BulkProgress snapshot() {
+            return new BulkProgress(totalIds, processedIds, affectedRows, completedChunks, System.nanoTime() - begin);
+        }
+    }
+}
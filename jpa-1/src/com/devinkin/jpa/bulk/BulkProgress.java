@@ -0,0 +1,67 @@
+package com.devinkin.jpa.bulk;
+
+/**
+ * 批量修改的进度快照，也是 BulkMutation 执行结束时的结果。
+ */
+public class BulkProgress {
+    private final long totalIds;
+    private final long processedIds;
+    private final long affectedRows;
+    private final int completedChunks;
+    private final long elapsedNanos;
+
+    public BulkProgress(long totalIds, long processedIds, long affectedRows, int completedChunks, long elapsedNanos) {
+        this.totalIds = totalIds;
+        this.processedIds = processedIds;
+        this.affectedRows = affectedRows;
+        this.completedChunks = completedChunks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // id的总数，按条件修改时事先不知道，为-1
+    public long getTotalIds() {
+        return totalIds;
+    }
+
+    // 已经提交的分块中的id数
+    public long getProcessedIds() {
+        return processedIds;
+    }
+
+    // 已经提交的分块实际修改的行数，id对应的行不存在时小于 processedIds
+    public long getAffectedRows() {
+        return affectedRows;
+    }
+
+    public int getCompletedChunks() {
+        return completedChunks;
+    }
+
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : affectedRows * 1e9 / elapsedNanos;
+    }
+
+    // 0到1之间，不知道总数时为-1
+    public double getFraction() {
+        if (totalIds < 0) {
+            return -1;
+        }
+        return totalIds == 0 ? 1 : (double) processedIds / totalIds;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkProgress{" +
+                "totalIds=" + totalIds +
+                ", processedIds=" + processedIds +
+                ", affectedRows=" + affectedRows +
+                ", completedChunks=" + completedChunks +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", rowsPerSecond=" + getRowsPerSecond() +
+                '}';
+    }
+}
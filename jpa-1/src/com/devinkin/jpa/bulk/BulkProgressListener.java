@@ -0,0 +1,8 @@
+package com.devinkin.jpa.bulk;
+
+/**
+ * 每个分块提交后被调用，同一时间只有一个线程调用。
+ */
+public interface BulkProgressListener {
+    void onProgress(BulkProgress progress);
+}
@@ -0,0 +1,265 @@
+package com.devinkin.jpa.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+import org.hibernate.HibernateException;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheDataRegion;
+import org.hibernate.cache.spi.QueryCache;
+import org.hibernate.cache.spi.QueryKey;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 包装 StandardQueryCache:
+ * 1. 记录区域中的查询依赖哪些表，表被修改时由 QueryCacheRegionFactory 清除整个区域
+ * 2. 按结果的行数(行数 * 每行的列数)而不是查询的个数限制区域大小，超出后淘汰最久未使用的结果
+ * 行数和依赖的表都按缓存中的查询结果记录，ehcache自己淘汰或过期的结果通过 CacheEventListener 同步移除。
+ */
+public class BoundedQueryCache implements QueryCache {
+    private final QueryCache delegate;
+    private final int maxRows;
+    private final QueryCacheRegionFactory regionFactory;
+    private final Ehcache ehcache;
+    private final CacheEventListener listener = new EntryListener();
+
+    // 按访问顺序排列，每个查询结果占用的行数和依赖的表
+    private final LinkedHashMap<QueryKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // 每张表被几个缓存的查询结果依赖
+    private final Map<Serializable, Integer> spaces = new HashMap<>();
+    private long rows;
+    // 读取总是在同一个线程中的写入之前，这时记录的表就是之后放入缓存的结果依赖的表
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public BoundedQueryCache(QueryCache delegate, int maxRows, QueryCacheRegionFactory regionFactory) {
+        this.delegate = delegate;
+        this.maxRows = maxRows;
+        this.regionFactory = regionFactory;
+        this.ehcache = delegate.getRegion() instanceof EhcacheDataRegion
+                ? ((EhcacheDataRegion) delegate.getRegion()).getEhcache()
+                : null;
+        if (ehcache != null) {
+            ehcache.getCacheEventNotificationService().registerListener(listener);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List get(QueryKey key, Type[] returnTypes, boolean isNaturalKeyLookup, Set spaces,
+                    SessionImplementor session) throws HibernateException {
+        Set<Serializable> querySpaces = new HashSet<>();
+        for (Object space : spaces) {
+            querySpaces.add((Serializable) space);
+        }
+        pending.set(new Pending(key, querySpaces));
+        List result = delegate.get(key, returnTypes, isNaturalKeyLookup, spaces, session);
+        synchronized (entries) {
+            if (result == null) {
+                remove(key);
+            } else {
+                entries.get(key);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean put(QueryKey key, Type[] returnTypes, List result, boolean isNaturalKeyLookup,
+                       SessionImplementor session) throws HibernateException {
+        Pending query = pending.get();
+        pending.remove();
+        int weight = result.size() * Math.max(1, returnTypes.length);
+        if (weight > maxRows) {
+            return false;
+        }
+        boolean cached = delegate.put(key, returnTypes, result, isNaturalKeyLookup, session);
+        if (!cached) {
+            return false;
+        }
+        Set<Serializable> querySpaces = query != null && query.key.equals(key)
+                ? query.spaces
+                : Collections.<Serializable>emptySet();
+        List<QueryKey> evicted = new ArrayList<>();
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, new Entry(weight, querySpaces));
+            rows += weight;
+            for (Serializable space : querySpaces) {
+                Integer count = spaces.get(space);
+                spaces.put(space, count == null ? 1 : count + 1);
+            }
+            while (rows > maxRows) {
+                QueryKey eldest = entries.keySet().iterator().next();
+                remove(eldest);
+                evicted.add(eldest);
+            }
+        }
+        for (QueryKey eldest : evicted) {
+            delegate.getRegion().evict(eldest);
+            evictionCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    // 调用时持有 entries 的锁
+    private void remove(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        rows -= entry.weight;
+        for (Serializable space : entry.spaces) {
+            Integer count = spaces.get(space);
+            if (count == null || count <= 1) {
+                spaces.remove(space);
+            } else {
+                spaces.put(space, count - 1);
+            }
+        }
+    }
+
+    private void removeAll() {
+        synchronized (entries) {
+            entries.clear();
+            spaces.clear();
+            rows = 0;
+        }
+    }
+
+    boolean dependsOn(Object space) {
+        synchronized (entries) {
+            return spaces.containsKey(space);
+        }
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        removeAll();
+        delegate.clear();
+        invalidationCount.incrementAndGet();
+    }
+
+    @Override
+    public void destroy() {
+        if (regionFactory != null) {
+            regionFactory.unregister(this);
+        }
+        if (ehcache != null) {
+            ehcache.getCacheEventNotificationService().unregisterListener(listener);
+        }
+        delegate.destroy();
+    }
+
+    @Override
+    public QueryResultsRegion getRegion() {
+        return delegate.getRegion();
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public long getRows() {
+        synchronized (entries) {
+            return rows;
+        }
+    }
+
+    // 缓存中的查询结果依赖的表的个数
+    public int getSpaceCount() {
+        synchronized (entries) {
+            return spaces.size();
+        }
+    }
+
+    // 因为依赖的表被修改而清除整个区域的次数
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    // 因为超出行数限制而淘汰的查询结果的个数
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedQueryCache(" + getRegion().getName() + ")";
+    }
+
+    private static class Entry {
+        private final int weight;
+        private final Set<Serializable> spaces;
+
+        private Entry(int weight, Set<Serializable> spaces) {
+            this.weight = weight;
+            this.spaces = spaces;
+        }
+    }
+
+    private static class Pending {
+        private final QueryKey key;
+        private final Set<Serializable> spaces;
+
+        private Pending(QueryKey key, Set<Serializable> spaces) {
+            this.key = key;
+            this.spaces = spaces;
+        }
+    }
+
+    // ehcache按 maxElementsInMemory 淘汰、过期或被移除的结果，不再占用行数
+    private class EntryListener implements CacheEventListener {
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) {
+            removeEntry(element);
+        }
+
+        @Override
+        public void notifyElementExpired(Ehcache cache, Element element) {
+            removeEntry(element);
+        }
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            removeEntry(element);
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            removeAll();
+        }
+
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) {
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) {
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException();
+        }
+
+        private void removeEntry(Element element) {
+            synchronized (entries) {
+                remove(element.getObjectKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.devinkin.jpa.cache;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cache.internal.StandardQueryCache;
+import org.hibernate.cache.spi.QueryCache;
+import org.hibernate.cache.spi.QueryCacheFactory;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.cfg.Settings;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import java.util.Properties;
+
+/**
+ * 创建按结果行数限制内存的查询缓存，通过 hibernate.cache.query_cache_factory 配置。
+ * 每个区域最多缓存的行数由 hibernate.cache.query_cache.max_rows 指定，
+ * 也可以用 hibernate.cache.query_cache.max_rows.区域名 单独指定某个区域。
+ */
+public class BoundedQueryCacheFactory implements QueryCacheFactory {
+    public static final String MAX_ROWS = "hibernate.cache.query_cache.max_rows";
+    public static final int DEFAULT_MAX_ROWS = 10000;
+
+    @Override
+    public QueryCache getQueryCache(String regionName, UpdateTimestampsCache updateTimestampsCache,
+                                    Settings settings, Properties props) throws HibernateException {
+        StandardQueryCache delegate = new StandardQueryCache(settings, props, updateTimestampsCache, regionName);
+        int maxRows = ConfigurationHelper.getInt(MAX_ROWS, props, DEFAULT_MAX_ROWS);
+        maxRows = ConfigurationHelper.getInt(MAX_ROWS + "." + delegate.getRegion().getName(), props, maxRows);
+
+        QueryCacheRegionFactory regionFactory = settings.getRegionFactory() instanceof QueryCacheRegionFactory
+                ? (QueryCacheRegionFactory) settings.getRegionFactory()
+                : null;
+        BoundedQueryCache queryCache = new BoundedQueryCache(delegate, maxRows, regionFactory);
+        if (regionFactory != null) {
+            regionFactory.register(queryCache);
+        }
+        return queryCache;
+    }
+}
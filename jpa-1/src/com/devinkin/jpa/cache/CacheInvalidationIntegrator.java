@@ -0,0 +1,47 @@
+package com.devinkin.jpa.cache;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * 在SessionFactory创建时注册二级缓存失效相关的事件监听器。
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 自动加载。
+ */
+public class CacheInvalidationIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(sessionFactory, serviceRegistry);
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(sessionFactory, serviceRegistry);
+    }
+
+    private void integrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        if (!sessionFactory.getSettings().isSecondLevelCacheEnabled()) {
+            return;
+        }
+        EventListenerRegistry registry = serviceRegistry.getService(EventListenerRegistry.class);
+
+        CollectionCacheInvalidator collectionInvalidator = new CollectionCacheInvalidator(sessionFactory);
+        registry.appendListeners(EventType.POST_INSERT, collectionInvalidator);
+        registry.appendListeners(EventType.POST_UPDATE, collectionInvalidator);
+        registry.appendListeners(EventType.POST_DELETE, collectionInvalidator);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, collectionInvalidator);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, collectionInvalidator);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, collectionInvalidator);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
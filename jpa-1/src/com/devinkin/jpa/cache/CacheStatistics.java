@@ -0,0 +1,78 @@
+package com.devinkin.jpa.cache;
+
+import com.devinkin.jpa.HibernateUtils;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheDataRegion;
+import org.hibernate.cache.spi.Region;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 按区域查看二级缓存的命中、未命中、放入和淘汰次数。
+ * 命中/未命中/放入次数来自Hibernate的统计(需要 hibernate.generate_statistics=true)，
+ * 淘汰次数和元素个数来自ehcache(需要在ehcache.xml中配置 statistics="true")。
+ */
+public class CacheStatistics {
+    private final SessionFactoryImplementor sessionFactory;
+
+    public CacheStatistics(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = HibernateUtils.sessionFactory(entityManagerFactory);
+    }
+
+    public List<RegionStatistics> getRegions() {
+        // getAllSecondLevelCacheRegions 返回原始类型的Map，只需要按名称排序
+        Set<String> regionNames = new TreeSet<>();
+        for (Object regionName : sessionFactory.getAllSecondLevelCacheRegions().keySet()) {
+            regionNames.add((String) regionName);
+        }
+        List<RegionStatistics> result = new ArrayList<>();
+        for (String regionName : regionNames) {
+            result.add(getRegion(regionName));
+        }
+        return result;
+    }
+
+    // 实体缓存区域的名称为实体类的全类名
+    public RegionStatistics getRegion(Class<?> entityClass) {
+        return getRegion(entityClass.getName());
+    }
+
+    public RegionStatistics getRegion(String regionName) {
+        Region region = sessionFactory.getSecondLevelCacheRegion(regionName);
+        if (region == null) {
+            throw new IllegalArgumentException("No second level cache region named " + regionName);
+        }
+
+        long hits = 0, misses = 0, puts = 0;
+        SecondLevelCacheStatistics statistics = sessionFactory.getStatistics().isStatisticsEnabled()
+                ? sessionFactory.getStatistics().getSecondLevelCacheStatistics(regionName)
+                : null;
+        if (statistics != null) {
+            hits = statistics.getHitCount();
+            misses = statistics.getMissCount();
+            puts = statistics.getPutCount();
+        }
+
+        long evictions = 0;
+        if (region instanceof EhcacheDataRegion) {
+            evictions = ((EhcacheDataRegion) region).getEhcache().getStatistics().getEvictionCount();
+        }
+        return new RegionStatistics(regionName, hits, misses, puts, evictions,
+                region.getElementCountInMemory(), region.getElementCountOnDisk());
+    }
+
+    // 清空统计数据，不清空缓存
+    public void clear() {
+        sessionFactory.getStatistics().clear();
+        for (Object region : sessionFactory.getAllSecondLevelCacheRegions().values()) {
+            if (region instanceof EhcacheDataRegion) {
+                ((EhcacheDataRegion) region).getEhcache().clearStatistics();
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.devinkin.jpa.cache;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.EntityType;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * 关联关系由对方维护(mappedBy)的集合，被缓存后Hibernate不会在对方修改时清除集合缓存:
+ * 1. Order 修改了 customer，Customer.orders 的缓存不会失效
+ * 2. Item.categories 修改了 JPA_ITEM_CATEGORY 中的记录，Category.items 的缓存不会失效
+ * 这个监听器在对方修改时只清除受影响的那几个所有者的集合缓存，而不是整个缓存区域。
+ */
+public class CollectionCacheInvalidator implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener, PostCollectionRecreateEventListener, PostCollectionUpdateEventListener,
+        PostCollectionRemoveEventListener {
+
+    private final SessionFactoryImplementor sessionFactory;
+    // 一对多: n的一端的实体名 -> 由它维护的被缓存的集合
+    private final Map<String, List<InverseCollection>> oneToManyByEntity = new HashMap<>();
+    // 多对多: 维护关联关系的集合 -> 被缓存的对方的集合
+    private final Map<String, String> manyToManyByOwningRole = new HashMap<>();
+
+    // Integrator执行时集合持久化器还没有创建，第一次收到事件时再分析映射
+    private volatile boolean initialized;
+
+    public CollectionCacheInvalidator(SessionFactoryImplementor sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    private void initialize() {
+        if (initialized) {
+            return;
+        }
+        synchronized (this) {
+            if (initialized) {
+                return;
+            }
+            for (CollectionPersister persister : sessionFactory.getCollectionPersisters().values()) {
+                if (!persister.hasCache() || !persister.isInverse() || !persister.getElementType().isEntityType()) {
+                    continue;
+                }
+                EntityPersister owner = persister.getOwnerEntityPersister();
+                String property = persister.getRole().substring(owner.getEntityName().length() + 1);
+                String mappedBy = mappedBy(owner.getMappedClass(), property);
+                if (mappedBy == null) {
+                    continue;
+                }
+                String elementEntityName = ((EntityType) persister.getElementType()).getAssociatedEntityName(sessionFactory);
+                if (persister.isManyToMany()) {
+                    manyToManyByOwningRole.put(elementEntityName + "." + mappedBy, persister.getRole());
+                } else {
+                    List<InverseCollection> collections = oneToManyByEntity.get(elementEntityName);
+                    if (collections == null) {
+                        collections = new ArrayList<>();
+                        oneToManyByEntity.put(elementEntityName, collections);
+                    }
+                    collections.add(new InverseCollection(persister.getRole(), mappedBy));
+                }
+            }
+            initialized = true;
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        for (InverseCollection collection : inverseCollections(event.getPersister())) {
+            int index = event.getPersister().getEntityMetamodel().getPropertyIndex(collection.mappedBy);
+            invalidateOwner(collection.role, event.getState()[index], event.getSession());
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        for (InverseCollection collection : inverseCollections(event.getPersister())) {
+            int index = event.getPersister().getEntityMetamodel().getPropertyIndex(collection.mappedBy);
+            // merge游离对象时可能没有旧的状态，无法确定原来的所有者，只能清除整个区域
+            if (event.getOldState() == null) {
+                invalidate(collection.role, null, event.getSession());
+                continue;
+            }
+            Object oldOwner = event.getOldState()[index];
+            Object newOwner = event.getState()[index];
+            if (oldOwner != newOwner) {
+                invalidateOwner(collection.role, oldOwner, event.getSession());
+                invalidateOwner(collection.role, newOwner, event.getSession());
+            }
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        for (InverseCollection collection : inverseCollections(event.getPersister())) {
+            int index = event.getPersister().getEntityMetamodel().getPropertyIndex(collection.mappedBy);
+            invalidateOwner(collection.role, event.getDeletedState()[index], event.getSession());
+        }
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        onCollectionChange(event);
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        onCollectionChange(event);
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        onCollectionChange(event);
+    }
+
+    // 多对多: 当前集合中的元素以及修改前快照中的元素，它们的反向集合都受影响
+    private void onCollectionChange(AbstractCollectionEvent event) {
+        initialize();
+        PersistentCollection collection = event.getCollection();
+        String inverseRole = manyToManyByOwningRole.get(collection.getRole());
+        if (inverseRole == null) {
+            return;
+        }
+        if (!collection.wasInitialized()) {
+            invalidate(inverseRole, null, event.getSession());
+            return;
+        }
+        if (collection instanceof Collection) {
+            for (Object element : (Collection<?>) collection) {
+                invalidateOwner(inverseRole, element, event.getSession());
+            }
+        }
+        Serializable snapshot = collection.getStoredSnapshot();
+        Collection<?> elements = snapshot instanceof Map ? ((Map<?, ?>) snapshot).values()
+                : snapshot instanceof Collection ? (Collection<?>) snapshot
+                : null;
+        if (elements != null) {
+            for (Object element : elements) {
+                invalidateOwner(inverseRole, element, event.getSession());
+            }
+        }
+    }
+
+    private List<InverseCollection> inverseCollections(EntityPersister persister) {
+        initialize();
+        List<InverseCollection> collections = oneToManyByEntity.get(persister.getEntityName());
+        return collections == null ? Collections.<InverseCollection>emptyList() : collections;
+    }
+
+    private void invalidateOwner(String role, Object owner, EventSource session) {
+        if (owner == null) {
+            return;
+        }
+        Serializable id = owner instanceof HibernateProxy
+                ? ((HibernateProxy) owner).getHibernateLazyInitializer().getIdentifier()
+                : session.getEntityPersister(null, owner).getIdentifier(owner, session);
+        if (id != null) {
+            invalidate(role, id, session);
+        }
+    }
+
+    // 和Hibernate自己修改集合时一样: flush时给缓存项加软锁，事务结束后解锁。
+    // 加锁期间其他事务读到的旧数据不会被放入缓存；若直接清除缓存项，
+    // READ_WRITE策略在事务结束解锁时找不到自己加的锁，会放入一个过期的锁，在锁超时前该集合无法再被缓存
+    private void invalidate(String role, Serializable ownerId, EventSource session) {
+        final CollectionRegionAccessStrategy access = sessionFactory.getCollectionPersister(role).getCacheAccessStrategy();
+        if (ownerId == null) {
+            final SoftLock lock = access.lockRegion();
+            session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                @Override
+                public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                    access.unlockRegion(lock);
+                }
+            });
+        } else {
+            final CacheKey key = session.generateCacheKey(ownerId,
+                    sessionFactory.getCollectionPersister(role).getKeyType(), role);
+            final SoftLock lock = access.lockItem(key, null);
+            session.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                @Override
+                public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                    access.unlockItem(key, lock);
+                }
+            });
+        }
+    }
+
+    // 映射注解可以写在getter或者字段上
+    private static String mappedBy(Class<?> ownerClass, String property) {
+        String getter = "get" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Class<?> type = ownerClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            try {
+                Method method = type.getDeclaredMethod(getter);
+                String mappedBy = mappedBy(method.getAnnotation(OneToMany.class), method.getAnnotation(ManyToMany.class));
+                if (mappedBy != null) {
+                    return mappedBy;
+                }
+            } catch (NoSuchMethodException ignored) {
+            }
+            try {
+                Field field = type.getDeclaredField(property);
+                String mappedBy = mappedBy(field.getAnnotation(OneToMany.class), field.getAnnotation(ManyToMany.class));
+                if (mappedBy != null) {
+                    return mappedBy;
+                }
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static String mappedBy(OneToMany oneToMany, ManyToMany manyToMany) {
+        String mappedBy = oneToMany != null ? oneToMany.mappedBy() : manyToMany != null ? manyToMany.mappedBy() : "";
+        return mappedBy.isEmpty() ? null : mappedBy;
+    }
+
+    private static class InverseCollection {
+        private final String role;
+        private final String mappedBy;
+
+        private InverseCollection(String role, String mappedBy) {
+            this.role = role;
+            this.mappedBy = mappedBy;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.devinkin.jpa.cache;
+
+import net.sf.ehcache.Ehcache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheTimestampsRegion;
+import org.hibernate.cache.ehcache.internal.strategy.EhcacheAccessStrategyFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 在 EhCacheRegionFactory 的基础上按表清除查询缓存区域。
+ * Hibernate 修改表(flush、executeUpdate、原生SQL)时都会把表名写入 UpdateTimestampsCache，
+ * 这里在写入时清除依赖这张表的查询缓存区域，其他区域不受影响。
+ * 默认情况下过期的查询结果只会在下次读取时被丢弃，之前一直占用内存。
+ */
+public class QueryCacheRegionFactory extends EhCacheRegionFactory {
+    private final CopyOnWriteArrayList<BoundedQueryCache> queryCaches = new CopyOnWriteArrayList<>();
+
+    public QueryCacheRegionFactory() {
+    }
+
+    public QueryCacheRegionFactory(Properties properties) {
+        super(properties);
+    }
+
+    @Override
+    public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties) throws CacheException {
+        Ehcache cache = ((EhcacheTimestampsRegion) super.buildTimestampsRegion(regionName, properties)).getEhcache();
+        return new InvalidatingTimestampsRegion(accessStrategyFactory, cache, properties);
+    }
+
+    void register(BoundedQueryCache queryCache) {
+        queryCaches.add(queryCache);
+    }
+
+    void unregister(BoundedQueryCache queryCache) {
+        queryCaches.remove(queryCache);
+    }
+
+    private void invalidate(Object space) {
+        for (BoundedQueryCache queryCache : queryCaches) {
+            if (queryCache.dependsOn(space)) {
+                queryCache.clear();
+            }
+        }
+    }
+
+    private class InvalidatingTimestampsRegion extends EhcacheTimestampsRegion {
+
+        private InvalidatingTimestampsRegion(EhcacheAccessStrategyFactory accessStrategyFactory, Ehcache underlyingCache,
+                                             Properties properties) {
+            super(accessStrategyFactory, underlyingCache, properties);
+        }
+
+        // key为表名，value为修改时间
+        @Override
+        public void put(Object key, Object value) throws CacheException {
+            super.put(key, value);
+            invalidate(key);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.devinkin.jpa.cache;
+
+/**
+ * 一个二级缓存区域的统计信息快照。
+ */
+public class RegionStatistics {
+    private final String regionName;
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long evictionCount;
+    private final long elementCountInMemory;
+    private final long elementCountOnDisk;
+
+    public RegionStatistics(String regionName, long hitCount, long missCount, long putCount,
+                            long evictionCount, long elementCountInMemory, long elementCountOnDisk) {
+        this.regionName = regionName;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCount = evictionCount;
+        this.elementCountInMemory = elementCountInMemory;
+        this.elementCountOnDisk = elementCountOnDisk;
+    }
+
+    public String getRegionName() {
+        return regionName;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getPutCount() {
+        return putCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getElementCountInMemory() {
+        return elementCountInMemory;
+    }
+
+    public long getElementCountOnDisk() {
+        return elementCountOnDisk;
+    }
+
+    public double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "RegionStatistics{" +
+                "regionName='" + regionName + '\'' +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", putCount=" + putCount +
+                ", evictionCount=" + evictionCount +
+                ", elementCountInMemory=" + elementCountInMemory +
+                ", elementCountOnDisk=" + elementCountOnDisk +
+                '}';
+    }
+}
@@ -0,0 +1,53 @@
+package com.devinkin.jpa.concurrent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重试前等待的时间: 上限按 multiplier 指数增长直到 maxDelay，实际等待时间在 [0, 上限] 中随机选取。
+ * 随机等待让同时冲突的事务错开重试的时间，不会再次同时冲突。
+ */
+public class Backoff {
+    // 立即重试
+    public static final Backoff NONE = new Backoff(0, 0, TimeUnit.MILLISECONDS, 1);
+
+    private final long initialNanos;
+    private final long maxNanos;
+    private final double multiplier;
+
+    public Backoff(long initialDelay, long maxDelay, TimeUnit unit, double multiplier) {
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid delay: " + initialDelay + ", " + maxDelay);
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("Multiplier must be at least 1: " + multiplier);
+        }
+        this.initialNanos = unit.toNanos(initialDelay);
+        this.maxNanos = unit.toNanos(maxDelay);
+        this.multiplier = multiplier;
+    }
+
+    // 每次重试等待时间的上限翻倍
+    public static Backoff exponential(long initialDelay, long maxDelay, TimeUnit unit) {
+        return new Backoff(initialDelay, maxDelay, unit, 2);
+    }
+
+    // 第retry次重试前等待的纳秒数，retry从1开始
+    public long delayNanos(int retry) {
+        if (maxNanos == 0) {
+            return 0;
+        }
+        double bound = initialNanos * Math.pow(multiplier, retry - 1);
+        long cap = bound >= maxNanos ? maxNanos : (long) bound;
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Backoff{" +
+                "initialMillis=" + initialNanos / 1e6 +
+                ", maxMillis=" + maxNanos / 1e6 +
+                ", multiplier=" + multiplier +
+                '}';
+    }
+}
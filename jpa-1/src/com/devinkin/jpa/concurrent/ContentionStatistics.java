@@ -0,0 +1,47 @@
+package com.devinkin.jpa.concurrent;
+
+/**
+ * 一种实体的乐观锁冲突统计快照。
+ */
+public class ContentionStatistics {
+    private final String entityName;
+    private final long conflicts;
+    private final long retries;
+    private final long exhausted;
+
+    public ContentionStatistics(String entityName, long conflicts, long retries, long exhausted) {
+        this.entityName = entityName;
+        this.conflicts = conflicts;
+        this.retries = retries;
+        this.exhausted = exhausted;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    // 因为这种实体的版本号不一致而失败的次数
+    public long getConflicts() {
+        return conflicts;
+    }
+
+    // 冲突后重新执行的次数
+    public long getRetries() {
+        return retries;
+    }
+
+    // 达到最大次数后仍然冲突，异常被抛给调用者的次数
+    public long getExhausted() {
+        return exhausted;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentionStatistics{" +
+                "entityName='" + entityName + '\'' +
+                ", conflicts=" + conflicts +
+                ", retries=" + retries +
+                ", exhausted=" + exhausted +
+                '}';
+    }
+}
@@ -0,0 +1,227 @@
+package com.devinkin.jpa.concurrent;
+
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.StaleStateException;
+import org.hibernate.proxy.HibernateProxy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在调用者的线程中执行工作单元，遇到乐观锁冲突(@Version 不一致)时在新的事务中重新执行。
+ * 每次执行都使用新的EntityManager，重新读取最新的数据，所以工作单元必须是可以重复执行的:
+ * 只通过传入的EntityManager读写数据，不依赖上一次执行的结果。
+ * 其他异常和最后一次冲突直接抛给调用者，事务已经回滚。
+ * <pre>
+ * retryExecutor.execute(new PersistenceWork&lt;Void&gt;() {
+ *     public Void execute(EntityManager entityManager) {
+ *         Customer customer = entityManager.find(Customer.class, id);
+ *         customer.setAge(customer.getAge() + 1);
+ *         return null;
+ *     }
+ * });
+ * </pre>
+ */
+public class OptimisticRetryExecutor {
+    // 冲突的异常中没有实体名称时使用
+    public static final String UNKNOWN_ENTITY = "unknown";
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final int maxAttempts;
+    private final Backoff backoff;
+
+    private final ConcurrentMap<String, Contention> contention = new ConcurrentHashMap<>();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+
+    /**
+     * @param maxAttempts 最多执行的次数，包括第一次
+     */
+    public OptimisticRetryExecutor(EntityManagerFactory entityManagerFactory, int maxAttempts, Backoff backoff) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Max attempts must be positive: " + maxAttempts);
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+    }
+
+    public <T> T execute(PersistenceWork<T> work) {
+        for (int attempt = 1; ; attempt++) {
+            attempts.increment();
+            try {
+                T result = executeInTransaction(work);
+                committed.increment();
+                return result;
+            } catch (RuntimeException e) {
+                String entityName = conflictingEntity(e);
+                if (entityName == null) {
+                    throw e;
+                }
+                Contention counters = contention(entityName);
+                counters.conflicts.increment();
+                if (attempt >= maxAttempts) {
+                    counters.exhausted.increment();
+                    throw e;
+                }
+                counters.retries.increment();
+                if (!sleep(attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private <T> T executeInTransaction(PersistenceWork<T> work) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            T result = work.execute(entityManager);
+            entityManager.getTransaction().commit();
+            return result;
+        } catch (RuntimeException e) {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // 被中断时不再重试，返回false
+    private boolean sleep(int retry) {
+        long delay = backoff.delayNanos(retry);
+        if (delay == 0) {
+            return true;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 乐观锁冲突时返回冲突的实体名称，其他异常返回null。
+     * flush时的冲突是 OptimisticLockException，提交时的冲突被包装在 RollbackException 中。
+     */
+    static String conflictingEntity(Throwable throwable) {
+        String entityName = null;
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StaleObjectStateException) {
+                return ((StaleObjectStateException) cause).getEntityName();
+            }
+            if (cause instanceof OptimisticLockException) {
+                Object entity = ((OptimisticLockException) cause).getEntity();
+                if (entity instanceof HibernateProxy) {
+                    // 不初始化代理
+                    return ((HibernateProxy) entity).getHibernateLazyInitializer().getEntityName();
+                }
+                if (entity != null) {
+                    return entity.getClass().getName();
+                }
+                entityName = UNKNOWN_ENTITY;
+            } else if (cause instanceof StaleStateException) {
+                // JDBC批量更新时只知道影响的行数不对
+                entityName = UNKNOWN_ENTITY;
+            }
+        }
+        return entityName;
+    }
+
+    private Contention contention(String entityName) {
+        Contention counters = contention.get(entityName);
+        if (counters == null) {
+            Contention created = new Contention();
+            counters = contention.putIfAbsent(entityName, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Backoff getBackoff() {
+        return backoff;
+    }
+
+    // 成功提交的工作单元数
+    public long getCommittedCount() {
+        return committed.sum();
+    }
+
+    // 执行的次数，包括重试
+    public long getAttemptCount() {
+        return attempts.sum();
+    }
+
+    public long getConflictCount() {
+        long conflicts = 0;
+        for (Contention counters : contention.values()) {
+            conflicts += counters.conflicts.sum();
+        }
+        return conflicts;
+    }
+
+    public long getRetryCount() {
+        long retries = 0;
+        for (Contention counters : contention.values()) {
+            retries += counters.retries.sum();
+        }
+        return retries;
+    }
+
+    // 按实体名称排序的冲突统计
+    public Map<String, ContentionStatistics> getContention() {
+        Map<String, ContentionStatistics> statistics = new TreeMap<>();
+        for (Map.Entry<String, Contention> entry : contention.entrySet()) {
+            Contention counters = entry.getValue();
+            statistics.put(entry.getKey(), new ContentionStatistics(entry.getKey(),
+                    counters.conflicts.sum(), counters.retries.sum(), counters.exhausted.sum()));
+        }
+        return statistics;
+    }
+
+    // 没有冲突时返回全为0的统计
+    public ContentionStatistics getContention(Class<?> entityClass) {
+        ContentionStatistics statistics = getContention().get(entityClass.getName());
+        return statistics != null ? statistics : new ContentionStatistics(entityClass.getName(), 0, 0, 0);
+    }
+
+    public void resetStatistics() {
+        contention.clear();
+        committed.reset();
+        attempts.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "OptimisticRetryExecutor{" +
+                "maxAttempts=" + maxAttempts +
+                ", backoff=" + backoff +
+                ", committed=" + getCommittedCount() +
+                ", attempts=" + getAttemptCount() +
+                ", contention=" + getContention().values() +
+                '}';
+    }
+
+    private static class Contention {
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder exhausted = new LongAdder();
+    }
+}
@@ -0,0 +1,267 @@
+package com.devinkin.jpa.concurrent;
+
+import com.devinkin.jpa.VirtualThreads;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 每个请求一个线程(可以是虚拟线程)执行 createEntityManager() -> find/merge -> commit。
+ * JDBC驱动和Hibernate内部的 synchronized 会把虚拟线程固定(pin)在载体线程上，
+ * 大量虚拟线程同时访问数据库时，载体线程都被固定的线程占满，吞吐量急剧下降。
+ * 所以访问数据库前先获取信号量，许可数等于连接池的大小:
+ * 1. 等待许可是 j.u.c 的park，不会固定载体线程
+ * 2. 获得许可的线程一定能立即拿到连接，不会在连接池中排队
+ * 固定事件可以用 PinningMonitor 观察。
+ */
+public class PersistenceExecutor implements Closeable {
+    // 所有执行器共用的超时计时线程
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "persistence-timeout");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final int permits;
+    private final Semaphore semaphore;
+
+    // 等待许可的时间，单位纳秒
+    private final Histogram permitWait = new ConcurrentHistogram(3);
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public PersistenceExecutor(EntityManagerFactory entityManagerFactory, int permits,
+                               ExecutorService executor, boolean virtualThreads) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Permits must be positive: " + permits);
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.executor = executor;
+        this.virtualThreads = virtualThreads;
+        this.permits = permits;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    /**
+     * 每个请求一个虚拟线程，许可数等于连接池的最大连接数。
+     * JDK不支持虚拟线程时抛出 UnsupportedOperationException，可以先用 VirtualThreads.isSupported() 判断。
+     */
+    public static PersistenceExecutor virtualThreads(EntityManagerFactory entityManagerFactory) {
+        ExecutorService executor = VirtualThreads.newExecutor("persistence-");
+        if (executor == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21, running on "
+                    + System.getProperty("java.version"));
+        }
+        return new PersistenceExecutor(entityManagerFactory, poolSize(entityManagerFactory), executor, true);
+    }
+
+    // 固定数量的平台线程，许可数同样等于连接池的最大连接数
+    public static PersistenceExecutor platformThreads(EntityManagerFactory entityManagerFactory, int threads) {
+        return new PersistenceExecutor(entityManagerFactory, poolSize(entityManagerFactory),
+                Executors.newFixedThreadPool(threads), false);
+    }
+
+    private static int poolSize(EntityManagerFactory entityManagerFactory) {
+        return HikariConnectionProvider.of(entityManagerFactory).getMaximumPoolSize();
+    }
+
+    public <T> Future<T> submit(final PersistenceWork<T> work) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws InterruptedException {
+                return execute(work);
+            }
+        });
+    }
+
+    public <T> CompletableFuture<T> supply(PersistenceWork<T> work) {
+        return supply(work, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 异步执行，超过timeout(大于0时)后返回的CompletableFuture以 TimeoutException 结束。
+     * 还在排队或等待许可的操作超时后不再访问数据库；已经开始执行的操作不会被中断，结果被丢弃。
+     */
+    public <T> CompletableFuture<T> supply(final PersistenceWork<T> work, long timeout, TimeUnit unit) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        // 计时线程和执行线程先抢到结束的权利，再结束result: completeExceptionally 会在返回前执行后续的回调，
+        // 超时计数必须在这之前增加，并且只在确实超时的时候增加
+        final AtomicBoolean settled = new AtomicBoolean();
+        if (timeout > 0) {
+            final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (settled.compareAndSet(false, true)) {
+                        timedOut.increment();
+                        result.completeExceptionally(new TimeoutException("Persistence work timed out"));
+                    }
+                }
+            }, timeout, unit);
+            result.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable throwable) {
+                    // 调用者取消或直接结束了result
+                    settled.set(true);
+                    timer.cancel(false);
+                }
+            });
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    try {
+                        T value = execute(work, result);
+                        if (settled.compareAndSet(false, true)) {
+                            result.complete(value);
+                        }
+                    } catch (Throwable e) {
+                        if (settled.compareAndSet(false, true)) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (settled.compareAndSet(false, true)) {
+                result.completeExceptionally(e);
+            }
+        }
+        return result;
+    }
+
+    // 在共用的计时线程中延迟执行，task应当很快结束(如再提交一个操作)
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+
+    // 在当前线程中执行，调用者本身已经是每个请求一个的(虚拟)线程时使用
+    public <T> T execute(PersistenceWork<T> work) throws InterruptedException {
+        return execute(work, null);
+    }
+
+    private <T> T execute(PersistenceWork<T> work, Future<?> caller) throws InterruptedException {
+        long begin = System.nanoTime();
+        semaphore.acquire();
+        permitWait.recordValue(System.nanoTime() - begin);
+        active.incrementAndGet();
+        try {
+            // 等待许可期间已经超时或被取消，不再访问数据库
+            if (caller != null && caller.isDone()) {
+                return null;
+            }
+            T result = executeInTransaction(work);
+            completed.increment();
+            return result;
+        } catch (RuntimeException e) {
+            failed.increment();
+            throw e;
+        } finally {
+            active.decrementAndGet();
+            semaphore.release();
+        }
+    }
+
+    private <T> T executeInTransaction(PersistenceWork<T> work) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            T result = work.execute(entityManager);
+            entityManager.getTransaction().commit();
+            return result;
+        } catch (RuntimeException e) {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    // 正在访问数据库的请求数，不会超过许可数
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    // 正在等待许可的请求数
+    public int getQueueLength() {
+        return semaphore.getQueueLength();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    // supply 返回的CompletableFuture因超时而结束的次数
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+    public double getP99PermitWaitMillis() {
+        return permitWait.getValueAtPercentile(99) / 1e6;
+    }
+
+    public double getMaxPermitWaitMillis() {
+        return permitWait.getMaxValue() / 1e6;
+    }
+
+    // 等待已经提交的请求执行完，不关闭 EntityManagerFactory
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.devinkin.jpa.concurrent;
+
+import javax.persistence.EntityManager;
+
+/**
+ * 在一个事务中执行的持久化操作，事务的开始、提交和回滚由 PersistenceExecutor 负责。
+ */
+public interface PersistenceWork<T> {
+
+    T execute(EntityManager entityManager);
+}
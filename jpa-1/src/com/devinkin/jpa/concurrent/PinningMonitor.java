@@ -0,0 +1,98 @@
+package com.devinkin.jpa.concurrent;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 通过JFR的事件流统计虚拟线程被固定在载体线程上的次数和时间(jdk.VirtualThreadPinned，JDK 21)。
+ * 项目按Java 8编译，JFR的API(jdk.jfr.consumer.RecordingStream，JDK 14)通过反射调用。
+ * 在没有虚拟线程的JDK上可以监视 jdk.JavaMonitorEnter(竞争 synchronized 的等待)，
+ * 它们就是在虚拟线程上会造成固定的地方。
+ * 也可以用 -Djdk.tracePinnedThreads=full 打印固定时的堆栈。
+ */
+public class PinningMonitor implements Closeable {
+    public static final String VIRTUAL_THREAD_PINNED = "jdk.VirtualThreadPinned";
+    public static final String JAVA_MONITOR_ENTER = "jdk.JavaMonitorEnter";
+
+    private final String eventName;
+    private final AutoCloseable stream;
+    private final LongAdder events = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicReference<String> lastEvent = new AtomicReference<>();
+
+    private PinningMonitor(String eventName, Duration threshold) throws ReflectiveOperationException {
+        this.eventName = eventName;
+        Class<?> streamType = Class.forName("jdk.jfr.consumer.RecordingStream");
+        Class<?> settingsType = Class.forName("jdk.jfr.EventSettings");
+        final Method getDuration = Class.forName("jdk.jfr.consumer.RecordedEvent").getMethod("getDuration");
+
+        stream = (AutoCloseable) streamType.getConstructor().newInstance();
+        Object settings = streamType.getMethod("enable", String.class).invoke(stream, eventName);
+        settings = settingsType.getMethod("withThreshold", Duration.class).invoke(settings, threshold);
+        settingsType.getMethod("withStackTrace").invoke(settings);
+        streamType.getMethod("onEvent", String.class, Consumer.class).invoke(stream, eventName, new Consumer<Object>() {
+            @Override
+            public void accept(Object event) {
+                events.increment();
+                try {
+                    totalNanos.add(((Duration) getDuration.invoke(event)).toNanos());
+                } catch (ReflectiveOperationException ignored) {
+                }
+                lastEvent.set(event.toString());
+            }
+        });
+        streamType.getMethod("startAsync").invoke(stream);
+    }
+
+    // 监视虚拟线程的固定事件，超过threshold的固定才会被记录(JDK默认20ms)
+    public static PinningMonitor start(Duration threshold) {
+        return start(VIRTUAL_THREAD_PINNED, threshold);
+    }
+
+    // JFR不可用(JDK 8、没有jdk.jfr模块)时返回null
+    public static PinningMonitor start(String eventName, Duration threshold) {
+        try {
+            return new PinningMonitor(eventName, threshold);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public long getEventCount() {
+        return events.sum();
+    }
+
+    public long getTotalMillis() {
+        return totalNanos.sum() / 1000000;
+    }
+
+    // 最后一个事件，包括线程和堆栈
+    public String getLastEvent() {
+        return lastEvent.get();
+    }
+
+    @Override
+    public void close() {
+        try {
+            stream.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PinningMonitor{" +
+                "eventName='" + eventName + '\'' +
+                ", eventCount=" + getEventCount() +
+                ", totalMillis=" + getTotalMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,16 @@
+package com.devinkin.jpa.dirty;
+
+import java.util.Set;
+
+/**
+ * 在setter中自己记录被修改属性的实体，flush时由 DirtyTrackingStrategy 读取。
+ */
+public interface DirtyTracker {
+
+    // 加载、插入或上次flush之后被修改的属性名
+    Set<String> dirtyAttributes();
+
+    boolean hasDirtyAttributes();
+
+    void clearDirtyAttributes();
+}
@@ -0,0 +1,39 @@
+package com.devinkin.jpa.dirty;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * 在SessionFactory创建时注册 DirtyTrackingListener。
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 自动加载。
+ */
+public class DirtyTrackingIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(serviceRegistry);
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(serviceRegistry);
+    }
+
+    private void integrate(SessionFactoryServiceRegistry serviceRegistry) {
+        EventListenerRegistry registry = serviceRegistry.getService(EventListenerRegistry.class);
+        DirtyTrackingListener listener = new DirtyTrackingListener();
+        registry.appendListeners(EventType.POST_LOAD, listener);
+        registry.appendListeners(EventType.POST_INSERT, listener);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
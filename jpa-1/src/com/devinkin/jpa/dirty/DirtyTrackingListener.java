@@ -0,0 +1,29 @@
+package com.devinkin.jpa.dirty;
+
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+
+/**
+ * Hibernate加载实体(包括从二级缓存中加载、refresh)时通过setter设置属性，插入前调用者也通过setter设置属性，
+ * 这些都会被记录为修改，所以在加载和插入之后清除。
+ */
+public class DirtyTrackingListener implements PostLoadEventListener, PostInsertEventListener {
+
+    @Override
+    public void onPostLoad(PostLoadEvent event) {
+        clear(event.getEntity());
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        clear(event.getEntity());
+    }
+
+    private static void clear(Object entity) {
+        if (entity instanceof DirtyTracker) {
+            ((DirtyTracker) entity).clearDirtyAttributes();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.devinkin.jpa.dirty;
+
+import org.hibernate.CustomEntityDirtinessStrategy;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
+
+import java.util.Set;
+
+/**
+ * 默认情况下flush要把上下文中每个实体的所有属性和加载时的快照逐个比较。
+ * 对实现了 DirtyTracker 的实体:
+ * 1. 没有被修改的属性时，flush直接跳过这个实体，不调用getter，也不比较快照
+ * 2. 有被修改的属性时，只把这些属性和快照比较，配合 @DynamicUpdate 只更新被修改的列
+ * Date 等可变类型的属性可能在原对象上修改，setter记录不到，这些属性总是和快照比较。
+ * 在 persistence.xml 中通过 hibernate.entity_dirtiness_strategy 启用。
+ * 加载和插入之后由 DirtyTrackingListener 清除记录，update之后由Hibernate调用 resetDirty 清除。
+ */
+public class DirtyTrackingStrategy implements CustomEntityDirtinessStrategy {
+
+    @Override
+    public boolean canDirtyCheck(Object entity, EntityPersister persister, Session session) {
+        return entity instanceof DirtyTracker;
+    }
+
+    @Override
+    public boolean isDirty(Object entity, EntityPersister persister, Session session) {
+        if (((DirtyTracker) entity).hasDirtyAttributes()) {
+            return true;
+        }
+        SessionImplementor sessionImplementor = (SessionImplementor) session;
+        EntityEntry entry = sessionImplementor.getPersistenceContext().getEntry(entity);
+        Object[] loadedState = entry == null ? null : entry.getLoadedState();
+        if (loadedState == null) {
+            return false;
+        }
+        // 只调用可变类型属性的getter
+        Type[] types = persister.getPropertyTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].isMutable()
+                    && types[i].isDirty(loadedState[i], persister.getPropertyValue(entity, i), sessionImplementor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void resetDirty(Object entity, EntityPersister persister, Session session) {
+        if (entity instanceof DirtyTracker) {
+            ((DirtyTracker) entity).clearDirtyAttributes();
+        }
+    }
+
+    /**
+     * 被记录的属性还要和快照比较: 插入前通过setter设置的属性也被记录了，
+     * 而新实体在插入的那次flush中就会被检查，这时它们和快照相同。
+     * 没有找到脏属性时Hibernate会再和快照完整比较一次，没有修改时调用 resetDirty。
+     */
+    @Override
+    public void findDirty(Object entity, EntityPersister persister, Session session, DirtyCheckContext dirtyCheckContext) {
+        if (!(entity instanceof DirtyTracker)) {
+            return;
+        }
+        final Set<String> dirtyAttributes = ((DirtyTracker) entity).dirtyAttributes();
+        final SessionImplementor sessionImplementor = (SessionImplementor) session;
+        EntityEntry entry = sessionImplementor.getPersistenceContext().getEntry(entity);
+        final Object[] loadedState = entry == null ? null : entry.getLoadedState();
+        dirtyCheckContext.doDirtyChecking(new AttributeChecker() {
+            @Override
+            public boolean isDirty(AttributeInformation attributeInformation) {
+                Type type = attributeInformation.getType();
+                if (!dirtyAttributes.contains(attributeInformation.getName()) && !type.isMutable()) {
+                    return false;
+                }
+                // 不能用 getLoadedValue，它会查询数据库
+                if (loadedState == null) {
+                    return true;
+                }
+                return type.isDirty(loadedState[attributeInformation.getAttributeIndex()],
+                        attributeInformation.getCurrentValue(), sessionImplementor);
+            }
+        });
+    }
+}
@@ -0,0 +1,30 @@
+package com.devinkin.jpa.dirty;
+
+import org.hibernate.CustomEntityDirtinessStrategy;
+import org.hibernate.Session;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * 不使用实体记录的修改，所有实体都和快照比较(Hibernate的默认行为)。
+ * 用于覆盖 persistence.xml 中的 DirtyTrackingStrategy，见 EmbeddedDatabase.disableDirtyTracking。
+ */
+public class SnapshotDirtinessStrategy implements CustomEntityDirtinessStrategy {
+
+    @Override
+    public boolean canDirtyCheck(Object entity, EntityPersister persister, Session session) {
+        return false;
+    }
+
+    @Override
+    public boolean isDirty(Object entity, EntityPersister persister, Session session) {
+        return false;
+    }
+
+    @Override
+    public void resetDirty(Object entity, EntityPersister persister, Session session) {
+    }
+
+    @Override
+    public void findDirty(Object entity, EntityPersister persister, Session session, DirtyCheckContext dirtyCheckContext) {
+    }
+}
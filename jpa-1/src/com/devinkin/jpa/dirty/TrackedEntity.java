@@ -0,0 +1,57 @@
+package com.devinkin.jpa.dirty;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 实体的父类，setter调用 track 记录被修改的属性。
+ * 这个类没有 @MappedSuperclass，不参与映射。
+ * 只有通过setter的修改才会被记录，Date 等可变对象在原对象上的修改由 DirtyTrackingStrategy 和快照比较发现。
+ */
+public abstract class TrackedEntity implements DirtyTracker {
+    // 大部分被加载的实体不会被修改，第一次修改时才创建
+    private Set<String> dirtyAttributes;
+
+    // 新值和旧值相同时不记录
+    protected void track(String attribute, Object oldValue, Object newValue) {
+        if (changed(oldValue, newValue)) {
+            if (dirtyAttributes == null) {
+                dirtyAttributes = new HashSet<>();
+            }
+            dirtyAttributes.add(attribute);
+        }
+    }
+
+    @Override
+    public Set<String> dirtyAttributes() {
+        return dirtyAttributes == null ? Collections.<String>emptySet() : dirtyAttributes;
+    }
+
+    @Override
+    public boolean hasDirtyAttributes() {
+        return dirtyAttributes != null && !dirtyAttributes.isEmpty();
+    }
+
+    @Override
+    public void clearDirtyAttributes() {
+        if (dirtyAttributes != null) {
+            dirtyAttributes.clear();
+        }
+    }
+
+    private static boolean changed(Object oldValue, Object newValue) {
+        if (oldValue == newValue) {
+            return false;
+        }
+        if (oldValue == null || newValue == null) {
+            return true;
+        }
+        // 加载的值是 java.sql.Timestamp，Timestamp.equals(Date) 总是false
+        if (oldValue instanceof Date && newValue instanceof Date) {
+            return ((Date) oldValue).getTime() != ((Date) newValue).getTime();
+        }
+        return !oldValue.equals(newValue);
+    }
+}
@@ -0,0 +1,155 @@
+package com.devinkin.jpa.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 读取 ColumnarExportFormat 写入的文件，一次读入一块。
+ * <pre>
+ * try (ColumnarReader reader = new ColumnarReader(path)) {
+ *     Object[] row;
+ *     while ((row = reader.next()) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ColumnarReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final List<ExportColumn> columns;
+    private Object[][] block;
+    private int rows;
+    private int position;
+    private boolean finished;
+
+    public ColumnarReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            buffer.limit(0);
+            if (getInt() != ColumnarExportFormat.MAGIC) {
+                throw new IOException("Not a columnar export file: " + path);
+            }
+            int version = getInt();
+            if (version != ColumnarExportFormat.VERSION) {
+                throw new IOException("Unsupported columnar file version " + version + ": " + path);
+            }
+            int count = getInt();
+            List<ExportColumn> columns = new ArrayList<>(count);
+            ExportColumn.Type[] types = ExportColumn.Type.values();
+            for (int i = 0; i < count; i++) {
+                fill(1);
+                ExportColumn.Type type = types[buffer.get()];
+                columns.add(new ExportColumn(getString(), type));
+            }
+            this.columns = Collections.unmodifiableList(columns);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public List<ExportColumn> getColumns() {
+        return columns;
+    }
+
+    // 下一行，读完时返回null
+    public Object[] next() throws IOException {
+        if (position == rows) {
+            if (finished || !readBlock()) {
+                return null;
+            }
+        }
+        Object[] row = new Object[columns.size()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = block[i][position];
+        }
+        position++;
+        return row;
+    }
+
+    private boolean readBlock() throws IOException {
+        rows = getInt();
+        position = 0;
+        if (rows == 0) {
+            finished = true;
+            return false;
+        }
+        block = new Object[columns.size()][rows];
+        for (int i = 0; i < block.length; i++) {
+            boolean[] nulls = new boolean[rows];
+            for (int from = 0; from < rows; from += 8) {
+                fill(1);
+                int bits = buffer.get();
+                for (int bit = 0; bit < 8 && from + bit < rows; bit++) {
+                    nulls[from + bit] = (bits & (1 << bit)) != 0;
+                }
+            }
+            ExportColumn.Type type = columns.get(i).getType();
+            for (int row = 0; row < rows; row++) {
+                Object value;
+                switch (type) {
+                    case INT:
+                        value = getInt();
+                        break;
+                    case DATE:
+                    case TIMESTAMP:
+                        fill(8);
+                        value = new Date(buffer.getLong());
+                        break;
+                    default:
+                        value = getString();
+                }
+                block[i][row] = nulls[row] ? null : value;
+            }
+        }
+        return true;
+    }
+
+    private int getInt() throws IOException {
+        fill(4);
+        return buffer.getInt();
+    }
+
+    private String getString() throws IOException {
+        byte[] bytes = new byte[getInt()];
+        int offset = 0;
+        while (offset < bytes.length) {
+            fill(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.get(bytes, offset, length);
+            offset += length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // 保证缓冲区中至少有n字节未读的数据
+    private void fill(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < n) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of columnar file");
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.devinkin.jpa.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * UTF-8编码的CSV文件，第一行是列名(RFC 4180)。
+ * null写成空字段，包含逗号、引号或换行的值用双引号括起来。
+ */
+public class CsvExportFormat implements ExportFormat {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public String getExtension() {
+        return "csv";
+    }
+
+    @Override
+    public ExportWriter open(WritableByteChannel channel, List<ExportColumn> columns) throws IOException {
+        return new CsvWriter(channel, columns);
+    }
+
+    private static class CsvWriter implements ExportWriter {
+        private final Writer writer;
+        private final ExportColumn[] columns;
+        // SimpleDateFormat不是线程安全的，每个写入器一个
+        private final SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+        private final SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+        private CsvWriter(WritableByteChannel channel, List<ExportColumn> columns) throws IOException {
+            this.writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                    BUFFER_SIZE);
+            this.columns = columns.toArray(new ExportColumn[0]);
+            for (int i = 0; i < this.columns.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(this.columns[i].getName());
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(Object[] row) throws IOException {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = row[i];
+                if (value == null) {
+                    continue;
+                }
+                switch (columns[i].getType()) {
+                    case DATE:
+                        writer.write(date.format((Date) value));
+                        break;
+                    case TIMESTAMP:
+                        writer.write(timestamp.format((Date) value));
+                        break;
+                    case STRING:
+                        writeString((String) value);
+                        break;
+                    default:
+                        writer.write(value.toString());
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        private void writeString(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        // 只刷新缓冲区，channel由调用者关闭
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.devinkin.jpa.export;
+
+import com.devinkin.jpa.QueryStreams;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import com.devinkin.jpa.helloworld.Customer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * 把Customer和它们的Order导出到目录中的文件，供离线分析使用。
+ * 代替 getResultList("FROM Customer") 再逐个调用 getOrders() 的方式(N+1条查询，所有实体都在内存中):
+ * 1. 按id把 JPA_CUSTOMERS 分成 rangeSize 个id一段的分区，分区边界是 rangeSize 的整数倍，不随数据变化
+ * 2. 每个分区在 PersistenceExecutor 的一个线程和连接中执行一条 LEFT JOIN 查询，
+ *    只查询标量列(不创建实体)，用游标逐行读取，最多 parallelism 个分区同时导出
+ * 3. 每个分区写到自己的文件 part-起始id-结束id.扩展名，格式见 CsvExportFormat、ColumnarExportFormat
+ * 4. 分区文件写完并改名后记录到目录中的 checkpoint 文件，失败后再次导出到同一目录时跳过已经完成的分区
+ * 每个Order一行，没有Order的Customer一行(订单列为null)，分区内按Customer和Order的id排序。
+ * 注意: 各个分区在不同的事务中读取，不是整张表同一时刻的快照。
+ */
+public class CustomerOrderExporter {
+    public static final String CHECKPOINT = "checkpoint";
+
+    public static final List<ExportColumn> COLUMNS = Collections.unmodifiableList(Arrays.asList(
+            new ExportColumn("CUSTOMER_ID", ExportColumn.Type.INT),
+            new ExportColumn("LAST_NAME", ExportColumn.Type.STRING),
+            new ExportColumn("EMAIL", ExportColumn.Type.STRING),
+            new ExportColumn("AGE", ExportColumn.Type.INT),
+            new ExportColumn("CREATED_TIME", ExportColumn.Type.TIMESTAMP),
+            new ExportColumn("BIRTH", ExportColumn.Type.DATE),
+            new ExportColumn("ORDER_ID", ExportColumn.Type.INT),
+            new ExportColumn("ORDER_NAME", ExportColumn.Type.STRING)));
+
+    private static final String JPQL = "SELECT c.id, c.lastName, c.email, c.age, c.createdTime, c.birth, o.id, o.orderName "
+            + "FROM " + Customer.class.getName() + " c LEFT JOIN c.orders o "
+            + "WHERE c.id >= :first AND c.id <= :last ORDER BY c.id, o.id";
+
+    private final PersistenceExecutor executor;
+    private ExportFormat format = new CsvExportFormat();
+    private int rangeSize = 10000;
+    private int parallelism = 1;
+    private int fetchSize = 1000;
+
+    public CustomerOrderExporter(PersistenceExecutor executor) {
+        this.executor = executor;
+    }
+
+    public CustomerOrderExporter format(ExportFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    // 每个分区的id个数，从检查点恢复时必须和之前一致
+    public CustomerOrderExporter rangeSize(int rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("rangeSize must be positive: " + rangeSize);
+        }
+        this.rangeSize = rangeSize;
+        return this;
+    }
+
+    // 同时导出的分区数，不超过 PersistenceExecutor 的许可数
+    public CustomerOrderExporter parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = Math.min(parallelism, executor.getPermits());
+        return this;
+    }
+
+    public CustomerOrderExporter fetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * 导出到directory，目录不存在时创建。
+     * 某个分区失败时不再开始新的分区，等待正在导出的分区结束后抛出第一个异常。
+     * 堆内存的峰值通过 MemoryPoolMXBean 统计，导出开始时会重置整个JVM的峰值。
+     */
+    public ExportReport export(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        ExportCheckpoint checkpoint = ExportCheckpoint.load(directory.resolve(CHECKPOINT));
+        for (ExportCheckpoint.Entry entry : checkpoint.entries()) {
+            if (entry.first % rangeSize != 0 || entry.last - entry.first + 1 != rangeSize) {
+                throw new IllegalStateException("Checkpoint in " + directory
+                        + " was written with a different range size than " + rangeSize);
+            }
+        }
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+
+        long begin = System.nanoTime();
+        List<Long> pending = new ArrayList<>();
+        int totalRanges = 0;
+        Number[] bounds = idBounds();
+        if (bounds[0] != null) {
+            long first = Math.floorDiv(bounds[0].longValue(), rangeSize) * (long) rangeSize;
+            for (; first <= bounds[1].longValue(); first += rangeSize) {
+                totalRanges++;
+                ExportCheckpoint.Entry entry = checkpoint.get(first);
+                if (entry == null || !entry.file.equals(fileName(first))
+                        || !Files.exists(directory.resolve(entry.file))) {
+                    pending.add(first);
+                }
+            }
+        }
+
+        Totals totals = run(directory, pending, checkpoint);
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        return new ExportReport(totalRanges, totalRanges - pending.size(), totals.customers, totals.orders,
+                totals.rows, totals.bytes, System.nanoTime() - begin, peakHeap);
+    }
+
+    private Totals run(Path directory, List<Long> ranges, ExportCheckpoint checkpoint) throws IOException {
+        final Semaphore running = new Semaphore(parallelism);
+        final Totals totals = new Totals();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        try {
+            for (Long first : ranges) {
+                running.acquireUninterruptibly();
+                if (failure.get() != null) {
+                    running.release();
+                    break;
+                }
+                submit(directory, first, checkpoint, totals, failure, running);
+            }
+        } finally {
+            // 等待所有已经开始的分区结束
+            running.acquireUninterruptibly(parallelism);
+        }
+        Throwable throwable = failure.get();
+        if (throwable instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) throwable).getCause();
+        }
+        if (throwable instanceof IOException) {
+            throw (IOException) throwable;
+        }
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        if (throwable != null) {
+            throw new CompletionException(throwable);
+        }
+        return totals;
+    }
+
+    private void submit(final Path directory, final long first, final ExportCheckpoint checkpoint,
+                        final Totals totals, final AtomicReference<Throwable> failure, final Semaphore running) {
+        executor.supply(new PersistenceWork<ExportCheckpoint.Entry>() {
+            @Override
+            public ExportCheckpoint.Entry execute(EntityManager entityManager) {
+                try {
+                    return exportRange(entityManager, directory, first);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }).whenComplete(new BiConsumer<ExportCheckpoint.Entry, Throwable>() {
+            @Override
+            public void accept(ExportCheckpoint.Entry entry, Throwable throwable) {
+                try {
+                    if (throwable != null) {
+                        failure.compareAndSet(null, throwable instanceof CompletionException
+                                && throwable.getCause() != null ? throwable.getCause() : throwable);
+                    } else {
+                        checkpoint.completed(entry);
+                        totals.add(entry);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    running.release();
+                }
+            }
+        });
+    }
+
+    private ExportCheckpoint.Entry exportRange(EntityManager entityManager, Path directory, long first)
+            throws IOException {
+        long last = Math.min(first + rangeSize - 1, Integer.MAX_VALUE);
+        String fileName = fileName(first);
+        Path temporary = directory.resolve(fileName + ".tmp");
+        long customers = 0;
+        long orders = 0;
+        long rows = 0;
+        long bytes;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ExportWriter writer = format.open(channel, COLUMNS);
+            Query query = entityManager.createQuery(JPQL)
+                    .setParameter("first", (int) first)
+                    .setParameter("last", (int) last);
+            QueryStreams.ResultIterator<Object[]> results = QueryStreams.iterate(entityManager, query, fetchSize);
+            try {
+                Object previous = null;
+                while (results.hasNext()) {
+                    Object[] row = results.next();
+                    if (!row[0].equals(previous)) {
+                        customers++;
+                        previous = row[0];
+                    }
+                    if (row[6] != null) {
+                        orders++;
+                    }
+                    writer.write(row);
+                    rows++;
+                }
+            } finally {
+                results.close();
+            }
+            writer.close();
+            channel.force(false);
+            bytes = channel.size();
+        }
+        // 改名之后文件才是完整的，导出中途失败只会留下临时文件
+        Files.move(temporary, directory.resolve(fileName), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return new ExportCheckpoint.Entry(first, last, customers, orders, rows, bytes, fileName);
+    }
+
+    // 最小和最大的Customer id，表为空时都是null
+    private Number[] idBounds() {
+        EntityManager entityManager = executor.getEntityManagerFactory().createEntityManager();
+        try {
+            Object[] bounds = (Object[]) entityManager.createQuery(
+                    "SELECT MIN(c.id), MAX(c.id) FROM " + Customer.class.getName() + " c").getSingleResult();
+            return new Number[]{(Number) bounds[0], (Number) bounds[1]};
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private String fileName(long first) {
+        return "part-" + first + "-" + Math.min(first + rangeSize - 1, Integer.MAX_VALUE) + "." + format.getExtension();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    // 在完成回调中累加，回调可能来自不同的线程
+    private static class Totals {
+        private long customers;
+        private long orders;
+        private long rows;
+        private long bytes;
+
+        private synchronized void add(ExportCheckpoint.Entry entry) {
+            customers += entry.customers;
+            orders += entry.orders;
+            rows += entry.rows;
+            bytes += entry.bytes;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.devinkin.jpa.export;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 记录已经完成的分区，每行一个: 起始id 结束id(包含) 客户数 订单数 行数 字节数 文件名。
+ * 分区文件先写到临时文件，改名后才追加记录，所以记录中的文件一定是完整的。
+ */
+class ExportCheckpoint {
+    private final Path path;
+    // 起始id -> 记录
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    private ExportCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    static ExportCheckpoint load(Path path) throws IOException {
+        ExportCheckpoint checkpoint = new ExportCheckpoint(path);
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 7) {
+                    throw new IOException("Malformed checkpoint line in " + path + ": " + line);
+                }
+                Entry entry = new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                        Long.parseLong(fields[5]), fields[6]);
+                checkpoint.entries.put(entry.first, entry);
+            }
+        }
+        return checkpoint;
+    }
+
+    Entry get(long first) {
+        return entries.get(first);
+    }
+
+    Iterable<Entry> entries() {
+        return entries.values();
+    }
+
+    // 同步写入磁盘后才返回，完成回调可能来自不同的线程
+    synchronized void completed(Entry entry) throws IOException {
+        String line = entry.first + " " + entry.last + " " + entry.customers + " " + entry.orders + " " + entry.rows + " "
+                + entry.bytes + " " + entry.file + "\n";
+        Files.write(path, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        entries.put(entry.first, entry);
+    }
+
+    static class Entry {
+        final long first;
+        final long last;
+        final long customers;
+        final long orders;
+        final long rows;
+        final long bytes;
+        final String file;
+
+        Entry(long first, long last, long customers, long orders, long rows, long bytes, String file) {
+            this.first = first;
+            this.last = last;
+            this.customers = customers;
+            this.orders = orders;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.devinkin.jpa.export;
+
+/**
+ * 导出文件中的一列。
+ */
+public class ExportColumn {
+
+    public enum Type {
+        INT, STRING,
+        // 日期和时间在列式文件中保存为毫秒数
+        DATE, TIMESTAMP
+    }
+
+    private final String name;
+    private final Type type;
+
+    public ExportColumn(String name, Type type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + type;
+    }
+}
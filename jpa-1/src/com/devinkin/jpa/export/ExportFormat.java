@@ -0,0 +1,17 @@
+package com.devinkin.jpa.export;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * 导出文件的格式，见 CsvExportFormat、ColumnarExportFormat。
+ */
+public interface ExportFormat {
+
+    // 文件扩展名，不包括点
+    String getExtension();
+
+    // 写入器负责缓冲，关闭写入器时把剩余的数据写入channel，但不关闭channel
+    ExportWriter open(WritableByteChannel channel, List<ExportColumn> columns) throws IOException;
+}
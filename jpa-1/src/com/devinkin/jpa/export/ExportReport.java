@@ -0,0 +1,90 @@
+package com.devinkin.jpa.export;
+
+/**
+ * 一次导出的结果，数量只包括这一次导出的分区，不包括从检查点恢复时跳过的分区。
+ */
+public class ExportReport {
+    private final int totalRanges;
+    private final int skippedRanges;
+    private final long customers;
+    private final long orders;
+    private final long rows;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final long peakHeapBytes;
+
+    public ExportReport(int totalRanges, int skippedRanges, long customers, long orders, long rows, long bytes,
+                        long elapsedNanos, long peakHeapBytes) {
+        this.totalRanges = totalRanges;
+        this.skippedRanges = skippedRanges;
+        this.customers = customers;
+        this.orders = orders;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    public int getTotalRanges() {
+        return totalRanges;
+    }
+
+    // 检查点中已经完成的分区数
+    public int getSkippedRanges() {
+        return skippedRanges;
+    }
+
+    public int getExportedRanges() {
+        return totalRanges - skippedRanges;
+    }
+
+    public long getCustomers() {
+        return customers;
+    }
+
+    public long getOrders() {
+        return orders;
+    }
+
+    // 写入的行数: 每个Order一行，没有Order的Customer一行
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos / (1024 * 1024);
+    }
+
+    // 导出期间堆内存使用量的最大值(各个堆内存池峰值之和，是上限)
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportReport{" +
+                "totalRanges=" + totalRanges +
+                ", skippedRanges=" + skippedRanges +
+                ", customers=" + customers +
+                ", orders=" + orders +
+                ", rows=" + rows +
+                ", bytes=" + bytes +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", rowsPerSecond=" + getRowsPerSecond() +
+                ", megabytesPerSecond=" + getMegabytesPerSecond() +
+                ", peakHeapMegabytes=" + peakHeapBytes / (1024 * 1024) +
+                '}';
+    }
+}
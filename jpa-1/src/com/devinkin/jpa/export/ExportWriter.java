@@ -0,0 +1,13 @@
+package com.devinkin.jpa.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 把一行行数据写入一个文件，不是线程安全的，每个分区使用自己的写入器。
+ */
+public interface ExportWriter extends Closeable {
+
+    // 值的顺序和类型与列一致，可以为null
+    void write(Object[] row) throws IOException;
+}
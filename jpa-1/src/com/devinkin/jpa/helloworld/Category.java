@@ -1,19 +1,32 @@
 package com.devinkin.jpa.helloworld;
 
+import com.devinkin.jpa.dirty.TrackedEntity;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @Table(name = "JPA_CATEGORIES")
+@DynamicUpdate
 @Entity
-public class Category {
+public class Category extends TrackedEntity {
     private Integer id;
+    private Integer version;
     private String categoryName;
 
     private Set<Item> items = new HashSet<>();
 
     @Id
-    @GeneratedValue
+    @GenericGenerator(name = "CATEGORY_ID_GENERATOR",
+            strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "CATEGORY_ID"))
+    @GeneratedValue(generator = "CATEGORY_ID_GENERATOR")
     public Integer getId() {
         return id;
     }
@@ -22,15 +35,27 @@ public class Category {
         this.id = id;
     }
 
+    @Version
+    @Column(name = "VERSION", columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Column(name = "CATEGORY_NAME")
     public String getCategoryName() {
         return categoryName;
     }
 
     public void setCategoryName(String categoryName) {
+        track("categoryName", this.categoryName, categoryName);
         this.categoryName = categoryName;
     }
 
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
     @ManyToMany(mappedBy = "categories")
     public Set<Item> getItems() {
         return items;
@@ -1,17 +1,49 @@
 package com.devinkin.jpa.helloworld;
 
+import com.devinkin.jpa.dirty.TrackedEntity;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.ejb.QueryHints;
+
 import javax.persistence.*;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
-@NamedQuery(name="testNamedQuery",
-        query = "FROM Customer c WHERE c.id = ?")
+// 查询结果缓存在各自的区域中，区域的配置见 ehcache.xml
+@NamedQueries({
+        @NamedQuery(name = "testNamedQuery",
+                query = "FROM Customer c WHERE c.id = ?",
+                hints = {@QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true"),
+                        @QueryHint(name = QueryHints.HINT_CACHE_REGION, value = "query.testNamedQuery")}),
+        @NamedQuery(name = "customersOlderThan",
+                query = "FROM Customer c WHERE c.age > ?",
+                hints = {@QueryHint(name = QueryHints.HINT_CACHEABLE, value = "true"),
+                        @QueryHint(name = QueryHints.HINT_CACHE_REGION, value = "query.customersOlderThan")})
+})
+// 详情页面使用的抓取计划: 和orders一起用一条左外连接查询加载，见 FetchPlans
+@FetchProfile(name = Customer.WITH_ORDERS, fetchOverrides =
+        @FetchProfile.FetchOverride(entity = Customer.class, association = "orders", mode = FetchMode.JOIN))
+// 多个Order.customer代理被初始化时，一次用IN查询加载最多16个Customer
+@BatchSize(size = 16)
 @Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_CUSTOMERS")
+// 被修改的属性由setter记录(见 DirtyTrackingStrategy)，UPDATE语句只包含被修改的列
+@DynamicUpdate
 @Entity
-public class Customer {
+public class Customer extends TrackedEntity {
+    // 抓取计划的名称
+    public static final String WITH_ORDERS = "customer-with-orders";
+
     private Integer id;
+    private Integer version;
     private String lastName;
     private String email;
     private int age;
@@ -33,6 +65,10 @@ public class Customer {
     // 使用JoinColumn来映射外键列的名称
     // 可以使用@OneToMany的fetch属性来修改默认的加载策略
 //    @OneToMany(fetch = FetchType.EAGER, cascade = {CascadeType.REMOVE}, mappedBy = "customer")
+    // 缓存集合中Order的id，Order修改customer时由 CollectionCacheInvalidator 清除对应的集合缓存
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    // 初始化任意一个Customer的orders时，用子查询加载同一个查询结果中所有Customer的orders
+    @Fetch(FetchMode.SUBSELECT)
     @OneToMany(fetch = FetchType.LAZY, cascade = {CascadeType.REMOVE}, mappedBy = "customer")
 //    @JoinColumn(name = "CUSTOMER_ID")
     public Set<Order> getOrders() {
@@ -50,6 +86,7 @@ public class Customer {
     }
 
     public void setCreatedTime(Date createdTime) {
+        track("createdTime", this.createdTime, createdTime);
         this.createdTime = createdTime;
     }
 
@@ -59,6 +96,7 @@ public class Customer {
     }
 
     public void setBirth(Date birth) {
+        track("birth", this.birth, birth);
         this.birth = birth;
     }
 
@@ -76,15 +114,13 @@ public class Customer {
                 '}';
     }
 
+    // 从JPA_ID_GENERATORS表中分段获取主键，不需要每插入一行都访问一次数据库，
+    // 也避免IDENTITY主键导致JDBC批量插入失效
     @Column(name = "ID")
-    @GeneratedValue(strategy = GenerationType.AUTO)
-//    @TableGenerator(name = "ID_GENERATOR",
-//                    table="JPA_ID_GENERATORS",
-//                    pkColumnName = "PK_NAME",
-//                    pkColumnValue = "CUSTOMER_ID",
-//                    valueColumnName = "PK_VALUE",
-//                    allocationSize = 100)
-//    @GeneratedValue(strategy = GenerationType.TABLE, generator = "ID_GENERATOR")
+    @GenericGenerator(name = "CUSTOMER_ID_GENERATOR",
+            strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "CUSTOMER_ID"))
+    @GeneratedValue(generator = "CUSTOMER_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -94,12 +130,25 @@ public class Customer {
         this.id = id;
     }
 
+    // 乐观锁的版本号，每次更新时加1，UPDATE时版本号不一致说明已经被其他事务修改过
+    // 已有的数据行和直接用SQL插入的数据行版本号为0
+    @Version
+    @Column(name = "VERSION", columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Column(name = "LAST_NAME", length = 50, nullable = true)
     public String getLastName() {
         return lastName;
     }
 
     public void setLastName(String lastName) {
+        track("lastName", this.lastName, lastName);
         this.lastName = lastName;
     }
 
@@ -109,6 +158,7 @@ public class Customer {
     }
 
     public void setEmail(String email) {
+        track("email", this.email, email);
         this.email = email;
     }
 
@@ -117,6 +167,7 @@ public class Customer {
     }
 
     public void setAge(int age) {
+        track("age", this.age, age);
         this.age = age;
     }
 
@@ -1,11 +1,25 @@
 package com.devinkin.jpa.helloworld;
 
+import com.devinkin.jpa.dirty.TrackedEntity;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
+@FetchProfile(name = Department.WITH_MANAGER, fetchOverrides =
+        @FetchProfile.FetchOverride(entity = Department.class, association = "manager", mode = FetchMode.JOIN))
 @Table(name = "JPA_DEPARTMENTS")
+@DynamicUpdate
 @Entity
-public class Department {
+public class Department extends TrackedEntity {
+    // 抓取计划的名称
+    public static final String WITH_MANAGER = "department-with-manager";
+
     private Integer id;
+    private Integer version;
     private String deptName;
     private Manager manager;
 
@@ -19,12 +33,16 @@ public class Department {
     }
 
     public void setManager(Manager manager) {
+        track("manager", this.manager, manager);
         this.manager = manager;
     }
 
 
     @Id
-    @GeneratedValue
+    @GenericGenerator(name = "DEPARTMENT_ID_GENERATOR",
+            strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "DEPARTMENT_ID"))
+    @GeneratedValue(generator = "DEPARTMENT_ID_GENERATOR")
     public Integer getId() {
         return id;
     }
@@ -33,12 +51,23 @@ public class Department {
         this.id = id;
     }
 
+    @Version
+    @Column(name = "VERSION", columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Column(name = "DEPT_NAME")
     public String getDeptName() {
         return deptName;
     }
 
     public void setDeptName(String deptName) {
+        track("deptName", this.deptName, deptName);
         this.deptName = deptName;
     }
 
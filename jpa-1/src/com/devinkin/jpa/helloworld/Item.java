@@ -1,19 +1,33 @@
 package com.devinkin.jpa.helloworld;
 
+import com.devinkin.jpa.dirty.TrackedEntity;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.HashSet;
 import java.util.Set;
 
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @Table(name = "JPA_ITEMS")
+@DynamicUpdate
 @Entity
-public class Item {
+public class Item extends TrackedEntity {
     private Integer id;
+    private Integer version;
     private String itemName;
 
     private Set<Category> categories = new HashSet<>();
 
     @Id
-    @GeneratedValue
+    @GenericGenerator(name = "ITEM_ID_GENERATOR",
+            strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "ITEM_ID"))
+    @GeneratedValue(generator = "ITEM_ID_GENERATOR")
     public Integer getId() {
         return id;
     }
@@ -22,12 +36,23 @@ public class Item {
         this.id = id;
     }
 
+    @Version
+    @Column(name = "VERSION", columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Column(name = "ITEM_NAME")
     public String getItemName() {
         return itemName;
     }
 
     public void setItemName(String itemName) {
+        track("itemName", this.itemName, itemName);
         this.itemName = itemName;
     }
 
@@ -36,6 +61,9 @@ public class Item {
             referencedColumnName = "ID")},
             inverseJoinColumns = {@JoinColumn(name = "CATEGORY_ID",
             referencedColumnName = "ID")})
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+    // 一次用IN查询初始化最多16个Item的categories
+    @BatchSize(size = 16)
     @ManyToMany()
     public Set<Category> getCategories() {
         return categories;
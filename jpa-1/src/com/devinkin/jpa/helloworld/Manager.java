@@ -1,15 +1,25 @@
 package com.devinkin.jpa.helloworld;
 
+import com.devinkin.jpa.dirty.TrackedEntity;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 @Table(name = "JPA_MANAGERS")
+@DynamicUpdate
 @Entity
-public class Manager {
+public class Manager extends TrackedEntity {
     private Integer id;
+    private Integer version;
     private String mgrName;
     private Department dept;
 
-    @GeneratedValue
+    @GenericGenerator(name = "MANAGER_ID_GENERATOR",
+            strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "MANAGER_ID"))
+    @GeneratedValue(generator = "MANAGER_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -19,12 +29,23 @@ public class Manager {
         this.id = id;
     }
 
+    @Version
+    @Column(name = "VERSION", columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Column(name = "MGR_NAME")
     public String getMgrName() {
         return mgrName;
     }
 
     public void setMgrName(String mgrName) {
+        track("mgrName", this.mgrName, mgrName);
         this.mgrName = mgrName;
     }
 
@@ -1,15 +1,35 @@
 package com.devinkin.jpa.helloworld;
 
+import com.devinkin.jpa.dirty.TrackedEntity;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
+@FetchProfile(name = Order.WITH_CUSTOMER, fetchOverrides =
+        @FetchProfile.FetchOverride(entity = Order.class, association = "customer", mode = FetchMode.JOIN))
+@Cacheable
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "JPA_ORDERS")
+@DynamicUpdate
 @Entity
-public class Order {
+public class Order extends TrackedEntity {
+    // 抓取计划的名称
+    public static final String WITH_CUSTOMER = "order-with-customer";
+
     private Integer id;
+    private Integer version;
     private String orderName;
     private Customer customer;
 
-    @GeneratedValue
+    @GenericGenerator(name = "ORDER_ID_GENERATOR",
+            strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+            parameters = @Parameter(name = "segment_value", value = "ORDER_ID"))
+    @GeneratedValue(generator = "ORDER_ID_GENERATOR")
     @Id
     public Integer getId() {
         return id;
@@ -19,12 +39,23 @@ public class Order {
         this.id = id;
     }
 
+    @Version
+    @Column(name = "VERSION", columnDefinition = "INT DEFAULT 0 NOT NULL")
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
     @Column(name = "ORDER_NAME")
     public String getOrderName() {
         return orderName;
     }
 
     public void setOrderName(String orderName) {
+        track("orderName", this.orderName, orderName);
         this.orderName = orderName;
     }
 
@@ -39,6 +70,7 @@ public class Order {
     }
 
     public void setCustomer(Customer customer) {
+        track("customer", this.customer, customer);
         this.customer = customer;
     }
 }
@@ -0,0 +1,125 @@
+package com.devinkin.jpa.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段分配主键。
+ * 1. 从 BlockSource 一次预留一整段主键，只有整段用完时才需要加锁访问数据库。
+ *    使用 ReentrantLock 而不是 synchronized，虚拟线程在等待数据库时不会占住载体线程
+ * 2. 每个线程从当前段中用 CAS 再切出一小段(lease)，之后在本线程内分配，不需要任何同步
+ * 3. 根据两次预留之间的时间间隔自动调整段的大小：插入越快，段越大
+ * 线程结束或段被替换时没有用完的主键会被丢弃，所以生成的主键唯一但不保证连续。
+ */
+public class BlockAllocator<C> {
+    private static final int MAX_LEASE_SIZE = 64;
+
+    private final BlockSource<C> source;
+    private final int initialBlockSize;
+    private final int maxBlockSize;
+    private final long targetRefillNanos;
+
+    private final ReentrantLock refillLock = new ReentrantLock();
+    private volatile Block current;
+    private volatile int leaseSize = 1;
+    private int blockSize;
+    private long lastRefill;
+    private final AtomicLong refills = new AtomicLong();
+
+    private final ThreadLocal<Lease> leases = new ThreadLocal<Lease>() {
+        @Override
+        protected Lease initialValue() {
+            return new Lease();
+        }
+    };
+
+    public BlockAllocator(BlockSource<C> source, int initialBlockSize, int maxBlockSize, long targetRefillMillis) {
+        if (initialBlockSize <= 0 || maxBlockSize < initialBlockSize) {
+            throw new IllegalArgumentException("invalid block size: " + initialBlockSize + ".." + maxBlockSize);
+        }
+        this.source = source;
+        this.initialBlockSize = initialBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.targetRefillNanos = targetRefillMillis * 1000000L;
+        this.blockSize = initialBlockSize;
+    }
+
+    public long next(C context) {
+        Lease lease = leases.get();
+        if (lease.next < lease.end) {
+            return lease.next++;
+        }
+        return nextLease(lease, context);
+    }
+
+    private long nextLease(Lease lease, C context) {
+        for (;;) {
+            Block block = current;
+            if (block != null) {
+                int size = leaseSize;
+                long start = block.next.getAndAdd(size);
+                if (start < block.end) {
+                    lease.next = start + 1;
+                    lease.end = Math.min(start + size, block.end);
+                    return start;
+                }
+            }
+            refill(block, context);
+        }
+    }
+
+    private void refill(Block exhausted, C context) {
+        refillLock.lock();
+        try {
+            // 其他线程已经预留了新的一段
+            if (current != exhausted) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (exhausted != null) {
+                long elapsed = now - lastRefill;
+                if (elapsed < targetRefillNanos / 2) {
+                    blockSize = Math.min(maxBlockSize, blockSize * 2);
+                } else if (elapsed > targetRefillNanos * 4) {
+                    blockSize = Math.max(initialBlockSize, blockSize / 2);
+                }
+            }
+            long first = source.reserve(context, blockSize);
+            leaseSize = Math.max(1, Math.min(MAX_LEASE_SIZE, blockSize / 16));
+            current = new Block(first, first + blockSize);
+            lastRefill = now;
+            refills.incrementAndGet();
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    public int getBlockSize() {
+        refillLock.lock();
+        try {
+            return blockSize;
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    // 访问数据库预留主键段的次数
+    public long getRefillCount() {
+        return refills.get();
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long first, long end) {
+            this.next = new AtomicLong(first);
+            this.end = end;
+        }
+    }
+
+    private static class Lease {
+        private long next;
+        private long end;
+    }
+}
@@ -0,0 +1,197 @@
+package com.devinkin.jpa.id;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.jdbc.AbstractReturningWork;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+
+/**
+ * 使用 JPA_ID_GENERATORS 表分段分配主键的生成器，表结构与 Customer 上原来的 @TableGenerator 相同。
+ * 实体通过下面的注解使用该生成器:
+ * <pre>
+ * &#064;GenericGenerator(name = "CUSTOMER_ID_GENERATOR",
+ *         strategy = "com.devinkin.jpa.id.BlockIdGenerator",
+ *         parameters = &#064;Parameter(name = "segment_value", value = "CUSTOMER_ID"))
+ * &#064;GeneratedValue(generator = "CUSTOMER_ID_GENERATOR")
+ * </pre>
+ * PK_VALUE 中保存的是下一个未分配的主键。
+ */
+public class BlockIdGenerator implements PersistentIdentifierGenerator, Configurable {
+    public static final String TABLE_PARAM = "table_name";
+    public static final String SEGMENT_COLUMN_PARAM = "segment_column_name";
+    public static final String VALUE_COLUMN_PARAM = "value_column_name";
+    public static final String SEGMENT_VALUE_PARAM = "segment_value";
+    public static final String INITIAL_BLOCK_SIZE_PARAM = "initial_block_size";
+    public static final String MAX_BLOCK_SIZE_PARAM = "max_block_size";
+    public static final String TARGET_REFILL_MILLIS_PARAM = "target_refill_millis";
+
+    private Class<?> returnedClass;
+    private String tableName;
+    private String segmentColumn;
+    private String valueColumn;
+    private String segmentValue;
+    private String targetTable;
+    private String targetColumn;
+
+    private BlockAllocator<SessionImplementor> allocator;
+    // 第一次预留时需要越过表中已经存在的主键(之前可能使用的是其他生成策略)
+    private volatile boolean floorChecked;
+
+    @Override
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+        returnedClass = type.getReturnedClass();
+        tableName = ConfigurationHelper.getString(TABLE_PARAM, params, "JPA_ID_GENERATORS");
+        segmentColumn = ConfigurationHelper.getString(SEGMENT_COLUMN_PARAM, params, "PK_NAME");
+        valueColumn = ConfigurationHelper.getString(VALUE_COLUMN_PARAM, params, "PK_VALUE");
+        String entityName = ConfigurationHelper.getString(IdentifierGenerator.JPA_ENTITY_NAME, params, "DEFAULT");
+        segmentValue = ConfigurationHelper.getString(SEGMENT_VALUE_PARAM, params, entityName.toUpperCase() + "_ID");
+        targetTable = params.getProperty(PersistentIdentifierGenerator.TABLE);
+        targetColumn = params.getProperty(PersistentIdentifierGenerator.PK);
+
+        int initialBlockSize = ConfigurationHelper.getInt(INITIAL_BLOCK_SIZE_PARAM, params, 100);
+        int maxBlockSize = ConfigurationHelper.getInt(MAX_BLOCK_SIZE_PARAM, params, 10000);
+        int targetRefillMillis = ConfigurationHelper.getInt(TARGET_REFILL_MILLIS_PARAM, params, 1000);
+        allocator = new BlockAllocator<>(new BlockSource<SessionImplementor>() {
+            @Override
+            public long reserve(SessionImplementor session, long size) {
+                return reserveBlock(session, size);
+            }
+        }, initialBlockSize, maxBlockSize, targetRefillMillis);
+    }
+
+    @Override
+    public Serializable generate(SessionImplementor session, Object object) throws HibernateException {
+        return IdentifierGeneratorHelper.getIntegralDataTypeHolder(returnedClass)
+                .initialize(allocator.next(session))
+                .makeValue();
+    }
+
+    public BlockAllocator<SessionImplementor> getAllocator() {
+        return allocator;
+    }
+
+    // 在独立的连接和事务中预留主键段，不受当前业务事务回滚的影响
+    private long reserveBlock(SessionImplementor session, final long size) {
+        return session.getTransactionCoordinator().getTransaction().createIsolationDelegate()
+                .delegateWork(new AbstractReturningWork<Long>() {
+                    @Override
+                    public Long execute(Connection connection) throws SQLException {
+                        for (;;) {
+                            Long value = selectValue(connection);
+                            long first = value == null ? 1 : value;
+                            if (!floorChecked && targetTable != null) {
+                                first = Math.max(first, maxExistingId(connection) + 1);
+                            }
+                            boolean reserved = value == null
+                                    ? insertValue(connection, first + size)
+                                    : updateValue(connection, value, first + size);
+                            // 更新失败说明其他JVM同时预留了主键段，重新读取后再试
+                            if (reserved) {
+                                floorChecked = true;
+                                return first;
+                            }
+                        }
+                    }
+                }, true);
+    }
+
+    private Long selectValue(Connection connection) throws SQLException {
+        String sql = "select " + valueColumn + " from " + tableName + " where " + segmentColumn + " = ?";
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            statement.setString(1, segmentValue);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : null;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private boolean insertValue(Connection connection, long next) throws SQLException {
+        String sql = "insert into " + tableName + " (" + segmentColumn + ", " + valueColumn + ") values (?, ?)";
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            statement.setString(1, segmentValue);
+            statement.setLong(2, next);
+            return statement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            // 其他JVM先插入了这一行
+            if (selectValue(connection) == null) {
+                throw e;
+            }
+            return false;
+        } finally {
+            statement.close();
+        }
+    }
+
+    // 以旧值作为条件更新，相当于数据库上的CAS
+    private boolean updateValue(Connection connection, long expected, long next) throws SQLException {
+        String sql = "update " + tableName + " set " + valueColumn + " = ? where "
+                + segmentColumn + " = ? and " + valueColumn + " = ?";
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            statement.setLong(1, next);
+            statement.setString(2, segmentValue);
+            statement.setLong(3, expected);
+            return statement.executeUpdate() == 1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private long maxExistingId(Connection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                "select max(" + targetColumn + ") from " + targetTable);
+        try {
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public String[] sqlCreateStrings(Dialect dialect) throws HibernateException {
+        return new String[] {
+                dialect.getCreateTableString() + " " + tableName + " ( "
+                        + segmentColumn + " " + dialect.getTypeName(Types.VARCHAR, 255, 0, 0) + " not null, "
+                        + valueColumn + " " + dialect.getTypeName(Types.BIGINT) + ", "
+                        + "primary key ( " + segmentColumn + " ) )"
+        };
+    }
+
+    @Override
+    public String[] sqlDropStrings(Dialect dialect) throws HibernateException {
+        StringBuilder sql = new StringBuilder("drop table ");
+        if (dialect.supportsIfExistsBeforeTableName()) {
+            sql.append("if exists ");
+        }
+        sql.append(tableName).append(dialect.getCascadeConstraintsString());
+        if (dialect.supportsIfExistsAfterTableName()) {
+            sql.append(" if exists");
+        }
+        return new String[] {sql.toString()};
+    }
+
+    // 所有使用同一张表的生成器只建一次表
+    @Override
+    public Object generatorKey() {
+        return tableName;
+    }
+}
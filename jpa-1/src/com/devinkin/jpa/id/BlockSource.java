@@ -0,0 +1,9 @@
+package com.devinkin.jpa.id;
+
+/**
+ * 主键段的来源，例如 JPA_ID_GENERATORS 表。
+ * reserve 预留 [first, first + size) 这一段主键并返回 first。
+ */
+public interface BlockSource<C> {
+    long reserve(C context, long size);
+}
@@ -0,0 +1,47 @@
+package com.devinkin.jpa.load;
+
+import org.hibernate.PessimisticLockException;
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.exception.LockTimeoutException;
+
+import javax.persistence.OptimisticLockException;
+import java.sql.SQLException;
+
+/**
+ * 操作失败的原因。
+ */
+enum FailureType {
+    OPTIMISTIC_LOCK, DEADLOCK, LOCK_TIMEOUT, ERROR;
+
+    // 沿着异常链查找，JPA和Hibernate的异常以及SQLState都可能说明失败原因
+    static FailureType of(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return OPTIMISTIC_LOCK;
+            }
+            // LockTimeoutException 是 LockAcquisitionException 的子类，要先判断
+            if (cause instanceof LockTimeoutException || cause instanceof PessimisticLockException
+                    || cause instanceof javax.persistence.LockTimeoutException
+                    || cause instanceof javax.persistence.PessimisticLockException) {
+                return LOCK_TIMEOUT;
+            }
+            if (cause instanceof LockAcquisitionException) {
+                return DEADLOCK;
+            }
+            if (cause instanceof SQLException) {
+                SQLException exception = (SQLException) cause;
+                String state = exception.getSQLState();
+                // 40001: 序列化失败/死锁(H2、MySQL 1213)，40P01: PostgreSQL的死锁
+                if ("40001".equals(state) || "40P01".equals(state) || exception.getErrorCode() == 1213) {
+                    return DEADLOCK;
+                }
+                // HYT00: H2的锁等待超时，MySQL 1205
+                if ("HYT00".equals(state) || exception.getErrorCode() == 1205) {
+                    return LOCK_TIMEOUT;
+                }
+            }
+        }
+        return ERROR;
+    }
+}
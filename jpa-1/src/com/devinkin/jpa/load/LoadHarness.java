@@ -0,0 +1,149 @@
+package com.devinkin.jpa.load;
+
+import com.devinkin.jpa.VirtualThreads;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个线程共用一个 EntityManagerFactory，在指定时间内反复执行 LoadMix 中的操作。
+ * 每个操作使用新的EntityManager和事务，和 Main.main 中的用法相同:
+ * <pre>
+ * LoadHarness harness = new LoadHarness(entityManagerFactory, operations.mix("find=60,merge=20,jpql=20"));
+ * LoadReport report = harness.run(16, false, 10, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class LoadHarness {
+    private final EntityManagerFactory entityManagerFactory;
+    private final LoadMix mix;
+
+    public LoadHarness(EntityManagerFactory entityManagerFactory, LoadMix mix) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.mix = mix;
+    }
+
+    // virtualThreads=true 但JDK不支持虚拟线程时使用平台线程，LoadReport.isVirtualThreads() 为false
+    public LoadReport run(int threads, boolean virtualThreads, long duration, TimeUnit unit) throws InterruptedException {
+        ThreadFactory factory = virtualThreads ? VirtualThreads.factory("load-") : null;
+        boolean virtual = factory != null;
+        if (factory == null) {
+            factory = platformThreadFactory();
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> started = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(start, deadline, new Random(i));
+            Thread thread = factory.newThread(worker);
+            thread.start();
+            workers.add(worker);
+            started.add(thread);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : started) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        Map<String, OperationStatistics> merged = newStatistics();
+        OperationStatistics total = new OperationStatistics("total");
+        RuntimeException firstError = null;
+        for (Worker worker : workers) {
+            for (OperationStatistics statistics : worker.statistics.values()) {
+                merged.get(statistics.getName()).add(statistics);
+                total.add(statistics);
+            }
+            if (firstError == null) {
+                firstError = worker.firstError;
+            }
+        }
+        return new LoadReport(threads, virtual, elapsed, new ArrayList<>(merged.values()), total, firstError);
+    }
+
+    private Map<String, OperationStatistics> newStatistics() {
+        Map<String, OperationStatistics> statistics = new LinkedHashMap<>();
+        for (LoadOperation operation : mix.getOperations()) {
+            if (!statistics.containsKey(operation.getName())) {
+                statistics.put(operation.getName(), new OperationStatistics(operation.getName()));
+            }
+        }
+        return statistics;
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        final AtomicInteger sequence = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "load-" + sequence.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private class Worker implements Runnable {
+        private final CountDownLatch start;
+        private final long deadline;
+        private final Random random;
+        private final Map<String, OperationStatistics> statistics = newStatistics();
+        private RuntimeException firstError;
+
+        private Worker(CountDownLatch start, long deadline, Random random) {
+            this.start = start;
+            this.deadline = deadline;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            while (System.nanoTime() < deadline) {
+                LoadOperation operation = mix.next(random);
+                execute(operation, statistics.get(operation.getName()));
+            }
+        }
+
+        private void execute(LoadOperation operation, OperationStatistics statistics) {
+            long begin = System.nanoTime();
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                entityManager.getTransaction().begin();
+                operation.execute(entityManager, random);
+                entityManager.getTransaction().commit();
+                statistics.recordSuccess(System.nanoTime() - begin);
+            } catch (RuntimeException e) {
+                try {
+                    if (entityManager.getTransaction().isActive()) {
+                        entityManager.getTransaction().rollback();
+                    }
+                } catch (RuntimeException ignored) {
+                }
+                FailureType type = FailureType.of(e);
+                if (type == FailureType.ERROR && firstError == null) {
+                    firstError = e;
+                }
+                statistics.recordFailure(type);
+            } finally {
+                entityManager.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.devinkin.jpa.load;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在内嵌的H2数据库上运行负载测试，不需要连接MySQL。
+ * 参数: [线程数] [platform|virtual] [秒数] [操作组合]，例如
+ * <pre>
+ * java com.devinkin.jpa.load.LoadMain 64 virtual 30 find=40,persist=10,merge=20,jpql=20,manyToMany=10
+ * </pre>
+ * 正式测量前先用相同的参数预热5秒。
+ */
+public class LoadMain {
+    public static final String DEFAULT_MIX = "find=40,persist=10,merge=20,jpql=20,manyToMany=10";
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        boolean virtualThreads = args.length > 1 && "virtual".equals(args[1]);
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String mix = args.length > 3 ? args[3] : DEFAULT_MIX;
+
+        EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("load"));
+        try {
+            StandardOperations operations = StandardOperations.seed(entityManagerFactory, 10000, 5, 1000, 50);
+            LoadHarness harness = new LoadHarness(entityManagerFactory, operations.mix(mix));
+            harness.run(threads, virtualThreads, 5, TimeUnit.SECONDS);
+            LoadReport report = harness.run(threads, virtualThreads, seconds, TimeUnit.SECONDS);
+            System.out.println("mix: " + mix);
+            System.out.println(report);
+            if (report.getFirstError() != null) {
+                report.getFirstError().printStackTrace();
+            }
+        } finally {
+            entityManagerFactory.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.devinkin.jpa.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 按权重随机选择要执行的操作，如 find 权重为 3、persist 权重为 1 时，75% 的操作是 find。
+ */
+public class LoadMix {
+    private final List<LoadOperation> operations = new ArrayList<>();
+    // 累加的权重，用于二分查找
+    private final List<Integer> thresholds = new ArrayList<>();
+    private int totalWeight;
+
+    public LoadMix add(LoadOperation operation, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight of " + operation.getName() + " must be positive: " + weight);
+        }
+        totalWeight += weight;
+        operations.add(operation);
+        thresholds.add(totalWeight);
+        return this;
+    }
+
+    public LoadOperation next(Random random) {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("No operations in the mix");
+        }
+        int index = Collections.binarySearch(thresholds, random.nextInt(totalWeight) + 1);
+        return operations.get(index >= 0 ? index : -index - 1);
+    }
+
+    public List<LoadOperation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(operations.get(i).getName()).append('=').append(thresholds.get(i) - previous);
+            previous = thresholds.get(i);
+        }
+        return builder.toString();
+    }
+}
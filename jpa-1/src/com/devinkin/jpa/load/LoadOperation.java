@@ -0,0 +1,15 @@
+package com.devinkin.jpa.load;
+
+import javax.persistence.EntityManager;
+import java.util.Random;
+
+/**
+ * 负载测试中的一种操作。
+ * 在已经开始的事务中执行，由 LoadHarness 负责提交、回滚和关闭EntityManager。
+ */
+public interface LoadOperation {
+
+    String getName();
+
+    void execute(EntityManager entityManager, Random random);
+}
@@ -0,0 +1,82 @@
+package com.devinkin.jpa.load;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次负载测试的结果: 每种操作的统计信息和它们的总和。
+ */
+public class LoadReport {
+    private final int threads;
+    private final boolean virtualThreads;
+    private final long durationNanos;
+    private final List<OperationStatistics> operations;
+    private final OperationStatistics total;
+    private final RuntimeException firstError;
+
+    LoadReport(int threads, boolean virtualThreads, long durationNanos,
+               List<OperationStatistics> operations, OperationStatistics total, RuntimeException firstError) {
+        this.threads = threads;
+        this.virtualThreads = virtualThreads;
+        this.durationNanos = durationNanos;
+        this.operations = operations;
+        this.total = total;
+        this.firstError = firstError;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // 是否真的使用了虚拟线程，JDK不支持时退回到平台线程
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    public List<OperationStatistics> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    public OperationStatistics getOperation(String name) {
+        for (OperationStatistics operation : operations) {
+            if (operation.getName().equals(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("No operation named " + name);
+    }
+
+    public OperationStatistics getTotal() {
+        return total;
+    }
+
+    // 第一个不是由锁冲突引起的异常，用于排查 errors 不为0的原因
+    public RuntimeException getFirstError() {
+        return firstError;
+    }
+
+    // 每秒成功执行的操作数
+    public double getThroughput() {
+        return total.getSuccessCount() / (durationNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("threads=%d (%s), duration=%dms, throughput=%.1f ops/s, "
+                        + "optimistic lock rate=%.4f, deadlock rate=%.4f%n",
+                threads, virtualThreads ? "virtual" : "platform", getDurationMillis(), getThroughput(),
+                total.getOptimisticLockRate(), total.getDeadlockRate()));
+        builder.append(OperationStatistics.header()).append(String.format("%n"));
+        for (OperationStatistics operation : operations) {
+            builder.append(operation.format(durationNanos)).append(String.format("%n"));
+        }
+        builder.append(total.format(durationNanos));
+        return builder.toString();
+    }
+}
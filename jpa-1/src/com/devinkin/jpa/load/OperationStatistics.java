@@ -0,0 +1,129 @@
+package com.devinkin.jpa.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一种操作的执行次数、失败次数和延迟分布，延迟包括创建EntityManager、执行和提交事务的时间。
+ * 每个工作线程各自记录，结束后再合并，记录时没有线程间的竞争。
+ */
+public class OperationStatistics {
+    private final String name;
+    // 成功执行的延迟，单位纳秒
+    private final Histogram latency = new Histogram(3);
+    private long optimisticLockFailures;
+    private long deadlocks;
+    private long lockTimeouts;
+    private long errors;
+
+    OperationStatistics(String name) {
+        this.name = name;
+    }
+
+    void recordSuccess(long nanos) {
+        latency.recordValue(nanos);
+    }
+
+    void recordFailure(FailureType type) {
+        switch (type) {
+            case OPTIMISTIC_LOCK:
+                optimisticLockFailures++;
+                break;
+            case DEADLOCK:
+                deadlocks++;
+                break;
+            case LOCK_TIMEOUT:
+                lockTimeouts++;
+                break;
+            default:
+                errors++;
+                break;
+        }
+    }
+
+    void add(OperationStatistics other) {
+        latency.add(other.latency);
+        optimisticLockFailures += other.optimisticLockFailures;
+        deadlocks += other.deadlocks;
+        lockTimeouts += other.lockTimeouts;
+        errors += other.errors;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSuccessCount() {
+        return latency.getTotalCount();
+    }
+
+    public long getFailureCount() {
+        return optimisticLockFailures + deadlocks + lockTimeouts + errors;
+    }
+
+    public long getAttemptCount() {
+        return getSuccessCount() + getFailureCount();
+    }
+
+    public long getOptimisticLockFailures() {
+        return optimisticLockFailures;
+    }
+
+    public long getDeadlocks() {
+        return deadlocks;
+    }
+
+    public long getLockTimeouts() {
+        return lockTimeouts;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getOptimisticLockRate() {
+        return rate(optimisticLockFailures);
+    }
+
+    // 死锁和锁等待超时都算在内
+    public double getDeadlockRate() {
+        return rate(deadlocks + lockTimeouts);
+    }
+
+    public double getMeanMicros() {
+        return latency.getTotalCount() == 0 ? 0 : latency.getMean() / 1000;
+    }
+
+    public double getPercentileMicros(double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public double getMaxMicros() {
+        return latency.getMaxValue() / 1000.0;
+    }
+
+    // 延迟分布的副本，可以输出完整的百分位数表(outputPercentileDistribution)
+    public Histogram getLatency() {
+        return latency.copy();
+    }
+
+    private double rate(long count) {
+        long attempts = getAttemptCount();
+        return attempts == 0 ? 0 : (double) count / attempts;
+    }
+
+    String format(long durationNanos) {
+        double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        return String.format("%-12s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %8d %8d %8d %8d",
+                name, getSuccessCount(), getSuccessCount() / seconds, getMeanMicros(),
+                getPercentileMicros(50), getPercentileMicros(99), getMaxMicros(),
+                optimisticLockFailures, deadlocks, lockTimeouts, errors);
+    }
+
+    static String header() {
+        return String.format("%-12s %10s %10s %10s %10s %10s %10s %8s %8s %8s %8s",
+                "operation", "count", "ops/s", "mean(us)", "p50(us)", "p99(us)", "max(us)",
+                "optimist", "deadlock", "lockwait", "errors");
+    }
+}
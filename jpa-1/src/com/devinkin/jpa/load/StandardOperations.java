@@ -0,0 +1,200 @@
+package com.devinkin.jpa.load;
+
+import com.devinkin.jpa.helloworld.Category;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Item;
+import com.devinkin.jpa.helloworld.Order;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * JPATest、JPATestJPQL、JPATestMapping 中的操作，作用在 seed 插入的数据上:
+ * find、persist、merge、jpql、manyToMany(遍历 Item.categories 和 Category.items)。
+ */
+public class StandardOperations {
+    public static final String FIND = "find";
+    public static final String PERSIST = "persist";
+    public static final String MERGE = "merge";
+    public static final String JPQL = "jpql";
+    public static final String MANY_TO_MANY = "manyToMany";
+
+    private final Integer[] customerIds;
+    private final Integer[] itemIds;
+
+    private StandardOperations(Integer[] customerIds, Integer[] itemIds) {
+        this.customerIds = customerIds;
+        this.itemIds = itemIds;
+    }
+
+    /**
+     * 插入测试数据: 每个Customer有 ordersPerCustomer 个Order，每个Item属于两个Category。
+     */
+    public static StandardOperations seed(EntityManagerFactory entityManagerFactory,
+                                          int customers, int ordersPerCustomer, int items, int categories) {
+        Random random = new Random(0);
+        Integer[] customerIds = new Integer[customers];
+        Integer[] itemIds = new Integer[items];
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < customers; i++) {
+            Customer customer = newCustomer("C" + i, random);
+            entityManager.persist(customer);
+            for (int j = 0; j < ordersPerCustomer; j++) {
+                Order order = new Order();
+                order.setOrderName("O-" + i + "-" + j);
+                order.setCustomer(customer);
+                entityManager.persist(order);
+            }
+            customerIds[i] = customer.getId();
+            // 分批提交，避免持久化上下文过大
+            if (i % 1000 == 999) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        Category[] allCategories = new Category[categories];
+        for (int i = 0; i < categories; i++) {
+            allCategories[i] = new Category();
+            allCategories[i].setCategoryName("CA" + i);
+            entityManager.persist(allCategories[i]);
+        }
+        for (int i = 0; i < items; i++) {
+            Item item = new Item();
+            item.setItemName("I" + i);
+            item.getCategories().add(allCategories[random.nextInt(categories)]);
+            item.getCategories().add(allCategories[random.nextInt(categories)]);
+            entityManager.persist(item);
+            itemIds[i] = item.getId();
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return new StandardOperations(customerIds, itemIds);
+    }
+
+    // 按 "find=60,merge=20,jpql=20" 的格式创建操作组合
+    public LoadMix mix(String spec) {
+        LoadMix mix = new LoadMix();
+        for (String part : spec.split(",")) {
+            String[] nameAndWeight = part.trim().split("=");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected name=weight but was: " + part);
+            }
+            mix.add(get(nameAndWeight[0].trim()), Integer.parseInt(nameAndWeight[1].trim()));
+        }
+        return mix;
+    }
+
+    public LoadOperation get(String name) {
+        switch (name) {
+            case FIND:
+                return find();
+            case PERSIST:
+                return persist();
+            case MERGE:
+                return merge();
+            case JPQL:
+                return jpql();
+            case MANY_TO_MANY:
+                return manyToMany();
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + name);
+        }
+    }
+
+    // JPATest.testFind
+    public LoadOperation find() {
+        return new NamedOperation(FIND) {
+            @Override
+            public void execute(EntityManager entityManager, Random random) {
+                Customer customer = entityManager.find(Customer.class, randomId(customerIds, random));
+                customer.getLastName();
+            }
+        };
+    }
+
+    // JPATest.testPersistence，同时插入一个Order
+    public LoadOperation persist() {
+        return new NamedOperation(PERSIST) {
+            @Override
+            public void execute(EntityManager entityManager, Random random) {
+                Customer customer = newCustomer("P" + random.nextInt(), random);
+                entityManager.persist(customer);
+                Order order = new Order();
+                order.setOrderName("PO-" + random.nextInt());
+                order.setCustomer(customer);
+                entityManager.persist(order);
+            }
+        };
+    }
+
+    // JPATest.testMerge3: 合并带有id的游离对象，多个线程会更新同一行
+    public LoadOperation merge() {
+        return new NamedOperation(MERGE) {
+            @Override
+            public void execute(EntityManager entityManager, Random random) {
+                Customer customer = entityManager.find(Customer.class, randomId(customerIds, random));
+                entityManager.detach(customer);
+                customer.setEmail("m" + random.nextInt(1000) + "@163.com");
+                customer.setAge(random.nextInt(80));
+                entityManager.merge(customer);
+            }
+        };
+    }
+
+    // JPATestJPQL.testHelloJPQL，只取前20条
+    public LoadOperation jpql() {
+        return new NamedOperation(JPQL) {
+            @Override
+            public void execute(EntityManager entityManager, Random random) {
+                List<?> customers = entityManager.createQuery("FROM Customer c WHERE c.age > ?")
+                        .setParameter(1, random.nextInt(80))
+                        .setMaxResults(20)
+                        .getResultList();
+                customers.size();
+            }
+        };
+    }
+
+    // JPATestMapping.testManyToManyFind，再从每个Category遍历回它的Item
+    public LoadOperation manyToMany() {
+        return new NamedOperation(MANY_TO_MANY) {
+            @Override
+            public void execute(EntityManager entityManager, Random random) {
+                Item item = entityManager.find(Item.class, randomId(itemIds, random));
+                for (Category category : item.getCategories()) {
+                    category.getItems().size();
+                }
+            }
+        };
+    }
+
+    private static Integer randomId(Integer[] ids, Random random) {
+        return ids[random.nextInt(ids.length)];
+    }
+
+    private static Customer newCustomer(String lastName, Random random) {
+        Customer customer = new Customer(lastName, random.nextInt(80));
+        customer.setEmail(lastName + "@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        return customer;
+    }
+
+    private abstract static class NamedOperation implements LoadOperation {
+        private final String name;
+
+        private NamedOperation(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
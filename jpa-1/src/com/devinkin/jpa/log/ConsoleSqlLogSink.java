@@ -0,0 +1,71 @@
+package com.devinkin.jpa.log;
+
+import org.hibernate.engine.jdbc.internal.BasicFormatterImpl;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 输出到 System.out，格式和 hibernate.show_sql 相似，慢查询加上耗时和参数。
+ * 一批日志拼接好后一次写出，format 为true时用Hibernate的格式化器排版(和 format_sql 一样)。
+ */
+public class ConsoleSqlLogSink implements SqlLogSink {
+    private final boolean format;
+    private final BasicFormatterImpl formatter = new BasicFormatterImpl();
+    private final SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+    private final StringBuilder pending = new StringBuilder();
+
+    public ConsoleSqlLogSink() {
+        this(false);
+    }
+
+    public ConsoleSqlLogSink(boolean format) {
+        this.format = format;
+    }
+
+    @Override
+    public void write(SqlLogEvent event) {
+        if (event.isSlow()) {
+            pending.append("SLOW ");
+        }
+        pending.append("Hibernate: ");
+        if (event.isSlow() || event.getFailure() != null) {
+            pending.append('[').append(time.format(new Date(event.getTimestamp()))).append(' ')
+                    .append(event.getThreadName()).append(String.format(" %.3f ms", event.getElapsedMillis()));
+            if (event.getBatchSize() > 0) {
+                pending.append(" batch=").append(event.getBatchSize());
+            }
+            pending.append("] ");
+        }
+        pending.append(format ? formatter.format(event.getSql()) : event.getSql());
+        Object[] parameters = event.getParameters();
+        if (event.isSlow() && parameters != null) {
+            pending.append(" parameters: [");
+            for (int i = 0; i < parameters.length; i++) {
+                pending.append(i == 0 ? "" : ", ").append(parameters[i]);
+            }
+            pending.append(']');
+        }
+        if (event.getFailure() != null) {
+            pending.append(" failed: ").append(event.getFailure());
+        }
+        pending.append(System.lineSeparator());
+        // 避免一次积累太多
+        if (pending.length() > 64 * 1024) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (pending.length() == 0) {
+            return;
+        }
+        // 每次取当前的 System.out，可以被重定向
+        PrintStream out = System.out;
+        out.print(pending);
+        out.flush();
+        pending.setLength(0);
+    }
+}
@@ -0,0 +1,73 @@
+package com.devinkin.jpa.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的多生产者、单消费者环形队列，不使用锁。
+ * 每个槽位有一个序号: 等于 tail 时可以写入，等于 head + 1 时可以读取。
+ * 队列满时 offer 直接返回false，执行SQL的线程不会等待。
+ */
+class EventRing<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // 只有消费者线程修改
+    private volatile long head;
+
+    EventRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(E event) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, event);
+                    // 发布: 消费者看到新的序号时一定能看到槽位中的对象
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // 消费者还没有读取这个槽位上一圈的对象
+                return false;
+            }
+            // 其他生产者已经占用了这个位置，重试
+        }
+    }
+
+    // 只能在消费者线程中调用，没有对象时返回null
+    E poll() {
+        long position = head;
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E event = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return event;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
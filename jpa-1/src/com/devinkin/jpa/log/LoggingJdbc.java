@@ -0,0 +1,137 @@
+package com.devinkin.jpa.log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * 用动态代理包装JDBC的连接和语句，记录每次执行的耗时和绑定的参数，结果交给 SqlLog。
+ * 只计算 execute* 方法本身的时间，不包括之后读取结果集的时间。
+ */
+class LoggingJdbc {
+
+    private LoggingJdbc() {
+    }
+
+    static Connection wrap(Connection connection, SqlLog log) {
+        return (Connection) Proxy.newProxyInstance(LoggingJdbc.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection, log));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private final SqlLog log;
+
+        private ConnectionHandler(Connection connection, SqlLog log) {
+            this.connection = connection;
+            this.log = log;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = LoggingJdbc.invoke(connection, method, args);
+            String name = method.getName();
+            if (result instanceof Statement
+                    && (name.equals("prepareStatement") || name.equals("prepareCall") || name.equals("createStatement"))) {
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                        : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                return Proxy.newProxyInstance(LoggingJdbc.class.getClassLoader(), new Class<?>[]{type},
+                        new StatementHandler((Statement) result, sql, log));
+            }
+            return result;
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final SqlLog log;
+        // PreparedStatement的SQL；Statement每次执行时传入
+        private String sql;
+        private SqlLog.Kind kind;
+        private Object[] parameters = new Object[8];
+        private int parameterCount;
+        private int batchSize;
+
+        private StatementHandler(Statement statement, String sql, SqlLog log) {
+            this.statement = statement;
+            this.log = log;
+            this.sql = sql;
+            this.kind = sql == null ? null : SqlLog.Kind.of(sql);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args, name.endsWith("Batch"));
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                // setInt(1, ...)、setNull(1, Types.INTEGER) 等绑定参数的方法
+                bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameterCount = 0;
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+                if (args != null && args.length == 1 && args[0] instanceof String) {
+                    setSql((String) args[0]);
+                }
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+            }
+            return LoggingJdbc.invoke(statement, method, args);
+        }
+
+        private Object execute(Method method, Object[] args, boolean batch) throws Throwable {
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                setSql((String) args[0]);
+            }
+            long begin = System.nanoTime();
+            Throwable failure = null;
+            try {
+                return LoggingJdbc.invoke(statement, method, args);
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                long elapsed = System.nanoTime() - begin;
+                if (sql != null && log.accept(kind, elapsed, failure)) {
+                    log.publish(sql, parameterCount == 0 ? null : Arrays.copyOf(parameters, parameterCount),
+                            batch ? batchSize : 0, elapsed, failure);
+                }
+                if (batch) {
+                    batchSize = 0;
+                }
+            }
+        }
+
+        private void setSql(String sql) {
+            if (!sql.equals(this.sql)) {
+                this.sql = sql;
+                this.kind = SqlLog.Kind.of(sql);
+            }
+        }
+
+        private void bind(int index, Object value) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+            }
+            parameters[index - 1] = value;
+            parameterCount = Math.max(parameterCount, index);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.devinkin.jpa.log;
+
+import org.hibernate.HibernateException;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 代替 hibernate.show_sql / format_sql 的SQL日志:
+ * 1. 执行SQL的线程只记录SQL、参数和耗时，放进无锁的环形队列后立即返回，格式化和输出都在后台线程中，
+ *    后台线程在队列为空时等待，由放入日志的线程唤醒
+ * 2. 按语句类型(select/insert/update/delete)设置采样率，例如只输出1%的select
+ * 3. 慢查询: 耗时超过阈值的语句总是输出，并带上绑定的参数和耗时
+ * 4. 队列满时丢弃日志并计数，不会阻塞执行SQL的线程
+ * 5. 采样率都为0并且没有设置慢查询阈值时不包装连接，没有任何额外的开销
+ * 由 HikariConnectionProvider 读取配置并包装连接，配置以 hibernate.sql_log. 开头:
+ * sample_rate(默认0)、sample_rate.select 等、slow_threshold_ms(默认-1，不记录慢查询)、
+ * format(用Hibernate的格式化器排版，默认false)、buffer_size(队列大小，2的幂，默认8192)、
+ * sink(SqlLogSink 的实现类，默认 ConsoleSqlLogSink)。
+ */
+public class SqlLog implements Closeable {
+    public static final String PREFIX = "hibernate.sql_log.";
+    public static final String SAMPLE_RATE = PREFIX + "sample_rate";
+    public static final String SLOW_THRESHOLD_MS = PREFIX + "slow_threshold_ms";
+    public static final String FORMAT = PREFIX + "format";
+    public static final String BUFFER_SIZE = PREFIX + "buffer_size";
+    public static final String SINK = PREFIX + "sink";
+
+    public enum Kind {
+        SELECT, INSERT, UPDATE, DELETE, OTHER;
+
+        // 比较第一个单词(跳过注释和括号)，不创建字符串。SET、SHOW 等不算 SELECT
+        public static Kind of(String sql) {
+            int i = 0;
+            while (i < sql.length()) {
+                char c = sql.charAt(i);
+                if (Character.isWhitespace(c) || c == '(') {
+                    i++;
+                } else if (sql.startsWith("/*", i)) {
+                    // hibernate.use_sql_comments 加在语句前面的注释
+                    int end = sql.indexOf("*/", i + 2);
+                    if (end < 0) {
+                        return OTHER;
+                    }
+                    i = end + 2;
+                } else {
+                    break;
+                }
+            }
+            if (keyword(sql, i, "select") || keyword(sql, i, "with")) {
+                // WITH ... SELECT
+                return SELECT;
+            }
+            if (keyword(sql, i, "insert")) {
+                return INSERT;
+            }
+            if (keyword(sql, i, "update")) {
+                return UPDATE;
+            }
+            if (keyword(sql, i, "delete")) {
+                return DELETE;
+            }
+            return OTHER;
+        }
+
+        // 从offset开始是完整的关键字，后面不是字母、数字或下划线
+        private static boolean keyword(String sql, int offset, String keyword) {
+            int end = offset + keyword.length();
+            return sql.regionMatches(true, offset, keyword, 0, keyword.length())
+                    && (end == sql.length() || !Character.isJavaIdentifierPart(sql.charAt(end)));
+        }
+
+        String propertyName() {
+            return SAMPLE_RATE + "." + name().toLowerCase();
+        }
+    }
+
+    private final double[] sampleRates;
+    private final long slowThresholdNanos;
+    private final EventRing<SqlLogEvent> ring;
+    private final Thread drainer;
+    private volatile SqlLogSink sink;
+    private volatile boolean closed;
+    // 后台线程队列为空、准备等待时为true，这时生产者放入日志后要唤醒它
+    private volatile boolean idle;
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    // 只有后台线程修改
+    private volatile long written;
+
+    /**
+     * @param sampleRates        按 Kind 的顺序，0到1之间
+     * @param slowThresholdNanos 小于0时不记录慢查询
+     */
+    public SqlLog(double[] sampleRates, long slowThresholdNanos, int bufferSize, SqlLogSink sink) {
+        if (sampleRates.length != Kind.values().length) {
+            throw new IllegalArgumentException("Expected " + Kind.values().length + " sample rates");
+        }
+        this.sampleRates = sampleRates.clone();
+        this.slowThresholdNanos = slowThresholdNanos;
+        this.ring = new EventRing<>(bufferSize);
+        this.sink = sink;
+        this.drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "sql-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // 没有开启任何日志时返回null，调用者不包装连接
+    public static SqlLog configure(Map<?, ?> configurationValues) {
+        double defaultRate = rate(configurationValues, SAMPLE_RATE, 0);
+        double[] rates = new double[Kind.values().length];
+        boolean sampling = false;
+        for (Kind kind : Kind.values()) {
+            rates[kind.ordinal()] = rate(configurationValues, kind.propertyName(), defaultRate);
+            sampling |= rates[kind.ordinal()] > 0;
+        }
+        long slowThresholdMillis = ConfigurationHelper.getInt(SLOW_THRESHOLD_MS, configurationValues, -1);
+        if (!sampling && slowThresholdMillis < 0) {
+            return null;
+        }
+        SqlLogSink sink;
+        String sinkClass = ConfigurationHelper.getString(SINK, configurationValues);
+        if (sinkClass == null) {
+            sink = new ConsoleSqlLogSink(ConfigurationHelper.getBoolean(FORMAT, configurationValues, false));
+        } else {
+            try {
+                sink = (SqlLogSink) Class.forName(sinkClass).newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new HibernateException("Cannot create SQL log sink " + sinkClass, e);
+            }
+        }
+        return new SqlLog(rates, slowThresholdMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis),
+                ConfigurationHelper.getInt(BUFFER_SIZE, configurationValues, 8192), sink);
+    }
+
+    private static double rate(Map<?, ?> configurationValues, String name, double defaultValue) {
+        Object value = configurationValues.get(name);
+        double rate = value == null ? defaultValue : Double.parseDouble(value.toString().trim());
+        if (rate < 0 || rate > 1) {
+            throw new HibernateException(name + " must be between 0 and 1: " + rate);
+        }
+        return rate;
+    }
+
+    public Connection wrap(Connection connection) {
+        return LoggingJdbc.wrap(connection, this);
+    }
+
+    // 在执行SQL的线程中调用，决定是否记录这次执行
+    boolean accept(Kind kind, long elapsedNanos, Throwable failure) {
+        executed.increment();
+        if (slowThresholdNanos >= 0 && elapsedNanos >= slowThresholdNanos) {
+            return true;
+        }
+        double rate = sampleRates[kind.ordinal()];
+        return failure != null || rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    void publish(String sql, Object[] parameters, int batchSize, long elapsedNanos, Throwable failure) {
+        boolean isSlow = slowThresholdNanos >= 0 && elapsedNanos >= slowThresholdNanos;
+        if (isSlow) {
+            slow.increment();
+        } else {
+            sampled.increment();
+        }
+        SqlLogEvent event = new SqlLogEvent(sql, parameters, batchSize, elapsedNanos, System.currentTimeMillis(),
+                Thread.currentThread().getName(), isSlow, failure);
+        if (closed || !ring.offer(event)) {
+            dropped.increment();
+        } else if (idle) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            SqlLogEvent event = ring.poll();
+            if (event != null) {
+                try {
+                    sink.write(event);
+                } catch (RuntimeException e) {
+                    // 输出失败不影响后面的日志
+                }
+                written++;
+                continue;
+            }
+            try {
+                sink.flush();
+            } catch (RuntimeException e) {
+                // 同上
+            }
+            if (closed) {
+                return;
+            }
+            idle = true;
+            // 设置idle之后再检查一次: 生产者放入日志(tail的CAS)在读取idle之前，
+            // 所以这里要么看到新的日志，要么生产者看到idle并唤醒这个线程
+            if (ring.size() == 0 && !closed) {
+                LockSupport.park(this);
+            }
+            idle = false;
+        }
+    }
+
+    public SqlLogSink getSink() {
+        return sink;
+    }
+
+    // 之后的日志输出到新的sink，用于测试或运行时切换
+    public void setSink(SqlLogSink sink) {
+        this.sink = sink;
+    }
+
+    public double getSampleRate(Kind kind) {
+        return sampleRates[kind.ordinal()];
+    }
+
+    public double getSlowThresholdMillis() {
+        return slowThresholdNanos < 0 ? -1 : slowThresholdNanos / 1e6;
+    }
+
+    // 经过包装的连接执行的语句数
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    // 按采样率记录的(不包括慢查询)
+    public long getSampledCount() {
+        return sampled.sum();
+    }
+
+    public long getSlowCount() {
+        return slow.sum();
+    }
+
+    // 队列满或已经关闭时丢弃的日志数
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written;
+    }
+
+    // 还没有输出的日志数
+    public int getPendingCount() {
+        return ring.size();
+    }
+
+    // 等待队列中已有的日志输出完，用于测试
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (ring.size() > 0 || getWrittenCount() < getSampledCount() + getSlowCount() - getDroppedCount()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    // 输出队列中剩余的日志后停止后台线程
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SqlLog{" +
+                "executed=" + getExecutedCount() +
+                ", sampled=" + getSampledCount() +
+                ", slow=" + getSlowCount() +
+                ", dropped=" + getDroppedCount() +
+                ", written=" + getWrittenCount() +
+                ", pending=" + getPendingCount() +
+                '}';
+    }
+}
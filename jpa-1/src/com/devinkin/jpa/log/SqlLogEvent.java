@@ -0,0 +1,83 @@
+package com.devinkin.jpa.log;
+
+import java.util.Arrays;
+
+/**
+ * 一次语句执行的记录，在执行SQL的线程中创建，在后台线程中格式化和输出。
+ * 创建时只保存引用和数字，不做任何字符串处理。
+ */
+public class SqlLogEvent {
+    private final String sql;
+    private final Object[] parameters;
+    private final int batchSize;
+    private final long elapsedNanos;
+    private final long timestamp;
+    private final String threadName;
+    private final boolean slow;
+    private final Throwable failure;
+
+    SqlLogEvent(String sql, Object[] parameters, int batchSize, long elapsedNanos, long timestamp,
+                String threadName, boolean slow, Throwable failure) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.batchSize = batchSize;
+        this.elapsedNanos = elapsedNanos;
+        this.timestamp = timestamp;
+        this.threadName = threadName;
+        this.slow = slow;
+        this.failure = failure;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    // 绑定的参数，下标0是第一个参数；没有记录参数时为null。批量执行时是最后一组参数
+    public Object[] getParameters() {
+        return parameters == null ? null : parameters.clone();
+    }
+
+    // 批量执行时的语句数，否则为0
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    // 执行结束的时间，System.currentTimeMillis()
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    // 超过了慢查询阈值
+    public boolean isSlow() {
+        return slow;
+    }
+
+    // 执行失败时的异常
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "SqlLogEvent{" +
+                "sql='" + sql + '\'' +
+                ", parameters=" + Arrays.toString(parameters) +
+                ", batchSize=" + batchSize +
+                ", elapsedMillis=" + getElapsedMillis() +
+                ", slow=" + slow +
+                ", failure=" + failure +
+                '}';
+    }
+}
@@ -0,0 +1,12 @@
+package com.devinkin.jpa.log;
+
+/**
+ * SQL日志的输出，只在 SqlLog 的后台线程中调用，不需要是线程安全的。
+ */
+public interface SqlLogSink {
+
+    void write(SqlLogEvent event);
+
+    // 队列暂时为空时调用
+    void flush();
+}
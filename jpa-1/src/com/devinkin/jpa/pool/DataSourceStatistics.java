@@ -0,0 +1,64 @@
+package com.devinkin.jpa.pool;
+
+/**
+ * RoutingConnectionProvider 的一个数据源(主库或只读副本)的统计信息快照。
+ * 语句数是准备的语句数量，JDBC批量执行的一批语句只算一次。
+ */
+public class DataSourceStatistics {
+    private final String name;
+    private final String url;
+    private final long connections;
+    private final long reads;
+    private final long writes;
+    private final int activeConnections;
+    private final double seconds;
+
+    DataSourceStatistics(String name, String url, long connections, long reads, long writes,
+                         int activeConnections, double seconds) {
+        this.name = name;
+        this.url = url;
+        this.connections = connections;
+        this.reads = reads;
+        this.writes = writes;
+        this.activeConnections = activeConnections;
+        this.seconds = seconds;
+    }
+
+    // primary 或 replica-1、replica-2 ...
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // 取出的连接数
+    public long getConnections() {
+        return connections;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    // 当前从这个数据源取出还没有归还的连接数
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    // 统计开始(或调用 resetRoutingStatistics)以来每秒的语句数
+    public double getStatementsPerSecond() {
+        return seconds <= 0 ? 0 : (reads + writes) / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{connections=%d, reads=%d, writes=%d, active=%d, statements/s=%.1f, url=%s}",
+                name, connections, reads, writes, activeConnections, getStatementsPerSecond(), url);
+    }
+}
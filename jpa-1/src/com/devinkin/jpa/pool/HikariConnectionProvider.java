@@ -0,0 +1,279 @@
+package com.devinkin.jpa.pool;
+
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.log.SqlLog;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.HdrHistogram.Histogram;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 使用HikariCP连接池的ConnectionProvider，代替Hibernate自带的 DriverManagerConnectionProvider(不能用于生产环境)。
+ * 在persistence.xml中通过 hibernate.connection.provider_class 启用，连接池的配置以 hibernate.hikari. 开头:
+ * 1. minimumIdle、maximumPoolSize、connectionTimeout、leakDetectionThreshold 等HikariConfig的属性
+ * 2. dataSource.xxx 直接传给JDBC驱动
+ * 3. statementCacheSize、statementCacheSqlLimit: 使用MySQL时开启驱动的PreparedStatement缓存
+ * 4. reservePoolSize: 备用连接池的大小，见 getConnection
+ * 数据库的连接信息仍然使用 javax.persistence.jdbc.* 或 hibernate.connection.*。
+ * 配置了 hibernate.sql_log.* 时，取出的连接由 SqlLog 包装，记录采样的语句和慢查询。
+ */
+public class HikariConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+    public static final String PREFIX = "hibernate.hikari.";
+    public static final String STATEMENT_CACHE_SIZE = PREFIX + "statementCacheSize";
+    public static final String STATEMENT_CACHE_SQL_LIMIT = PREFIX + "statementCacheSqlLimit";
+    public static final String RESERVE_POOL_SIZE = PREFIX + "reservePoolSize";
+
+    private final PoolMetricsTracker metrics = new PoolMetricsTracker();
+    private final LongAdder nestedAcquisitions = new LongAdder();
+    // 当前线程取出还没有归还的连接数
+    private final ThreadLocal<AtomicInteger> held = new ThreadLocal<AtomicInteger>() {
+        @Override
+        protected AtomicInteger initialValue() {
+            return new AtomicInteger();
+        }
+    };
+    // 取出的连接 -> 取出它的线程的计数，连接可能在其他线程中归还
+    private final ConcurrentHashMap<ConnectionKey, AtomicInteger> owners = new ConcurrentHashMap<>();
+
+    private HikariDataSource dataSource;
+    private HikariDataSource reserveDataSource;
+    // 没有开启SQL日志时为null
+    private SqlLog sqlLog;
+
+    // 取出 EntityManagerFactory 使用的连接池
+    public static HikariConnectionProvider of(EntityManagerFactory entityManagerFactory) {
+        ConnectionProvider provider = HibernateUtils.sessionFactory(entityManagerFactory)
+                .getServiceRegistry().getService(ConnectionProvider.class);
+        if (!(provider instanceof HikariConnectionProvider)) {
+            throw new IllegalStateException("hibernate.connection.provider_class is not "
+                    + HikariConnectionProvider.class.getName() + ": " + provider);
+        }
+        return (HikariConnectionProvider) provider;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        Properties properties = new Properties();
+        for (Object entry : configurationValues.entrySet()) {
+            String key = String.valueOf(((Map.Entry) entry).getKey());
+            if (key.startsWith(PREFIX) && !key.equals(STATEMENT_CACHE_SIZE)
+                    && !key.equals(STATEMENT_CACHE_SQL_LIMIT) && !key.equals(RESERVE_POOL_SIZE)) {
+                properties.setProperty(key.substring(PREFIX.length()), String.valueOf(((Map.Entry) entry).getValue()));
+            }
+        }
+        HikariConfig config = new HikariConfig(properties);
+
+        String url = setting(configurationValues, AvailableSettings.URL, org.hibernate.ejb.AvailableSettings.JDBC_URL);
+        if (url == null) {
+            throw new HibernateException("JDBC URL was not specified by property "
+                    + AvailableSettings.URL + " or " + org.hibernate.ejb.AvailableSettings.JDBC_URL);
+        }
+        config.setJdbcUrl(url);
+        String driver = setting(configurationValues, AvailableSettings.DRIVER, org.hibernate.ejb.AvailableSettings.JDBC_DRIVER);
+        if (driver != null) {
+            config.setDriverClassName(driver);
+        }
+        config.setUsername(setting(configurationValues, AvailableSettings.USER, org.hibernate.ejb.AvailableSettings.JDBC_USER));
+        config.setPassword(setting(configurationValues, AvailableSettings.PASS, org.hibernate.ejb.AvailableSettings.JDBC_PASSWORD));
+        // 和 DriverManagerConnectionProvider 一样，默认关闭自动提交
+        config.setAutoCommit(ConfigurationHelper.getBoolean(AvailableSettings.AUTOCOMMIT, configurationValues, false));
+        if (config.getPoolName() == null) {
+            config.setPoolName("jpa-1");
+        }
+        // 语句缓存由驱动实现，其他驱动不认识这些参数(H2会直接拒绝连接)，只在MySQL上开启
+        if (url.startsWith("jdbc:mysql:")) {
+            addDataSourceProperty(config, "cachePrepStmts", "true");
+            addDataSourceProperty(config, "useServerPrepStmts", "true");
+            addDataSourceProperty(config, "prepStmtCacheSize",
+                    String.valueOf(ConfigurationHelper.getInt(STATEMENT_CACHE_SIZE, configurationValues, 250)));
+            addDataSourceProperty(config, "prepStmtCacheSqlLimit",
+                    String.valueOf(ConfigurationHelper.getInt(STATEMENT_CACHE_SQL_LIMIT, configurationValues, 2048)));
+        }
+        config.setMetricsTrackerFactory(metrics);
+
+        int reservePoolSize = ConfigurationHelper.getInt(RESERVE_POOL_SIZE, configurationValues, 2);
+        if (reservePoolSize > 0) {
+            HikariConfig reserve = new HikariConfig();
+            config.copyStateTo(reserve);
+            reserve.setPoolName(config.getPoolName() + "-reserve");
+            reserve.setMinimumIdle(0);
+            reserve.setMaximumPoolSize(reservePoolSize);
+            // 只在需要时才创建连接
+            reserve.setInitializationFailTimeout(-1);
+            reserveDataSource = new HikariDataSource(reserve);
+        }
+        dataSource = new HikariDataSource(config);
+        sqlLog = SqlLog.configure(configurationValues);
+    }
+
+    /**
+     * 主键生成器(BlockIdGenerator)等在独立事务中执行的操作，会在当前事务持有连接的同时再获取一个连接。
+     * 连接池饱和时，持有连接的线程都在等待预留主键段的线程，而它又在等待连接，直到获取超时。
+     * 所以已经持有连接的线程在主连接池没有空闲连接时，从备用连接池获取连接。
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        AtomicInteger count = held.get();
+        Connection connection;
+        if (count.get() > 0 && reserveDataSource != null
+                && dataSource.getHikariPoolMXBean().getIdleConnections() == 0) {
+            connection = reserveDataSource.getConnection();
+            nestedAcquisitions.increment();
+        } else {
+            connection = dataSource.getConnection();
+        }
+        if (sqlLog != null) {
+            connection = sqlLog.wrap(connection);
+        }
+        count.incrementAndGet();
+        owners.put(new ConnectionKey(connection), count);
+        return connection;
+    }
+
+    // 连接的代理对象会把自己归还到所属的连接池，SqlLog的包装把close转发给它
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        AtomicInteger count = owners.remove(new ConnectionKey(connection));
+        if (count != null) {
+            count.decrementAndGet();
+        }
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    // 主连接池配置的副本，用于创建连接到其他数据库的连接池
+    HikariConfig copyConfig() {
+        HikariConfig copy = new HikariConfig();
+        dataSource.copyStateTo(copy);
+        return copy;
+    }
+
+    // 主连接池的最大连接数，不包括备用连接池
+    public int getMaximumPoolSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    // 没有开启SQL日志时返回null
+    public SqlLog getSqlLog() {
+        return sqlLog;
+    }
+
+    public PoolStatistics getStatistics() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        int active = pool.getActiveConnections();
+        int idle = pool.getIdleConnections();
+        int total = pool.getTotalConnections();
+        int awaiting = pool.getThreadsAwaitingConnection();
+        if (reserveDataSource != null && reserveDataSource.getHikariPoolMXBean() != null) {
+            HikariPoolMXBean reserve = reserveDataSource.getHikariPoolMXBean();
+            active += reserve.getActiveConnections();
+            idle += reserve.getIdleConnections();
+            total += reserve.getTotalConnections();
+            awaiting += reserve.getThreadsAwaitingConnection();
+        }
+        Histogram acquisition = metrics.getAcquisition();
+        Histogram usage = metrics.getUsage();
+        return new PoolStatistics(active, idle, total, awaiting,
+                acquisition.getTotalCount(), nestedAcquisitions.sum(), metrics.getTimeouts(), metrics.getCreated(),
+                metrics.getAcquisitionNanos() / 1e6,
+                acquisition.getTotalCount() == 0 ? 0 : acquisition.getMean() / 1e6,
+                acquisition.getValueAtPercentile(99) / 1e6,
+                acquisition.getMaxValue() / 1e6,
+                usage.getValueAtPercentile(99));
+    }
+
+    // 清除累计的统计信息，连接数等当前值不受影响
+    public void resetStatistics() {
+        metrics.reset();
+        nestedAcquisitions.reset();
+    }
+
+    @Override
+    public void stop() {
+        if (sqlLog != null) {
+            sqlLog.close();
+        }
+        if (reserveDataSource != null) {
+            reserveDataSource.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return ConnectionProvider.class.equals(unwrapType)
+                || HikariConnectionProvider.class.isAssignableFrom(unwrapType)
+                || DataSource.class.isAssignableFrom(unwrapType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (ConnectionProvider.class.equals(unwrapType)
+                || HikariConnectionProvider.class.isAssignableFrom(unwrapType)) {
+            return (T) this;
+        }
+        if (DataSource.class.isAssignableFrom(unwrapType)) {
+            return (T) dataSource;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    // 按对象本身比较连接，SqlLog的代理把equals和hashCode转发给被包装的连接
+    private static final class ConnectionKey {
+        private final Connection connection;
+
+        private ConnectionKey(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ConnectionKey && ((ConnectionKey) other).connection == connection;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(connection);
+        }
+    }
+
+    private static String setting(Map<?, ?> configurationValues, String name, String jpaName) {
+        Object value = configurationValues.get(name);
+        if (value == null) {
+            value = configurationValues.get(jpaName);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    private static void addDataSourceProperty(HikariConfig config, String name, String value) {
+        if (!config.getDataSourceProperties().containsKey(name)) {
+            config.addDataSourceProperty(name, value);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.devinkin.jpa.pool;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录HikariCP回调的获取连接耗时、连接占用时间和获取超时次数。
+ * 主连接池和备用连接池共用一个实例，统计的是两个连接池的总和。
+ */
+class PoolMetricsTracker implements MetricsTrackerFactory {
+    // 获取连接的耗时，单位纳秒
+    private final Histogram acquisition = new ConcurrentHistogram(3);
+    // 从获取到归还连接池的时间，单位毫秒
+    private final Histogram usage = new ConcurrentHistogram(3);
+    private final LongAdder acquisitionNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                created.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquisition.recordValue(elapsedAcquiredNanos);
+                acquisitionNanos.add(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usage.recordValue(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    Histogram getAcquisition() {
+        return acquisition.copy();
+    }
+
+    Histogram getUsage() {
+        return usage.copy();
+    }
+
+    long getAcquisitionNanos() {
+        return acquisitionNanos.sum();
+    }
+
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    long getCreated() {
+        return created.sum();
+    }
+
+    void reset() {
+        acquisition.reset();
+        usage.reset();
+        acquisitionNanos.reset();
+        timeouts.reset();
+        created.reset();
+    }
+}
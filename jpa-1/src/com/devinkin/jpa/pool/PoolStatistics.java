@@ -0,0 +1,116 @@
+package com.devinkin.jpa.pool;
+
+/**
+ * 连接池的统计信息快照，时间单位都是毫秒。
+ */
+public class PoolStatistics {
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int totalConnections;
+    private final int threadsAwaitingConnection;
+    private final long acquisitionCount;
+    private final long nestedAcquisitionCount;
+    private final long timeoutCount;
+    private final long createdCount;
+    private final double totalWaitMillis;
+    private final double meanAcquisitionMillis;
+    private final double p99AcquisitionMillis;
+    private final double maxAcquisitionMillis;
+    private final long p99UsageMillis;
+
+    public PoolStatistics(int activeConnections, int idleConnections, int totalConnections,
+                          int threadsAwaitingConnection, long acquisitionCount, long nestedAcquisitionCount,
+                          long timeoutCount, long createdCount, double totalWaitMillis,
+                          double meanAcquisitionMillis, double p99AcquisitionMillis,
+                          double maxAcquisitionMillis, long p99UsageMillis) {
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.totalConnections = totalConnections;
+        this.threadsAwaitingConnection = threadsAwaitingConnection;
+        this.acquisitionCount = acquisitionCount;
+        this.nestedAcquisitionCount = nestedAcquisitionCount;
+        this.timeoutCount = timeoutCount;
+        this.createdCount = createdCount;
+        this.totalWaitMillis = totalWaitMillis;
+        this.meanAcquisitionMillis = meanAcquisitionMillis;
+        this.p99AcquisitionMillis = p99AcquisitionMillis;
+        this.maxAcquisitionMillis = maxAcquisitionMillis;
+        this.p99UsageMillis = p99UsageMillis;
+    }
+
+    // 正在被使用的连接数
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    // 正在等待连接的线程数，大于0说明连接池已经饱和
+    public int getThreadsAwaitingConnection() {
+        return threadsAwaitingConnection;
+    }
+
+    public long getAcquisitionCount() {
+        return acquisitionCount;
+    }
+
+    // 已经持有连接的线程(如主键生成器的独立事务)从备用连接池获取连接的次数
+    public long getNestedAcquisitionCount() {
+        return nestedAcquisitionCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    // 所有线程获取连接的耗时之和
+    public double getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+
+    public double getMeanAcquisitionMillis() {
+        return meanAcquisitionMillis;
+    }
+
+    public double getP99AcquisitionMillis() {
+        return p99AcquisitionMillis;
+    }
+
+    public double getMaxAcquisitionMillis() {
+        return maxAcquisitionMillis;
+    }
+
+    // 连接从借出到归还的时间
+    public long getP99UsageMillis() {
+        return p99UsageMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics{" +
+                "activeConnections=" + activeConnections +
+                ", idleConnections=" + idleConnections +
+                ", totalConnections=" + totalConnections +
+                ", threadsAwaitingConnection=" + threadsAwaitingConnection +
+                ", acquisitionCount=" + acquisitionCount +
+                ", nestedAcquisitionCount=" + nestedAcquisitionCount +
+                ", timeoutCount=" + timeoutCount +
+                ", createdCount=" + createdCount +
+                ", totalWaitMillis=" + totalWaitMillis +
+                ", meanAcquisitionMillis=" + meanAcquisitionMillis +
+                ", p99AcquisitionMillis=" + p99AcquisitionMillis +
+                ", maxAcquisitionMillis=" + maxAcquisitionMillis +
+                ", p99UsageMillis=" + p99UsageMillis +
+                '}';
+    }
+}
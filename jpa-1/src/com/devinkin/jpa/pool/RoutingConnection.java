@@ -0,0 +1,184 @@
+package com.devinkin.jpa.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * RoutingConnectionProvider 返回给Hibernate的连接，在开始事务或执行第一条语句时才从主库或只读副本取出真正的连接。
+ * 之前设置的自动提交、隔离级别、只读等状态在取出连接后再设置上去。
+ * 对外表现为自动提交的连接，Hibernate开始事务时调用 setAutoCommit(false)，以此区分事务内外。
+ */
+class RoutingConnection implements InvocationHandler {
+    private final RoutingConnectionProvider provider;
+    private RoutingConnectionProvider.Target target;
+    private Connection connection;
+    private boolean autoCommit = true;
+    private Integer isolation;
+    private Boolean readOnly;
+    // 当前事务在主库执行过写操作，提交时记录写入时间
+    private boolean wrote;
+    private boolean closed;
+
+    RoutingConnection(RoutingConnectionProvider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "RoutingConnection{" + (target == null ? "unbound" : target.name) + "}";
+            case "isClosed":
+                return closed;
+            case "close":
+                release();
+                closed = true;
+                return null;
+            case "getAutoCommit":
+                return autoCommit;
+            case "setAutoCommit":
+                setAutoCommit((Boolean) args[0]);
+                return null;
+            case "commit":
+                if (connection == null) {
+                    return null;
+                }
+                connection.commit();
+                if (wrote) {
+                    provider.written();
+                    wrote = false;
+                }
+                return null;
+            case "rollback":
+                wrote = false;
+                if (connection == null) {
+                    return null;
+                }
+                break;
+            case "setTransactionIsolation":
+                isolation = (Integer) args[0];
+                if (connection == null) {
+                    return null;
+                }
+                break;
+            case "setReadOnly":
+                readOnly = (Boolean) args[0];
+                if (connection == null) {
+                    return null;
+                }
+                break;
+            case "getWarnings":
+            case "clearWarnings":
+                if (connection == null) {
+                    return null;
+                }
+                break;
+            case "prepareStatement":
+            case "prepareCall":
+            case "createStatement":
+                statement(args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null);
+                break;
+            default:
+                if (connection == null) {
+                    bind(false);
+                }
+                break;
+        }
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void setAutoCommit(boolean value) throws SQLException {
+        boolean begin = autoCommit && !value;
+        autoCommit = value;
+        if (connection == null) {
+            if (begin) {
+                bind(provider.readOnlyTransaction());
+            }
+            return;
+        }
+        if (begin && target != provider.primaryTarget() && !provider.readOnlyTransaction()) {
+            // 事务之外在只读副本上读过，事务在主库执行
+            release();
+            bind(false);
+            return;
+        }
+        connection.setAutoCommit(value);
+    }
+
+    private void statement(String sql) throws SQLException {
+        boolean read = sql != null && RoutingConnectionProvider.isRead(sql);
+        if (connection == null) {
+            bind(read && autoCommit && provider.readFromReplica());
+        } else if (!read && target != provider.primaryTarget()) {
+            if (!autoCommit) {
+                throw new SQLException("Write statement in a read-only transaction on " + target.name + ": " + sql);
+            }
+            release();
+            bind(false);
+        }
+        if (read) {
+            target.reads.increment();
+        } else {
+            target.writes.increment();
+            if (target == provider.primaryTarget()) {
+                if (autoCommit) {
+                    provider.written();
+                } else {
+                    wrote = true;
+                }
+            }
+        }
+    }
+
+    private void bind(boolean replica) throws SQLException {
+        if (replica) {
+            int first = provider.firstReplica();
+            for (int i = 0; i < provider.replicaCount() && connection == null; i++) {
+                RoutingConnectionProvider.Target candidate = provider.replica(first + i);
+                try {
+                    connection = provider.open(candidate);
+                    target = candidate;
+                } catch (SQLException e) {
+                    provider.fallback();
+                }
+            }
+        }
+        if (connection == null) {
+            connection = provider.open(provider.primaryTarget());
+            target = provider.primaryTarget();
+        }
+        if (connection.getAutoCommit() != autoCommit) {
+            connection.setAutoCommit(autoCommit);
+        }
+        if (isolation != null) {
+            connection.setTransactionIsolation(isolation);
+        }
+        if (readOnly != null) {
+            connection.setReadOnly(readOnly);
+        }
+    }
+
+    // 归还真正的连接，这个连接之后还可以继续使用(重新取连接)
+    void release() throws SQLException {
+        if (connection == null) {
+            return;
+        }
+        Connection released = connection;
+        RoutingConnectionProvider.Target releasedTarget = target;
+        connection = null;
+        target = null;
+        wrote = false;
+        provider.close(releasedTarget, released);
+    }
+}
@@ -0,0 +1,327 @@
+package com.devinkin.jpa.pool;
+
+import com.devinkin.jpa.log.SqlLog;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 读写分离: 写操作在主库执行，只读的事务和事务之外的SELECT在只读副本上执行。
+ * 在persistence.xml中通过 hibernate.connection.provider_class 启用，主库的配置和 HikariConnectionProvider 相同:
+ * 1. hibernate.routing.replicas: 只读副本的JDBC URL，逗号分隔，用户名、密码和连接池的配置和主库相同
+ * 2. hibernate.routing.balance: round_robin(默认)，或 least_loaded(取出的连接最少的副本)
+ * 3. hibernate.routing.read_your_writes_ms: 一个线程写入之后的这段时间内，它的读操作仍然在主库执行，
+ *    不会因为复制延迟读不到自己刚写入的数据，默认1000
+ * 返回给Hibernate的连接在执行第一条语句或开始事务时才决定使用哪个数据源:
+ * 1. 开始事务(setAutoCommit(false)): 在 readOnly() 范围内使用只读副本，否则使用主库
+ * 2. 事务之外的SELECT(不包括 FOR UPDATE)使用只读副本，其他语句使用主库
+ * 3. 事务之外在只读副本上读过之后开始事务或者执行写操作时，换成主库的连接；只读事务中的写操作抛出 SQLException
+ * 只读副本取不到连接时使用下一个副本，都不可用时使用主库。
+ * 没有配置只读副本时和 HikariConnectionProvider 完全相同。
+ * 限制:
+ * 1. 配置了只读副本时必须关闭二级缓存和查询缓存，否则启动失败: 从有复制延迟的副本读到的旧数据会被放入共享的缓存，
+ *    之后所有读操作(包括主库上的事务)都会读到它
+ * 2. 写入时间、readOnly() 和 primary() 都按线程记录: 写入后把读操作交给其他线程执行时
+ *    (例如 PersistenceExecutor、AsyncRepository)，读操作不知道之前的写入，可能在副本上读不到刚写入的数据，
+ *    这时要在执行读操作的线程中使用 primary()，或者在读写事务中读取
+ */
+public class RoutingConnectionProvider extends HikariConnectionProvider {
+    public static final String ROUTING_PREFIX = "hibernate.routing.";
+    public static final String REPLICAS = ROUTING_PREFIX + "replicas";
+    public static final String BALANCE = ROUTING_PREFIX + "balance";
+    public static final String READ_YOUR_WRITES_MS = ROUTING_PREFIX + "read_your_writes_ms";
+
+    private static final ThreadLocal<Mode> MODE = new ThreadLocal<Mode>() {
+        @Override
+        protected Mode initialValue() {
+            return Mode.AUTO;
+        }
+    };
+
+    // 当前线程最后一次在主库写入的时间，没有写过时为null。其他线程上的读操作看不到(见类的注释)
+    private final ThreadLocal<long[]> lastWrite = new ThreadLocal<>();
+    private final List<Target> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder fallbacks = new LongAdder();
+    private Target primary;
+    private boolean leastLoaded;
+    private long readYourWritesNanos;
+    private volatile long statisticsStart = System.nanoTime();
+
+    enum Mode {
+        AUTO, READ_ONLY, PRIMARY
+    }
+
+    /**
+     * 当前线程在关闭返回的对象之前开始的事务都是只读的，在只读副本上执行。
+     * 需要在 EntityManager 开始事务之前调用:
+     * <pre>
+     * try (RoutingConnectionProvider.Scope scope = RoutingConnectionProvider.readOnly()) {
+     *     entityManager.getTransaction().begin();
+     *     ...
+     * }
+     * </pre>
+     */
+    public static Scope readOnly() {
+        return new Scope(Mode.READ_ONLY);
+    }
+
+    // 当前线程的所有操作都在主库执行，用于不能容忍复制延迟的读操作
+    public static Scope primary() {
+        return new Scope(Mode.PRIMARY);
+    }
+
+    public static RoutingConnectionProvider of(EntityManagerFactory entityManagerFactory) {
+        HikariConnectionProvider provider = HikariConnectionProvider.of(entityManagerFactory);
+        if (!(provider instanceof RoutingConnectionProvider)) {
+            throw new IllegalStateException("hibernate.connection.provider_class is not "
+                    + RoutingConnectionProvider.class.getName() + ": " + provider);
+        }
+        return (RoutingConnectionProvider) provider;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        String replicaUrls = ConfigurationHelper.getString(REPLICAS, configurationValues, "");
+        if (!replicaUrls.trim().isEmpty()
+                && (ConfigurationHelper.getBoolean(AvailableSettings.USE_SECOND_LEVEL_CACHE, configurationValues, true)
+                || ConfigurationHelper.getBoolean(AvailableSettings.USE_QUERY_CACHE, configurationValues, false))) {
+            throw new HibernateException(REPLICAS + " cannot be used with the second-level cache or the query cache: "
+                    + "stale rows read from a lagging replica would be cached for all sessions. Set "
+                    + AvailableSettings.USE_SECOND_LEVEL_CACHE + " and " + AvailableSettings.USE_QUERY_CACHE + " to false");
+        }
+        super.configure(configurationValues);
+        HikariConfig primaryConfig = copyConfig();
+        primary = new Target("primary", primaryConfig.getJdbcUrl(), null);
+        for (String url : replicaUrls.split(",")) {
+            url = url.trim();
+            if (url.isEmpty()) {
+                continue;
+            }
+            String name = "replica-" + (replicas.size() + 1);
+            HikariConfig config = copyConfig();
+            config.setJdbcUrl(url);
+            config.setPoolName(primaryConfig.getPoolName() + "-" + name);
+            config.setMetricsTrackerFactory(null);
+            // 只读副本不可用时不影响启动，取连接时换成其他数据源
+            config.setInitializationFailTimeout(-1);
+            replicas.add(new Target(name, url, new HikariDataSource(config)));
+        }
+        leastLoaded = "least_loaded".equals(ConfigurationHelper.getString(BALANCE, configurationValues, "round_robin"));
+        readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(
+                ConfigurationHelper.getInt(READ_YOUR_WRITES_MS, configurationValues, 1000));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (replicas.isEmpty()) {
+            return super.getConnection();
+        }
+        return (Connection) Proxy.newProxyInstance(RoutingConnectionProvider.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new RoutingConnection(this));
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        if (Proxy.isProxyClass(connection.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(connection);
+            if (handler instanceof RoutingConnection) {
+                ((RoutingConnection) handler).release();
+                return;
+            }
+        }
+        super.closeConnection(connection);
+    }
+
+    // 主库在前，然后是各个只读副本
+    public List<DataSourceStatistics> getRoutingStatistics() {
+        double seconds = (System.nanoTime() - statisticsStart) / 1e9;
+        List<DataSourceStatistics> statistics = new ArrayList<>();
+        statistics.add(primary.statistics(seconds));
+        for (Target replica : replicas) {
+            statistics.add(replica.statistics(seconds));
+        }
+        return Collections.unmodifiableList(statistics);
+    }
+
+    // 只读副本取不到连接，换成其他数据源的次数
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    public void resetRoutingStatistics() {
+        primary.reset();
+        for (Target replica : replicas) {
+            replica.reset();
+        }
+        fallbacks.reset();
+        statisticsStart = System.nanoTime();
+    }
+
+    @Override
+    public void stop() {
+        for (Target replica : replicas) {
+            replica.dataSource.close();
+        }
+        super.stop();
+    }
+
+    // 开始的事务是否在只读副本上执行
+    boolean readOnlyTransaction() {
+        return MODE.get() == Mode.READ_ONLY && !recentlyWritten();
+    }
+
+    // 事务之外的读操作是否在只读副本上执行
+    boolean readFromReplica() {
+        return MODE.get() != Mode.PRIMARY && !recentlyWritten();
+    }
+
+    void written() {
+        long[] time = lastWrite.get();
+        if (time == null) {
+            time = new long[1];
+            lastWrite.set(time);
+        }
+        time[0] = System.nanoTime();
+    }
+
+    private boolean recentlyWritten() {
+        long[] time = lastWrite.get();
+        return time != null && System.nanoTime() - time[0] < readYourWritesNanos;
+    }
+
+    Target primaryTarget() {
+        return primary;
+    }
+
+    int replicaCount() {
+        return replicas.size();
+    }
+
+    // 按负载均衡策略选择的第一个只读副本，之后的副本在前一个不可用时使用
+    int firstReplica() {
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        if (!leastLoaded) {
+            return start % replicas.size();
+        }
+        int best = -1;
+        int bestLoad = Integer.MAX_VALUE;
+        // 负载相同时从轮流的位置开始，不总是选第一个
+        for (int i = 0; i < replicas.size(); i++) {
+            int index = (start + i) % replicas.size();
+            int load = replicas.get(index).active.get();
+            if (load < bestLoad) {
+                best = index;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    Target replica(int index) {
+        return replicas.get(index % replicas.size());
+    }
+
+    Connection open(Target target) throws SQLException {
+        Connection connection;
+        if (target == primary) {
+            connection = super.getConnection();
+        } else {
+            connection = target.dataSource.getConnection();
+            SqlLog sqlLog = getSqlLog();
+            if (sqlLog != null) {
+                connection = sqlLog.wrap(connection);
+            }
+        }
+        target.connections.increment();
+        target.active.incrementAndGet();
+        return connection;
+    }
+
+    void fallback() {
+        fallbacks.increment();
+    }
+
+    void close(Target target, Connection connection) throws SQLException {
+        target.active.decrementAndGet();
+        if (target == primary) {
+            super.closeConnection(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    // 不以 SELECT 开始的语句，以及 SELECT ... FOR UPDATE 等加锁的查询都在主库执行
+    static boolean isRead(String sql) {
+        return SqlLog.Kind.of(sql) == SqlLog.Kind.SELECT
+                && !containsIgnoreCase(sql, "for update") && !containsIgnoreCase(sql, "lock in share mode");
+    }
+
+    private static boolean containsIgnoreCase(String sql, String word) {
+        for (int i = sql.length() - word.length(); i >= 0; i--) {
+            if (sql.regionMatches(true, i, word, 0, word.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static final class Scope implements Closeable {
+        private final Mode previous;
+
+        private Scope(Mode mode) {
+            previous = MODE.get();
+            MODE.set(mode);
+        }
+
+        @Override
+        public void close() {
+            MODE.set(previous);
+        }
+    }
+
+    // 一个数据源和它的计数器，主库的 dataSource 为null，通过 HikariConnectionProvider 取连接
+    static final class Target {
+        final String name;
+        final String url;
+        final HikariDataSource dataSource;
+        final AtomicInteger active = new AtomicInteger();
+        final LongAdder connections = new LongAdder();
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+
+        Target(String name, String url, HikariDataSource dataSource) {
+            this.name = name;
+            this.url = url;
+            this.dataSource = dataSource;
+        }
+
+        DataSourceStatistics statistics(double seconds) {
+            return new DataSourceStatistics(name, url, connections.sum(), reads.sum(), writes.sum(),
+                    active.get(), seconds);
+        }
+
+        void reset() {
+            connections.reset();
+            reads.reset();
+            writes.reset();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.devinkin.jpa.projection;
+
+/**
+ * Customer的只读投影，用于报表等只需要部分属性的查询。
+ * 不是实体，不会被EntityManager管理，也没有脏检查用的快照。
+ */
+public final class CustomerSummary {
+    private final String lastName;
+    private final int age;
+
+    public CustomerSummary(String lastName, int age) {
+        this.lastName = lastName;
+        this.age = age;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CustomerSummary)) {
+            return false;
+        }
+        CustomerSummary that = (CustomerSummary) o;
+        return age == that.age && (lastName == null ? that.lastName == null : lastName.equals(that.lastName));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (lastName == null ? 0 : lastName.hashCode()) + age;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerSummary{" +
+                "lastName='" + lastName + '\'' +
+                ", age=" + age +
+                '}';
+    }
+}
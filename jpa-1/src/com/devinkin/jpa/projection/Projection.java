@@ -0,0 +1,183 @@
+package com.devinkin.jpa.projection;
+
+import org.hibernate.transform.ResultTransformer;
+
+import javax.persistence.Query;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 把查询结果的每一行直接转换为不可变的DTO，代替 SELECT new 以及返回实体的查询。
+ * 1. DTO只能有一个public构造器，查询的列按顺序对应构造器的参数
+ * 2. 构造器在第一次使用时转换为 MethodHandle，之后每一行只调用这个句柄，没有反射
+ * 3. 原生SQL返回的数字类型和构造器参数不一致时(例如BIGINT对应int)，按参数类型转换
+ * 查询结果不是实体，不进入EntityManager，也就没有脏检查用的快照。
+ */
+public final class Projection<T> implements ResultTransformer {
+    private static final ConcurrentMap<Class<?>, Projection<?>> PROJECTIONS = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private final int arity;
+    // (Object[]) -> Object
+    private final transient MethodHandle constructor;
+
+    private Projection(Class<T> type) {
+        this.type = type;
+        Constructor<?> target = null;
+        for (Constructor<?> candidate : type.getConstructors()) {
+            if (target != null) {
+                throw new IllegalArgumentException(type.getName() + " must have exactly one public constructor");
+            }
+            target = candidate;
+        }
+        if (target == null || Modifier.isAbstract(type.getModifiers())) {
+            throw new IllegalArgumentException(type.getName() + " has no public constructor");
+        }
+        this.arity = target.getParameterTypes().length;
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflectConstructor(target);
+            Class<?>[] parameterTypes = target.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                MethodHandle converter = converter(parameterTypes[i]);
+                if (converter != null) {
+                    handle = MethodHandles.filterArguments(handle, i, converter);
+                }
+            }
+            this.constructor = handle.asType(handle.type().changeReturnType(Object.class).generic())
+                    .asSpreader(Object[].class, arity)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> Projection<T> of(Class<T> type) {
+        Projection<?> projection = PROJECTIONS.get(type);
+        if (projection == null) {
+            projection = new Projection<>(type);
+            Projection<?> existing = PROJECTIONS.putIfAbsent(type, projection);
+            if (existing != null) {
+                projection = existing;
+            }
+        }
+        return (Projection<T>) projection;
+    }
+
+    /**
+     * 执行JPQL或原生SQL查询，每一行转换为DTO。
+     * 查询在这里被设置了结果转换器，不要再用于返回实体的查询。
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> list(Query query) {
+        return query.unwrap(org.hibernate.Query.class)
+                .setResultTransformer(this)
+                .list();
+    }
+
+    @SuppressWarnings("unchecked")
+    public T map(Object[] row) {
+        if (row.length != arity) {
+            throw new IllegalArgumentException("Query returns " + row.length + " columns, but the constructor of "
+                    + type.getName() + " takes " + arity + " parameters");
+        }
+        try {
+            return (T) constructor.invokeExact(row);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Object transformTuple(Object[] tuple, String[] aliases) {
+        return map(tuple);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List transformList(List collection) {
+        return collection;
+    }
+
+    // 反序列化时(例如查询被放入缓存)使用同一个类的缓存实例
+    private Object readResolve() {
+        return of(type);
+    }
+
+    // 原生SQL中数字列的Java类型取决于数据库和驱动，统一通过Number转换为参数的类型。
+    // 基本类型的参数直接转换为基本类型，避免再装箱一次
+    private static MethodHandle converter(Class<?> parameterType) throws IllegalAccessException {
+        String name;
+        if (parameterType.isPrimitive()) {
+            name = parameterType.getName() + "Value";
+        } else if (Number.class.isAssignableFrom(parameterType)) {
+            name = "to" + parameterType.getSimpleName();
+        } else {
+            return null;
+        }
+        try {
+            return MethodHandles.lookup().findStatic(Projection.class, name,
+                    MethodType.methodType(parameterType, Object.class));
+        } catch (NoSuchMethodException e) {
+            // boolean、char、BigDecimal 等保持原样
+            return null;
+        }
+    }
+
+    private static int intValue(Object value) {
+        return ((Number) value).intValue();
+    }
+
+    private static long longValue(Object value) {
+        return ((Number) value).longValue();
+    }
+
+    private static short shortValue(Object value) {
+        return ((Number) value).shortValue();
+    }
+
+    private static byte byteValue(Object value) {
+        return ((Number) value).byteValue();
+    }
+
+    private static double doubleValue(Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    private static float floatValue(Object value) {
+        return ((Number) value).floatValue();
+    }
+
+    private static Integer toInteger(Object value) {
+        return value == null || value instanceof Integer ? (Integer) value : Integer.valueOf(((Number) value).intValue());
+    }
+
+    private static Long toLong(Object value) {
+        return value == null || value instanceof Long ? (Long) value : Long.valueOf(((Number) value).longValue());
+    }
+
+    private static Short toShort(Object value) {
+        return value == null || value instanceof Short ? (Short) value : Short.valueOf(((Number) value).shortValue());
+    }
+
+    private static Byte toByte(Object value) {
+        return value == null || value instanceof Byte ? (Byte) value : Byte.valueOf(((Number) value).byteValue());
+    }
+
+    private static Double toDouble(Object value) {
+        return value == null || value instanceof Double ? (Double) value : Double.valueOf(((Number) value).doubleValue());
+    }
+
+    private static Float toFloat(Object value) {
+        return value == null || value instanceof Float ? (Float) value : Float.valueOf(((Number) value).floatValue());
+    }
+}
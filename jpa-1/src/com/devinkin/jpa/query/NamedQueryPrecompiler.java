@@ -0,0 +1,89 @@
+package com.devinkin.jpa.query;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.engine.query.spi.QueryPlanCache;
+import org.hibernate.engine.spi.NamedQueryDefinition;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SessionFactory创建完成后用多个线程编译所有的命名查询(@NamedQuery)，放入查询计划缓存，
+ * 第一次执行命名查询时不需要再解析和翻译。
+ * 代替Hibernate在构造SessionFactory时逐个检查命名查询(hibernate.query.startup_check，在 persistence.xml 中关闭)，
+ * 有错误的命名查询同样使SessionFactory创建失败。
+ */
+class NamedQueryPrecompiler implements SessionFactoryObserver {
+    private final Collection<NamedQueryDefinition> definitions;
+    private final int threads;
+
+    NamedQueryPrecompiler(Collection<NamedQueryDefinition> definitions, int threads) {
+        this.definitions = new ArrayList<>(definitions);
+        this.threads = threads;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        final QueryPlanCache cache = ((SessionFactoryImplementor) factory).getQueryPlanCache();
+        long start = System.currentTimeMillis();
+        final AtomicInteger sequence = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, definitions.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "query-precompile-" + sequence.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Map<String, String> errors = new TreeMap<>();
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (final NamedQueryDefinition definition : definitions) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        cache.getHQLQueryPlan(definition.getQueryString(), false, Collections.emptyMap());
+                        return null;
+                    }
+                }));
+            }
+            int i = 0;
+            for (NamedQueryDefinition definition : definitions) {
+                try {
+                    futures.get(i++).get();
+                } catch (ExecutionException e) {
+                    errors.put(definition.getName(), e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HibernateException("Interrupted while compiling named queries", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!errors.isEmpty()) {
+            throw new HibernateException("Errors in named queries: " + errors);
+        }
+        if (cache instanceof NormalizingQueryPlanCache) {
+            ((NormalizingQueryPlanCache) cache).precompiled(definitions.size(), System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+}
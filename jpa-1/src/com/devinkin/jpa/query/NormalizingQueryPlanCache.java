@@ -0,0 +1,158 @@
+package com.devinkin.jpa.query;
+
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.stat.QueryFingerprint;
+import org.hibernate.MappingException;
+import org.hibernate.QueryException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.query.spi.QueryPlanCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.collections.BoundedConcurrentHashMap;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按规范化的JPQL缓存查询计划(语法解析和翻译成SQL的结果)，代替Hibernate按原文缓存的 QueryPlanCache。
+ * 只是空白和换行不同的语句共用一个计划，并统计命中率和编译时间。
+ * 创建查询和执行查询时各查找一次计划。iterate()(shallow)和启用了过滤器的查询仍然使用Hibernate原来的缓存，不计入统计。
+ * 最多缓存 hibernate.query.plan_cache_max_size 个计划(默认2048)，按LIRS淘汰。
+ * 由 QueryPlanIntegrator 在SessionFactory创建时安装。
+ */
+public class NormalizingQueryPlanCache extends QueryPlanCache {
+    private final SessionFactoryImplementor factory;
+    private final int maxSize;
+    private final BoundedConcurrentHashMap<String, HQLQueryPlan> plans;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+    private volatile int precompiled;
+    private volatile long precompileMillis;
+
+    NormalizingQueryPlanCache(SessionFactoryImplementor factory) {
+        super(factory);
+        this.factory = factory;
+        this.maxSize = ConfigurationHelper.getInt(AvailableSettings.QUERY_PLAN_CACHE_MAX_SIZE,
+                factory.getProperties(), DEFAULT_QUERY_PLAN_MAX_COUNT);
+        this.plans = new BoundedConcurrentHashMap<>(maxSize, 20, BoundedConcurrentHashMap.Eviction.LIRS,
+                new BoundedConcurrentHashMap.EvictionListener<String, HQLQueryPlan>() {
+                    @Override
+                    public void onEntryEviction(Map<String, HQLQueryPlan> evicted) {
+                        evictions.add(evicted.size());
+                    }
+
+                    @Override
+                    public void onEntryChosenForEviction(HQLQueryPlan plan) {
+                    }
+                });
+    }
+
+    // hibernate.query.plan_cache_normalize=false 时没有安装，抛出 IllegalStateException
+    public static NormalizingQueryPlanCache of(EntityManagerFactory entityManagerFactory) {
+        QueryPlanCache cache = HibernateUtils.sessionFactory(entityManagerFactory).getQueryPlanCache();
+        if (!(cache instanceof NormalizingQueryPlanCache)) {
+            throw new IllegalStateException("query plan cache is not normalizing: " + cache);
+        }
+        return (NormalizingQueryPlanCache) cache;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HQLQueryPlan getHQLQueryPlan(String queryString, boolean shallow, Map enabledFilters)
+            throws QueryException, MappingException {
+        if (shallow || !enabledFilters.isEmpty()) {
+            return super.getHQLQueryPlan(queryString, shallow, enabledFilters);
+        }
+        // 大多数语句本来就是规范的，先按原文查找，不用每次都扫描一遍
+        HQLQueryPlan plan = plans.get(queryString);
+        String normalized = queryString;
+        if (plan == null) {
+            normalized = QueryFingerprint.normalize(queryString);
+            if (normalized != queryString) {
+                plan = plans.get(normalized);
+            }
+        }
+        if (plan != null) {
+            hits.increment();
+            return plan;
+        }
+        misses.increment();
+        // 多个线程同时编译同一条语句时结果相同，保留先放入的
+        long start = System.nanoTime();
+        plan = new HQLQueryPlan(normalized, false, enabledFilters, factory);
+        compileNanos.add(System.nanoTime() - start);
+        HQLQueryPlan existing = plans.putIfAbsent(normalized, plan);
+        return existing == null ? plan : existing;
+    }
+
+    @Override
+    public void cleanup() {
+        plans.clear();
+        super.cleanup();
+    }
+
+    void precompiled(int count, long millis) {
+        precompiled = count;
+        precompileMillis = millis;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        return plans.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    // 所有未命中的查询编译计划的总时间
+    public long getCompileMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compileNanos.sum());
+    }
+
+    // 启动时预先编译的命名查询的数量和用时
+    public int getPrecompiledCount() {
+        return precompiled;
+    }
+
+    public long getPrecompileMillis() {
+        return precompileMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "NormalizingQueryPlanCache{" +
+                "size=" + getSize() +
+                ", maxSize=" + maxSize +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                ", evictions=" + getEvictionCount() +
+                ", compileMillis=" + getCompileMillis() +
+                ", precompiled=" + precompiled +
+                ", precompileMillis=" + precompileMillis +
+                '}';
+    }
+}
@@ -0,0 +1,67 @@
+package com.devinkin.jpa.query;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.NamedQueryDefinition;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.internal.SessionFactoryImpl;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 在SessionFactory创建时用 NormalizingQueryPlanCache 代替Hibernate的查询计划缓存，
+ * 并在创建完成后并行编译命名查询(不替换缓存时编译到Hibernate原来的缓存中)。
+ * Hibernate没有替换查询计划缓存的扩展点，这里通过反射设置 SessionFactoryImpl 的字段，
+ * 集成器在命名查询检查之前执行，这时还没有编译过任何查询。
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 自动加载。
+ */
+public class QueryPlanIntegrator implements Integrator {
+    // 是否按规范化的JPQL缓存查询计划，默认true
+    public static final String NORMALIZE = "hibernate.query.plan_cache_normalize";
+    // 预先编译命名查询的线程数，默认为CPU数量，0表示不预先编译
+    public static final String PRECOMPILE_THREADS = "hibernate.query.precompile_threads";
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(sessionFactory, configuration.getNamedQueries().values());
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(sessionFactory, Collections.<NamedQueryDefinition>emptyList());
+    }
+
+    private void integrate(SessionFactoryImplementor sessionFactory,
+                           Collection<NamedQueryDefinition> namedQueries) {
+        if (!(sessionFactory instanceof SessionFactoryImpl)) {
+            return;
+        }
+        if (ConfigurationHelper.getBoolean(NORMALIZE, sessionFactory.getProperties(), true)) {
+            try {
+                Field field = SessionFactoryImpl.class.getDeclaredField("queryPlanCache");
+                field.setAccessible(true);
+                field.set(sessionFactory, new NormalizingQueryPlanCache(sessionFactory));
+            } catch (ReflectiveOperationException e) {
+                throw new HibernateException("Cannot install " + NormalizingQueryPlanCache.class.getSimpleName(), e);
+            }
+        }
+
+        int threads = ConfigurationHelper.getInt(PRECOMPILE_THREADS, sessionFactory.getProperties(),
+                Runtime.getRuntime().availableProcessors());
+        if (threads > 0 && !namedQueries.isEmpty()) {
+            ((SessionFactoryImpl) sessionFactory).addObserver(new NamedQueryPrecompiler(namedQueries, threads));
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
@@ -0,0 +1,162 @@
+package com.devinkin.jpa.repository;
+
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步的实体仓库，所有方法都在 PersistenceExecutor 中执行，立即返回 CompletableFuture，不阻塞调用线程。
+ * 每次调用使用独立的EntityManager和事务，返回的实体是游离的，延迟加载的关联关系需要在查询中 JOIN FETCH。
+ * 同时调用的多个 find(id) 会合并成一条 WHERE id IN (...) 查询(CoalescingLoader)。
+ * <pre>
+ * AsyncRepository&lt;Customer, Integer&gt; customers = new AsyncRepository&lt;&gt;(executor, Customer.class, 2, TimeUnit.SECONDS);
+ * customers.find(1).thenAccept(...);
+ * </pre>
+ */
+public class AsyncRepository<T, ID extends Serializable> {
+    private final PersistenceExecutor executor;
+    private final Class<T> entityClass;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final CoalescingLoader<T, ID> loader;
+
+    // find(id) 立即提交，合并排队期间到达的查找
+    public AsyncRepository(PersistenceExecutor executor, Class<T> entityClass, long timeout, TimeUnit unit) {
+        this(executor, entityClass, 0, CoalescingLoader.MAX_IN_LIST, timeout, unit);
+    }
+
+    // find(id) 先收集window时间内的查找，最多maxBatchSize个，window和timeout的单位都是unit
+    public AsyncRepository(PersistenceExecutor executor, Class<T> entityClass, long window, int maxBatchSize,
+                           long timeout, TimeUnit unit) {
+        this.executor = executor;
+        this.entityClass = entityClass;
+        this.timeout = timeout;
+        this.unit = unit;
+        this.loader = new CoalescingLoader<>(executor, entityClass, window, maxBatchSize, timeout, unit);
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    // 合并 find(id) 的加载器，包括节省的查询数和批次大小的统计
+    public CoalescingLoader<T, ID> getLoader() {
+        return loader;
+    }
+
+    // 按id查找，不存在时结果为null，同时进行的查找合并成一条IN查询，见 CoalescingLoader
+    public CompletableFuture<T> find(ID id) {
+        return loader.load(id);
+    }
+
+    // 按id批量查找，结果中只包含存在的实体
+    public CompletableFuture<List<T>> findAll(final Collection<ID> ids) {
+        return executor.supply(new PersistenceWork<List<T>>() {
+            @Override
+            public List<T> execute(EntityManager entityManager) {
+                return new ArrayList<>(loader.loadAll(entityManager, new ArrayList<>(new LinkedHashSet<>(ids))).values());
+            }
+        }, timeout, unit);
+    }
+
+    // JPQL查询，参数按位置(?)传入，数据库端的查询超时和操作超时相同
+    public CompletableFuture<List<T>> query(final String jpql, final Object... parameters) {
+        return executor.supply(new PersistenceWork<List<T>>() {
+            @Override
+            public List<T> execute(EntityManager entityManager) {
+                TypedQuery<T> query = entityManager.createQuery(jpql, entityClass);
+                setParameters(query, parameters);
+                return query.getResultList();
+            }
+        }, timeout, unit);
+    }
+
+    public CompletableFuture<List<T>> namedQuery(final String name, final Object... parameters) {
+        return executor.supply(new PersistenceWork<List<T>>() {
+            @Override
+            public List<T> execute(EntityManager entityManager) {
+                TypedQuery<T> query = entityManager.createNamedQuery(name, entityClass);
+                setParameters(query, parameters);
+                return query.getResultList();
+            }
+        }, timeout, unit);
+    }
+
+    // UPDATE/DELETE 语句，结果为修改的行数
+    public CompletableFuture<Integer> executeUpdate(final String jpql, final Object... parameters) {
+        return executor.supply(new PersistenceWork<Integer>() {
+            @Override
+            public Integer execute(EntityManager entityManager) {
+                return createQuery(entityManager, jpql, parameters).executeUpdate();
+            }
+        }, timeout, unit);
+    }
+
+    // 结果是传入的对象，主键已经生成
+    public CompletableFuture<T> persist(final T entity) {
+        return executor.supply(new PersistenceWork<T>() {
+            @Override
+            public T execute(EntityManager entityManager) {
+                entityManager.persist(entity);
+                return entity;
+            }
+        }, timeout, unit);
+    }
+
+    public CompletableFuture<T> merge(final T entity) {
+        return executor.supply(new PersistenceWork<T>() {
+            @Override
+            public T execute(EntityManager entityManager) {
+                return entityManager.merge(entity);
+            }
+        }, timeout, unit);
+    }
+
+    // 结果为是否删除了实体
+    public CompletableFuture<Boolean> remove(final ID id) {
+        return executor.supply(new PersistenceWork<Boolean>() {
+            @Override
+            public Boolean execute(EntityManager entityManager) {
+                T entity = entityManager.find(entityClass, id);
+                if (entity == null) {
+                    return false;
+                }
+                entityManager.remove(entity);
+                return true;
+            }
+        }, timeout, unit);
+    }
+
+    // 其他操作，同样有超时
+    public <R> CompletableFuture<R> execute(PersistenceWork<R> work) {
+        return executor.supply(work, timeout, unit);
+    }
+
+    private Query createQuery(EntityManager entityManager, String jpql, Object... parameters) {
+        Query query = entityManager.createQuery(jpql);
+        setParameters(query, parameters);
+        return query;
+    }
+
+    private void setParameters(Query query, Object... parameters) {
+        if (timeout > 0) {
+            // 数据库端的查询超时，单位毫秒(Hibernate只接受Integer)。
+            // Hibernate按整秒设置到JDBC语句上并向下取整，0表示不限时，所以向上取整到至少1秒
+            long seconds = Math.max(1, (unit.toMillis(timeout) + 999) / 1000);
+            query.setHint("javax.persistence.query.timeout", (int) Math.min(seconds * 1000, Integer.MAX_VALUE));
+        }
+        for (int i = 0; i < parameters.length; i++) {
+            query.setParameter(i + 1, parameters[i]);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.devinkin.jpa.repository;
+
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 合并同一实体类型按id的查找(类似DataLoader):
+ * 1. 一个批次从第一次查找开始收集id，window后提交到 PersistenceExecutor，达到 maxBatchSize 时立即提交
+ * 2. 批次在开始执行(获得线程和许可)前仍然接受新的id，执行时用一条 WHERE id IN (...) 查询全部加载
+ * 3. 同一个id正在等待或正在加载时，之后的查找直接共用它的结果，不会重复查询
+ * 已经在二级缓存中的实体用 find 加载(不发送SQL)，不放进IN查询。
+ * 返回的实体是游离的。共用结果的查找得到同一个对象，调用者不应修改它，需要修改时先复制或在自己的EntityManager中merge。
+ */
+public class CoalescingLoader<T, ID extends Serializable> {
+    // IN列表中最多的参数个数，超过时分成多条查询
+    public static final int MAX_IN_LIST = 500;
+
+    private final PersistenceExecutor executor;
+    private final Class<T> entityClass;
+    private final long windowMicros;
+    private final int maxBatchSize;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final String jpql;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final Cache cache;
+
+    // 等待中和加载中的id
+    private final ConcurrentMap<ID, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private Batch current;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final Histogram batchSizes = new ConcurrentHistogram(3);
+
+    /**
+     * @param window       收集id的时间，为0时立即提交，批次仍然会收集排队期间到达的id
+     * @param maxBatchSize 一个批次最多的id个数
+     * @param timeout      一个批次从提交到加载完成的超时时间，为0时不限制
+     */
+    public CoalescingLoader(PersistenceExecutor executor, Class<T> entityClass, long window, int maxBatchSize,
+                            long timeout, TimeUnit unit) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size must be positive: " + maxBatchSize);
+        }
+        this.executor = executor;
+        this.entityClass = entityClass;
+        this.windowMicros = unit.toMicros(window);
+        this.maxBatchSize = maxBatchSize;
+        this.timeout = timeout;
+        this.unit = unit;
+        EntityManagerFactory entityManagerFactory = executor.getEntityManagerFactory();
+        String idProperty = HibernateUtils.sessionFactory(entityManagerFactory)
+                .getClassMetadata(entityClass).getIdentifierPropertyName();
+        this.jpql = "SELECT x FROM " + entityClass.getName() + " x WHERE x." + idProperty + " IN (:ids)";
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.cache = entityManagerFactory.getCache();
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    // 不存在时结果为null，同时查找同一个id的调用者得到同一个实体对象
+    public CompletableFuture<T> load(final ID id) {
+        requests.increment();
+        CompletableFuture<T> existing = inFlight.get(id);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing;
+        }
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(id, result);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing;
+        }
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable throwable) {
+                inFlight.remove(id, result);
+            }
+        });
+
+        Batch created = null;
+        Batch full = null;
+        synchronized (lock) {
+            if (current == null) {
+                current = new Batch();
+                created = current;
+            }
+            current.ids.put(id, result);
+            if (current.ids.size() >= maxBatchSize) {
+                full = current;
+                current = null;
+            }
+        }
+        if (full != null) {
+            full.submit();
+        } else if (created != null) {
+            schedule(created);
+        }
+        return result;
+    }
+
+    // 阻塞直到加载完成，失败时抛出 CompletionException
+    public T get(ID id) {
+        return load(id).join();
+    }
+
+    /**
+     * 在调用者的EntityManager中加载，结果按id索引，不存在的id没有对应的项。
+     * 在二级缓存中的实体用find加载，其余的每 MAX_IN_LIST 个id执行一条IN查询。
+     */
+    public Map<Object, T> loadAll(EntityManager entityManager, List<ID> ids) {
+        Map<Object, T> entities = new HashMap<>();
+        List<ID> uncached = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            if (cache.contains(entityClass, id)) {
+                T entity = entityManager.find(entityClass, id);
+                if (entity != null) {
+                    entities.put(id, entity);
+                }
+            } else {
+                uncached.add(id);
+            }
+        }
+        for (int from = 0; from < uncached.size(); from += MAX_IN_LIST) {
+            List<ID> chunk = uncached.subList(from, Math.min(from + MAX_IN_LIST, uncached.size()));
+            List<T> result = entityManager.createQuery(jpql, entityClass)
+                    .setParameter("ids", chunk)
+                    .getResultList();
+            queries.increment();
+            for (T entity : result) {
+                entities.put(persistenceUnitUtil.getIdentifier(entity), entity);
+            }
+        }
+        return entities;
+    }
+
+    private void schedule(final Batch batch) {
+        if (windowMicros <= 0) {
+            batch.submit();
+            return;
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                batch.submit();
+            }
+        }, windowMicros, TimeUnit.MICROSECONDS);
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    // 与正在等待或加载的查找共用结果的次数
+    public long getDeduplicatedCount() {
+        return deduplicated.sum();
+    }
+
+    // 实际执行的IN查询条数
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    // 和每次查找都执行一次 find 相比少执行的查询数(不考虑二级缓存)
+    public long getQueriesSaved() {
+        return getRequestCount() - getQueryCount();
+    }
+
+    public long getBatchCount() {
+        return batchSizes.getTotalCount();
+    }
+
+    // 每个批次加载的id个数的分布
+    public Histogram getBatchSizes() {
+        return batchSizes.copy();
+    }
+
+    public double getMeanBatchSize() {
+        return batchSizes.getTotalCount() == 0 ? 0 : batchSizes.getMean();
+    }
+
+    public long getP99BatchSize() {
+        return batchSizes.getValueAtPercentile(99);
+    }
+
+    public long getMaxBatchSize() {
+        return batchSizes.getMaxValue();
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingLoader{" +
+                "entityClass=" + entityClass.getSimpleName() +
+                ", requests=" + getRequestCount() +
+                ", deduplicated=" + getDeduplicatedCount() +
+                ", queries=" + getQueryCount() +
+                ", queriesSaved=" + getQueriesSaved() +
+                ", batches=" + getBatchCount() +
+                ", meanBatchSize=" + getMeanBatchSize() +
+                ", p99BatchSize=" + getP99BatchSize() +
+                ", maxBatchSize=" + getMaxBatchSize() +
+                '}';
+    }
+
+    private class Batch {
+        // 在lock中修改，批次关闭后只读
+        private final Map<ID, CompletableFuture<T>> ids = new LinkedHashMap<>();
+        // 窗口结束和达到最大个数都会提交，只提交一次
+        private final AtomicBoolean submitted = new AtomicBoolean();
+
+        private void submit() {
+            if (!submitted.compareAndSet(false, true)) {
+                return;
+            }
+            executor.supply(new PersistenceWork<Void>() {
+                @Override
+                public Void execute(EntityManager entityManager) {
+                    load(entityManager);
+                    return null;
+                }
+            }, timeout, unit).whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void value, Throwable throwable) {
+                    // 超时或失败时，批次中所有的查找都失败
+                    if (throwable != null) {
+                        fail(throwable);
+                    }
+                }
+            });
+        }
+
+        // 不再接受新的id
+        private void close() {
+            synchronized (lock) {
+                if (current == this) {
+                    current = null;
+                }
+            }
+        }
+
+        private void load(EntityManager entityManager) {
+            close();
+            batchSizes.recordValue(ids.size());
+            Map<Object, T> entities = loadAll(entityManager, new ArrayList<>(ids.keySet()));
+            for (Map.Entry<ID, CompletableFuture<T>> entry : ids.entrySet()) {
+                entry.getValue().complete(entities.get(entry.getKey()));
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            close();
+            for (CompletableFuture<T> waiter : ids.values()) {
+                waiter.completeExceptionally(throwable);
+            }
+        }
+    }
+}
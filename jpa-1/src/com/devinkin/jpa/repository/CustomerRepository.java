@@ -0,0 +1,23 @@
+package com.devinkin.jpa.repository;
+
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.helloworld.Customer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Customer 的异步仓库，包括 Customer 上的命名查询。
+ */
+public class CustomerRepository extends AsyncRepository<Customer, Integer> {
+
+    public CustomerRepository(PersistenceExecutor executor, long timeout, TimeUnit unit) {
+        super(executor, Customer.class, timeout, unit);
+    }
+
+    // 命名查询 customersOlderThan，结果在查询缓存中
+    public CompletableFuture<List<Customer>> olderThan(int age) {
+        return namedQuery("customersOlderThan", age);
+    }
+}
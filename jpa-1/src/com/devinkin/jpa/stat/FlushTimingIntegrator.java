@@ -0,0 +1,44 @@
+package com.devinkin.jpa.stat;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * 在SessionFactory创建时在默认的 flush 监听器前后注册 FlushTimingListener。
+ * 通过 META-INF/services/org.hibernate.integrator.spi.Integrator 自动加载。
+ */
+public class FlushTimingIntegrator implements Integrator {
+
+    @Override
+    public void integrate(Configuration configuration, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(serviceRegistry);
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        integrate(serviceRegistry);
+    }
+
+    private void integrate(SessionFactoryServiceRegistry serviceRegistry) {
+        EventListenerRegistry registry = serviceRegistry.getService(EventListenerRegistry.class);
+        FlushTimingListener start = new FlushTimingListener.Start();
+        FlushTimingListener end = new FlushTimingListener.End();
+        registry.prependListeners(EventType.FLUSH, start);
+        registry.appendListeners(EventType.FLUSH, end);
+        registry.prependListeners(EventType.AUTO_FLUSH, start);
+        registry.appendListeners(EventType.AUTO_FLUSH, end);
+        registry.prependListeners(EventType.FLUSH_ENTITY, start);
+        registry.appendListeners(EventType.FLUSH_ENTITY, end);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
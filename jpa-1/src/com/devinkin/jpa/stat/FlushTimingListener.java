@@ -0,0 +1,74 @@
+package com.devinkin.jpa.stat;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.AutoFlushEventListener;
+import org.hibernate.event.spi.FlushEntityEvent;
+import org.hibernate.event.spi.FlushEntityEventListener;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+
+/**
+ * 统计 flush 和脏检查的时间。
+ * 每种事件注册两个实例，一个在Hibernate默认的监听器之前，记录开始时间，一个在之后，累加经过的时间。
+ * 脏检查是 flush 每个实体(FLUSH_ENTITY)的时间，包括比较快照和安排UPDATE，查询之前的 auto flush 也算在内。
+ * 事件的Session没有被监控的事务时什么也不做。
+ * 同一个事件上不能注册同一个类的两个监听器，开始和结束分别是两个子类。
+ */
+abstract class FlushTimingListener implements FlushEventListener, AutoFlushEventListener, FlushEntityEventListener {
+    private final boolean start;
+
+    private FlushTimingListener(boolean start) {
+        this.start = start;
+    }
+
+    @Override
+    public void onFlush(FlushEvent event) throws HibernateException {
+        flush(event.getSession());
+    }
+
+    @Override
+    public void onAutoFlush(AutoFlushEvent event) throws HibernateException {
+        flush(event.getSession());
+    }
+
+    @Override
+    public void onFlushEntity(FlushEntityEvent event) throws HibernateException {
+        TransactionTimings timings = TransactionTimings.of(event.getSession());
+        if (timings == null) {
+            return;
+        }
+        if (start) {
+            timings.entityStart = System.nanoTime();
+        } else {
+            timings.dirtyCheckNanos += System.nanoTime() - timings.entityStart;
+            timings.entities++;
+        }
+    }
+
+    private void flush(SessionImplementor session) {
+        TransactionTimings timings = TransactionTimings.of(session);
+        if (timings == null) {
+            return;
+        }
+        if (start) {
+            timings.flushStart = System.nanoTime();
+        } else {
+            timings.flushNanos += System.nanoTime() - timings.flushStart;
+            timings.flushes++;
+        }
+    }
+
+    static class Start extends FlushTimingListener {
+        Start() {
+            super(true);
+        }
+    }
+
+    static class End extends FlushTimingListener {
+        End() {
+            super(false);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.devinkin.jpa.stat;
+
+import com.devinkin.jpa.HibernateUtils;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * 被监控的 EntityManager 的代理: 统计 find、persist 等操作的延迟，创建的查询也被包装。
+ * 在事务协调器上注册 TransactionTimings，统计每个事务的 flush 和脏检查时间。
+ */
+class InstrumentedEntityManager implements InvocationHandler {
+    private final PersistenceMetrics metrics;
+    private final EntityManager delegate;
+    private final TransactionTimings timings;
+
+    InstrumentedEntityManager(PersistenceMetrics metrics, EntityManager delegate) {
+        this.metrics = metrics;
+        this.delegate = delegate;
+        SessionImplementor session = (SessionImplementor) HibernateUtils.session(delegate);
+        this.timings = new TransactionTimings(metrics, session);
+        session.getTransactionCoordinator().addObserver(timings);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (args != null && args.length > 0) {
+            PersistenceMetrics.Operation operation = PersistenceMetrics.Operation.of(name);
+            if (operation != null) {
+                return metrics.time(metrics.entity(args[0], operation), "entity", method, delegate, args);
+            }
+            if (name.startsWith("create") && name.endsWith("Query")) {
+                Query query = (Query) PersistenceMetrics.invoke(method, delegate, args);
+                return metrics.instrument(query, metrics.query(name, args[0]));
+            }
+        } else if ("close".equals(name)) {
+            timings.detach();
+        }
+        return PersistenceMetrics.invoke(method, delegate, args);
+    }
+}
@@ -0,0 +1,34 @@
+package com.devinkin.jpa.stat;
+
+import javax.persistence.Query;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * 被监控的查询的代理: 统计 getResultList、getSingleResult、executeUpdate 的延迟，
+ * 包括查询之前的 auto flush。setParameter 等返回查询本身的方法返回代理，可以继续链式调用。
+ */
+class InstrumentedQuery implements InvocationHandler {
+    private final PersistenceMetrics metrics;
+    private final Query delegate;
+    private final PersistenceMetrics.Latency latency;
+
+    InstrumentedQuery(PersistenceMetrics metrics, Query delegate, PersistenceMetrics.Latency latency) {
+        this.metrics = metrics;
+        this.delegate = delegate;
+        this.latency = latency;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "getResultList":
+            case "getSingleResult":
+            case "executeUpdate":
+                return metrics.time(latency, "query", method, delegate, args);
+            default:
+                Object result = PersistenceMetrics.invoke(method, delegate, args);
+                return result == delegate ? proxy : result;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.devinkin.jpa.stat;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 通过 jdk.jfr.EventFactory(JDK 12)定义的自定义JFR事件。
+ * 项目按Java 8编译，不能继承 jdk.jfr.Event，JFR的API通过反射取得的 MethodHandle 调用。
+ * 没有开启JFR记录时 begin() 返回null，不创建事件对象。
+ * long类型的字段是纳秒时间，在JMC中按时间显示。
+ */
+final class JfrEventType {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private final MethodHandle isEnabled;
+    private final MethodHandle newEvent;
+    private final MethodHandle begin;
+    private final MethodHandle end;
+    private final MethodHandle set;
+    private final MethodHandle commit;
+
+    private JfrEventType(String name, String label, String description, String[] fieldNames, Class<?>[] fieldTypes)
+            throws Throwable {
+        Class<?> annotationType = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> valueType = Class.forName("jdk.jfr.ValueDescriptor");
+        Class<?> factoryType = Class.forName("jdk.jfr.EventFactory");
+        Class<?> eventTypeType = Class.forName("jdk.jfr.EventType");
+        Class<?> eventType = Class.forName("jdk.jfr.Event");
+        MethodHandle annotation = LOOKUP.findConstructor(annotationType,
+                MethodType.methodType(void.class, Class.class, Object.class));
+        MethodHandle value = LOOKUP.findConstructor(valueType,
+                MethodType.methodType(void.class, Class.class, String.class, List.class));
+
+        List<Object> annotations = new ArrayList<>();
+        annotations.add(annotation.invoke(Class.forName("jdk.jfr.Name"), name));
+        annotations.add(annotation.invoke(Class.forName("jdk.jfr.Label"), label));
+        annotations.add(annotation.invoke(Class.forName("jdk.jfr.Description"), description));
+        annotations.add(annotation.invoke(Class.forName("jdk.jfr.Category"), (Object) new String[]{"JPA"}));
+        Object timespan = annotation.invoke(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS");
+        List<Object> fields = new ArrayList<>();
+        for (int i = 0; i < fieldNames.length; i++) {
+            List<Object> fieldAnnotations = fieldTypes[i] == long.class
+                    ? Collections.singletonList(timespan) : Collections.emptyList();
+            fields.add(value.invoke(fieldTypes[i], fieldNames[i], fieldAnnotations));
+        }
+        Object factory = LOOKUP.findStatic(factoryType, "create",
+                MethodType.methodType(factoryType, List.class, List.class)).invoke(annotations, fields);
+
+        Object type = LOOKUP.findVirtual(factoryType, "getEventType", MethodType.methodType(eventTypeType))
+                .invoke(factory);
+        isEnabled = LOOKUP.findVirtual(eventTypeType, "isEnabled", MethodType.methodType(boolean.class))
+                .bindTo(type);
+        newEvent = LOOKUP.findVirtual(factoryType, "newEvent", MethodType.methodType(eventType))
+                .bindTo(factory).asType(MethodType.methodType(Object.class));
+        begin = event(eventType, "begin");
+        end = event(eventType, "end");
+        commit = event(eventType, "commit");
+        set = LOOKUP.findVirtual(eventType, "set", MethodType.methodType(void.class, int.class, Object.class))
+                .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+    }
+
+    // JFR不可用(JDK 8-11)时返回null
+    static JfrEventType create(String name, String label, String description,
+                               String[] fieldNames, Class<?>[] fieldTypes) {
+        try {
+            return new JfrEventType(name, label, description, fieldNames, fieldTypes);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    // 开始计时，没有JFR记录需要这个事件时返回null
+    Object begin() {
+        try {
+            if (!(boolean) isEnabled.invokeExact()) {
+                return null;
+            }
+            Object event = (Object) newEvent.invokeExact();
+            begin.invokeExact(event);
+            return event;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    // 结束计时并提交，持续时间低于记录中配置的threshold的事件由JFR丢弃
+    void commit(Object event, Object... values) {
+        try {
+            end.invokeExact(event);
+            for (int i = 0; i < values.length; i++) {
+                set.invokeExact(event, i, values[i]);
+            }
+            commit.invokeExact(event);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static MethodHandle event(Class<?> eventType, String name) throws ReflectiveOperationException {
+        return LOOKUP.findVirtual(eventType, name, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(void.class, Object.class));
+    }
+}
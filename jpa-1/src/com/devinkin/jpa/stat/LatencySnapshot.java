@@ -0,0 +1,61 @@
+package com.devinkin.jpa.stat;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * 一类操作在取快照时的延迟分布，单位纳秒，取出后不再变化。
+ */
+public class LatencySnapshot {
+    private final String name;
+    private final Histogram histogram;
+
+    LatencySnapshot(String name, Histogram histogram) {
+        this.name = name;
+        this.histogram = histogram;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return histogram.getTotalCount();
+    }
+
+    public double getMeanMicros() {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getMean() / 1000;
+    }
+
+    public double getPercentileMicros(double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public double getMaxMicros() {
+        return histogram.getMaxValue() / 1000.0;
+    }
+
+    // 完整的延迟分布，可以输出百分位数表(outputPercentileDistribution)
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    String format() {
+        return String.format("%-48s %10d %10.1f %10.1f %10.1f %10.1f", abbreviate(name), getCount(),
+                getMeanMicros(), getPercentileMicros(50), getPercentileMicros(99), getMaxMicros());
+    }
+
+    static String header() {
+        return String.format("%-48s %10s %10s %10s %10s %10s", "name", "count", "mean(us)", "p50(us)", "p99(us)",
+                "max(us)");
+    }
+
+    private static String abbreviate(String name) {
+        return name.length() <= 48 ? name : name.substring(0, 45) + "...";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: count=%d, mean=%.1fus, p99=%.1fus, max=%.1fus", name, getCount(),
+                getMeanMicros(), getPercentileMicros(99), getMaxMicros());
+    }
+}
@@ -0,0 +1,72 @@
+package com.devinkin.jpa.stat;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * PersistenceMetrics 在某一时刻的延迟分布，由 PersistenceMetrics.snapshot() 取出，
+ * 可以由监控系统定期拉取，或者在测试和基准测试结束时输出。
+ * 实体操作的名称是 实体.操作(如 Customer.find)，查询的名称是命名查询的名称或者语句的指纹。
+ */
+public class MetricsSnapshot {
+    private final Map<String, LatencySnapshot> entities;
+    private final Map<String, LatencySnapshot> queries;
+    private final LatencySnapshot transactions;
+    private final LatencySnapshot flush;
+    private final LatencySnapshot dirtyCheck;
+
+    MetricsSnapshot(Map<String, LatencySnapshot> entities, Map<String, LatencySnapshot> queries,
+                    LatencySnapshot transactions, LatencySnapshot flush, LatencySnapshot dirtyCheck) {
+        this.entities = Collections.unmodifiableMap(entities);
+        this.queries = Collections.unmodifiableMap(queries);
+        this.transactions = transactions;
+        this.flush = flush;
+        this.dirtyCheck = dirtyCheck;
+    }
+
+    // 按名称排序，只包括执行过的操作
+    public Map<String, LatencySnapshot> getEntities() {
+        return entities;
+    }
+
+    public LatencySnapshot getEntity(String entity, PersistenceMetrics.Operation operation) {
+        return entities.get(entity + "." + operation.getName());
+    }
+
+    public Map<String, LatencySnapshot> getQueries() {
+        return queries;
+    }
+
+    public LatencySnapshot getQuery(String name) {
+        return queries.get(name);
+    }
+
+    // 事务从开始到提交或回滚的时间
+    public LatencySnapshot getTransactions() {
+        return transactions;
+    }
+
+    // 每个事务中所有 flush(包括查询之前的 auto flush)的总时间
+    public LatencySnapshot getFlush() {
+        return flush;
+    }
+
+    // 每个事务中脏检查的总时间，是 flush 时间的一部分
+    public LatencySnapshot getDirtyCheck() {
+        return dirtyCheck;
+    }
+
+    public String format() {
+        StringBuilder builder = new StringBuilder(LatencySnapshot.header()).append('\n');
+        for (LatencySnapshot snapshot : entities.values()) {
+            builder.append(snapshot.format()).append('\n');
+        }
+        for (LatencySnapshot snapshot : queries.values()) {
+            builder.append(snapshot.format()).append('\n');
+        }
+        builder.append(transactions.format()).append('\n');
+        builder.append(flush.format()).append('\n');
+        builder.append(dirtyCheck.format()).append('\n');
+        return builder.toString();
+    }
+}
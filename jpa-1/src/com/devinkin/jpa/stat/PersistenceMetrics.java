@@ -0,0 +1,305 @@
+package com.devinkin.jpa.stat;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.hibernate.proxy.HibernateProxy;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按实体类型和查询统计延迟，以及每个事务中 flush 和脏检查的时间。
+ * 延迟记录在 HdrHistogram 中，通过 snapshot() 拉取，同时作为自定义JFR事件输出(JDK 12以上，开启JFR记录时)。
+ * 用法:
+ * <pre>
+ * PersistenceMetrics metrics = new PersistenceMetrics();
+ * EntityManagerFactory entityManagerFactory = metrics.instrument(Persistence.createEntityManagerFactory("jpa-1"));
+ * ...
+ * System.out.println(metrics.snapshot().format());
+ * </pre>
+ * 包装后的 EntityManager 和 Query 是动态代理，实现了原对象的所有接口，
+ * 可以转换为 HibernateEntityManagerImplementor 等，也可以 unwrap(Session.class)。
+ * 每次操作的额外开销约0.2微秒(代理、两次 System.nanoTime() 和一次直方图记录)，和访问数据库相比可以忽略，
+ * 可以在生产环境中一直开启，见 MetricsOverheadBenchmark。
+ * 用 -XX:StartFlightRecording 或 jcmd JFR.start 开启记录后，
+ * 可以在JMC的 JPA 分类下看到 com.devinkin.jpa.Operation 和 com.devinkin.jpa.Transaction 事件。
+ */
+public class PersistenceMetrics {
+    public static final String OPERATION_EVENT = "com.devinkin.jpa.Operation";
+    public static final String TRANSACTION_EVENT = "com.devinkin.jpa.Transaction";
+    // 按语句原文缓存指纹的数量上限，常量直接写在语句中时原文可能无限多，超过后每次重新计算指纹
+    private static final int MAX_STATEMENTS = 4096;
+    private static final ConcurrentMap<Class<?>, Constructor<?>> PROXY_CONSTRUCTORS = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Class<?>, Latency[]> entities = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Latency> queries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Latency> statements = new ConcurrentHashMap<>();
+    private final Latency transactions = new Latency("transaction");
+    private final Latency flush = new Latency("flush per transaction");
+    private final Latency dirtyCheck = new Latency("dirty check per transaction");
+    private final JfrEventType operationEvent = JfrEventType.create(OPERATION_EVENT, "JPA Operation",
+            "EntityManager operation or query execution",
+            new String[]{"category", "name"}, new Class<?>[]{String.class, String.class});
+    private final JfrEventType transactionEvent = JfrEventType.create(TRANSACTION_EVENT, "JPA Transaction",
+            "Transaction with flush and dirty check time",
+            new String[]{"flushTime", "dirtyCheckTime", "flushes", "entities", "successful"},
+            new Class<?>[]{long.class, long.class, int.class, int.class, boolean.class});
+
+    public enum Operation {
+        FIND("find"), GET_REFERENCE("getReference"), PERSIST("persist"), MERGE("merge"),
+        REMOVE("remove"), REFRESH("refresh"), LOCK("lock");
+
+        private final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        // EntityManager 的方法名
+        public String getName() {
+            return name;
+        }
+
+        static Operation of(String method) {
+            switch (method) {
+                case "find":
+                    return FIND;
+                case "getReference":
+                    return GET_REFERENCE;
+                case "persist":
+                    return PERSIST;
+                case "merge":
+                    return MERGE;
+                case "remove":
+                    return REMOVE;
+                case "refresh":
+                    return REFRESH;
+                case "lock":
+                    return LOCK;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // 包装后创建的所有 EntityManager 都会被统计
+    public EntityManagerFactory instrument(final EntityManagerFactory entityManagerFactory) {
+        return proxy(entityManagerFactory, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = PersistenceMetrics.invoke(method, entityManagerFactory, args);
+                if ("createEntityManager".equals(method.getName())) {
+                    return instrument((EntityManager) result);
+                }
+                return result;
+            }
+        });
+    }
+
+    public EntityManager instrument(EntityManager entityManager) {
+        return proxy(entityManager, new InstrumentedEntityManager(this, entityManager));
+    }
+
+    // JDK 12以上可以输出JFR事件
+    public boolean isJfrAvailable() {
+        return operationEvent != null && transactionEvent != null;
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, LatencySnapshot> entitySnapshots = new TreeMap<>();
+        for (Latency[] latencies : entities.values()) {
+            for (Latency latency : latencies) {
+                LatencySnapshot snapshot = latency.snapshot();
+                if (snapshot.getCount() > 0) {
+                    entitySnapshots.put(snapshot.getName(), snapshot);
+                }
+            }
+        }
+        Map<String, LatencySnapshot> querySnapshots = new TreeMap<>();
+        for (Latency latency : queries.values()) {
+            LatencySnapshot snapshot = latency.snapshot();
+            if (snapshot.getCount() > 0) {
+                querySnapshots.put(snapshot.getName(), snapshot);
+            }
+        }
+        return new MetricsSnapshot(entitySnapshots, querySnapshots, transactions.snapshot(), flush.snapshot(),
+                dirtyCheck.snapshot());
+    }
+
+    // 清空所有的延迟分布，实体和查询的名称保留
+    public void reset() {
+        for (Latency[] latencies : entities.values()) {
+            for (Latency latency : latencies) {
+                latency.histogram.reset();
+            }
+        }
+        for (Latency latency : queries.values()) {
+            latency.histogram.reset();
+        }
+        transactions.histogram.reset();
+        flush.histogram.reset();
+        dirtyCheck.histogram.reset();
+    }
+
+    Latency entity(Object target, Operation operation) {
+        Class<?> type;
+        if (target instanceof Class) {
+            type = (Class<?>) target;
+        } else if (target instanceof HibernateProxy) {
+            // 不初始化代理
+            type = ((HibernateProxy) target).getHibernateLazyInitializer().getPersistentClass();
+        } else {
+            type = target.getClass();
+        }
+        Latency[] latencies = entities.get(type);
+        if (latencies == null) {
+            Operation[] operations = Operation.values();
+            latencies = new Latency[operations.length];
+            for (int i = 0; i < operations.length; i++) {
+                latencies[i] = new Latency(type.getSimpleName() + "." + operations[i].getName());
+            }
+            Latency[] existing = entities.putIfAbsent(type, latencies);
+            if (existing != null) {
+                latencies = existing;
+            }
+        }
+        return latencies[operation.ordinal()];
+    }
+
+    // createQuery、createNamedQuery、createNativeQuery 的参数对应的统计项
+    Latency query(String method, Object query) {
+        if ("createNamedQuery".equals(method)) {
+            return named((String) query);
+        }
+        if (query instanceof CriteriaQuery) {
+            StringBuilder name = new StringBuilder("criteria:");
+            for (Root<?> root : ((CriteriaQuery<?>) query).getRoots()) {
+                name.append(' ').append(root.getJavaType().getSimpleName());
+            }
+            return named(name.toString());
+        }
+        String text = (String) query;
+        boolean nativeQuery = "createNativeQuery".equals(method);
+        Latency latency = statements.get(text);
+        if (latency == null) {
+            String fingerprint = QueryFingerprint.of(text);
+            latency = named(nativeQuery ? "native: " + fingerprint : fingerprint);
+            if (statements.size() < MAX_STATEMENTS) {
+                statements.putIfAbsent(text, latency);
+            }
+        }
+        return latency;
+    }
+
+    private Latency named(String name) {
+        Latency latency = queries.get(name);
+        if (latency == null) {
+            latency = new Latency(name);
+            Latency existing = queries.putIfAbsent(name, latency);
+            if (existing != null) {
+                latency = existing;
+            }
+        }
+        return latency;
+    }
+
+    Query instrument(Query query, Latency latency) {
+        return proxy(query, new InstrumentedQuery(this, query, latency));
+    }
+
+    // 执行一次被统计的操作
+    Object time(Latency latency, String category, Method method, Object target, Object[] args) throws Throwable {
+        Object event = operationEvent == null ? null : operationEvent.begin();
+        long start = System.nanoTime();
+        try {
+            return invoke(method, target, args);
+        } finally {
+            latency.histogram.recordValue(System.nanoTime() - start);
+            if (event != null) {
+                operationEvent.commit(event, category, latency.name);
+            }
+        }
+    }
+
+    Object beginTransactionEvent() {
+        return transactionEvent == null ? null : transactionEvent.begin();
+    }
+
+    void recordTransaction(TransactionTimings timings, long nanos, boolean successful, Object event) {
+        transactions.histogram.recordValue(nanos);
+        flush.histogram.recordValue(timings.flushNanos);
+        dirtyCheck.histogram.recordValue(timings.dirtyCheckNanos);
+        if (event != null) {
+            transactionEvent.commit(event, timings.flushNanos, timings.dirtyCheckNanos, timings.flushes,
+                    timings.entities, successful);
+        }
+    }
+
+    static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // 实现 target 的所有接口的代理，代理类的构造器按 target 的类缓存，每个EntityManager和查询都要创建代理
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(T target, InvocationHandler handler) {
+        Class<?> type = target.getClass();
+        Constructor<?> constructor = PROXY_CONSTRUCTORS.get(type);
+        if (constructor == null) {
+            Set<Class<?>> all = new LinkedHashSet<>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                addInterfaces(c.getInterfaces(), all);
+            }
+            try {
+                constructor = Proxy.getProxyClass(type.getClassLoader(), all.toArray(new Class<?>[all.size()]))
+                        .getConstructor(InvocationHandler.class);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+            PROXY_CONSTRUCTORS.putIfAbsent(type, constructor);
+        }
+        try {
+            return (T) constructor.newInstance(handler);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addInterfaces(Class<?>[] interfaces, Set<Class<?>> all) {
+        for (Class<?> type : interfaces) {
+            if (all.add(type)) {
+                addInterfaces(type.getInterfaces(), all);
+            }
+        }
+    }
+
+    static class Latency {
+        final String name;
+        final Histogram histogram = new ConcurrentHistogram(3);
+
+        Latency(String name) {
+            this.name = name;
+        }
+
+        LatencySnapshot snapshot() {
+            return new LatencySnapshot(name, histogram.copy());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.devinkin.jpa.stat;
+
+/**
+ * JPQL/SQL语句的指纹: 字符串和数字常量替换为 ?，连续的空白合并为一个空格。
+ * 只是常量不同的语句得到相同的指纹，统计时归为一类。
+ * 参数(:name、?1)和标识符中的数字(如 o2)保持不变。
+ * normalize() 只合并空白，不改变语句的含义，可以作为查询计划缓存的键。
+ */
+public class QueryFingerprint {
+
+    // 去掉首尾的空白，字符串常量之外连续的空白(包括换行)合并为一个空格，不需要修改时返回原来的字符串
+    public static String normalize(String query) {
+        if (isNormalized(query)) {
+            return query;
+        }
+        StringBuilder builder = new StringBuilder(query.length());
+        int length = query.length();
+        int i = 0;
+        boolean literal = false;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (!literal && Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(query.charAt(i))) {
+                    i++;
+                }
+                if (builder.length() > 0 && i < length) {
+                    builder.append(' ');
+                }
+                continue;
+            }
+            builder.append(c);
+            i++;
+        }
+        return builder.toString();
+    }
+
+    private static boolean isNormalized(String query) {
+        int length = query.length();
+        if (length > 0 && (Character.isWhitespace(query.charAt(0))
+                || Character.isWhitespace(query.charAt(length - 1)))) {
+            return false;
+        }
+        boolean literal = false;
+        for (int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                literal = !literal;
+            } else if (!literal && Character.isWhitespace(c)
+                    && (c != ' ' || Character.isWhitespace(query.charAt(i + 1)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String of(String query) {
+        StringBuilder builder = new StringBuilder(query.length());
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                // 字符串常量，'' 是转义的单引号
+                i++;
+                while (i < length) {
+                    if (query.charAt(i) == '\'') {
+                        if (i + 1 < length && query.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                builder.append('?');
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(query.charAt(i))) {
+                    i++;
+                }
+                if (builder.length() > 0 && i < length) {
+                    builder.append(' ');
+                }
+            } else if (isDigit(c) && !continuesWord(builder)) {
+                // 数字常量，包括小数和 10L、1.5D 这样的后缀
+                while (i < length && (isDigit(query.charAt(i)) || query.charAt(i) == '.')) {
+                    i++;
+                }
+                while (i < length && Character.isLetter(query.charAt(i))) {
+                    i++;
+                }
+                builder.append('?');
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // 前一个字符是标识符或参数的一部分
+    private static boolean continuesWord(StringBuilder builder) {
+        if (builder.length() == 0) {
+            return false;
+        }
+        char last = builder.charAt(builder.length() - 1);
+        return Character.isJavaIdentifierPart(last) || last == '?' || last == ':';
+    }
+}
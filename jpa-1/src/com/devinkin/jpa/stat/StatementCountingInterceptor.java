@@ -0,0 +1,55 @@
+package com.devinkin.jpa.stat;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+
+/**
+ * 统计当前线程每个事务执行的SQL语句数量，用于在测试中发现N+1查询。
+ * 通过 hibernate.ejb.interceptor 配置(测试中使用 EmbeddedDatabase.countStatements)，所有EntityManager共用一个实例，
+ * 计数保存在ThreadLocal中。没有启用时计数一直为0。
+ * 只统计Hibernate自己准备的语句，JDBC批量执行时同一条语句只计一次。
+ */
+public class StatementCountingInterceptor extends EmptyInterceptor {
+    private static final ThreadLocal<Counter> COUNTER = new ThreadLocal<Counter>() {
+        @Override
+        protected Counter initialValue() {
+            return new Counter();
+        }
+    };
+
+    // 当前事务开始以来(或调用reset以来)执行的语句数量
+    public static int currentTransaction() {
+        return COUNTER.get().current;
+    }
+
+    // 上一个已经结束的事务执行的语句数量
+    public static int lastTransaction() {
+        return COUNTER.get().last;
+    }
+
+    public static void reset() {
+        COUNTER.get().current = 0;
+    }
+
+    @Override
+    public void afterTransactionBegin(Transaction tx) {
+        COUNTER.get().current = 0;
+    }
+
+    @Override
+    public void afterTransactionCompletion(Transaction tx) {
+        Counter counter = COUNTER.get();
+        counter.last = counter.current;
+    }
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        COUNTER.get().current++;
+        return sql;
+    }
+
+    private static class Counter {
+        private int current;
+        private int last;
+    }
+}
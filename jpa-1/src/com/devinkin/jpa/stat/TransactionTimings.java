@@ -0,0 +1,75 @@
+package com.devinkin.jpa.stat;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.transaction.spi.TransactionImplementor;
+import org.hibernate.engine.transaction.spi.TransactionObserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个被监控的EntityManager的事务中 flush 和脏检查的累计时间。
+ * 事务开始时登记为这个Session的计时器，FlushTimingListener 按事件的Session把时间累加到这里，
+ * 事务结束时记录到 PersistenceMetrics。同一个线程上嵌套或交替使用的EntityManager各自统计。
+ * JPA只在事务中flush，所以事务之外的flush不会被统计。
+ */
+class TransactionTimings implements TransactionObserver {
+    // Session没有重写equals，按对象比较
+    private static final Map<SessionImplementor, TransactionTimings> ACTIVE = new ConcurrentHashMap<>();
+
+    private final PersistenceMetrics metrics;
+    private final SessionImplementor session;
+    private boolean active;
+    private long beginNanos;
+    private Object event;
+    long flushNanos;
+    long dirtyCheckNanos;
+    int flushes;
+    int entities;
+    // 正在执行的 flush 或者 flush 一个实体的开始时间
+    long flushStart;
+    long entityStart;
+
+    TransactionTimings(PersistenceMetrics metrics, SessionImplementor session) {
+        this.metrics = metrics;
+        this.session = session;
+    }
+
+    // 这个Session上正在进行的被监控的事务，没有时返回null
+    static TransactionTimings of(SessionImplementor session) {
+        return ACTIVE.get(session);
+    }
+
+    @Override
+    public void afterBegin(TransactionImplementor transaction) {
+        flushNanos = 0;
+        dirtyCheckNanos = 0;
+        flushes = 0;
+        entities = 0;
+        active = true;
+        ACTIVE.put(session, this);
+        event = metrics.beginTransactionEvent();
+        beginNanos = System.nanoTime();
+    }
+
+    @Override
+    public void beforeCompletion(TransactionImplementor transaction) {
+    }
+
+    @Override
+    public void afterCompletion(boolean successful, TransactionImplementor transaction) {
+        if (!active) {
+            return;
+        }
+        active = false;
+        ACTIVE.remove(session);
+        metrics.recordTransaction(this, System.nanoTime() - beginNanos, successful, event);
+        event = null;
+    }
+
+    // EntityManager关闭时事务没有结束(没有提交也没有回滚)
+    void detach() {
+        active = false;
+        ACTIVE.remove(session);
+    }
+}
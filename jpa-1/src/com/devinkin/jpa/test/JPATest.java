@@ -120,6 +120,8 @@ public class JPATest {
         customer.setLastName("EE");
 
         customer.setId(4);
+        // Customer有@Version，游离对象要带上加载时的版本号，版本号为null时会被当作临时对象插入一条新记录
+        customer.setVersion(0);
 
         Customer customer1 = entityManager.merge(customer);
         System.out.println(customer == customer1);
@@ -139,6 +141,8 @@ public class JPATest {
         customer.setLastName("FF");
 
         customer.setId(4);
+        // Customer有@Version，游离对象要带上加载时的版本号，版本号为null时会被当作临时对象插入一条新记录
+        customer.setVersion(0);
 
         Customer customer1 = entityManager.find(Customer.class, 4);
         entityManager.merge(customer);
@@ -0,0 +1,144 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.repository.CustomerRepository;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JPATestAsyncRepository {
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor executor;
+    private CustomerRepository customers;
+    private Statistics statistics;
+    private List<Integer> ids = new ArrayList<>();
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("async-test"));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+        // 只有一个线程和一个许可，方便让请求排队
+        executor = new PersistenceExecutor(entityManagerFactory, 1, Executors.newFixedThreadPool(1), false);
+        customers = new CustomerRepository(executor, 2, TimeUnit.SECONDS);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 10; i++) {
+            Customer customer = new Customer("C" + i, 20 + i);
+            customer.setEmail("c" + i + "@163.com");
+            customer.setBirth(new Date());
+            customer.setCreatedTime(new Date());
+            entityManager.persist(customer);
+            ids.add(customer.getId());
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        HibernateUtils.sessionFactory(entityManagerFactory).getCache().evictEntityRegions();
+    }
+
+    // 排队期间的 find(id) 合并成一条IN查询，重复的id只查询一次
+    @Test
+    public void testFindCoalesced() throws Exception {
+        CountDownLatch release = block();
+        statistics.clear();
+        List<CompletableFuture<Customer>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(customers.find(ids.get(i % ids.size())));
+        }
+        CompletableFuture<Customer> missing = customers.find(-1);
+        release.countDown();
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(ids.get(i % ids.size()), results.get(i).get().getId());
+        }
+        assertNull(missing.get());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    // 排队超时的操作以TimeoutException结束，不会再访问数据库
+    @Test
+    public void testTimeout() throws Exception {
+        CountDownLatch release = block();
+        CustomerRepository impatient = new CustomerRepository(executor, 100, TimeUnit.MILLISECONDS);
+        CompletableFuture<Customer> result = impatient.find(ids.get(0));
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        statistics.clear();
+        release.countDown();
+        executor.close();
+
+        assertEquals(1, executor.getTimedOutCount());
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testQueryAndUpdate() throws Exception {
+        Customer customer = new Customer("AA", 60);
+        customer.setEmail("aa@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        Integer id = customers.persist(customer).get().getId();
+
+        assertEquals(1, customers.olderThan(50).get().size());
+        assertEquals(1, customers.query("FROM Customer c WHERE c.lastName = ?", "AA").get().size());
+        assertEquals(Integer.valueOf(1),
+                customers.executeUpdate("UPDATE Customer c SET c.age = ? WHERE c.id = ?", 61, id).get());
+        assertEquals(10, customers.findAll(ids).get().size());
+        assertTrue(customers.remove(id).get());
+        assertNull(customers.find(id).get());
+    }
+
+    // 占用唯一的线程和许可，直到返回的latch被释放
+    private CountDownLatch block() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.supply(new PersistenceWork<Void>() {
+            @Override
+            public Void execute(EntityManager entityManager) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        started.await();
+        return release;
+    }
+
+    @After
+    public void destory() {
+        executor.close();
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import com.devinkin.jpa.stat.StatementCountingInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// 延迟加载的关联关系不能一个对象一条SELECT(N+1)
+public class JPATestBatchFetch {
+    private static final int CUSTOMERS = 40;
+    private static final int ORDERS_PER_CUSTOMER = 3;
+    private static final int BATCH_SIZE = 16;
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private EntityTransaction transaction;
+    private Integer customerId;
+
+    @Before
+    public void initial() {
+        Map<String, String> properties = EmbeddedDatabase.properties("batchfetch-test");
+        // 不使用二级缓存，每次初始化关联关系都要访问数据库
+        EmbeddedDatabase.disableSecondLevelCache(properties);
+        EmbeddedDatabase.countStatements(properties);
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = new Customer();
+            customer.setLastName("C" + i);
+            customer.setEmail("c" + i + "@devinkin.com");
+            customer.setAge(i);
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+            customerId = customer.getId();
+            for (int j = 0; j < ORDERS_PER_CUSTOMER; j++) {
+                Order order = new Order();
+                order.setOrderName("O-" + i + "-" + j);
+                order.setCustomer(customer);
+                entityManager.persist(order);
+            }
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        this.entityManager = entityManagerFactory.createEntityManager();
+        transaction = this.entityManager.getTransaction();
+        transaction.begin();
+    }
+
+    // Order.customer 按 @BatchSize 用IN查询批量初始化
+    @Test
+    public void testManyToOneBatchFetch() {
+        List<Order> orders = entityManager.createQuery("SELECT o FROM Order o", Order.class).getResultList();
+        for (Order order : orders) {
+            assertTrue(order.getCustomer().getLastName().startsWith("C"));
+        }
+        assertEquals(CUSTOMERS * ORDERS_PER_CUSTOMER, orders.size());
+        // 查询Order一条，40个Customer分三批(16、16、8)初始化
+        assertEquals(1 + (CUSTOMERS + BATCH_SIZE - 1) / BATCH_SIZE, StatementCountingInterceptor.currentTransaction());
+    }
+
+    // Customer.orders 用一条子查询加载所有Customer的orders
+    @Test
+    public void testOneToManySubselectFetch() {
+        List<Customer> customers = entityManager.createQuery("SELECT c FROM Customer c WHERE c.age >= ?", Customer.class)
+                .setParameter(1, 10)
+                .getResultList();
+        int orders = 0;
+        for (Customer customer : customers) {
+            orders += customer.getOrders().size();
+        }
+        assertEquals((CUSTOMERS - 10) * ORDERS_PER_CUSTOMER, orders);
+        assertEquals(2, StatementCountingInterceptor.currentTransaction());
+    }
+
+    @Test
+    public void testCountPerTransaction() {
+        entityManager.find(Customer.class, customerId);
+        assertEquals(1, StatementCountingInterceptor.currentTransaction());
+        transaction.commit();
+        assertEquals(1, StatementCountingInterceptor.lastTransaction());
+
+        transaction.begin();
+        assertEquals(0, StatementCountingInterceptor.currentTransaction());
+    }
+
+    @After
+    public void destory() {
+        transaction.commit();
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,275 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.bulk.BulkMutation;
+import com.devinkin.jpa.bulk.BulkProgress;
+import com.devinkin.jpa.bulk.BulkProgressListener;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import javax.persistence.RollbackException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JPATestBulkMutation {
+    private static final int CUSTOMERS = 2000;
+    private static final int POOL_SIZE = 4;
+    private static final int CONNECTION_TIMEOUT_MS = 1000;
+
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor executor;
+    private Cache cache;
+
+    @Before
+    public void initial() {
+        Map<String, String> properties = EmbeddedDatabase.properties("bulk-test");
+        // 许可数等于连接池大小，连接不够时尽快失败
+        properties.put("hibernate.hikari.maximumPoolSize", String.valueOf(POOL_SIZE));
+        properties.put("hibernate.hikari.connectionTimeout", String.valueOf(CONNECTION_TIMEOUT_MS));
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        executor = PersistenceExecutor.platformThreads(entityManagerFactory, POOL_SIZE);
+        cache = entityManagerFactory.getCache();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, CUSTOMERS)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    // 分块并行修改，只清除被修改的实体的缓存
+    @Test
+    public void testUpdateIds() {
+        load(5, 1500);
+        assertTrue(cache.contains(Customer.class, 5));
+        assertTrue(cache.contains(Customer.class, 1500));
+
+        final List<BulkProgress> progress = new ArrayList<>();
+        Map<String, Object> values = new HashMap<>();
+        values.put("email", "bulk@163.com");
+        values.put("age", 99);
+        BulkProgress result = new BulkMutation<>(executor, Customer.class)
+                .chunkSize(100)
+                .parallelism(4)
+                .progressListener(new BulkProgressListener() {
+                    @Override
+                    public void onProgress(BulkProgress snapshot) {
+                        progress.add(snapshot);
+                    }
+                })
+                .update(range(1, 1000), values);
+
+        System.out.println(result);
+        assertEquals(1000, result.getAffectedRows());
+        assertEquals(10, result.getCompletedChunks());
+        assertEquals(1.0, result.getFraction(), 0);
+        assertTrue(result.getRowsPerSecond() > 0);
+        assertEquals(10, progress.size());
+        for (int i = 0; i < progress.size(); i++) {
+            assertEquals((i + 1) * 100, progress.get(i).getProcessedIds());
+        }
+
+        assertFalse(cache.contains(Customer.class, 5));
+        assertTrue(cache.contains(Customer.class, 1500));
+        assertEquals(1000L, count("SELECT COUNT(c) FROM Customer c WHERE c.email = 'bulk@163.com' AND c.age = 99"));
+        Customer customer = find(5);
+        assertEquals("bulk@163.com", customer.getEmail());
+        assertEquals(Integer.valueOf(1), customer.getVersion());
+    }
+
+    // 按条件修改，修改后查询缓存中的结果也被清除
+    @Test
+    public void testUpdateWhere() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        int older = entityManager.createNamedQuery("customersOlderThan").setParameter(1, 49).getResultList().size();
+        entityManager.close();
+        assertEquals(CUSTOMERS / 2, older);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("age", 10);
+        BulkProgress result = new BulkMutation<>(executor, Customer.class)
+                .chunkSize(300)
+                .parallelism(2)
+                .updateWhere("x.age >= :age", Collections.singletonMap("age", 80), values);
+
+        assertEquals(400, result.getAffectedRows());
+        assertEquals(-1, result.getTotalIds());
+        assertEquals(2, result.getCompletedChunks());
+        entityManager = entityManagerFactory.createEntityManager();
+        older = entityManager.createNamedQuery("customersOlderThan").setParameter(1, 49).getResultList().size();
+        entityManager.close();
+        assertEquals(CUSTOMERS / 2 - 400, older);
+    }
+
+    // 修改后版本号加1，持有旧版本的事务提交失败
+    @Test
+    public void testVersionConflict() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = entityManager.find(Customer.class, 1);
+        customer.setLastName("stale");
+
+        new BulkMutation<>(executor, Customer.class)
+                .update(range(1, 10), Collections.<String, Object>singletonMap("age", 1));
+        try {
+            entityManager.getTransaction().commit();
+            fail();
+        } catch (RollbackException e) {
+            assertTrue(e.getCause() instanceof OptimisticLockException);
+        } finally {
+            entityManager.close();
+        }
+        assertEquals("C1", find(1).getLastName());
+    }
+
+    @Test
+    public void testDelete() {
+        load(10, 20);
+        BulkProgress result = new BulkMutation<>(executor, Customer.class)
+                .chunkSize(250)
+                .parallelism(4)
+                .deleteWhere("x.age < :age", Collections.singletonMap("age", 50));
+
+        assertEquals(1000, result.getAffectedRows());
+        assertEquals(4, result.getCompletedChunks());
+        assertFalse(cache.contains(Customer.class, 10));
+        assertEquals(1000L, count("SELECT COUNT(c) FROM Customer c"));
+        assertEquals(null, find(10));
+    }
+
+    // parallelism等于连接池大小时，游标占用一个连接，同时执行的分块不能用完剩下的连接
+    @Test
+    public void testWhereWithPoolSizeParallelism() throws Exception {
+        // 连接池之外的连接锁住要修改的行，分块执行时一直占用连接，超过连接池的等待时间
+        Connection locker = DriverManager.getConnection(EmbeddedDatabase.url("bulk-test"), "sa", "");
+        locker.createStatement().execute("SET DEFAULT_LOCK_TIMEOUT 10000");
+        locker.setAutoCommit(false);
+        locker.createStatement().executeUpdate("UPDATE JPA_CUSTOMERS SET LAST_NAME = LAST_NAME WHERE AGE < 50");
+        Thread unlock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(CONNECTION_TIMEOUT_MS * 2);
+                    locker.commit();
+                    locker.close();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        unlock.start();
+
+        BulkProgress result;
+        try {
+            result = new BulkMutation<>(executor, Customer.class)
+                    .chunkSize(100)
+                    .parallelism(POOL_SIZE)
+                    .updateWhere("x.age < :age", Collections.singletonMap("age", 50),
+                            Collections.<String, Object>singletonMap("email", "where@163.com"));
+        } finally {
+            unlock.join();
+        }
+
+        assertEquals(CUSTOMERS / 2, result.getAffectedRows());
+        assertEquals(CUSTOMERS / 2 / 100, result.getCompletedChunks());
+        assertEquals(0, HikariConnectionProvider.of(entityManagerFactory).getStatistics().getTimeoutCount());
+        assertEquals(CUSTOMERS / 2, count("SELECT COUNT(c) FROM Customer c WHERE c.email = 'where@163.com'"));
+    }
+
+    // 一个分块失败后不再执行之后的分块，已经提交的分块不会回滚
+    @Test
+    public void testFailure() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Order order = new Order();
+        order.setOrderName("O-25");
+        order.setCustomer(entityManager.find(Customer.class, 25));
+        entityManager.persist(order);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        final List<BulkProgress> progress = new ArrayList<>();
+        try {
+            new BulkMutation<>(executor, Customer.class)
+                    .chunkSize(10)
+                    .progressListener(new BulkProgressListener() {
+                        @Override
+                        public void onProgress(BulkProgress snapshot) {
+                            progress.add(snapshot);
+                        }
+                    })
+                    .delete(range(1, 50));
+            fail();
+        } catch (PersistenceException e) {
+            // 外键约束
+        }
+        assertEquals(2, progress.size());
+        assertEquals(CUSTOMERS - 20, count("SELECT COUNT(c) FROM Customer c"));
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = from; id <= to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    // 加载到二级缓存中
+    private void load(Integer... ids) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        for (Integer id : ids) {
+            entityManager.find(Customer.class, id);
+        }
+        entityManager.close();
+    }
+
+    private Customer find(Integer id) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.find(Customer.class, id);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private long count(String jpql) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery(jpql, Long.class).getSingleResult();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @After
+    public void destory() {
+        executor.close();
+        entityManagerFactory.close();
+    }
+}
@@ -1,6 +1,9 @@
 package com.devinkin.jpa.test;
 
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.cache.CacheStatistics;
 import com.devinkin.jpa.helloworld.Customer;
+import org.hibernate.stat.Statistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,6 +13,9 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
 public class JPATestCache {
     private EntityManagerFactory entityManagerFactory;
     private EntityManager entityManager;
@@ -23,9 +29,11 @@ public class JPATestCache {
         transaction.begin();
     }
 
+    // 第二次find从二级缓存中获取，不会发送任何SQL
     @Test
     public void testSecondLevelCache() {
         Customer customer1 = entityManager.find(Customer.class, 1);
+        assertNotNull(customer1);
         transaction.commit();
         entityManager.close();
 
@@ -33,7 +41,14 @@ public class JPATestCache {
         transaction = entityManager.getTransaction();
         transaction.begin();
 
+        Statistics statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+        statistics.clear();
         Customer customer2 = entityManager.find(Customer.class, 1);
+        assertNotNull(customer2);
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+
+        assertEquals(1, new CacheStatistics(entityManagerFactory).getRegion(Customer.class).getHitCount());
     }
 
     @After
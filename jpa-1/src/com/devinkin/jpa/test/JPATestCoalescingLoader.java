@@ -0,0 +1,115 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.repository.CoalescingLoader;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class JPATestCoalescingLoader {
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor executor;
+    private Statistics statistics;
+    private List<Integer> ids = new ArrayList<>();
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("loader-test"));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+        executor = PersistenceExecutor.platformThreads(entityManagerFactory, 4);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 20; i++) {
+            Customer customer = new Customer("C" + i, 20 + i);
+            customer.setEmail("c" + i + "@163.com");
+            customer.setBirth(new Date());
+            customer.setCreatedTime(new Date());
+            entityManager.persist(customer);
+            ids.add(customer.getId());
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        HibernateUtils.sessionFactory(entityManagerFactory).getCache().evictEntityRegions();
+        statistics.clear();
+    }
+
+    // 窗口内的查找合并成一条查询，重复的id共用一个结果
+    @Test
+    public void testWindow() throws Exception {
+        CoalescingLoader<Customer, Integer> loader = new CoalescingLoader<>(executor, Customer.class,
+                200, 100, 0, TimeUnit.MILLISECONDS);
+        List<CompletableFuture<Customer>> results = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            results.add(loader.load(ids.get(i % 10)));
+        }
+        CompletableFuture<Customer> missing = loader.load(-1);
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(ids.get(i % 10), results.get(i).get().getId());
+        }
+        assertSame(results.get(0), results.get(10));
+        assertNull(missing.get());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(1, loader.getQueryCount());
+        assertEquals(20, loader.getDeduplicatedCount());
+        assertEquals(30, loader.getQueriesSaved());
+        assertEquals(11, loader.getMaxBatchSize());
+        System.out.println(loader);
+    }
+
+    // 达到最大个数时立即提交，不等窗口结束
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        CoalescingLoader<Customer, Integer> loader = new CoalescingLoader<>(executor, Customer.class,
+                200, 5, 0, TimeUnit.MILLISECONDS);
+        List<CompletableFuture<Customer>> results = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            results.add(loader.load(ids.get(i)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(ids.get(i), results.get(i).get().getId());
+        }
+        assertEquals(3, loader.getBatchCount());
+        assertEquals(5, loader.getMaxBatchSize());
+    }
+
+    // 二级缓存中的实体不需要查询
+    @Test
+    public void testSecondLevelCache() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.find(Customer.class, ids.get(0));
+        entityManager.close();
+        statistics.clear();
+
+        CoalescingLoader<Customer, Integer> loader = new CoalescingLoader<>(executor, Customer.class,
+                0, 100, 0, TimeUnit.MILLISECONDS);
+        assertEquals(ids.get(0), loader.get(ids.get(0)).getId());
+        assertEquals(0, loader.getQueryCount());
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @After
+    public void destory() {
+        executor.close();
+        entityManagerFactory.close();
+    }
+}
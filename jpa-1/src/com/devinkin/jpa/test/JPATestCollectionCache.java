@@ -0,0 +1,175 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Category;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Item;
+import com.devinkin.jpa.helloworld.Order;
+import org.hibernate.Cache;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestCollectionCache {
+    private static final String ITEMS_ROLE = Category.class.getName() + ".items";
+
+    private EntityManagerFactory entityManagerFactory;
+    private Statistics statistics;
+    private Integer customer1;
+    private Integer customer2;
+    private Integer order;
+    private Integer category1;
+    private Integer category2;
+    private Integer category3;
+    private Integer item;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("collectioncache-test"));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer c1 = newCustomer("C1");
+        Customer c2 = newCustomer("C2");
+        entityManager.persist(c1);
+        entityManager.persist(c2);
+        Order o = new Order();
+        o.setOrderName("O-1");
+        o.setCustomer(c1);
+        entityManager.persist(o);
+        Category k1 = newCategory("K1");
+        Category k2 = newCategory("K2");
+        Category k3 = newCategory("K3");
+        entityManager.persist(k1);
+        entityManager.persist(k2);
+        entityManager.persist(k3);
+        Item i = new Item();
+        i.setItemName("I-1");
+        i.getCategories().add(k1);
+        entityManager.persist(i);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        customer1 = c1.getId();
+        customer2 = c2.getId();
+        order = o.getId();
+        category1 = k1.getId();
+        category2 = k2.getId();
+        category3 = k3.getId();
+        item = i.getId();
+    }
+
+    // 集合加载一次后从缓存中获取，不再访问数据库
+    @Test
+    public void testCollectionCached() {
+        assertEquals(1, countOrders(customer1));
+        statistics.clear();
+        assertEquals(1, countOrders(customer1));
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    // Order修改了customer后，新旧两个Customer的orders缓存都失效
+    @Test
+    public void testMoveOrderInvalidatesBothOwners() {
+        assertEquals(1, countOrders(customer1));
+        assertEquals(0, countOrders(customer2));
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Order o = entityManager.find(Order.class, order);
+        o.setCustomer(entityManager.find(Customer.class, customer2));
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        assertEquals(0, countOrders(customer1));
+        assertEquals(1, countOrders(customer2));
+
+        // 重新加载后又可以被缓存
+        statistics.clear();
+        assertEquals(1, countOrders(customer2));
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    // Item修改了categories(JPA_ITEM_CATEGORY)后，只有新旧两个Category的items缓存失效
+    @Test
+    public void testManyToManyInvalidatesInverseCollections() {
+        Cache cache = HibernateUtils.sessionFactory(entityManagerFactory).getCache();
+        assertEquals(1, countItems(category1));
+        assertEquals(0, countItems(category2));
+        assertEquals(0, countItems(category3));
+        assertTrue(cache.containsCollection(ITEMS_ROLE, category1));
+        assertTrue(cache.containsCollection(ITEMS_ROLE, category2));
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Item i = entityManager.find(Item.class, item);
+        i.getCategories().clear();
+        i.getCategories().add(entityManager.find(Category.class, category2));
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        assertFalse(cache.containsCollection(ITEMS_ROLE, category1));
+        assertFalse(cache.containsCollection(ITEMS_ROLE, category2));
+        assertTrue(cache.containsCollection(ITEMS_ROLE, category3));
+        assertEquals(0, countItems(category1));
+        assertEquals(1, countItems(category2));
+
+        // 重新加载后又可以被缓存，没有受影响的集合一直在缓存中
+        statistics.clear();
+        assertEquals(1, countItems(category2));
+        assertEquals(0, countItems(category3));
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    private int countItems(Integer categoryId) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        int size = entityManager.find(Category.class, categoryId).getItems().size();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return size;
+    }
+
+    private int countOrders(Integer customerId) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        int size = entityManager.find(Customer.class, customerId).getOrders().size();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return size;
+    }
+
+    private static Customer newCustomer(String lastName) {
+        Customer customer = new Customer();
+        customer.setLastName(lastName);
+        customer.setEmail(lastName + "@devinkin.com");
+        customer.setAge(18);
+        customer.setCreatedTime(new Date());
+        customer.setBirth(new Date());
+        return customer;
+    }
+
+    private static Category newCategory(String name) {
+        Category category = new Category();
+        category.setCategoryName(name);
+        return category;
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
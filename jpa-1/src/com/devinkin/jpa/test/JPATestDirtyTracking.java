@@ -0,0 +1,178 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestDirtyTracking {
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private Statistics statistics;
+    private Integer customerId;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("dirty-test"));
+        statistics = HibernateUtils.sessionFactory(entityManagerFactory).getStatistics();
+
+        EntityManager other = entityManagerFactory.createEntityManager();
+        other.getTransaction().begin();
+        Customer customer = new Customer("AA", 18);
+        customer.setEmail("aa@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        other.persist(customer);
+        Order order = new Order();
+        order.setOrderName("O-AA");
+        order.setCustomer(customer);
+        other.persist(order);
+        other.getTransaction().commit();
+        other.close();
+        customerId = customer.getId();
+
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        statistics.clear();
+    }
+
+    // 加载后没有修改的实体不会被更新
+    @Test
+    public void testNotModified() {
+        Customer customer = entityManager.find(Customer.class, customerId);
+        assertFalse(customer.hasDirtyAttributes());
+        // 设置相同的值不算修改
+        customer.setAge(18);
+        customer.setBirth(new Date(customer.getBirth().getTime()));
+        assertFalse(customer.hasDirtyAttributes());
+
+        entityManager.flush();
+        assertEquals(0, statistics.getEntityUpdateCount());
+    }
+
+    // 在原Date对象上的修改setter记录不到，和快照比较后更新
+    @Test
+    public void testMutateDateInPlace() {
+        Customer customer = entityManager.find(Customer.class, customerId);
+        // birth 是 DATE 列，只保存日期
+        long birth = new GregorianCalendar(2000, Calendar.JANUARY, 1).getTimeInMillis();
+        customer.getBirth().setTime(birth);
+        assertFalse(customer.hasDirtyAttributes());
+
+        entityManager.getTransaction().commit();
+        assertEquals(1, statistics.getEntityUpdateCount());
+
+        entityManager.clear();
+        entityManager.getTransaction().begin();
+        entityManager.getEntityManagerFactory().getCache().evictAll();
+        assertEquals(birth, entityManager.find(Customer.class, customerId).getBirth().getTime());
+    }
+
+    // 插入后再flush不会更新刚插入的实体
+    @Test
+    public void testPersist() {
+        Customer customer = new Customer("BB", 20);
+        customer.setEmail("bb@163.com");
+        entityManager.persist(customer);
+        assertTrue(customer.hasDirtyAttributes());
+        entityManager.flush();
+        assertFalse(customer.hasDirtyAttributes());
+        entityManager.flush();
+        assertEquals(1, statistics.getEntityInsertCount());
+        assertEquals(0, statistics.getEntityUpdateCount());
+    }
+
+    // UPDATE只包含被修改的列，不会覆盖其他事务修改的列
+    @Test
+    public void testUpdateModifiedColumns() {
+        Customer customer = entityManager.find(Customer.class, customerId);
+        customer.setEmail("cc@163.com");
+        assertEquals("[email]", customer.dirtyAttributes().toString());
+
+        EntityManager other = entityManagerFactory.createEntityManager();
+        other.getTransaction().begin();
+        other.createQuery("UPDATE Customer c SET c.age = 30 WHERE c.id = :id")
+                .setParameter("id", customerId)
+                .executeUpdate();
+        other.getTransaction().commit();
+        other.close();
+
+        entityManager.getTransaction().commit();
+        assertFalse(customer.hasDirtyAttributes());
+        assertEquals(1, statistics.getEntityUpdateCount());
+
+        entityManager.clear();
+        entityManager.getTransaction().begin();
+        entityManager.getEntityManagerFactory().getCache().evictAll();
+        Customer reloaded = entityManager.find(Customer.class, customerId);
+        assertEquals("cc@163.com", reloaded.getEmail());
+        assertEquals(30, reloaded.getAge());
+    }
+
+    // 从二级缓存中加载和延迟加载关联对象时设置的属性不算修改
+    @Test
+    public void testCachedAndLazyLoaded() {
+        Order order = entityManager.createQuery("FROM Order o", Order.class).getSingleResult();
+        Customer customer = order.getCustomer();
+        assertEquals("AA", customer.getLastName());
+        assertFalse(order.hasDirtyAttributes());
+        assertFalse(customer.hasDirtyAttributes());
+        entityManager.getTransaction().commit();
+
+        // 同一个EntityManager放入二级缓存的数据对它自己不可见
+        EntityManager other = entityManagerFactory.createEntityManager();
+        other.getTransaction().begin();
+        Customer cached = other.find(Customer.class, customerId);
+        assertTrue(statistics.getSecondLevelCacheHitCount() > 0);
+        assertFalse(cached.hasDirtyAttributes());
+        other.getTransaction().commit();
+        other.close();
+        assertEquals(0, statistics.getEntityUpdateCount());
+    }
+
+    // 修改关联关系
+    @Test
+    public void testManyToOneUpdate() {
+        Customer customer = new Customer("DD", 20);
+        customer.setEmail("dd@163.com");
+        entityManager.persist(customer);
+        entityManager.flush();
+
+        Order order = entityManager.createQuery("FROM Order o", Order.class).getSingleResult();
+        order.setCustomer(customer);
+        assertEquals("[customer]", order.dirtyAttributes().toString());
+        entityManager.getTransaction().commit();
+        assertEquals(1, statistics.getEntityUpdateCount());
+
+        entityManager.clear();
+        entityManager.getTransaction().begin();
+        Order reloaded = entityManager.find(Order.class, order.getId());
+        assertEquals(customer.getId(), reloaded.getCustomer().getId());
+        assertEquals("O-AA", reloaded.getOrderName());
+    }
+
+    @After
+    public void destory() {
+        if (entityManager.getTransaction().isActive()) {
+            entityManager.getTransaction().commit();
+        }
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+}
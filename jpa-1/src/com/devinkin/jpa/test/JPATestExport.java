@@ -0,0 +1,249 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.export.ColumnarExportFormat;
+import com.devinkin.jpa.export.ColumnarReader;
+import com.devinkin.jpa.export.CsvExportFormat;
+import com.devinkin.jpa.export.CustomerOrderExporter;
+import com.devinkin.jpa.export.ExportColumn;
+import com.devinkin.jpa.export.ExportFormat;
+import com.devinkin.jpa.export.ExportReport;
+import com.devinkin.jpa.export.ExportWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JPATestExport {
+    private static final int CUSTOMERS = 2000;
+    // 前1000个Customer每个有3个Order，其余的没有
+    private static final int ORDERS = 3000;
+    private static final int ROWS = ORDERS + (CUSTOMERS - ORDERS / 3);
+
+    private EntityManagerFactory entityManagerFactory;
+    private PersistenceExecutor executor;
+    private Path directory;
+
+    @Before
+    public void initial() throws IOException {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("export-test"));
+        executor = PersistenceExecutor.platformThreads(entityManagerFactory, 4);
+        directory = Files.createTempDirectory("jpa-export");
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("INSERT INTO JPA_CUSTOMERS (ID, LAST_NAME, EMAIL, AGE, CREATEDTIME, BIRTH) " +
+                "SELECT X, CONCAT('C', X), CONCAT('c', X, '@devinkin.com'), MOD(X, 100), CURRENT_TIMESTAMP, CURRENT_DATE " +
+                "FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, CUSTOMERS)
+                .executeUpdate();
+        entityManager.createNativeQuery("INSERT INTO JPA_ORDERS (ID, ORDER_NAME, CUSTOMER_ID) " +
+                "SELECT X, CONCAT('O, \"', X, '\"'), MOD(X - 1, ?) + 1 FROM SYSTEM_RANGE(1, ?)")
+                .setParameter(1, ORDERS / 3)
+                .setParameter(2, ORDERS)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    @After
+    public void destroy() {
+        executor.close();
+        entityManagerFactory.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    // 分区并行导出到CSV，一个Order一行，包含逗号和引号的值被转义
+    @Test
+    public void testCsv() throws IOException {
+        ExportReport report = new CustomerOrderExporter(executor)
+                .rangeSize(300)
+                .parallelism(4)
+                .export(directory);
+        System.out.println(report);
+
+        // id 1..2000 分布在 0-299 ... 1800-2099 这7个分区中
+        assertEquals(7, report.getTotalRanges());
+        assertEquals(0, report.getSkippedRanges());
+        assertEquals(CUSTOMERS, report.getCustomers());
+        assertEquals(ORDERS, report.getOrders());
+        assertEquals(ROWS, report.getRows());
+        assertTrue(report.getBytes() > 0);
+        assertTrue(report.getPeakHeapBytes() > 0);
+
+        List<String> lines = csvRows();
+        assertEquals(ROWS, lines.size());
+        List<String> header = Files.readAllLines(directory.resolve("part-0-299.csv"), StandardCharsets.UTF_8);
+        assertEquals("CUSTOMER_ID,LAST_NAME,EMAIL,AGE,CREATED_TIME,BIRTH,ORDER_ID,ORDER_NAME", header.get(0));
+        assertTrue(header.get(1), header.get(1).startsWith("1,C1,c1@devinkin.com,1,"));
+        assertTrue(header.get(1), header.get(1).endsWith(",1,\"O, \"\"1\"\"\""));
+        // 没有Order的Customer，订单列为空
+        String noOrders = findLine(lines, "2000,C2000,");
+        assertTrue(noOrders, noOrders.endsWith(",,"));
+    }
+
+    // 列式文件能读回相同的数据
+    @Test
+    public void testColumnar() throws IOException {
+        ExportReport report = new CustomerOrderExporter(executor)
+                .format(new ColumnarExportFormat(100))
+                .rangeSize(500)
+                .parallelism(2)
+                .export(directory);
+        System.out.println(report);
+        // 0-499 ... 2000-2499
+        assertEquals(5, report.getTotalRanges());
+        assertEquals(ROWS, report.getRows());
+
+        int rows = 0;
+        int orders = 0;
+        for (int first = 0; first <= CUSTOMERS; first += 500) {
+            try (ColumnarReader reader = new ColumnarReader(directory.resolve("part-" + first + "-" + (first + 499) + ".col"))) {
+                assertEquals(CustomerOrderExporter.COLUMNS.size(), reader.getColumns().size());
+                assertEquals("ORDER_NAME", reader.getColumns().get(7).getName());
+                Object[] row;
+                while ((row = reader.next()) != null) {
+                    rows++;
+                    int customerId = (Integer) row[0];
+                    assertTrue(customerId >= first && customerId < first + 500);
+                    assertEquals("C" + customerId, row[1]);
+                    assertTrue(row[4] instanceof java.util.Date);
+                    if (row[6] != null) {
+                        orders++;
+                        assertEquals("O, \"" + row[6] + "\"", row[7]);
+                        assertEquals(customerId, ((Integer) row[6] - 1) % (ORDERS / 3) + 1);
+                    } else {
+                        assertTrue(customerId > ORDERS / 3);
+                        assertNull(row[7]);
+                    }
+                }
+            }
+        }
+        assertEquals(ROWS, rows);
+        assertEquals(ORDERS, orders);
+    }
+
+    // 导出中途失败，再次导出时跳过已经完成的分区
+    @Test
+    public void testResume() throws IOException {
+        try {
+            new CustomerOrderExporter(executor)
+                    .format(new FailingFormat(1000))
+                    .rangeSize(300)
+                    .export(directory);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Disk full"));
+        }
+        // 0-299、300-599、600-899 已经完成
+        assertEquals(3, Files.readAllLines(directory.resolve(CustomerOrderExporter.CHECKPOINT),
+                StandardCharsets.UTF_8).size());
+
+        ExportReport report = new CustomerOrderExporter(executor)
+                .rangeSize(300)
+                .parallelism(4)
+                .export(directory);
+        System.out.println(report);
+        assertEquals(7, report.getTotalRanges());
+        assertEquals(3, report.getSkippedRanges());
+        assertEquals(CUSTOMERS - 899, report.getCustomers());
+        assertEquals(ROWS, csvRows().size());
+        assertEquals(7, Files.readAllLines(directory.resolve(CustomerOrderExporter.CHECKPOINT),
+                StandardCharsets.UTF_8).size());
+        for (File file : directory.toFile().listFiles()) {
+            assertTrue(file.getName(), !file.getName().endsWith(".tmp"));
+        }
+
+        // 全部完成后再导出什么都不做
+        report = new CustomerOrderExporter(executor).rangeSize(300).export(directory);
+        assertEquals(7, report.getSkippedRanges());
+        assertEquals(0, report.getRows());
+
+        // 分区大小不同时不能从检查点恢复
+        try {
+            new CustomerOrderExporter(executor).rangeSize(500).export(directory);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("different range size"));
+        }
+    }
+
+    // 所有CSV文件中除了列名以外的行
+    private List<String> csvRows() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (File file : directory.toFile().listFiles()) {
+            if (file.getName().endsWith(".csv")) {
+                List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+                rows.addAll(lines.subList(1, lines.size()));
+            }
+        }
+        return rows;
+    }
+
+    private static String findLine(List<String> lines, String prefix) {
+        for (String line : lines) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    // 写到指定的Customer时失败
+    private static class FailingFormat implements ExportFormat {
+        private final int customerId;
+        private final ExportFormat format = new CsvExportFormat();
+
+        private FailingFormat(int customerId) {
+            this.customerId = customerId;
+        }
+
+        @Override
+        public String getExtension() {
+            return format.getExtension();
+        }
+
+        @Override
+        public ExportWriter open(WritableByteChannel channel, List<ExportColumn> columns) throws IOException {
+            final ExportWriter writer = format.open(channel, columns);
+            return new ExportWriter() {
+                @Override
+                public void write(Object[] row) throws IOException {
+                    if (row[0].equals(customerId)) {
+                        throw new IOException("Disk full at customer " + customerId);
+                    }
+                    writer.write(row);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    writer.close();
+                }
+            };
+        }
+    }
+}
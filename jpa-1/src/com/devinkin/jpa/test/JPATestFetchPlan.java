@@ -0,0 +1,146 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.FetchPlans;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Department;
+import com.devinkin.jpa.helloworld.Manager;
+import com.devinkin.jpa.helloworld.Order;
+import com.devinkin.jpa.stat.StatementCountingInterceptor;
+import org.hibernate.Hibernate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestFetchPlan {
+    private static final int CUSTOMERS = 10;
+    private static final int ORDERS_PER_CUSTOMER = 3;
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private EntityTransaction transaction;
+    private Integer customerId;
+    private Integer orderId;
+    private Integer departmentId;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.countStatements(
+                        EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("fetchplan-test"))));
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = new Customer();
+            customer.setLastName("C" + i);
+            customer.setEmail("c" + i + "@devinkin.com");
+            customer.setAge(i);
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+            customerId = customer.getId();
+            for (int j = 0; j < ORDERS_PER_CUSTOMER; j++) {
+                Order order = new Order();
+                order.setOrderName("O-" + i + "-" + j);
+                order.setCustomer(customer);
+                entityManager.persist(order);
+                orderId = order.getId();
+            }
+        }
+        Manager manager = new Manager();
+        manager.setMgrName("M");
+        entityManager.persist(manager);
+        Department department = new Department();
+        department.setDeptName("D");
+        department.setManager(manager);
+        entityManager.persist(department);
+        departmentId = department.getId();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        this.entityManager = entityManagerFactory.createEntityManager();
+        transaction = this.entityManager.getTransaction();
+        transaction.begin();
+    }
+
+    // 不指定抓取计划时关联关系仍然是延迟加载的
+    @Test
+    public void testFindWithoutPlan() {
+        Customer customer = FetchPlans.find(entityManager, Customer.class, customerId, null);
+        assertFalse(Hibernate.isInitialized(customer.getOrders()));
+        assertEquals(1, StatementCountingInterceptor.currentTransaction());
+    }
+
+    @Test
+    public void testFindWithPlan() {
+        Customer customer = FetchPlans.find(entityManager, Customer.class, customerId, Customer.WITH_ORDERS);
+        assertTrue(Hibernate.isInitialized(customer.getOrders()));
+        assertEquals(ORDERS_PER_CUSTOMER, customer.getOrders().size());
+        assertEquals(1, StatementCountingInterceptor.currentTransaction());
+
+        Order order = FetchPlans.find(entityManager, Order.class, orderId, Order.WITH_CUSTOMER);
+        assertTrue(Hibernate.isInitialized(order.getCustomer()));
+
+        Department department = FetchPlans.find(entityManager, Department.class, departmentId, Department.WITH_MANAGER);
+        assertTrue(Hibernate.isInitialized(department.getManager()));
+        assertEquals("M", department.getManager().getMgrName());
+    }
+
+    // 实体已经在EntityManager中时，计划中的关联对象单独初始化
+    @Test
+    public void testFindManagedEntityWithPlan() {
+        entityManager.find(Customer.class, customerId);
+        Customer customer = FetchPlans.find(entityManager, Customer.class, customerId, Customer.WITH_ORDERS);
+        assertTrue(Hibernate.isInitialized(customer.getOrders()));
+    }
+
+    // 同一个映射: 列表查询不连接，详情查询一次连接查询
+    @Test
+    public void testQueryWithPlan() {
+        List<Customer> list = FetchPlans.createQuery(entityManager, Customer.class, "c", "c.age >= ?", null)
+                .setParameter(1, 5)
+                .getResultList();
+        assertEquals(CUSTOMERS - 5, list.size());
+        assertFalse(Hibernate.isInitialized(list.get(0).getOrders()));
+        entityManager.clear();
+
+        StatementCountingInterceptor.reset();
+        List<Customer> details = FetchPlans.createQuery(entityManager, Customer.class, "c", "c.age >= ?", Customer.WITH_ORDERS)
+                .setParameter(1, 5)
+                .getResultList();
+        assertEquals(CUSTOMERS - 5, details.size());
+        for (Customer customer : details) {
+            assertEquals(ORDERS_PER_CUSTOMER, customer.getOrders().size());
+        }
+        assertEquals(1, StatementCountingInterceptor.currentTransaction());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPlan() {
+        FetchPlans.find(entityManager, Customer.class, customerId, "customer-with-everything");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPlanOfAnotherEntity() {
+        FetchPlans.createQuery(entityManager, Customer.class, "c", null, Order.WITH_CUSTOMER);
+    }
+
+    @After
+    public void destory() {
+        transaction.commit();
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+}
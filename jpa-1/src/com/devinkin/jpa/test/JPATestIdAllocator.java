@@ -0,0 +1,157 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Manager;
+import com.devinkin.jpa.id.BlockAllocator;
+import com.devinkin.jpa.id.BlockSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestIdAllocator {
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("idallocator-test"));
+    }
+
+    // 多个线程同时插入，分段分配的主键不能重复
+    @Test
+    public void testConcurrentPersist() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 500;
+        final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    EntityManager entityManager = entityManagerFactory.createEntityManager();
+                    entityManager.getTransaction().begin();
+                    for (int j = 0; j < perThread; j++) {
+                        Manager manager = new Manager();
+                        manager.setMgrName("M-" + j);
+                        entityManager.persist(manager);
+                        ids.add(manager.getId());
+                    }
+                    entityManager.getTransaction().commit();
+                    entityManager.close();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    // 段大小固定时每用完一段才预留一次，单线程分配的主键是连续的
+    @Test
+    public void testAllocateInBlocks() {
+        CountingSource source = new CountingSource(0);
+        BlockAllocator<Void> allocator = new BlockAllocator<>(source, 100, 100, 1000);
+        for (long i = 1; i <= 1000; i++) {
+            assertEquals(i, allocator.next(null));
+        }
+        assertEquals(10, allocator.getRefillCount());
+        assertEquals(10, source.reserves.get());
+        allocator.next(null);
+        assertEquals(11, allocator.getRefillCount());
+    }
+
+    // 多个线程同时用完一段时只有一个线程访问数据库，其他线程等待后使用新的一段
+    @Test
+    public void testConcurrentRefill() throws InterruptedException {
+        final int threads = 16;
+        final int perThread = 1000;
+        final int blockSize = 100;
+        final CountingSource source = new CountingSource(5);
+        final BlockAllocator<Void> allocator = new BlockAllocator<>(source, blockSize, blockSize, 1000);
+        final Set<Long> ids = ConcurrentHashMap.newKeySet();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < perThread; j++) {
+                        ids.add(allocator.next(null));
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(threads * perThread, ids.size());
+        assertEquals(1, source.maxConcurrent.get());
+        // 线程结束时没有用完的lease最多丢弃 threads * leaseSize 个主键
+        long leaseSize = blockSize / 16;
+        long refills = allocator.getRefillCount();
+        assertTrue(refills >= threads * perThread / blockSize);
+        assertTrue(refills <= (threads * perThread + threads * leaseSize) / blockSize + 1);
+        for (long id : ids) {
+            assertTrue(id >= 1 && id <= refills * blockSize);
+        }
+    }
+
+    // 按顺序预留主键段，记录预留次数和同时预留的最大线程数
+    private static class CountingSource implements BlockSource<Void> {
+        private final long delayMillis;
+        private final AtomicLong next = new AtomicLong(1);
+        private final AtomicInteger reserves = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        private CountingSource(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public long reserve(Void context, long size) {
+            int concurrent = running.incrementAndGet();
+            if (concurrent > maxConcurrent.get()) {
+                maxConcurrent.set(concurrent);
+            }
+            try {
+                // 模拟访问数据库的时间
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reserves.incrementAndGet();
+            running.decrementAndGet();
+            return next.getAndAdd(size);
+        }
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,63 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.VirtualThreads;
+import com.devinkin.jpa.load.LoadHarness;
+import com.devinkin.jpa.load.LoadMain;
+import com.devinkin.jpa.load.LoadReport;
+import com.devinkin.jpa.load.OperationStatistics;
+import com.devinkin.jpa.load.StandardOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestLoad {
+    private EntityManagerFactory entityManagerFactory;
+    private StandardOperations operations;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("load-test"));
+        operations = StandardOperations.seed(entityManagerFactory, 200, 3, 100, 10);
+    }
+
+    // 多个线程共用一个EntityManagerFactory执行所有操作，每种操作都被执行过且没有意外的异常
+    @Test
+    public void testMixedOperations() throws InterruptedException {
+        LoadHarness harness = new LoadHarness(entityManagerFactory, operations.mix(LoadMain.DEFAULT_MIX));
+        LoadReport report = harness.run(8, false, 2, TimeUnit.SECONDS);
+        System.out.println(report);
+
+        assertEquals(null, report.getFirstError());
+        assertEquals(5, report.getOperations().size());
+        for (OperationStatistics operation : report.getOperations()) {
+            assertTrue(operation.getName(), operation.getSuccessCount() > 0);
+            assertEquals(operation.getName(), 0, operation.getErrors());
+        }
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getTotal().getPercentileMicros(99) >= report.getTotal().getPercentileMicros(50));
+    }
+
+    // JDK不支持虚拟线程时退回到平台线程
+    @Test
+    public void testVirtualThreads() throws InterruptedException {
+        LoadHarness harness = new LoadHarness(entityManagerFactory, operations.mix("find=1"));
+        LoadReport report = harness.run(16, true, 1, TimeUnit.SECONDS);
+
+        assertEquals(VirtualThreads.isSupported(), report.isVirtualThreads());
+        assertTrue(report.getOperation(StandardOperations.FIND).getSuccessCount() > 0);
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.bootstrap.MappingSnapshot;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import org.hibernate.Hibernate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestMappingSnapshot {
+    private Path directory;
+    private MappingSnapshot snapshot;
+
+    @Before
+    public void initial() throws IOException {
+        directory = Files.createTempDirectory("jpa-snapshot");
+        snapshot = new MappingSnapshot(directory.resolve("jpa-1.snapshot"));
+    }
+
+    @After
+    public void destroy() throws IOException {
+        Files.deleteIfExists(snapshot.getFile());
+        Files.deleteIfExists(directory);
+    }
+
+    // 第二次启动使用快照，命名查询、抓取计划、缓存等都和正常启动一样
+    @Test
+    public void testSnapshot() {
+        EntityManagerFactory entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("snapshot-1"));
+        entityManagerFactory.close();
+        assertEquals(0, snapshot.getHitCount());
+        assertEquals(1, snapshot.getMissCount());
+        assertTrue(Files.exists(snapshot.getFile()));
+
+        entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties("snapshot-1"));
+        try {
+            assertEquals(1, snapshot.getHitCount());
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            Customer customer = new Customer("AA", 20);
+            customer.setEmail("aa@163.com");
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+            Order order = new Order();
+            order.setOrderName("O-1");
+            order.setCustomer(customer);
+            entityManager.persist(order);
+            entityManager.getTransaction().commit();
+            entityManager.close();
+
+            // 从缓存中加载时不使用抓取计划
+            entityManagerFactory.getCache().evictAll();
+            entityManager = entityManagerFactory.createEntityManager();
+            HibernateUtils.session(entityManager).enableFetchProfile(Customer.WITH_ORDERS);
+            Customer found = entityManager.find(Customer.class, customer.getId());
+            assertTrue(Hibernate.isInitialized(found.getOrders()));
+            assertEquals(1, found.getOrders().size());
+            List<?> result = entityManager.createNamedQuery("customersOlderThan").setParameter(1, 10).getResultList();
+            assertEquals(1, result.size());
+            entityManager.close();
+            // 实体和集合的缓存配置也在快照中
+            assertTrue(HibernateUtils.sessionFactory(entityManagerFactory)
+                    .getEntityPersister(Customer.class.getName()).hasCache());
+            assertTrue(HibernateUtils.sessionFactory(entityManagerFactory)
+                    .getCollectionPersister(Customer.class.getName() + ".orders").hasCache());
+        } finally {
+            entityManagerFactory.close();
+        }
+    }
+
+    // 连接属性不同时共用快照，影响映射的属性不同时重新生成
+    @Test
+    public void testProperties() {
+        snapshot.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties("snapshot-2")).close();
+
+        EntityManagerFactory entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("snapshot-3"));
+        assertEquals(1, snapshot.getHitCount());
+        String url = String.valueOf(entityManagerFactory.getProperties().get("hibernate.connection.url"));
+        assertTrue(url, url.contains("snapshot-3"));
+        entityManagerFactory.close();
+
+        Map<String, String> properties = EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("snapshot-3"));
+        entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1", properties);
+        assertEquals(2, snapshot.getMissCount());
+        assertTrue(!HibernateUtils.sessionFactory(entityManagerFactory).getSettings().isSecondLevelCacheEnabled());
+        entityManagerFactory.close();
+    }
+
+    // 损坏的快照被忽略并重新生成
+    @Test
+    public void testCorrupted() throws IOException {
+        Files.write(snapshot.getFile(), new byte[]{1, 2, 3});
+        snapshot.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties("snapshot-4")).close();
+        assertEquals(1, snapshot.getMissCount());
+        snapshot.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties("snapshot-4")).close();
+        assertEquals(1, snapshot.getHitCount());
+    }
+
+    // hbm2ddl.auto=update: 数据库的结构摘要和映射一致时不再检查
+    @Test
+    public void testSchemaFingerprint() {
+        Map<String, String> properties = EmbeddedDatabase.properties("snapshot-schema");
+        properties.put("hibernate.hbm2ddl.auto", "update");
+
+        EntityManagerFactory entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1", properties);
+        assertEquals(1, snapshot.getSchemaChecks());
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        assertEquals(0L, entityManager.createQuery("SELECT COUNT(c) FROM Customer c").getSingleResult());
+        entityManager.close();
+        entityManagerFactory.close();
+
+        entityManagerFactory = snapshot.createEntityManagerFactory("jpa-1", properties);
+        assertEquals(1, snapshot.getSchemaChecks());
+        assertEquals(1, snapshot.getSchemaChecksSkipped());
+
+        // 摘要不一致(如映射被修改过)时重新执行update
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createNativeQuery("UPDATE JPA_SCHEMA_FINGERPRINT SET FINGERPRINT = 'changed'").executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        entityManagerFactory.close();
+
+        snapshot.createEntityManagerFactory("jpa-1", properties).close();
+        assertEquals(2, snapshot.getSchemaChecks());
+        assertEquals(1, snapshot.getSchemaChecksSkipped());
+    }
+}
@@ -0,0 +1,200 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.concurrent.Backoff;
+import com.devinkin.jpa.concurrent.ContentionStatistics;
+import com.devinkin.jpa.concurrent.OptimisticRetryExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import com.devinkin.jpa.helloworld.Customer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Persistence;
+import javax.persistence.RollbackException;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JPATestOptimisticLocking {
+    private EntityManagerFactory entityManagerFactory;
+    private Integer customerId;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("locking-test"));
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = new Customer("AA", 0);
+        customer.setEmail("aa@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        entityManager.persist(customer);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        customerId = customer.getId();
+        assertEquals(Integer.valueOf(0), customer.getVersion());
+    }
+
+    // 后提交的事务发现版本号已经改变，提交失败，不会覆盖先提交的修改
+    @Test
+    public void testConflict() {
+        EntityManager first = entityManagerFactory.createEntityManager();
+        EntityManager second = entityManagerFactory.createEntityManager();
+        first.getTransaction().begin();
+        second.getTransaction().begin();
+        first.find(Customer.class, customerId).setAge(10);
+        second.find(Customer.class, customerId).setLastName("BB");
+        first.getTransaction().commit();
+        try {
+            second.getTransaction().commit();
+            fail();
+        } catch (RollbackException e) {
+            assertTrue(e.getCause() instanceof OptimisticLockException);
+        }
+        first.close();
+        second.close();
+
+        Customer customer = find();
+        assertEquals(10, customer.getAge());
+        assertEquals("AA", customer.getLastName());
+        assertEquals(Integer.valueOf(1), customer.getVersion());
+    }
+
+    // 第一次执行时被其他事务修改，重试后成功
+    @Test
+    public void testRetry() {
+        OptimisticRetryExecutor executor = new OptimisticRetryExecutor(entityManagerFactory, 3, Backoff.NONE);
+        final AtomicInteger executions = new AtomicInteger();
+        int age = executor.execute(new PersistenceWork<Integer>() {
+            @Override
+            public Integer execute(EntityManager entityManager) {
+                Customer customer = entityManager.find(Customer.class, customerId);
+                if (executions.incrementAndGet() == 1) {
+                    concurrentUpdate();
+                }
+                customer.setAge(customer.getAge() + 1);
+                return customer.getAge();
+            }
+        });
+
+        assertEquals(2, executions.get());
+        assertEquals(101, age);
+        assertEquals(101, find().getAge());
+        ContentionStatistics contention = executor.getContention(Customer.class);
+        assertEquals(1, contention.getConflicts());
+        assertEquals(1, contention.getRetries());
+        assertEquals(0, contention.getExhausted());
+        assertEquals(1, executor.getCommittedCount());
+        assertEquals(2, executor.getAttemptCount());
+    }
+
+    // 每次执行都冲突，达到最大次数后抛出异常
+    @Test
+    public void testExhausted() {
+        OptimisticRetryExecutor executor = new OptimisticRetryExecutor(entityManagerFactory, 2,
+                Backoff.exponential(1, 10, TimeUnit.MILLISECONDS));
+        try {
+            executor.execute(new PersistenceWork<Void>() {
+                @Override
+                public Void execute(EntityManager entityManager) {
+                    entityManager.find(Customer.class, customerId).setLastName("BB");
+                    concurrentUpdate();
+                    return null;
+                }
+            });
+            fail();
+        } catch (RollbackException e) {
+            assertTrue(e.getCause() instanceof OptimisticLockException);
+        }
+
+        ContentionStatistics contention = executor.getContention(Customer.class);
+        assertEquals(2, contention.getConflicts());
+        assertEquals(1, contention.getRetries());
+        assertEquals(1, contention.getExhausted());
+        assertEquals(0, executor.getCommittedCount());
+        assertEquals("AA", find().getLastName());
+    }
+
+    // 多个线程同时修改同一行，每次修改都不会丢失
+    @Test
+    public void testConcurrentIncrements() throws InterruptedException {
+        final int threads = 8;
+        final int increments = 25;
+        final OptimisticRetryExecutor executor = new OptimisticRetryExecutor(entityManagerFactory, 100,
+                Backoff.exponential(1, 20, TimeUnit.MILLISECONDS));
+        final AtomicInteger failures = new AtomicInteger();
+        // 保留第一个意外的异常，断言失败时输出
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            threadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < increments; j++) {
+                        try {
+                            executor.execute(new PersistenceWork<Void>() {
+                                @Override
+                                public Void execute(EntityManager entityManager) {
+                                    Customer customer = entityManager.find(Customer.class, customerId);
+                                    customer.setAge(customer.getAge() + 1);
+                                    return null;
+                                }
+                            });
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        threadPool.shutdown();
+        threadPool.awaitTermination(2, TimeUnit.MINUTES);
+
+        System.out.println(executor);
+        assertEquals(String.valueOf(failure.get()), 0, failures.get());
+        Customer customer = find();
+        assertEquals(threads * increments, customer.getAge());
+        assertEquals(Integer.valueOf(threads * increments), customer.getVersion());
+        assertEquals(threads * increments, executor.getCommittedCount());
+        assertEquals(executor.getConflictCount(), executor.getRetryCount());
+        assertEquals(executor.getAttemptCount(), executor.getCommittedCount() + executor.getRetryCount());
+    }
+
+    // 在另一个事务中修改并提交
+    private void concurrentUpdate() {
+        EntityManager other = entityManagerFactory.createEntityManager();
+        other.getTransaction().begin();
+        Customer customer = other.find(Customer.class, customerId);
+        customer.setAge(customer.getAge() + 100);
+        other.getTransaction().commit();
+        other.close();
+    }
+
+    private Customer find() {
+        entityManagerFactory.getCache().evictAll();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.find(Customer.class, customerId);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
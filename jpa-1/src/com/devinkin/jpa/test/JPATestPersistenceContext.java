@@ -0,0 +1,147 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.BoundedPersistenceContext;
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestPersistenceContext {
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("context-test"));
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+    }
+
+    // 插入时上下文中的实体数不超过上限
+    @Test
+    public void testPersist() {
+        BoundedPersistenceContext context = new BoundedPersistenceContext(entityManager, 100);
+        for (int i = 0; i < 1000; i++) {
+            Customer customer = newCustomer(i);
+            context.persist(customer);
+            Order order = new Order();
+            order.setOrderName("O-" + i);
+            order.setCustomer(customer);
+            context.persist(order);
+        }
+        context.commit();
+
+        assertEquals(100, context.getMaxManagedEntityCount());
+        assertEquals(20, context.getClearCount());
+        assertEquals(21, context.getFlushCount());
+        assertEquals(1000L, count("SELECT COUNT(o) FROM Order o"));
+    }
+
+    // 读取并修改的循环在每次迭代结束时调用safePoint，修改都被保存
+    @Test
+    public void testSafePoint() {
+        List<Integer> ids = persistCustomers(500);
+        entityManager.getTransaction().begin();
+        BoundedPersistenceContext context = new BoundedPersistenceContext(entityManager, 50);
+        for (Integer id : ids) {
+            context.find(Customer.class, id).setAge(99);
+            context.safePoint();
+        }
+        context.commit();
+
+        assertEquals(10, context.getClearCount());
+        assertTrue(context.getMaxManagedEntityCount() <= 50);
+        assertEquals(500L, count("SELECT COUNT(c) FROM Customer c WHERE c.age = 99"));
+    }
+
+    // 只读加载的实体没有快照，修改不会被保存
+    @Test
+    public void testReadOnly() {
+        List<Integer> ids = persistCustomers(10);
+        entityManager.getTransaction().begin();
+        BoundedPersistenceContext context = new BoundedPersistenceContext(entityManager, 1000);
+        Customer customer = context.findReadOnly(Customer.class, ids.get(0));
+        assertTrue(HibernateUtils.session(entityManager).isReadOnly(customer));
+        customer.setAge(99);
+
+        List<Customer> customers = context.createReadOnlyQuery("FROM Customer c", Customer.class).getResultList();
+        for (Customer each : customers) {
+            assertTrue(HibernateUtils.session(entityManager).isReadOnly(each));
+            each.setAge(99);
+        }
+        Customer writable = context.find(Customer.class, ids.get(1));
+        assertTrue(HibernateUtils.session(entityManager).isReadOnly(writable));
+        context.commit();
+
+        assertEquals(0L, count("SELECT COUNT(c) FROM Customer c WHERE c.age = 99"));
+        entityManager.getTransaction().begin();
+    }
+
+    // 普通的find加载可以修改
+    @Test
+    public void testWritable() {
+        List<Integer> ids = persistCustomers(1);
+        entityManager.getTransaction().begin();
+        BoundedPersistenceContext context = new BoundedPersistenceContext(entityManager, 1000);
+        Customer customer = context.find(Customer.class, ids.get(0));
+        assertFalse(HibernateUtils.session(entityManager).isReadOnly(customer));
+        customer.setAge(99);
+        context.commit();
+
+        assertEquals(1L, count("SELECT COUNT(c) FROM Customer c WHERE c.age = 99"));
+        entityManager.getTransaction().begin();
+    }
+
+    private List<Integer> persistCustomers(int count) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Customer customer = newCustomer(i);
+            entityManager.persist(customer);
+            ids.add(customer.getId());
+        }
+        entityManager.getTransaction().commit();
+        entityManager.clear();
+        return ids;
+    }
+
+    private long count(String jpql) {
+        EntityManager other = entityManagerFactory.createEntityManager();
+        try {
+            return other.createQuery(jpql, Long.class).getSingleResult();
+        } finally {
+            other.close();
+        }
+    }
+
+    private static Customer newCustomer(int i) {
+        Customer customer = new Customer("C" + i, 20);
+        customer.setEmail("c" + i + "@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        return customer;
+    }
+
+    @After
+    public void destory() {
+        if (entityManager.getTransaction().isActive()) {
+            entityManager.getTransaction().commit();
+        }
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+}
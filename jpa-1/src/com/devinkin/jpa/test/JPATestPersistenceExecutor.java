@@ -0,0 +1,170 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.VirtualThreads;
+import com.devinkin.jpa.concurrent.PersistenceExecutor;
+import com.devinkin.jpa.concurrent.PersistenceWork;
+import com.devinkin.jpa.concurrent.PinningMonitor;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockModeType;
+import javax.persistence.Persistence;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JPATestPersistenceExecutor {
+    private static final int POOL_SIZE = 4;
+
+    private EntityManagerFactory entityManagerFactory;
+    private Integer customerId;
+
+    @Before
+    public void initial() {
+        Map<String, String> properties = EmbeddedDatabase.properties("executor-test");
+        properties.put("hibernate.hikari.maximumPoolSize", String.valueOf(POOL_SIZE));
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = new Customer("devinkin", 12);
+        customer.setEmail("devinkinwork@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        entityManager.persist(customer);
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        customerId = customer.getId();
+    }
+
+    // 线程数远多于连接数，同时访问数据库的请求数不超过许可数，连接池不会出现等待超时
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        PersistenceExecutor executor = PersistenceExecutor.platformThreads(entityManagerFactory, 32);
+        assertEquals(POOL_SIZE, executor.getPermits());
+
+        List<Future<Integer>> results = submitRequests(executor, 500);
+        for (Future<Integer> result : results) {
+            assertNotNull(result.get());
+        }
+        executor.close();
+
+        assertEquals(500, executor.getCompletedCount());
+        assertEquals(0, executor.getFailedCount());
+        assertEquals(0, executor.getActiveCount());
+        assertEquals(0, HikariConnectionProvider.of(entityManagerFactory).getStatistics().getTimeoutCount());
+    }
+
+    // 同时访问数据库的请求数不超过许可数
+    @Test
+    public void testPermitLimit() throws Exception {
+        final PersistenceExecutor executor = PersistenceExecutor.platformThreads(entityManagerFactory, 16);
+        final AtomicInteger maxActive = new AtomicInteger();
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            results.add(executor.submit(new PersistenceWork<Integer>() {
+                @Override
+                public Integer execute(EntityManager entityManager) {
+                    int active = executor.getActiveCount();
+                    if (active > maxActive.get()) {
+                        maxActive.set(active);
+                    }
+                    return entityManager.find(Customer.class, customerId).getAge();
+                }
+            }));
+        }
+        for (Future<Integer> result : results) {
+            result.get();
+        }
+        executor.close();
+
+        assertTrue(maxActive.get() <= POOL_SIZE);
+    }
+
+    // JDK 21 上每个请求一个虚拟线程，更早的JDK上不能创建
+    @Test
+    public void testVirtualThreads() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                PersistenceExecutor.virtualThreads(entityManagerFactory);
+                fail();
+            } catch (UnsupportedOperationException expected) {
+            }
+            return;
+        }
+        PersistenceExecutor executor = PersistenceExecutor.virtualThreads(entityManagerFactory);
+        assertTrue(executor.isVirtualThreads());
+        for (Future<Integer> result : submitRequests(executor, 1000)) {
+            result.get();
+        }
+        executor.close();
+        assertEquals(1000, executor.getCompletedCount());
+    }
+
+    // 没有虚拟线程时监视竞争 synchronized 的事件，验证JFR事件流可用
+    @Test
+    public void testPinningMonitor() throws InterruptedException {
+        PinningMonitor monitor = PinningMonitor.start(PinningMonitor.JAVA_MONITOR_ENTER, Duration.ZERO);
+        assertNotNull(monitor);
+        final Object lock = new Object();
+        Thread contender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        });
+        synchronized (lock) {
+            contender.start();
+            Thread.sleep(100);
+        }
+        contender.join();
+
+        // JFR大约每秒把事件推送给事件流一次
+        for (int i = 0; i < 50 && monitor.getEventCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        monitor.close();
+        assertTrue(monitor.getEventCount() > 0);
+        System.out.println(monitor);
+    }
+
+    // 和 Main.main 相同的请求: find -> 修改 -> commit
+    private List<Future<Integer>> submitRequests(PersistenceExecutor executor, int requests) {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            final int age = i % 80;
+            results.add(executor.submit(new PersistenceWork<Integer>() {
+                @Override
+                public Integer execute(EntityManager entityManager) {
+                    // 所有请求修改同一行，先加行锁，否则并发的修改会因为版本号冲突而失败
+                    Customer customer = entityManager.find(Customer.class, customerId, LockModeType.PESSIMISTIC_WRITE);
+                    customer.setAge(age);
+                    return customer.getId();
+                }
+            }));
+        }
+        return results;
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
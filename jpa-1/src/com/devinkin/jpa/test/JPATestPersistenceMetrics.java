@@ -0,0 +1,220 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.concurrent.PinningMonitor;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import com.devinkin.jpa.stat.LatencySnapshot;
+import com.devinkin.jpa.stat.MetricsSnapshot;
+import com.devinkin.jpa.stat.PersistenceMetrics;
+import com.devinkin.jpa.stat.QueryFingerprint;
+import org.hibernate.ejb.HibernateEntityManagerImplementor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestPersistenceMetrics {
+    private PersistenceMetrics metrics;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void initial() {
+        metrics = new PersistenceMetrics();
+        entityManagerFactory = metrics.instrument(Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("metrics")));
+    }
+
+    @After
+    public void destroy() {
+        entityManagerFactory.close();
+    }
+
+    // 按实体类型和操作统计，包装后仍然可以转换为Hibernate的接口
+    @Test
+    public void testEntityLatency() {
+        Integer id = persist(3);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        assertTrue(entityManager instanceof HibernateEntityManagerImplementor);
+        assertNotNull(HibernateUtils.sessionFactory(entityManagerFactory));
+        Customer customer = entityManager.find(Customer.class, id);
+        entityManager.find(Customer.class, id);
+        assertEquals(3, customer.getOrders().size());
+        entityManager.close();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        System.out.print(snapshot.format());
+        assertEquals(1, snapshot.getEntity("Customer", PersistenceMetrics.Operation.PERSIST).getCount());
+        assertEquals(3, snapshot.getEntity("Order", PersistenceMetrics.Operation.PERSIST).getCount());
+        LatencySnapshot find = snapshot.getEntity("Customer", PersistenceMetrics.Operation.FIND);
+        assertEquals(2, find.getCount());
+        assertTrue(find.getMaxMicros() > 0);
+
+        metrics.reset();
+        assertTrue(metrics.snapshot().getEntities().isEmpty());
+    }
+
+    // 命名查询按名称统计，JPQL和原生SQL按指纹统计，只是常量不同的语句归为一类
+    @Test
+    public void testQueryLatency() {
+        persist(1);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.createNamedQuery("customersOlderThan").setParameter(1, 10).getResultList();
+        entityManager.createQuery("SELECT c FROM Customer c WHERE c.age > 10").getResultList();
+        entityManager.createQuery("SELECT c FROM Customer c  WHERE c.age > 20").getResultList();
+        entityManager.createQuery("SELECT COUNT(o) FROM Order o WHERE o.customer.lastName = 'O''Neil'", Long.class)
+                .getSingleResult();
+        entityManager.createNativeQuery("SELECT COUNT(*) FROM JPA_ORDERS WHERE ID > 5").getSingleResult();
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Customer> criteria = builder.createQuery(Customer.class);
+        criteria.select(criteria.from(Customer.class));
+        List<Customer> customers = entityManager.createQuery(criteria).setMaxResults(10).getResultList();
+        assertEquals(1, customers.size());
+        entityManager.close();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        System.out.print(snapshot.format());
+        assertEquals(1, snapshot.getQuery("customersOlderThan").getCount());
+        assertEquals(2, snapshot.getQuery("SELECT c FROM Customer c WHERE c.age > ?").getCount());
+        assertEquals(1, snapshot.getQuery("SELECT COUNT(o) FROM Order o WHERE o.customer.lastName = ?").getCount());
+        assertEquals(1, snapshot.getQuery("native: SELECT COUNT(*) FROM JPA_ORDERS WHERE ID > ?").getCount());
+        assertEquals(1, snapshot.getQuery("criteria: Customer").getCount());
+    }
+
+    @Test
+    public void testFingerprint() {
+        assertEquals("FROM Customer c WHERE c.id = ?1 AND c.age IN (?, ?) AND c.email LIKE ?",
+                QueryFingerprint.of(" FROM Customer c\n  WHERE c.id = ?1 AND c.age IN (1, 2.5) AND c.email LIKE '%@x'"));
+        assertEquals("SELECT o2 FROM Order o2 WHERE o2.id > :id2", QueryFingerprint.of("SELECT o2 FROM Order o2 WHERE o2.id > :id2"));
+    }
+
+    // 每个事务记录一次 flush 和脏检查的总时间，回滚的事务也记录
+    @Test
+    public void testFlushAndDirtyCheck() {
+        persist(5);
+        metrics.reset();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        List<Customer> customers = entityManager.createQuery("SELECT c FROM Customer c", Customer.class).getResultList();
+        for (Customer customer : customers) {
+            customer.setAge(customer.getAge() + 1);
+        }
+        // 查询之前的 auto flush 也包括在内
+        entityManager.createQuery("SELECT COUNT(o) FROM Order o").getSingleResult();
+        entityManager.getTransaction().commit();
+
+        entityManager.getTransaction().begin();
+        entityManager.find(Customer.class, customers.get(0).getId()).setAge(99);
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        System.out.print(snapshot.format());
+        assertEquals(2, snapshot.getTransactions().getCount());
+        assertEquals(2, snapshot.getFlush().getCount());
+        assertEquals(2, snapshot.getDirtyCheck().getCount());
+        // 提交的事务 flush 了
+        assertTrue(snapshot.getFlush().getMaxMicros() > 0);
+        assertTrue(snapshot.getDirtyCheck().getMaxMicros() > 0);
+        assertTrue(snapshot.getFlush().getMaxMicros() >= snapshot.getDirtyCheck().getMaxMicros());
+        // 回滚的事务没有 flush
+        assertEquals(0, snapshot.getFlush().getHistogram().getMinValue());
+    }
+
+    // 同一个线程上交替使用两个EntityManager，两个事务各自记录，flush 记在自己的事务上
+    @Test
+    public void testInterleavedTransactions() {
+        Integer id = persist(1);
+        metrics.reset();
+
+        EntityManager outer = entityManagerFactory.createEntityManager();
+        outer.getTransaction().begin();
+        outer.find(Customer.class, id).setAge(30);
+
+        EntityManager inner = entityManagerFactory.createEntityManager();
+        inner.getTransaction().begin();
+        // 外层事务的 flush 发生在内层事务进行中
+        outer.flush();
+        inner.createQuery("SELECT c FROM Customer c", Customer.class).getResultList();
+        inner.getTransaction().commit();
+        inner.close();
+
+        outer.find(Customer.class, id).setAge(31);
+        outer.getTransaction().commit();
+        outer.close();
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getTransactions().getCount());
+        assertEquals(2, snapshot.getFlush().getCount());
+        assertEquals(2, snapshot.getDirtyCheck().getCount());
+        // 两个事务提交时都 flush 了，上下文中都有实体
+        assertTrue(snapshot.getFlush().getHistogram().getMinValue() > 0);
+        assertTrue(snapshot.getDirtyCheck().getHistogram().getMinValue() > 0);
+    }
+
+    // 开启JFR记录时输出自定义事件
+    @Test
+    public void testJfrEvents() throws InterruptedException {
+        if (!metrics.isJfrAvailable()) {
+            return;
+        }
+        PinningMonitor operations = PinningMonitor.start(PersistenceMetrics.OPERATION_EVENT, Duration.ZERO);
+        PinningMonitor transactions = PinningMonitor.start(PersistenceMetrics.TRANSACTION_EVENT, Duration.ZERO);
+        try {
+            Integer id = persist(1);
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.find(Customer.class, id);
+            entityManager.close();
+
+            // 事件流每秒刷新一次
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((operations.getEventCount() < 3 || transactions.getEventCount() < 1)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            System.out.println(operations.getLastEvent());
+            System.out.println(transactions.getLastEvent());
+            assertEquals(3, operations.getEventCount());
+            assertEquals(1, transactions.getEventCount());
+            assertTrue(operations.getLastEvent(), operations.getLastEvent().contains("Customer.find"));
+            assertTrue(transactions.getLastEvent(), transactions.getLastEvent().contains("dirtyCheckTime"));
+        } finally {
+            operations.close();
+            transactions.close();
+        }
+    }
+
+    private Integer persist(int orders) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = new Customer("AA", 20);
+        customer.setEmail("aa@163.com");
+        customer.setCreatedTime(new Date());
+        customer.setBirth(new Date());
+        entityManager.persist(customer);
+        for (int i = 0; i < orders; i++) {
+            Order order = new Order();
+            order.setOrderName("O-" + i);
+            order.setCustomer(customer);
+            customer.getOrders().add(order);
+            entityManager.persist(order);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return customer.getId();
+    }
+}
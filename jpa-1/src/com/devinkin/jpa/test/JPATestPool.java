@@ -0,0 +1,234 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import com.devinkin.jpa.pool.PoolStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Persistence;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestPool {
+    private static final int POOL_SIZE = 4;
+
+    private EntityManagerFactory entityManagerFactory;
+    private HikariConnectionProvider pool;
+
+    @Before
+    public void initial() {
+        Map<String, String> properties = EmbeddedDatabase.properties("pool-test");
+        properties.put("hibernate.hikari.minimumIdle", "1");
+        properties.put("hibernate.hikari.maximumPoolSize", String.valueOf(POOL_SIZE));
+        properties.put("hibernate.hikari.connectionTimeout", "10000");
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        pool = HikariConnectionProvider.of(entityManagerFactory);
+    }
+
+    // 事务开始时借出连接，结束后归还
+    @Test
+    public void testActiveConnection() {
+        pool.resetStatistics();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        assertEquals(1, pool.getStatistics().getActiveConnections());
+
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        PoolStatistics statistics = pool.getStatistics();
+        assertEquals(0, statistics.getActiveConnections());
+        assertEquals(1, statistics.getAcquisitionCount());
+        assertTrue(statistics.getTotalConnections() <= POOL_SIZE);
+    }
+
+    // 连接在其他线程中归还后，取出它的线程不再被当作持有连接，不会从备用连接池获取连接
+    @Test
+    public void testCloseOnAnotherThread() throws Exception {
+        pool.resetStatistics();
+        final Connection connection = pool.getConnection();
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.closeConnection(connection);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        closer.start();
+        closer.join();
+
+        // 其他线程各取出一个连接，占用主连接池的所有连接，一段时间后归还一个
+        final List<Connection> busy = Collections.synchronizedList(new ArrayList<Connection>());
+        for (int i = 0; i < POOL_SIZE; i++) {
+            Thread borrower = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        busy.add(pool.getConnection());
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            borrower.start();
+            borrower.join();
+        }
+        assertEquals(0, pool.getStatistics().getNestedAcquisitionCount());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Thread.sleep(200);
+                pool.closeConnection(busy.remove(0));
+                return null;
+            }
+        });
+        executor.shutdown();
+        Connection next = pool.getConnection();
+        assertEquals(0, pool.getStatistics().getNestedAcquisitionCount());
+        pool.closeConnection(next);
+        for (Connection held : busy) {
+            pool.closeConnection(held);
+        }
+        assertEquals(0, pool.getStatistics().getActiveConnections());
+    }
+
+    // 线程数远多于连接数时执行JPATest中的操作，连接池饱和，获取连接需要等待
+    @Test
+    public void testConcurrentOperations() throws InterruptedException {
+        final int threads = 32;
+        final int operations = 100;
+        final AtomicInteger failures = new AtomicInteger();
+        // 保留第一个意外的异常，断言失败时输出
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final AtomicInteger conflicts = new AtomicInteger();
+        final AtomicInteger maxAwaiting = new AtomicInteger();
+        pool.resetStatistics();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < operations; j++) {
+                        try {
+                            runOperation(j);
+                        } catch (RuntimeException e) {
+                            // 两个线程同时修改同一个Customer时，后提交的因为版本号不一致而失败(提交时被包装在RollbackException中)
+                            if (e instanceof OptimisticLockException || e.getCause() instanceof OptimisticLockException) {
+                                conflicts.incrementAndGet();
+                            } else {
+                                failure.compareAndSet(null, e);
+                                failures.incrementAndGet();
+                            }
+                        }
+                        int awaiting = pool.getStatistics().getThreadsAwaitingConnection();
+                        if (awaiting > maxAwaiting.get()) {
+                            maxAwaiting.set(awaiting);
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(2, TimeUnit.MINUTES);
+
+        PoolStatistics statistics = pool.getStatistics();
+        System.out.println(statistics);
+        System.out.println("max threads awaiting connection: " + maxAwaiting.get());
+        System.out.println("optimistic lock conflicts: " + conflicts.get());
+        assertEquals(String.valueOf(failure.get()), 0, failures.get());
+        assertEquals(0, statistics.getTimeoutCount());
+        assertEquals(0, statistics.getActiveConnections());
+        assertTrue(statistics.getAcquisitionCount() >= threads * operations);
+        assertTrue(statistics.getTotalConnections() <= POOL_SIZE + 2);
+        assertTrue(maxAwaiting.get() > 0);
+        assertTrue(statistics.getP99AcquisitionMillis() > 0);
+    }
+
+    private void runOperation(int operation) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        try {
+            Integer id = entityManager.createQuery("SELECT MAX(c.id) FROM Customer c", Integer.class)
+                    .getSingleResult();
+            switch (operation % 4) {
+                // testPersistence
+                case 0:
+                    Customer customer = new Customer();
+                    customer.setAge(15);
+                    customer.setBirth(new Date());
+                    customer.setCreatedTime(new Date());
+                    customer.setEmail("devinkin@163.com");
+                    customer.setLastName("lala");
+                    entityManager.persist(customer);
+                    break;
+                // testFind、testFlush
+                case 1:
+                    if (id != null) {
+                        Customer found = entityManager.find(Customer.class, ThreadLocalRandom.current().nextInt(id) + 1);
+                        if (found != null) {
+                            found.setEmail("aa@163.com");
+                            entityManager.flush();
+                        }
+                    }
+                    break;
+                // testMerge1
+                case 2:
+                    Customer merged = new Customer();
+                    merged.setAge(18);
+                    merged.setBirth(new Date());
+                    merged.setCreatedTime(new Date());
+                    merged.setEmail("cc@163.com");
+                    merged.setLastName("CC");
+                    entityManager.merge(merged);
+                    break;
+                // testRefresh
+                default:
+                    if (id != null) {
+                        Customer refreshed = entityManager.find(Customer.class, id);
+                        if (refreshed != null) {
+                            entityManager.refresh(refreshed);
+                        }
+                    }
+                    break;
+            }
+            entityManager.getTransaction().commit();
+        } catch (RuntimeException e) {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.projection.CustomerSummary;
+import com.devinkin.jpa.projection.Projection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JPATestProjection {
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private EntityTransaction transaction;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("projection-test"));
+        entityManager = entityManagerFactory.createEntityManager();
+        transaction = entityManager.getTransaction();
+        transaction.begin();
+        for (int i = 0; i < 10; i++) {
+            Customer customer = new Customer();
+            customer.setLastName("C" + i);
+            customer.setEmail("c" + i + "@devinkin.com");
+            customer.setAge(i * 10);
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    // 和 testPartlyProperties 一样的查询，结果是DTO而不是Customer，也不进入EntityManager
+    @Test
+    public void testJpqlProjection() {
+        List<CustomerSummary> summaries = Projection.of(CustomerSummary.class).list(entityManager
+                .createQuery("SELECT c.lastName, c.age FROM Customer c WHERE c.age > ? ORDER BY c.age")
+                .setParameter(1, 60));
+        assertEquals(3, summaries.size());
+        assertEquals(new CustomerSummary("C7", 70), summaries.get(0));
+        assertEquals(0, HibernateUtils.session(entityManager).getStatistics().getEntityCount());
+    }
+
+    // 原生SQL返回BIGINT时转换为int参数
+    @Test
+    public void testNativeProjection() {
+        List<CustomerSummary> summaries = Projection.of(CustomerSummary.class).list(entityManager
+                .createNativeQuery("SELECT LAST_NAME, CAST(AGE AS BIGINT) FROM JPA_CUSTOMERS WHERE AGE < ? ORDER BY AGE")
+                .setParameter(1, 20));
+        assertEquals(2, summaries.size());
+        assertEquals(new CustomerSummary("C1", 10), summaries.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnCountMismatch() {
+        Projection.of(CustomerSummary.class).list(entityManager.createQuery("SELECT c.lastName FROM Customer c"));
+    }
+
+    // Customer有多个public构造器，不能作为投影的类型
+    @Test(expected = IllegalArgumentException.class)
+    public void testAmbiguousConstructor() {
+        Projection.of(Customer.class);
+    }
+
+    @After
+    public void destory() {
+        transaction.commit();
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,168 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.cache.BoundedQueryCache;
+import com.devinkin.jpa.cache.BoundedQueryCacheFactory;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.helloworld.Order;
+import net.sf.ehcache.Ehcache;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheDataRegion;
+import org.hibernate.ejb.QueryHints;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestQueryCache {
+    private EntityManagerFactory entityManagerFactory;
+    private SessionFactoryImplementor sessionFactory;
+    private Integer customerId;
+
+    @Before
+    public void initial() {
+        Map<String, String> properties = EmbeddedDatabase.properties("querycache-test");
+        properties.put(BoundedQueryCacheFactory.MAX_ROWS + ".query.customersOlderThan", "5");
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        sessionFactory = HibernateUtils.sessionFactory(entityManagerFactory);
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int age = 10; age <= 60; age += 10) {
+            Customer customer = new Customer();
+            customer.setLastName("C" + age);
+            customer.setEmail("c" + age + "@devinkin.com");
+            customer.setAge(age);
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+            customerId = customer.getId();
+
+            Order order = new Order();
+            order.setOrderName("O" + age);
+            order.setCustomer(customer);
+            entityManager.persist(order);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    // 命名查询的结果被缓存，第二次执行不会访问数据库
+    @Test
+    public void testNamedQueryCached() {
+        Statistics statistics = sessionFactory.getStatistics();
+        findById(customerId);
+        statistics.clear();
+        findById(customerId);
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+    }
+
+    // executeUpdate 修改 JPA_CUSTOMERS 只清除依赖它的查询缓存区域
+    @Test
+    public void testExecuteUpdateEvictsAffectedRegions() {
+        findById(customerId);
+        olderThan(30);
+        ordersNamed("O10");
+
+        BoundedQueryCache customerCache = queryCache("query.testNamedQuery");
+        BoundedQueryCache orderCache = queryCache("query.orders");
+        assertEquals(1, customerCache.getRegion().getElementCountInMemory());
+        assertEquals(1, orderCache.getRegion().getElementCountInMemory());
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.createQuery("UPDATE Customer c SET c.lastName = ? WHERE c.id = ?")
+                .setParameter(1, "YYY")
+                .setParameter(2, customerId)
+                .executeUpdate();
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        assertEquals(0, customerCache.getRegion().getElementCountInMemory());
+        assertEquals(0, queryCache("query.customersOlderThan").getRegion().getElementCountInMemory());
+        assertEquals(1, orderCache.getRegion().getElementCountInMemory());
+        assertEquals(0, orderCache.getInvalidationCount());
+    }
+
+    // 区域按结果的行数限制大小，超出后淘汰最久未使用的结果
+    @Test
+    public void testRowBudget() {
+        assertEquals(2, olderThan(40));
+        assertEquals(3, olderThan(30));
+        BoundedQueryCache cache = queryCache("query.customersOlderThan");
+        assertEquals(5, cache.getRows());
+
+        assertEquals(4, olderThan(20));
+        assertTrue(cache.getRows() <= cache.getMaxRows());
+        assertEquals(2, cache.getEvictionCount());
+
+        // 超过整个区域大小的结果不缓存
+        assertEquals(6, olderThan(0));
+        assertEquals(4, cache.getRows());
+    }
+
+    // ehcache按 maxElementsInMemory 淘汰的结果不再占用行数，也不再记录依赖的表
+    @Test
+    public void testEhcacheEvictionReleasesRows() {
+        BoundedQueryCache cache = queryCache("query.customersOlderThan");
+        Ehcache ehcache = ((EhcacheDataRegion) cache.getRegion()).getEhcache();
+        ehcache.getCacheConfiguration().setMaxElementsInMemory(1);
+
+        assertEquals(1, olderThan(50));
+        assertEquals(1, cache.getRows());
+        assertEquals(1, cache.getSpaceCount());
+        assertEquals(2, olderThan(40));
+        assertEquals(1, ehcache.getSize());
+        assertEquals(2, cache.getRows());
+        assertEquals(0, cache.getEvictionCount());
+
+        ehcache.removeAll();
+        assertEquals(0, cache.getRows());
+        assertEquals(0, cache.getSpaceCount());
+    }
+
+    private void findById(Integer id) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.createNamedQuery("testNamedQuery").setParameter(1, id).getSingleResult();
+        entityManager.close();
+    }
+
+    private int olderThan(int age) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<?> customers = entityManager.createNamedQuery("customersOlderThan").setParameter(1, age).getResultList();
+        entityManager.close();
+        return customers.size();
+    }
+
+    private int ordersNamed(String orderName) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<?> orders = entityManager.createQuery("FROM Order o WHERE o.orderName = ?")
+                .setParameter(1, orderName)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
+                .setHint(QueryHints.HINT_CACHE_REGION, "query.orders")
+                .getResultList();
+        entityManager.close();
+        return orders.size();
+    }
+
+    private BoundedQueryCache queryCache(String regionName) {
+        return (BoundedQueryCache) sessionFactory.getQueryCache(regionName);
+    }
+
+    @After
+    public void destory() {
+        entityManagerFactory.close();
+    }
+}
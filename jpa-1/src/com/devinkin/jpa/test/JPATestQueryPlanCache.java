@@ -0,0 +1,221 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.query.NormalizingQueryPlanCache;
+import com.devinkin.jpa.stat.QueryFingerprint;
+import org.hibernate.ejb.HibernatePersistence;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.SharedCacheMode;
+import javax.persistence.ValidationMode;
+import javax.persistence.spi.ClassTransformer;
+import javax.persistence.spi.PersistenceUnitInfo;
+import javax.persistence.spi.PersistenceUnitTransactionType;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JPATestQueryPlanCache {
+    private EntityManagerFactory entityManagerFactory;
+
+    @After
+    public void destroy() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    // 只是空白不同的语句共用一个计划，字符串常量中的空白不变
+    @Test
+    public void testNormalizedPlans() {
+        Map<String, String> properties = EmbeddedDatabase.properties("plan-cache");
+        properties.put("hibernate.query.plan_cache_max_size", "512");
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        NormalizingQueryPlanCache cache = NormalizingQueryPlanCache.of(entityManagerFactory);
+        assertEquals(512, cache.getMaxSize());
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.createQuery("SELECT c FROM Customer c WHERE c.age > :age").setParameter("age", 10).getResultList();
+        entityManager.createQuery("SELECT c\n  FROM Customer c\n WHERE c.age > :age ").setParameter("age", 20).getResultList();
+        entityManager.createQuery("SELECT c FROM Customer c WHERE c.lastName = 'A  B'").getResultList();
+        entityManager.createQuery("SELECT c FROM Customer c WHERE c.lastName = 'A B'").getResultList();
+        entityManager.close();
+
+        System.out.println(cache);
+        assertEquals(3, cache.getMissCount() - misses);
+        // 创建查询和执行查询各查找一次
+        assertEquals(5, cache.getHitCount() - hits);
+        assertTrue(cache.getHitRate() > 0);
+    }
+
+    // 命名查询在启动时已经编译，第一次执行时命中
+    @Test
+    public void testNamedQueriesPrecompiled() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties("plan-named"));
+        NormalizingQueryPlanCache cache = NormalizingQueryPlanCache.of(entityManagerFactory);
+        assertEquals(2, cache.getPrecompiledCount());
+        long misses = cache.getMissCount();
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.createNamedQuery("testNamedQuery").setParameter(1, 1).getResultList();
+        entityManager.createNamedQuery("customersOlderThan").setParameter(1, 10).getResultList();
+        entityManager.close();
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    // 有错误的命名查询使 EntityManagerFactory 创建失败
+    @Test
+    public void testInvalidNamedQuery() throws IOException {
+        // 测试用的持久化单元只有一个映射文件，其中只有一个有错误的命名查询
+        Path directory = Files.createTempDirectory("jpa-invalid-query");
+        Path mappingFile = directory.resolve("invalid-named-query.xml");
+        Files.write(mappingFile, Arrays.asList(
+                "<entity-mappings xmlns=\"http://java.sun.com/xml/ns/persistence/orm\" version=\"2.0\">",
+                "    <named-query name=\"broken\"><query>FROM NoSuchEntity e</query></named-query>",
+                "</entity-mappings>"), StandardCharsets.UTF_8);
+        Map<String, String> properties = EmbeddedDatabase.properties("plan-invalid");
+        // 和 jpa-1 一样由 QueryPlanIntegrator 检查命名查询
+        properties.put("hibernate.query.startup_check", "false");
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{directory.toUri().toURL()},
+                JPATestQueryPlanCache.class.getClassLoader());
+        try {
+            new HibernatePersistence().createContainerEntityManagerFactory(
+                    new TestPersistenceUnit(classLoader, mappingFile.getFileName().toString()), properties).close();
+            fail();
+        } catch (RuntimeException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertTrue(cause.getMessage(), cause.getMessage().contains("Errors in named queries: {broken="));
+        } finally {
+            classLoader.close();
+            Files.delete(mappingFile);
+            Files.delete(directory);
+        }
+    }
+
+    // 只包含一个映射文件的持久化单元，映射文件从 classLoader 中加载
+    private static class TestPersistenceUnit implements PersistenceUnitInfo {
+        private final ClassLoader classLoader;
+        private final String mappingFile;
+
+        private TestPersistenceUnit(ClassLoader classLoader, String mappingFile) {
+            this.classLoader = classLoader;
+            this.mappingFile = mappingFile;
+        }
+
+        @Override
+        public String getPersistenceUnitName() {
+            return "jpa-1-test";
+        }
+
+        @Override
+        public String getPersistenceProviderClassName() {
+            return HibernatePersistence.class.getName();
+        }
+
+        @Override
+        public PersistenceUnitTransactionType getTransactionType() {
+            return PersistenceUnitTransactionType.RESOURCE_LOCAL;
+        }
+
+        @Override
+        public DataSource getJtaDataSource() {
+            return null;
+        }
+
+        @Override
+        public DataSource getNonJtaDataSource() {
+            return null;
+        }
+
+        @Override
+        public List<String> getMappingFileNames() {
+            return Collections.singletonList(mappingFile);
+        }
+
+        @Override
+        public List<URL> getJarFileUrls() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public URL getPersistenceUnitRootUrl() {
+            return null;
+        }
+
+        @Override
+        public List<String> getManagedClassNames() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean excludeUnlistedClasses() {
+            return true;
+        }
+
+        @Override
+        public SharedCacheMode getSharedCacheMode() {
+            return SharedCacheMode.UNSPECIFIED;
+        }
+
+        @Override
+        public ValidationMode getValidationMode() {
+            return ValidationMode.AUTO;
+        }
+
+        @Override
+        public Properties getProperties() {
+            return new Properties();
+        }
+
+        @Override
+        public String getPersistenceXMLSchemaVersion() {
+            return "2.0";
+        }
+
+        @Override
+        public ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        @Override
+        public void addTransformer(ClassTransformer transformer) {
+        }
+
+        @Override
+        public ClassLoader getNewTempClassLoader() {
+            return null;
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        String normalized = "SELECT c FROM Customer c WHERE c.lastName = ' A  B '";
+        assertSame(normalized, QueryFingerprint.normalize(normalized));
+        assertEquals(normalized, QueryFingerprint.normalize("  SELECT c\n\tFROM Customer c  WHERE c.lastName = ' A  B '\n"));
+        assertEquals("FROM Customer c WHERE c.lastName = 'O''Neil  X' AND c.age > 1",
+                QueryFingerprint.normalize("FROM Customer c WHERE c.lastName = 'O''Neil  X'  AND c.age > 1"));
+    }
+}
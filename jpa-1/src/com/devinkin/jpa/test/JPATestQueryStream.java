@@ -0,0 +1,139 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.HibernateUtils;
+import com.devinkin.jpa.QueryStreams;
+import com.devinkin.jpa.helloworld.Customer;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestQueryStream {
+    private static final int CUSTOMERS = 1000;
+
+    private EntityManagerFactory entityManagerFactory;
+    private EntityManager entityManager;
+    private EntityTransaction transaction;
+
+    @Before
+    public void initial() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.properties("querystream-test"));
+        entityManager = entityManagerFactory.createEntityManager();
+        transaction = entityManager.getTransaction();
+        transaction.begin();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            Customer customer = new Customer();
+            customer.setLastName("C" + i);
+            customer.setEmail("c" + i + "@devinkin.com");
+            customer.setAge(i % 100);
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    // 遍历全部结果时EntityManager中最多只有当前这一个实体
+    @Test
+    public void testStreamEvictsConsumedEntities() {
+        final Session session = HibernateUtils.session(entityManager);
+        int count = 0;
+        try (Stream<Customer> customers = QueryStreams.stream(entityManager,
+                entityManager.createQuery("FROM Customer c ORDER BY c.id"), 100)) {
+            Iterator<Customer> iterator = customers.iterator();
+            while (iterator.hasNext()) {
+                Customer customer = iterator.next();
+                assertTrue(entityManager.contains(customer));
+                assertTrue(session.getStatistics().getEntityCount() <= 1);
+                count++;
+            }
+        }
+        assertEquals(CUSTOMERS, count);
+        assertEquals(0, session.getStatistics().getEntityCount());
+    }
+
+    // 遍历前已经托管并且修改过的实体不会被清除，修改在flush时写入数据库
+    @Test
+    public void testStreamKeepsManagedEntities() {
+        Customer modified = entityManager.createQuery("FROM Customer c WHERE c.lastName = 'C10'", Customer.class)
+                .getSingleResult();
+        modified.setEmail("modified@devinkin.com");
+        int count = 0;
+        try (Stream<Customer> customers = QueryStreams.stream(entityManager,
+                entityManager.createQuery("FROM Customer c ORDER BY c.id"), 100)) {
+            Iterator<Customer> iterator = customers.iterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        assertEquals(CUSTOMERS, count);
+        assertTrue(entityManager.contains(modified));
+        assertEquals(1, HibernateUtils.session(entityManager).getStatistics().getEntityCount());
+
+        entityManager.flush();
+        entityManager.clear();
+        assertEquals(1L, (long) entityManager.createQuery(
+                "SELECT COUNT(c) FROM Customer c WHERE c.email = 'modified@devinkin.com'", Long.class)
+                .getSingleResult());
+    }
+
+    @Test
+    public void testStreamScalarsAndTuples() {
+        try (Stream<String> emails = QueryStreams.stream(entityManager,
+                entityManager.createQuery("SELECT upper(c.email) FROM Customer c"), 100)) {
+            Iterator<String> iterator = emails.iterator();
+            int count = 0;
+            while (iterator.hasNext()) {
+                assertTrue(iterator.next().endsWith("@DEVINKIN.COM"));
+                count++;
+            }
+            assertEquals(CUSTOMERS, count);
+        }
+        try (Stream<Object[]> rows = QueryStreams.stream(entityManager,
+                entityManager.createQuery("SELECT c, c.age FROM Customer c WHERE c.age > ?").setParameter(1, 89), 3)) {
+            Iterator<Object[]> iterator = rows.iterator();
+            int count = 0;
+            while (iterator.hasNext()) {
+                Object[] row = iterator.next();
+                assertEquals(((Customer) row[0]).getAge(), row[1]);
+                count++;
+            }
+            assertEquals(100, count);
+        }
+    }
+
+    // 中途关闭后不能再读取
+    @Test
+    public void testCloseEarly() {
+        QueryStreams.ResultIterator<Customer> iterator = QueryStreams.iterate(entityManager,
+                entityManager.createQuery("FROM Customer c"), 10);
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        assertEquals(0, HibernateUtils.session(entityManager).getStatistics().getEntityCount());
+    }
+
+    @After
+    public void destory() {
+        transaction.commit();
+        entityManager.close();
+        entityManagerFactory.close();
+    }
+}
@@ -0,0 +1,268 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.pool.DataSourceStatistics;
+import com.devinkin.jpa.pool.RoutingConnectionProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 主库和两个只读副本是三个内嵌数据库，各有一个lastName不同的Customer作为标记，
+ * 查询读到的标记说明语句在哪个数据库执行。副本之间没有复制，主库写入的数据在副本上读不到。
+ * 读写分离要求关闭二级缓存和查询缓存，见 testSecondLevelCacheRejected。
+ */
+public class JPATestReadWriteRouting {
+    private static final String[] REPLICAS = {"routing-replica-1", "routing-replica-2"};
+    private static final int READ_YOUR_WRITES_MS = 200;
+
+    private EntityManagerFactory entityManagerFactory;
+    private RoutingConnectionProvider provider;
+
+    @Before
+    public void initial() throws InterruptedException {
+        // 只读副本的表结构和标记
+        for (String replica : REPLICAS) {
+            Map<String, String> properties = EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties(replica));
+            properties.put("hibernate.hbm2ddl.auto", "create");
+            EntityManagerFactory replicaFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+            insert(replicaFactory, replica);
+            replicaFactory.close();
+        }
+    }
+
+    private void open(String balance) throws InterruptedException {
+        Map<String, String> properties = EmbeddedDatabase.disableSecondLevelCache(EmbeddedDatabase.properties("routing-primary"));
+        properties.put(RoutingConnectionProvider.REPLICAS,
+                EmbeddedDatabase.url(REPLICAS[0]) + "," + EmbeddedDatabase.url(REPLICAS[1]));
+        properties.put(RoutingConnectionProvider.BALANCE, balance);
+        properties.put(RoutingConnectionProvider.READ_YOUR_WRITES_MS, String.valueOf(READ_YOUR_WRITES_MS));
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", properties);
+        provider = RoutingConnectionProvider.of(entityManagerFactory);
+        insert(entityManagerFactory, "routing-primary");
+        // 等写入后的读主库时间过去
+        Thread.sleep(READ_YOUR_WRITES_MS + 50);
+        provider.resetRoutingStatistics();
+    }
+
+    // 开启二级缓存时不能配置只读副本: 副本上读到的旧数据会进入共享的缓存
+    @Test
+    public void testSecondLevelCacheRejected() {
+        Map<String, String> properties = EmbeddedDatabase.properties("routing-primary");
+        properties.put(RoutingConnectionProvider.REPLICAS, EmbeddedDatabase.url(REPLICAS[0]));
+        try {
+            Persistence.createEntityManagerFactory("jpa-1", properties).close();
+            fail("routing with second-level cache");
+        } catch (PersistenceException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertTrue(cause.getMessage(), cause.getMessage().contains("second-level cache"));
+        }
+
+        // 只关闭二级缓存，查询缓存仍然开启
+        properties.put("hibernate.cache.use_second_level_cache", "false");
+        properties.put("hibernate.cache.use_query_cache", "true");
+        try {
+            Persistence.createEntityManagerFactory("jpa-1", properties).close();
+            fail("routing with query cache");
+        } catch (PersistenceException e) {
+            // 预期的异常
+        }
+    }
+
+    // 只读事务轮流在两个副本上执行
+    @Test
+    public void testReadOnlyTransactionRoundRobin() throws Exception {
+        open("round_robin");
+        String first = readOnlyMarker();
+        String second = readOnlyMarker();
+        assertTrue(first.startsWith("routing-replica-"));
+        assertTrue(second.startsWith("routing-replica-"));
+        assertNotEquals(first, second);
+        assertEquals(first, readOnlyMarker());
+        assertEquals(second, readOnlyMarker());
+
+        List<DataSourceStatistics> statistics = provider.getRoutingStatistics();
+        assertEquals(3, statistics.size());
+        assertEquals(0, statistics.get(0).getConnections());
+        assertEquals(2, statistics.get(1).getReads());
+        assertEquals(2, statistics.get(2).getReads());
+        assertEquals(0, statistics.get(1).getWrites() + statistics.get(2).getWrites());
+        assertTrue(statistics.get(1).getStatementsPerSecond() > 0);
+        assertEquals(0, statistics.get(1).getActiveConnections());
+    }
+
+    // 读写事务和事务中的读操作都在主库执行
+    @Test
+    public void testWritesGoToPrimary() throws Exception {
+        open("round_robin");
+        insert(entityManagerFactory, "written");
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        assertEquals(2, markers(entityManager).size());
+        entityManager.getTransaction().commit();
+        entityManager.close();
+
+        DataSourceStatistics primary = provider.getRoutingStatistics().get(0);
+        assertTrue(primary.getWrites() > 0);
+        assertTrue(primary.getReads() > 0);
+        assertEquals(0, provider.getRoutingStatistics().get(1).getConnections());
+        assertEquals(0, provider.getRoutingStatistics().get(2).getConnections());
+    }
+
+    // 事务之外的读操作在副本上执行；写入后的一段时间内在主库执行，读到自己写入的数据
+    @Test
+    public void testReadYourWrites() throws Exception {
+        open("round_robin");
+        assertTrue(marker().startsWith("routing-replica-"));
+
+        insert(entityManagerFactory, "written");
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        assertEquals(2, markers(entityManager).size());
+        entityManager.close();
+        // 只读事务也在主库执行
+        RoutingConnectionProvider.Scope scope = RoutingConnectionProvider.readOnly();
+        try {
+            entityManager = entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            assertEquals(2, markers(entityManager).size());
+            entityManager.getTransaction().commit();
+            entityManager.close();
+        } finally {
+            scope.close();
+        }
+
+        Thread.sleep(READ_YOUR_WRITES_MS + 50);
+        assertTrue(marker().startsWith("routing-replica-"));
+    }
+
+    // primary() 范围内的读操作都在主库执行
+    @Test
+    public void testPrimaryScope() throws Exception {
+        open("round_robin");
+        RoutingConnectionProvider.Scope scope = RoutingConnectionProvider.primary();
+        try {
+            assertEquals("routing-primary", marker());
+        } finally {
+            scope.close();
+        }
+        assertTrue(marker().startsWith("routing-replica-"));
+    }
+
+    // 只读事务中的写操作失败，不会写到副本上
+    @Test
+    public void testWriteInReadOnlyTransaction() throws Exception {
+        open("round_robin");
+        RoutingConnectionProvider.Scope scope = RoutingConnectionProvider.readOnly();
+        try {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            try {
+                markers(entityManager);
+                entityManager.persist(customer("written"));
+                entityManager.flush();
+                fail("write in read-only transaction");
+            } catch (PersistenceException e) {
+                // 预期的异常
+            } finally {
+                entityManager.getTransaction().rollback();
+                entityManager.close();
+            }
+        } finally {
+            scope.close();
+        }
+        for (DataSourceStatistics statistics : provider.getRoutingStatistics().subList(1, 3)) {
+            assertEquals(0, statistics.getActiveConnections());
+        }
+    }
+
+    // least_loaded: 一个副本的连接被占用时，使用另一个副本
+    @Test
+    public void testLeastLoaded() throws Exception {
+        open("least_loaded");
+        RoutingConnectionProvider.Scope scope = RoutingConnectionProvider.readOnly();
+        try {
+            EntityManager busy = entityManagerFactory.createEntityManager();
+            busy.getTransaction().begin();
+            String busyMarker = markers(busy).get(0);
+            for (int i = 0; i < 3; i++) {
+                String marker = readOnlyMarker();
+                assertTrue(marker.startsWith("routing-replica-"));
+                assertNotEquals(busyMarker, marker);
+            }
+            busy.getTransaction().commit();
+            busy.close();
+        } finally {
+            scope.close();
+        }
+    }
+
+    private String readOnlyMarker() {
+        RoutingConnectionProvider.Scope scope = RoutingConnectionProvider.readOnly();
+        try {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.getTransaction().begin();
+            List<String> markers = markers(entityManager);
+            entityManager.getTransaction().commit();
+            entityManager.close();
+            assertEquals(1, markers.size());
+            return markers.get(0);
+        } finally {
+            scope.close();
+        }
+    }
+
+    // 事务之外的查询
+    private String marker() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        List<String> markers = markers(entityManager);
+        entityManager.close();
+        assertEquals(1, markers.size());
+        return markers.get(0);
+    }
+
+    private static List<String> markers(EntityManager entityManager) {
+        return entityManager.createQuery("SELECT c.lastName FROM Customer c ORDER BY c.id", String.class)
+                .getResultList();
+    }
+
+    private static void insert(EntityManagerFactory factory, String marker) {
+        EntityManager entityManager = factory.createEntityManager();
+        entityManager.getTransaction().begin();
+        entityManager.persist(customer(marker));
+        entityManager.getTransaction().commit();
+        entityManager.close();
+    }
+
+    private static Customer customer(String marker) {
+        Customer customer = new Customer(marker, 20);
+        customer.setEmail(marker + "@163.com");
+        customer.setBirth(new Date());
+        customer.setCreatedTime(new Date());
+        return customer;
+    }
+
+    @After
+    public void destory() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+}
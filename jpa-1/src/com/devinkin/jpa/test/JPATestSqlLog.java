@@ -0,0 +1,245 @@
+package com.devinkin.jpa.test;
+
+import com.devinkin.jpa.EmbeddedDatabase;
+import com.devinkin.jpa.helloworld.Customer;
+import com.devinkin.jpa.log.SqlLog;
+import com.devinkin.jpa.log.SqlLogEvent;
+import com.devinkin.jpa.log.SqlLogSink;
+import com.devinkin.jpa.pool.HikariConnectionProvider;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JPATestSqlLog {
+    private EntityManagerFactory entityManagerFactory;
+
+    @After
+    public void destroy() {
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+        }
+    }
+
+    // 默认不开启，连接不被包装
+    @Test
+    public void testDisabled() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1", EmbeddedDatabase.properties("sqllog-off"));
+        assertNull(HikariConnectionProvider.of(entityManagerFactory).getSqlLog());
+    }
+
+    // 采样率为1时记录所有语句，JDBC批量执行的语句也只记录一次
+    @Test
+    public void testSampleAll() throws InterruptedException {
+        Map<String, String> properties = EmbeddedDatabase.properties("sqllog-all");
+        properties.put(SqlLog.SAMPLE_RATE, "1");
+        SqlLog log = open(properties);
+        CollectingSink sink = new CollectingSink();
+        log.setSink(sink);
+        // 不包括启动时执行的建表语句
+        long executed = log.getExecutedCount();
+
+        Integer id = persist(10);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.find(Customer.class, id);
+        entityManager.close();
+
+        assertTrue(log.awaitDrained(5, TimeUnit.SECONDS));
+        System.out.println(log);
+        assertEquals(log.getExecutedCount(), log.getSampledCount());
+        assertEquals(0, log.getSlowCount());
+        assertEquals(0, log.getDroppedCount());
+        assertEquals(log.getExecutedCount() - executed, sink.events.size());
+
+        SqlLogEvent insert = sink.find("insert into JPA_CUSTOMERS");
+        assertEquals(10, insert.getBatchSize());
+        // 最后一组参数
+        assertTrue(Arrays.toString(insert.getParameters()), Arrays.asList(insert.getParameters()).contains("C9"));
+        SqlLogEvent select = sink.find("select");
+        assertEquals(0, select.getBatchSize());
+        assertTrue(select.getElapsedNanos() > 0);
+        assertEquals(Thread.currentThread().getName(), select.getThreadName());
+    }
+
+    // 按语句类型采样，慢查询总是记录
+    @Test
+    public void testSlowAndPerKindRate() throws InterruptedException {
+        Map<String, String> properties = EmbeddedDatabase.properties("sqllog-slow");
+        properties.put(SqlLog.SAMPLE_RATE, "0");
+        properties.put(SqlLog.SAMPLE_RATE + ".insert", "1");
+        SqlLog log = open(properties);
+        assertEquals(1.0, log.getSampleRate(SqlLog.Kind.INSERT), 0);
+        assertEquals(0.0, log.getSampleRate(SqlLog.Kind.SELECT), 0);
+        CollectingSink sink = new CollectingSink();
+        log.setSink(sink);
+
+        Integer id = persist(1);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.find(Customer.class, id);
+        entityManager.close();
+        assertTrue(log.awaitDrained(5, TimeUnit.SECONDS));
+        assertTrue(sink.find("insert into JPA_CUSTOMERS") != null);
+        assertNull(sink.find("select"));
+        entityManagerFactory.close();
+
+        // 阈值为0时所有语句都是慢查询
+        properties.put(SqlLog.SLOW_THRESHOLD_MS, "0");
+        properties.put(SqlLog.SAMPLE_RATE + ".insert", "0");
+        log = open(properties);
+        sink = new CollectingSink();
+        log.setSink(sink);
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.createQuery("SELECT c FROM Customer c WHERE c.age > :age").setParameter("age", 42).getResultList();
+        entityManager.close();
+        assertTrue(log.awaitDrained(5, TimeUnit.SECONDS));
+        SqlLogEvent select = sink.find("select");
+        assertTrue(select.isSlow());
+        assertEquals(Arrays.<Object>asList(42), Arrays.asList(select.getParameters()));
+        assertEquals(0, log.getSampledCount());
+        assertEquals(log.getExecutedCount(), log.getSlowCount());
+    }
+
+    // 后台线程跟不上时丢弃日志，执行SQL的线程不等待
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        Map<String, String> properties = EmbeddedDatabase.properties("sqllog-full");
+        properties.put(SqlLog.SAMPLE_RATE, "1");
+        properties.put(SqlLog.BUFFER_SIZE, "4");
+        SqlLog log = open(properties);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CollectingSink sink = new CollectingSink();
+        log.setSink(new SqlLogSink() {
+            @Override
+            public void write(SqlLogEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sink.write(event);
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+
+        long sampled = log.getSampledCount();
+        long dropped = log.getDroppedCount();
+        Integer id = persist(1);
+        for (int i = 0; i < 20; i++) {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            entityManager.createQuery("SELECT c FROM Customer c WHERE c.id = :id").setParameter("id", id).getResultList();
+            entityManager.close();
+        }
+        assertTrue(log.getDroppedCount() > dropped);
+        release.countDown();
+        assertTrue(log.awaitDrained(5, TimeUnit.SECONDS));
+        System.out.println(log);
+        assertEquals((log.getSampledCount() - sampled) - (log.getDroppedCount() - dropped), sink.events.size());
+    }
+
+    // 队列为空时后台线程一直等待(没有超时)，放入日志时被唤醒
+    @Test
+    public void testIdleDrainerBlocks() throws InterruptedException {
+        Map<String, String> properties = EmbeddedDatabase.properties("sqllog-idle");
+        properties.put(SqlLog.SAMPLE_RATE, "1");
+        SqlLog log = open(properties);
+        CollectingSink sink = new CollectingSink();
+        log.setSink(sink);
+
+        Thread drainer = null;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("sql-log")) {
+                drainer = thread;
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (drainer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, drainer.getState());
+
+        persist(1);
+        assertTrue(log.awaitDrained(5, TimeUnit.SECONDS));
+        assertTrue(sink.find("insert into JPA_CUSTOMERS") != null);
+    }
+
+    // 比较第一个完整的关键字
+    @Test
+    public void testKind() {
+        assertEquals(SqlLog.Kind.SELECT, SqlLog.Kind.of("select c.ID from JPA_CUSTOMERS c"));
+        assertEquals(SqlLog.Kind.SELECT, SqlLog.Kind.of(" (SELECT 1) UNION (SELECT 2)"));
+        assertEquals(SqlLog.Kind.SELECT, SqlLog.Kind.of("/* load Customer */ select c.ID from JPA_CUSTOMERS c"));
+        assertEquals(SqlLog.Kind.SELECT, SqlLog.Kind.of("WITH t AS (SELECT 1) SELECT * FROM t"));
+        assertEquals(SqlLog.Kind.INSERT, SqlLog.Kind.of("insert into JPA_CUSTOMERS values (?)"));
+        assertEquals(SqlLog.Kind.UPDATE, SqlLog.Kind.of("UPDATE JPA_CUSTOMERS SET AGE = ?"));
+        assertEquals(SqlLog.Kind.DELETE, SqlLog.Kind.of("delete from JPA_CUSTOMERS"));
+        assertEquals(SqlLog.Kind.OTHER, SqlLog.Kind.of("SET autocommit = 0"));
+        assertEquals(SqlLog.Kind.OTHER, SqlLog.Kind.of("SHOW TABLES"));
+        assertEquals(SqlLog.Kind.OTHER, SqlLog.Kind.of("selected_rows()"));
+        assertEquals(SqlLog.Kind.OTHER, SqlLog.Kind.of("/* unterminated"));
+        assertEquals(SqlLog.Kind.OTHER, SqlLog.Kind.of(""));
+    }
+
+    // 等待启动时的日志输出完，之后再替换sink
+    private SqlLog open(Map<String, String> properties) throws InterruptedException {
+        entityManagerFactory = Persistence.createEntityManagerFactory("jpa-1",
+                EmbeddedDatabase.disableSecondLevelCache(properties));
+        SqlLog log = HikariConnectionProvider.of(entityManagerFactory).getSqlLog();
+        assertTrue(log.awaitDrained(5, TimeUnit.SECONDS));
+        return log;
+    }
+
+    // 在一个事务中保存count个Customer，返回最后一个的id
+    private Integer persist(int count) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        Customer customer = null;
+        for (int i = 0; i < count; i++) {
+            customer = new Customer("C" + i, 20 + i);
+            customer.setEmail("c" + i + "@163.com");
+            customer.setCreatedTime(new Date());
+            customer.setBirth(new Date());
+            entityManager.persist(customer);
+        }
+        entityManager.getTransaction().commit();
+        entityManager.close();
+        return customer.getId();
+    }
+
+    private static class CollectingSink implements SqlLogSink {
+        private final List<SqlLogEvent> events = new ArrayList<>();
+
+        @Override
+        public synchronized void write(SqlLogEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        private synchronized SqlLogEvent find(String prefix) {
+            for (SqlLogEvent event : events) {
+                if (event.getSql().startsWith(prefix)) {
+                    return event;
+                }
+            }
+            return null;
+        }
+    }
+}